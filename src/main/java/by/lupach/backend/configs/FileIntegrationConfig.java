@@ -1,17 +1,22 @@
 package by.lupach.backend.configs;
 
-import by.lupach.backend.dtos.FileQueueMessageDTO;
+import jakarta.annotation.Resource;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.integration.config.EnableIntegration;
 import org.springframework.integration.dsl.IntegrationFlow;
-import org.springframework.integration.redis.inbound.RedisQueueMessageDrivenEndpoint;
+import org.springframework.integration.redis.inbound.RedisInboundChannelAdapter;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.scheduling.TaskScheduler;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Slf4j
@@ -20,60 +25,63 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class FileIntegrationConfig {
 
-    private final RedisTemplate<String, FileQueueMessageDTO> fileQueueRedisTemplate;
     private final RedisTemplate<String, UUID> cancelQueueRedisTemplate;
 
-    @Bean
-    public MessageChannel fileInputChannel() {
-        return new DirectChannel();
-    }
+    @Resource(name = "taskScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${app.processing.cancel.subscribe-retry-ms:5000}")
+    private long subscribeRetryMs;
 
     @Bean
     public MessageChannel cancelInputChannel() {
         return new DirectChannel();
     }
 
+    /**
+     * Отмена рассылается через pub/sub и приходит на каждый узел: задачу файла может выполнять любой из них.
+     * Подписка запускается после старта приложения, см. {@link #subscribeToCancellations()}
+     */
     @Bean
-    public RedisQueueMessageDrivenEndpoint fileProcessingQueueEndpoint() {
-        RedisQueueMessageDrivenEndpoint endpoint = new RedisQueueMessageDrivenEndpoint(
-                RedisConfig.FILE_PROCESSING_QUEUE,
-                fileQueueRedisTemplate.getConnectionFactory()
-        );
-
-        endpoint.setOutputChannel(fileInputChannel());
-        endpoint.setSerializer(fileQueueRedisTemplate.getValueSerializer());
-        endpoint.setExpectMessage(false);
-
-        return endpoint;
-    }
-
-    @Bean
-    public RedisQueueMessageDrivenEndpoint cancelQueueEndpoint() {
-        RedisQueueMessageDrivenEndpoint endpoint = new RedisQueueMessageDrivenEndpoint(
-                RedisConfig.FILE_CANCEL_QUEUE,
+    public RedisInboundChannelAdapter cancelTopicAdapter() {
+        RedisInboundChannelAdapter adapter = new RedisInboundChannelAdapter(
                 cancelQueueRedisTemplate.getConnectionFactory()
         );
 
-        endpoint.setOutputChannel(cancelInputChannel());
-        endpoint.setSerializer(cancelQueueRedisTemplate.getValueSerializer());
-        endpoint.setExpectMessage(false);
+        adapter.setTopics(RedisConfig.FILE_CANCEL_CHANNEL);
+        adapter.setOutputChannel(cancelInputChannel());
+        adapter.setSerializer(cancelQueueRedisTemplate.getValueSerializer());
+        adapter.setAutoStartup(false);
 
-        return endpoint;
-    }
-
-    @Bean
-    public IntegrationFlow fileProcessingInboundFlow() {
-        return IntegrationFlow
-                .from(fileProcessingQueueEndpoint())
-                .channel("fileProcessingChannel")
-                .get();
+        return adapter;
     }
 
     @Bean
     public IntegrationFlow fileCancelInboundFlow() {
         return IntegrationFlow
-                .from(cancelQueueEndpoint())
+                .from(cancelTopicAdapter())
                 .channel("cancelFileProcessingChannel")
                 .get();
     }
+
+    /**
+     * Недоступный Redis не должен мешать запуску: подписка повторяется в фоне, пока не удастся.
+     * Отмены, разосланные до подписки, узел подхватит по флагу отмены при выдаче задачи и в сердцебиении аренды
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeToCancellations() {
+        scheduler.schedule(this::subscribe, Instant.now());
+    }
+
+    private void subscribe() {
+        RedisInboundChannelAdapter adapter = cancelTopicAdapter();
+        try {
+            adapter.start();
+            log.info("Subscribed to cancellation channel {}", RedisConfig.FILE_CANCEL_CHANNEL);
+        } catch (RuntimeException e) {
+            log.warn("Failed to subscribe to cancellation channel, retrying in {} ms: {}",
+                    subscribeRetryMs, e.getMessage());
+            scheduler.schedule(this::subscribe, Instant.now().plusMillis(subscribeRetryMs));
+        }
+    }
 }
@@ -1,6 +1,5 @@
 package by.lupach.backend.configs;
 
-import by.lupach.backend.dtos.FileQueueMessageDTO;
 import by.lupach.backend.entities.AnalysisResult;
 import by.lupach.backend.services.FileAnalysisService;
 import by.lupach.backend.services.HistoryService;
@@ -25,7 +24,6 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class FileProcessingFlowConfig {
 
-    private static final String FILE_PROCESSING_CHANNEL = "fileProcessingChannel";
     private static final String CANCEL_FILE_PROCESSING_CHANNEL = "cancelFileProcessingChannel";
     private static final String ANALYSIS_SAVE_CHANNEL = "analysisSaveChannel";
     private static final String ERROR_CHANNEL = "errorChannel";
@@ -34,11 +32,6 @@ public class FileProcessingFlowConfig {
     private final FileAnalysisService fileAnalysisService;
     private final HistoryService historyService;
 
-    @Bean
-    public MessageChannel fileProcessingChannel() {
-        return new DirectChannel();
-    }
-
     @Bean
     public MessageChannel cancelFileProcessingChannel() {
         return new DirectChannel();
@@ -54,19 +47,6 @@ public class FileProcessingFlowConfig {
         return new DirectChannel();
     }
 
-    @Bean
-    public IntegrationFlow handleFileProcessing() {
-        return IntegrationFlow.from(FILE_PROCESSING_CHANNEL)
-                .handle(FileQueueMessageDTO.class, (payload, headers) -> {
-                    log.info("Start processing file: {}", payload.filePath());
-                    AnalysisResult result = streamingFileProcessingService.processFile(payload);
-                    log.info("Completed processing: {}", payload.filePath());
-                    return result;
-                })
-                .channel(ANALYSIS_SAVE_CHANNEL)
-                .get();
-    }
-
     @Bean
     public IntegrationFlow handleCancelFileProcessing() {
         return IntegrationFlow.from(CANCEL_FILE_PROCESSING_CHANNEL)
@@ -84,6 +64,7 @@ public class FileProcessingFlowConfig {
                 .handle(AnalysisResult.class, (payload, headers) -> {
                     log.info("Saving analysis result for file: {}", payload.getFile().getId());
                     fileAnalysisService.saveResult(payload);
+                    streamingFileProcessingService.completeProcessing(payload.getFile().getId());
                     historyService.cleanupOldRecords();
                     return null;
                 })
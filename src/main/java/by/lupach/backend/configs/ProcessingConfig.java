@@ -0,0 +1,62 @@
+package by.lupach.backend.configs;
+
+import by.lupach.backend.services.fileprocessing.ScannerType;
+import by.lupach.backend.services.fileprocessing.csv.StructuralScanner;
+import by.lupach.backend.services.fileprocessing.csv.StructuralScanners;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Slf4j
+@Configuration
+public class ProcessingConfig {
+
+    @Value("${app.processing.parallel.threads:0}")
+    private int parallelThreads;
+
+    @Value("${app.processing.scanner:AUTO}")
+    private ScannerType scannerType;
+
+    @Value("${app.upload.bulk.threads:8}")
+    private int uploadThreads;
+
+    /**
+     * Пул для параллельной обработки кусков одного файла (0 — по числу ядер)
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService chunkProcessingExecutor() {
+        int threads = parallelThreads > 0 ? parallelThreads : Runtime.getRuntime().availableProcessors();
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("chunk-worker-"));
+    }
+
+    /**
+     * Поиск переводов строк и разделителей; VECTOR требует запуска с --add-modules jdk.incubator.vector
+     */
+    @Bean
+    public StructuralScanner structuralScanner() {
+        StructuralScanner scanner = StructuralScanners.create(scannerType);
+        log.info("Structural scanner: {} (configured {})", scanner.name(), scannerType);
+        return scanner;
+    }
+
+    /**
+     * Потоки распаковки .csv.gz: по одному на обрабатываемый сжатый файл
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService decompressionExecutor() {
+        return Executors.newCachedThreadPool(new CustomizableThreadFactory("inflater-"));
+    }
+
+    /**
+     * Параллельная запись файлов пакетной загрузки в хранилище
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService uploadExecutor() {
+        return Executors.newFixedThreadPool(uploadThreads, new CustomizableThreadFactory("upload-writer-"));
+    }
+}
@@ -1,6 +1,7 @@
 package by.lupach.backend.configs;
 
 import by.lupach.backend.dtos.AnalysisResultDTO;
+import by.lupach.backend.dtos.ChunkTaskDTO;
 import by.lupach.backend.dtos.FileQueueMessageDTO;
 import by.lupach.backend.dtos.ProgressMessageDTO;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,7 +13,10 @@ import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactor
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.redis.util.RedisLockRegistry;
+import org.springframework.scheduling.TaskScheduler;
 
 import java.util.UUID;
 
@@ -25,8 +29,27 @@ public class RedisConfig {
     @Value("${spring.data.redis.port}")
     private int redisPort;
 
-    public static final String FILE_PROCESSING_QUEUE = "file:processing:queue";
-    public static final String FILE_CANCEL_QUEUE = "file:cancel:queue";
+    // Очередь обработки: отсортированные множества по оценке «время постановки + штраф за размер»
+    public static final String FILE_PROCESSING_SMALL_QUEUE = "file:processing:queue:small";
+    public static final String FILE_PROCESSING_LARGE_QUEUE = "file:processing:queue:large";
+    // Надёжная очередь: аренды взятых задач, счётчики попыток, отложенные повторы, мёртвые задачи и метрики
+    public static final String FILE_PROCESSING_LEASES = "file:processing:leases";
+    public static final String FILE_PROCESSING_ATTEMPTS = "file:processing:attempts";
+    public static final String FILE_PROCESSING_DELAYED = "file:processing:delayed";
+    public static final String FILE_PROCESSING_DEAD_LETTER = "file:processing:dead";
+    public static final String FILE_PROCESSING_METRICS = "file:processing:metrics";
+    // Отмена: канал рассылки всем узлам, флаг отмены файла (время запроса) и метрики задержки остановки
+    public static final String FILE_CANCEL_CHANNEL = "file:cancel";
+    public static final String CANCEL_FLAG_PREFIX = "file:cancel:flag:";
+    public static final String CANCEL_LATENCIES = "file:cancel:latencies";
+    public static final String CANCEL_METRICS = "file:cancel:metrics";
+    // Распределённый режим: очередь кусков, аренды взятых кусков, состояние задачи файла и готовые куски
+    public static final String CHUNK_QUEUE = "file:chunks:queue";
+    public static final String CHUNK_LEASES = "file:chunks:leases";
+    public static final String CHUNK_JOB_PREFIX = "file:chunks:job:";
+    public static final String CHUNK_DONE_PREFIX = "file:chunks:done:";
+    // Распределённые блокировки хранилища файлов
+    public static final String FILE_LOCKS = "file:locks";
     public static final String STATUS_PREFIX = "file:status:";
     public static final String PROGRESS_PREFIX = "file:progress:";
     public static final String ANALYSIS_PREFIX = "file:analysis:";
@@ -62,6 +85,24 @@ public class RedisConfig {
         return template;
     }
 
+    @Bean
+    public RedisTemplate<String, ChunkTaskDTO> chunkTaskRedisTemplate(RedisConnectionFactory factory) {
+        RedisTemplate<String, ChunkTaskDTO> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+
+        ObjectMapper objectMapper = createObjectMapper();
+        Jackson2JsonRedisSerializer<ChunkTaskDTO> serializer =
+                new Jackson2JsonRedisSerializer<>(objectMapper, ChunkTaskDTO.class);
+
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(serializer);
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(serializer);
+        template.afterPropertiesSet();
+
+        return template;
+    }
+
     @Bean
     public RedisTemplate<String, AnalysisResultDTO> fileAnalysisRedisTemplate(RedisConnectionFactory factory) {
         RedisTemplate<String, AnalysisResultDTO> template = new RedisTemplate<>();
@@ -116,4 +157,17 @@ public class RedisConfig {
 
         return template;
     }
-}
\ No newline at end of file
+
+    /**
+     * Блокировка умершего узла снимается по истечении expire-ms; живой узел продлевает свои блокировки,
+     * так что длинное дописывание не теряет блокировку на середине
+     */
+    @Bean
+    public RedisLockRegistry fileLockRegistry(RedisConnectionFactory factory,
+                                              @Qualifier("taskScheduler") TaskScheduler taskScheduler,
+                                              @Value("${app.storage.lock-expire-ms:60000}") long expireMs) {
+        RedisLockRegistry registry = new RedisLockRegistry(factory, FILE_LOCKS, expireMs);
+        registry.setRenewalTaskScheduler(taskScheduler);
+        return registry;
+    }
+}
@@ -0,0 +1,57 @@
+package by.lupach.backend.controllers;
+
+import by.lupach.backend.dtos.CreateUploadRequestDTO;
+import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.dtos.UploadStatusDTO;
+import by.lupach.backend.services.files.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.UUID;
+
+/**
+ * Загрузка больших файлов по частям: создание, части (в любом порядке и параллельно), состояние для
+ * продолжения после обрыва, завершение с постановкой в очередь и отмена
+ */
+@RestController
+@RequestMapping("/api/uploads")
+@RequiredArgsConstructor
+public class ChunkedUploadController {
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<UploadStatusDTO> create(@RequestBody CreateUploadRequestDTO request) throws Exception {
+        return ResponseEntity.ok(chunkedUploadService.create(request));
+    }
+
+    /**
+     * Тело запроса — байты части как есть, без multipart: они пишутся сразу на своё место в файле
+     */
+    @PutMapping("/{uploadId}/parts/{partNumber}")
+    public ResponseEntity<Void> uploadPart(
+            @PathVariable UUID uploadId,
+            @PathVariable int partNumber,
+            HttpServletRequest request) throws Exception {
+        chunkedUploadService.writePart(uploadId, partNumber, request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadStatusDTO> status(@PathVariable UUID uploadId) throws Exception {
+        return ResponseEntity.ok(chunkedUploadService.status(uploadId));
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<FileUploadResponseDTO> complete(@PathVariable UUID uploadId) throws Exception {
+        return ResponseEntity.ok(chunkedUploadService.complete(uploadId));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abort(@PathVariable UUID uploadId) throws Exception {
+        chunkedUploadService.abort(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,18 +1,28 @@
 package by.lupach.backend.controllers;
 
 import by.lupach.backend.dtos.AnalysisResultDTO;
+import by.lupach.backend.dtos.CancelMetricsDTO;
 import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.dtos.GroupStatisticsDTO;
 import by.lupach.backend.dtos.PageResponseDTO;
+import by.lupach.backend.dtos.QuantileDTO;
+import by.lupach.backend.dtos.QueueMetricsDTO;
 import by.lupach.backend.services.FileAnalysisService;
 import by.lupach.backend.services.HistoryService;
 import by.lupach.backend.services.fileprocessing.StreamingFileProcessingService;
+import by.lupach.backend.services.files.FileAppendService;
 import by.lupach.backend.services.files.FileCancelProcessingPublisher;
 import by.lupach.backend.services.files.FileService;
+import by.lupach.backend.services.files.StreamingUploadService;
+import by.lupach.backend.services.redis.CancellationRedisService;
+import by.lupach.backend.services.redis.ProcessingQueueRedisService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -22,16 +32,69 @@ import java.util.UUID;
 public class FileController {
 
     private final FileService fileService;
+    private final FileAppendService fileAppendService;
+    private final StreamingUploadService streamingUploadService;
     private final FileCancelProcessingPublisher fileCancelProcessingPublisher;
     private final HistoryService historyService;
     private final FileAnalysisService fileAnalysisService;
+    private final ProcessingQueueRedisService processingQueue;
+    private final CancellationRedisService cancellation;
 
     @PostMapping("/analyze")
-    public ResponseEntity<FileUploadResponseDTO> analyze(@RequestParam("file") MultipartFile file) throws Exception {
-        FileUploadResponseDTO fileId = fileService.uploadAndQueue(file);
+    public ResponseEntity<FileUploadResponseDTO> analyze(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(name = "columns", required = false) List<String> columns,
+            @RequestParam(name = "groupBy", required = false) Integer groupBy,
+            @RequestParam(name = "approximate", defaultValue = "false") boolean approximate) throws Exception {
+        FileUploadResponseDTO fileId = fileService.uploadAndQueue(file, columns, groupBy, approximate);
         return ResponseEntity.ok(fileId);
     }
 
+    /**
+     * Пакетная загрузка: все файлы с одними параметрами анализа, id возвращаются сразу для всех
+     */
+    @PostMapping("/analyze/bulk")
+    public ResponseEntity<List<FileUploadResponseDTO>> analyzeBulk(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(name = "columns", required = false) List<String> columns,
+            @RequestParam(name = "groupBy", required = false) Integer groupBy,
+            @RequestParam(name = "approximate", defaultValue = "false") boolean approximate) throws Exception {
+        return ResponseEntity.ok(fileService.uploadAllAndQueue(files, columns, groupBy, approximate));
+    }
+
+    /**
+     * Дописывает кусок CSV к проанализированному файлу; разбираются только новые записи
+     */
+    @PostMapping("/analyze/{fileId}/append")
+    public ResponseEntity<AnalysisResultDTO> append(
+            @PathVariable UUID fileId,
+            @RequestParam("file") MultipartFile chunk) throws Exception {
+        return ResponseEntity.ok(fileAppendService.append(fileId, chunk));
+    }
+
+    /**
+     * Регистрирует файл для анализа во время загрузки; по полученному id можно подписаться на прогресс
+     */
+    @PostMapping("/analyze/stream")
+    public ResponseEntity<FileUploadResponseDTO> createStream(
+            @RequestParam("fileName") String fileName,
+            @RequestParam(name = "fileSize", required = false) Long fileSize,
+            @RequestParam(name = "columns", required = false) List<String> columns,
+            @RequestParam(name = "groupBy", required = false) Integer groupBy) {
+        return ResponseEntity.ok(streamingUploadService.create(fileName, fileSize, columns, groupBy));
+    }
+
+    /**
+     * Тело запроса — содержимое файла без multipart: оно сохраняется и разбирается в одном проходе,
+     * ответ приходит, когда анализ уже завершён
+     */
+    @PutMapping("/analyze/stream/{fileId}")
+    public ResponseEntity<FileUploadResponseDTO> uploadStream(
+            @PathVariable UUID fileId,
+            HttpServletRequest request) throws Exception {
+        return ResponseEntity.ok(streamingUploadService.upload(fileId, request.getInputStream(),
+                request.getContentLengthLong()));
+    }
 
     @PostMapping("/cancel/{fileId}")
     public ResponseEntity<Void> cancel(@PathVariable UUID fileId) {
@@ -39,6 +102,22 @@ public class FileController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Очередь обработки: ожидающие, выполняемые и мёртвые задачи, счётчики повторных доставок
+     */
+    @GetMapping("/queue/metrics")
+    public QueueMetricsDTO queueMetrics() {
+        return processingQueue.metrics();
+    }
+
+    /**
+     * Отмены: остановленные и отброшенные из очереди задачи, задержка от запроса до остановки
+     */
+    @GetMapping("/cancel/metrics")
+    public CancelMetricsDTO cancelMetrics() {
+        return cancellation.metrics();
+    }
+
     @GetMapping("/history")
     public PageResponseDTO<AnalysisResultDTO> getHistory(
             @RequestParam(defaultValue = "0") int page,
@@ -51,6 +130,21 @@ public class FileController {
         return ResponseEntity.ok(fileAnalysisService.getAnalysisDetailsByFileId(id));
     }
 
+    @GetMapping("/history/{id}/quantiles")
+    public ResponseEntity<List<QuantileDTO>> getQuantiles(
+            @PathVariable UUID id,
+            @RequestParam(name = "q", defaultValue = "0.25,0.5,0.75") List<Double> quantiles) {
+        return ResponseEntity.ok(fileAnalysisService.getQuantiles(id, quantiles));
+    }
+
+    @GetMapping("/history/{id}/groups")
+    public PageResponseDTO<GroupStatisticsDTO> getGroups(
+            @PathVariable UUID id,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return fileAnalysisService.getGroups(id, page, size);
+    }
+
     @DeleteMapping("/history/{id}")
     public ResponseEntity<Void> deleteAnalysis(@PathVariable UUID id) {
         fileService.deleteAnalysisByFileId(id);
@@ -53,7 +53,8 @@ public class ProgressWebSocketController {
                     ProcessingStatus.CANCELLED,
                     0,
                     "Processing cancelled by user",
-                    LocalDateTime.now()
+                    LocalDateTime.now(),
+                    null
             );
 
             ws.convertAndSend("/topic/progress/" + fileId, dto);
@@ -92,7 +93,8 @@ public class ProgressWebSocketController {
                     progressValue,
                     "Subscription successful. Current progress: " +
                             (progressValue != null ? progressValue + "%" : "unknown"),
-                    LocalDateTime.now()
+                    LocalDateTime.now(),
+                    null
             );
         });
     }
@@ -0,0 +1,37 @@
+package by.lupach.backend.converters;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class AnalysisOptionsConverter implements AttributeConverter<AnalysisOptions, String> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public String convertToDatabaseColumn(AnalysisOptions options) {
+        if (options == null) {
+            return null;
+        }
+        try {
+            return MAPPER.writeValueAsString(options);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize analysis options", e);
+        }
+    }
+
+    @Override
+    public AnalysisOptions convertToEntityAttribute(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(json, AnalysisOptions.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to deserialize analysis options", e);
+        }
+    }
+}
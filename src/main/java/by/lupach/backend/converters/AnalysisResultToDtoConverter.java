@@ -2,13 +2,22 @@ package by.lupach.backend.converters;
 
 import by.lupach.backend.dtos.AnalysisResultDTO;
 import by.lupach.backend.dtos.AnalysisStatisticsDTO;
+import by.lupach.backend.dtos.GroupStatisticsDTO;
+import by.lupach.backend.dtos.HistogramBinDTO;
+import by.lupach.backend.dtos.HistogramDTO;
 import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.AnalysisStatistics;
 import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.GroupStatistics;
+import by.lupach.backend.services.fileprocessing.stats.EquiWidthHistogram;
+import by.lupach.backend.services.fileprocessing.stats.LogHistogram;
+import by.lupach.backend.services.fileprocessing.stats.ValueHistogram;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
@@ -17,7 +26,9 @@ public class AnalysisResultToDtoConverter implements Converter<AnalysisResult, A
     @Override
     public AnalysisResultDTO convert(AnalysisResult result) {
         FileEntity file = result.getFile();
-        AnalysisStatisticsDTO statsDTO = convertStatistics(result);
+        AnalysisStatisticsDTO statsDTO = result.getStatistics() != null ? convertStatistics(result.getStatistics()) : null;
+        List<AnalysisStatisticsDTO> columnStatsDTO = result.getColumnStatistics() == null ? List.of() :
+                result.getColumnStatistics().stream().map(this::convertStatistics).toList();
 
         Long processingTimeMs = calculateProcessingTime(result);
         RateCalculationResult rates = calculateRates(result);
@@ -31,20 +42,24 @@ public class AnalysisResultToDtoConverter implements Converter<AnalysisResult, A
                 result.getProcessStartTime(),
                 result.getProcessEndTime(),
                 file.getStatus(),
+                result.isApproximate(),
+                result.getSampledFraction(),
+                file.getSchema(),
                 statsDTO,
+                columnStatsDTO,
+                result.getGroupCount(),
+                result.getTopGroups() == null ? List.of() :
+                        result.getTopGroups().stream().map(AnalysisResultToDtoConverter::convertGroup).toList(),
                 processingTimeMs,
                 rates.successRate(),
                 rates.errorRate()
         );
     }
 
-    private AnalysisStatisticsDTO convertStatistics(AnalysisResult result) {
-        if (result.getStatistics() == null) {
-            return null;
-        }
-
-        var stats = result.getStatistics();
+    private AnalysisStatisticsDTO convertStatistics(AnalysisStatistics stats) {
         return new AnalysisStatisticsDTO(
+                stats.getColumnIndex(),
+                stats.getColumnName(),
                 stats.getTotalRecords(),
                 stats.getProcessedRecords(),
                 stats.getSkippedRecords(),
@@ -52,10 +67,36 @@ public class AnalysisResultToDtoConverter implements Converter<AnalysisResult, A
                 stats.getMaxValue(),
                 stats.getMeanValue(),
                 stats.getStdDeviation(),
-                stats.getUniqueValuesCount()
+                stats.getUniqueValuesCount(),
+                stats.getUniqueCountMode(),
+                stats.getMedian(),
+                stats.getP90(),
+                stats.getP95(),
+                stats.getP99(),
+                stats.getHistogram() != null ? toHistogramDto(EquiWidthHistogram.fromBytes(stats.getHistogram())) : null,
+                stats.getLogHistogram() != null ? toHistogramDto(LogHistogram.fromBytes(stats.getLogHistogram())) : null,
+                stats.getConfidenceIntervals()
         );
     }
 
+    public static GroupStatisticsDTO convertGroup(GroupStatistics group) {
+        return new GroupStatisticsDTO(
+                group.getGroupKey(),
+                group.getRecordCount(),
+                group.getMinValue(),
+                group.getMaxValue(),
+                group.getMeanValue(),
+                group.getStdDeviation()
+        );
+    }
+
+    private HistogramDTO toHistogramDto(ValueHistogram histogram) {
+        List<HistogramBinDTO> bins = histogram.bins().stream()
+                .map(bin -> new HistogramBinDTO(bin.lowerBound(), bin.upperBound(), bin.count()))
+                .toList();
+        return new HistogramDTO(bins, histogram.nonFiniteCount());
+    }
+
     private Long calculateProcessingTime(AnalysisResult result) {
         if (result.getProcessStartTime() != null && result.getProcessEndTime() != null) {
             return Duration.between(result.getProcessStartTime(), result.getProcessEndTime()).toMillis();
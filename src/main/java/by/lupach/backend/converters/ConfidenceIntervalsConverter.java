@@ -0,0 +1,37 @@
+package by.lupach.backend.converters;
+
+import by.lupach.backend.entities.ConfidenceIntervals;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class ConfidenceIntervalsConverter implements AttributeConverter<ConfidenceIntervals, String> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public String convertToDatabaseColumn(ConfidenceIntervals intervals) {
+        if (intervals == null) {
+            return null;
+        }
+        try {
+            return MAPPER.writeValueAsString(intervals);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize confidence intervals", e);
+        }
+    }
+
+    @Override
+    public ConfidenceIntervals convertToEntityAttribute(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(json, ConfidenceIntervals.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to deserialize confidence intervals", e);
+        }
+    }
+}
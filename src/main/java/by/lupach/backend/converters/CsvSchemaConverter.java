@@ -0,0 +1,37 @@
+package by.lupach.backend.converters;
+
+import by.lupach.backend.entities.CsvSchema;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class CsvSchemaConverter implements AttributeConverter<CsvSchema, String> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public String convertToDatabaseColumn(CsvSchema schema) {
+        if (schema == null) {
+            return null;
+        }
+        try {
+            return MAPPER.writeValueAsString(schema);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize CSV schema", e);
+        }
+    }
+
+    @Override
+    public CsvSchema convertToEntityAttribute(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(json, CsvSchema.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to deserialize CSV schema", e);
+        }
+    }
+}
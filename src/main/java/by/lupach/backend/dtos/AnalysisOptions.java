@@ -0,0 +1,31 @@
+package by.lupach.backend.dtos;
+
+import java.util.List;
+
+/**
+ * Параметры анализа файла из запроса на загрузку.
+ * Без колонок — прежний режим: значение после первой запятой.
+ * groupByColumn — индекс колонки-ключа для статистики по группам, null — без группировки.
+ * approximate — сначала быстрая оценка по выборке блоков, затем точный проход в очереди.
+ */
+public record AnalysisOptions(
+        List<Integer> columns,
+        boolean allColumns,
+        Integer groupByColumn,
+        boolean approximate
+) {
+    public static AnalysisOptions singleColumn() {
+        return new AnalysisOptions(List.of(), false, null, false);
+    }
+
+    /**
+     * Те же параметры для точного прохода после приближённой оценки
+     */
+    public AnalysisOptions exact() {
+        return new AnalysisOptions(columns, allColumns, groupByColumn, false);
+    }
+
+    public boolean multiColumn() {
+        return allColumns || !columns.isEmpty();
+    }
+}
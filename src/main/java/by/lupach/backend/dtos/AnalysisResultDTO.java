@@ -1,8 +1,10 @@
 package by.lupach.backend.dtos;
 
+import by.lupach.backend.entities.CsvSchema;
 import by.lupach.backend.entities.ProcessingStatus;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 public record AnalysisResultDTO(
@@ -14,7 +16,13 @@ public record AnalysisResultDTO(
         LocalDateTime processStartTime,
         LocalDateTime processEndTime,
         ProcessingStatus status,
+        boolean approximate,
+        Double sampledFraction,
+        CsvSchema schema,
         AnalysisStatisticsDTO statistics,
+        List<AnalysisStatisticsDTO> columnStatistics,
+        Long groupCount,
+        List<GroupStatisticsDTO> topGroups,
         Long processingTimeMs,
         Double successRate,
         Double errorRate
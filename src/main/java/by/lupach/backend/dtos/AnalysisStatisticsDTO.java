@@ -1,6 +1,11 @@
 package by.lupach.backend.dtos;
 
+import by.lupach.backend.entities.ConfidenceIntervals;
+import by.lupach.backend.entities.UniqueCountMode;
+
 public record AnalysisStatisticsDTO(
+        Integer columnIndex,
+        String columnName,
         Long totalRecords,
         Long processedRecords,
         Long skippedRecords,
@@ -8,5 +13,13 @@ public record AnalysisStatisticsDTO(
         Double maxValue,
         Double meanValue,
         Double stdDeviation,
-        Long uniqueValuesCount
+        Long uniqueValuesCount,
+        UniqueCountMode uniqueCountMode,
+        Double median,
+        Double p90,
+        Double p95,
+        Double p99,
+        HistogramDTO histogram,
+        HistogramDTO logHistogram,
+        ConfidenceIntervals confidenceIntervals
 ) {}
\ No newline at end of file
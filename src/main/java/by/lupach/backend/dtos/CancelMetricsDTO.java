@@ -0,0 +1,14 @@
+package by.lupach.backend.dtos;
+
+/**
+ * Отмены по всем узлам: остановленные выполнявшиеся задачи, отброшенные из очереди
+ * и задержка от запроса до остановки (мс) по последним замерам
+ */
+public record CancelMetricsDTO(
+        long stoppedTotal,
+        long droppedQueuedTotal,
+        int latencySamples,
+        long latencyP50Ms,
+        long latencyP99Ms,
+        long latencyMaxMs
+) {}
@@ -0,0 +1,19 @@
+package by.lupach.backend.dtos;
+
+import by.lupach.backend.entities.CsvSchema;
+
+import java.util.UUID;
+
+/**
+ * Задача распределённого режима: диапазон байт [start, end) файла, выровненный по записям.
+ * Самодостаточна — обработчик на любом узле разбирает кусок без обращения к БД.
+ */
+public record ChunkTaskDTO(
+        UUID fileId,
+        String filePath,
+        int index,
+        long start,
+        long end,
+        AnalysisOptions options,
+        CsvSchema schema
+) {}
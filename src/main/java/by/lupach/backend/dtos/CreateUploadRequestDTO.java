@@ -0,0 +1,14 @@
+package by.lupach.backend.dtos;
+
+import java.util.List;
+
+/**
+ * Начало загрузки по частям: имя и полный размер файла и те же параметры анализа, что у /analyze
+ */
+public record CreateUploadRequestDTO(
+        String fileName,
+        Long fileSize,
+        List<String> columns,
+        Integer groupBy,
+        boolean approximate
+) {}
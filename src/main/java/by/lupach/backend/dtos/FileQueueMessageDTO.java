@@ -6,5 +6,6 @@ public record FileQueueMessageDTO(
         UUID fileId,
         String filePath,
         String fileName,
-        Long fileSize
+        Long fileSize,
+        AnalysisOptions options
 ) {}
@@ -1,8 +1,12 @@
 package by.lupach.backend.dtos;
 
+import by.lupach.backend.entities.ProcessingStatus;
+
 import java.util.UUID;
 
 public record FileUploadResponseDTO (
     UUID fileId,
-    String fileName
+    String fileName,
+    // COMPLETED — загружен уже проанализированный файл, результат доступен сразу
+    ProcessingStatus status
 ){}
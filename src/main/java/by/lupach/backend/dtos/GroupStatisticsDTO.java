@@ -0,0 +1,10 @@
+package by.lupach.backend.dtos;
+
+public record GroupStatisticsDTO(
+        String key,
+        Long count,
+        Double minValue,
+        Double maxValue,
+        Double meanValue,
+        Double stdDeviation
+) {}
@@ -0,0 +1,7 @@
+package by.lupach.backend.dtos;
+
+public record HistogramBinDTO(
+        Double lowerBound,
+        Double upperBound,
+        Long count
+) {}
@@ -0,0 +1,8 @@
+package by.lupach.backend.dtos;
+
+import java.util.List;
+
+public record HistogramDTO(
+        List<HistogramBinDTO> bins,
+        Long nonFiniteCount
+) {}
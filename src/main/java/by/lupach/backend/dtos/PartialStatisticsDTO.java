@@ -0,0 +1,13 @@
+package by.lupach.backend.dtos;
+
+public record PartialStatisticsDTO(
+        Integer columnIndex,
+        String columnName,
+        Long totalRecords,
+        Long processedRecords,
+        Double minValue,
+        Double maxValue,
+        Double meanValue,
+        Double stdDeviation,
+        Long uniqueValuesCount
+) {}
@@ -3,6 +3,7 @@ package by.lupach.backend.dtos;
 import by.lupach.backend.entities.ProcessingStatus;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 public record ProgressMessageDTO(
@@ -10,5 +11,6 @@ public record ProgressMessageDTO(
         ProcessingStatus status,
         Integer progress,
         String message,
-        LocalDateTime timestamp
-) {}
\ No newline at end of file
+        LocalDateTime timestamp,
+        List<PartialStatisticsDTO> partialStatistics
+) {}
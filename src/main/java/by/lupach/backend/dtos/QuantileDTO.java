@@ -0,0 +1,6 @@
+package by.lupach.backend.dtos;
+
+public record QuantileDTO(
+        Double quantile,
+        Double value
+) {}
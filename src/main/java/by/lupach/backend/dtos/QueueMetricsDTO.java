@@ -0,0 +1,17 @@
+package by.lupach.backend.dtos;
+
+/**
+ * Состояние очереди обработки по всем узлам: ожидающие задачи, отложенные повторы, выполняемые (в аренде),
+ * мёртвые и накопленные счётчики возвратов после истечения аренды, неудачных попыток и их повторов
+ */
+public record QueueMetricsDTO(
+        long queuedSmall,
+        long queuedLarge,
+        long retryWaiting,
+        long inFlight,
+        long deadLetter,
+        long redeliveredTotal,
+        long failedTotal,
+        long retriedTotal,
+        long deadLetteredTotal
+) {}
@@ -0,0 +1,19 @@
+package by.lupach.backend.dtos;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Состояние загрузки по частям. receivedOffset — длина непрерывно полученного начала файла:
+ * последовательный клиент продолжает с него; missingParts — номера частей, которые ещё нужно прислать.
+ */
+public record UploadStatusDTO(
+        UUID uploadId,
+        String fileName,
+        long fileSize,
+        long partSize,
+        int partCount,
+        long receivedBytes,
+        long receivedOffset,
+        List<Integer> missingParts
+) {}
@@ -3,11 +3,16 @@ package by.lupach.backend.entities;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
+import by.lupach.backend.services.fileprocessing.stats.GroupAggregator;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 @Entity
@@ -16,8 +21,8 @@ import java.util.UUID;
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
-@ToString(exclude = {"file", "statistics"})
-@EqualsAndHashCode(exclude = {"file", "statistics"})
+@ToString(exclude = {"file", "statistics", "columnStatistics", "topGroups", "groups"})
+@EqualsAndHashCode(exclude = {"file", "statistics", "columnStatistics", "topGroups", "groups"})
 public class AnalysisResult {
 
     @Id
@@ -34,6 +39,10 @@ public class AnalysisResult {
     private LocalDateTime processStartTime;
     private LocalDateTime processEndTime;
 
+    // Оценка по выборке блоков; заменяется точным результатом после полного прохода
+    private boolean approximate;
+    private Double sampledFraction;
+
     @OneToOne(
             cascade = CascadeType.ALL,
             orphanRemoval = true
@@ -41,4 +50,28 @@ public class AnalysisResult {
     @JoinColumn(name = "statistics_id")
     @OnDelete(action = OnDeleteAction.CASCADE)
     private AnalysisStatistics statistics;
+
+    // Статистика по каждой колонке в многоколоночном режиме; statistics указывает на первую из них
+    @OneToMany(
+            cascade = CascadeType.ALL,
+            orphanRemoval = true,
+            fetch = FetchType.EAGER
+    )
+    @JoinColumn(name = "column_result_id")
+    @OrderBy("columnIndex")
+    private List<AnalysisStatistics> columnStatistics = new ArrayList<>();
+
+    // Режим группировки: число групп и первые N по числу записей; полная таблица — в group_statistics
+    private Long groupCount;
+
+    @OneToMany(fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SELECT)
+    @JoinColumn(name = "top_result_id")
+    @OrderBy("recordCount DESC")
+    private List<GroupStatistics> topGroups = new ArrayList<>();
+
+    // Агрегатор групп от обработчика до сохранения результата
+    @Transient
+    @JsonIgnore
+    private GroupAggregator groups;
 }
\ No newline at end of file
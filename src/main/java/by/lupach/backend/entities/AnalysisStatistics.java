@@ -1,5 +1,6 @@
 package by.lupach.backend.entities;
 
+import by.lupach.backend.converters.ConfidenceIntervalsConverter;
 import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.annotations.GenericGenerator;
@@ -23,6 +24,10 @@ public class AnalysisStatistics {
     @JoinColumn(name = "analysis_result_id")
     private AnalysisResult analysisResult;
 
+    // Индекс поля в строке; null — прежний режим «значение после первой запятой»
+    private Integer columnIndex;
+    private String columnName;
+
     private Long totalRecords;
     private Long processedRecords;
     private Long skippedRecords;
@@ -33,8 +38,32 @@ public class AnalysisStatistics {
     private Double stdDeviation;
     private Long uniqueValuesCount;
 
+    @Enumerated(EnumType.STRING)
+    private UniqueCountMode uniqueCountMode;
+
+    private Double median;
+    private Double p90;
+    private Double p95;
+    private Double p99;
+
     private Double sumValue;
     private Double sumOfSquares;
 
+    // Сериализованный KLL-скетч: любые другие квантили считаются без перечитывания файла
+    @Column(length = 1 << 20)
+    private byte[] quantileSketch;
+
+    // Равноширокая и логарифмическая гистограммы значений, построенные за тот же проход
+    @Column(length = 1 << 16)
+    private byte[] histogram;
+
+    @Column(length = 1 << 16)
+    private byte[] logHistogram;
+
+    // Приближённый режим: доверительные интервалы оценок по выборке блоков
+    @Convert(converter = ConfidenceIntervalsConverter.class)
+    @Column(length = 4096)
+    private ConfidenceIntervals confidenceIntervals;
+
 
 }
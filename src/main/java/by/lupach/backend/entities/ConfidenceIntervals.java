@@ -0,0 +1,18 @@
+package by.lupach.backend.entities;
+
+/**
+ * Доверительные интервалы оценок по выборке блоков файла (приближённый режим).
+ * Хранятся в {@link AnalysisStatistics} как JSON; у точного результата отсутствуют.
+ */
+public record ConfidenceIntervals(
+        double level,
+        Interval mean,
+        Interval stdDeviation,
+        Interval median,
+        Interval p90,
+        Interval p95,
+        Interval p99
+) {
+    public record Interval(Double lower, Double upper) {
+    }
+}
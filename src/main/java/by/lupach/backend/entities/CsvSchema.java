@@ -0,0 +1,23 @@
+package by.lupach.backend.entities;
+
+import java.util.List;
+
+/**
+ * Схема CSV, выведенная по выборке из файла до полного прохода.
+ * Хранится в {@link FileEntity} как JSON.
+ */
+public record CsvSchema(
+        char delimiter,
+        boolean header,
+        boolean quoted,
+        List<String> columnNames,
+        List<Integer> numericColumns
+) {
+    public static CsvSchema defaults() {
+        return new CsvSchema(',', false, false, List.of(), List.of());
+    }
+
+    public String columnName(int index) {
+        return index < columnNames.size() ? columnNames.get(index) : null;
+    }
+}
@@ -1,5 +1,8 @@
 package by.lupach.backend.entities;
 
+import by.lupach.backend.converters.AnalysisOptionsConverter;
+import by.lupach.backend.converters.CsvSchemaConverter;
+import by.lupach.backend.dtos.AnalysisOptions;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
@@ -11,14 +14,14 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = @Index(name = "idx_files_content_hash", columnList = "content_hash"))
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-@ToString(exclude = "analysisResult")
-@EqualsAndHashCode(exclude = "analysisResult")
+@ToString(exclude = {"analysisResult", "duplicateOf"})
+@EqualsAndHashCode(exclude = {"analysisResult", "duplicateOf"})
 public class FileEntity {
 
     @Id
@@ -31,9 +34,30 @@ public class FileEntity {
     private String filePath;
     private LocalDateTime uploadTime;
 
+    // SHA-256 содержимого: одинаковые загрузки хранятся одним файлом и анализируются один раз;
+    // у файла, к которому дописывали куски, хеша нет
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Параметры точного анализа; вместе с хешем — ключ для повторного использования результата
+    @Convert(converter = AnalysisOptionsConverter.class)
+    @Column(length = 32768)
+    private AnalysisOptions analysisOptions;
+
+    // Копия уже проанализированного файла: своего результата нет, используется результат исходного
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "duplicate_of_id")
+    @JsonIgnore
+    private FileEntity duplicateOf;
+
     @Enumerated(EnumType.STRING)
     private ProcessingStatus status;
 
+    // Схема, выведенная по выборке перед полным проходом
+    @Convert(converter = CsvSchemaConverter.class)
+    @Column(length = 16384)
+    private CsvSchema schema;
+
     @OneToOne(
             mappedBy = "file",
             cascade = CascadeType.ALL,
@@ -45,7 +69,7 @@ public class FileEntity {
 
     @PrePersist
     public void prePersist() {
-        if (id != null && fileName != null) {
+        if (filePath == null && id != null && fileName != null) {
             this.filePath = id + "_" + fileName;
         }
     }
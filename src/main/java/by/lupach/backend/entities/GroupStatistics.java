@@ -0,0 +1,38 @@
+package by.lupach.backend.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.util.UUID;
+
+@Entity
+@Table(name = "group_statistics", indexes = @Index(columnList = "analysis_result_id"))
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString(exclude = "analysisResult")
+public class GroupStatistics {
+    @Id
+    @GeneratedValue(generator = "UUID")
+    @GenericGenerator(name = "UUID", strategy = "org.hibernate.id.UUIDGenerator")
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "analysis_result_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private AnalysisResult analysisResult;
+
+    @Column(length = 1024)
+    private String groupKey;
+
+    private Long recordCount;
+    private Double minValue;
+    private Double maxValue;
+    private Double meanValue;
+    private Double stdDeviation;
+}
@@ -0,0 +1,7 @@
+package by.lupach.backend.entities;
+
+public enum UniqueCountMode {
+    EXACT,         // Точный подсчёт в открытой хеш-таблице
+    EXACT_BOUNDED, // Точный подсчёт в off-heap таблице с вытеснением на диск
+    APPROXIMATE    // Оценка HyperLogLog с фиксированной памятью
+}
@@ -22,4 +22,14 @@ public class GlobalExceptionHandler {
     public ResponseEntity<String> handleAnalysisNotFoundExceptionException(AnalysisNotFoundException ex) {
         return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(ex.getMessage());
     }
+
+    @ExceptionHandler(InvalidAnalysisRequestException.class)
+    public ResponseEntity<String> handleInvalidAnalysisRequestException(InvalidAnalysisRequestException ex) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(UploadNotFoundException.class)
+    public ResponseEntity<String> handleUploadNotFoundException(UploadNotFoundException ex) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+    }
 }
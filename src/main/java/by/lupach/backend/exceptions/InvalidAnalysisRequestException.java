@@ -0,0 +1,7 @@
+package by.lupach.backend.exceptions;
+
+public class InvalidAnalysisRequestException extends RuntimeException {
+    public InvalidAnalysisRequestException(String message) {
+        super(message);
+    }
+}
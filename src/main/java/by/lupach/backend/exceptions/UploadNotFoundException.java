@@ -0,0 +1,7 @@
+package by.lupach.backend.exceptions;
+
+public class UploadNotFoundException extends RuntimeException {
+    public UploadNotFoundException(String message) {
+        super(message);
+    }
+}
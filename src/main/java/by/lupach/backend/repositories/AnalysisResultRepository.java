@@ -3,10 +3,15 @@ package by.lupach.backend.repositories;
 import by.lupach.backend.entities.AnalysisResult;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.entities.FileEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -24,4 +29,17 @@ public interface AnalysisResultRepository extends JpaRepository<AnalysisResult,
     List<AnalysisResult> findOldestResults(Pageable pageable);
 
     Optional<AnalysisResult> findAnalysisResultByFile_Id(UUID id);
+
+    @Query("SELECT ar FROM AnalysisResult ar WHERE ar.file.contentHash = :hash AND ar.file.analysisOptions = :options " +
+            "AND ar.approximate = false ORDER BY ar.processEndTime DESC")
+    List<AnalysisResult> findExactByContent(@Param("hash") String hash, @Param("options") AnalysisOptions options,
+                                            Pageable pageable);
+
+    @Query("SELECT ar FROM AnalysisResult ar JOIN FETCH ar.file f WHERE f.contentHash IN :hashes " +
+            "AND ar.approximate = false ORDER BY ar.processEndTime DESC")
+    List<AnalysisResult> findExactByContentIn(@Param("hashes") Collection<String> hashes);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE AnalysisResult ar SET ar.file = :heir WHERE ar.file.id = :sourceId")
+    void reassignFile(@Param("sourceId") UUID sourceId, @Param("heir") FileEntity heir);
 }
\ No newline at end of file
@@ -2,6 +2,9 @@ package by.lupach.backend.repositories;
 
 import by.lupach.backend.entities.FileEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,4 +14,16 @@ import java.util.UUID;
 public interface FileEntityRepository extends JpaRepository<FileEntity, UUID> {
 
     List<FileEntity> findByStatusOrderByUploadTimeDesc(by.lupach.backend.entities.ProcessingStatus status);
+
+    List<FileEntity> findByDuplicateOf_IdOrderByUploadTimeAsc(UUID id);
+
+    long countByFilePath(String filePath);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.duplicateOf = :heir WHERE f.duplicateOf.id = :sourceId")
+    void redirectDuplicates(@Param("sourceId") UUID sourceId, @Param("heir") FileEntity heir);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.duplicateOf = null WHERE f.id = :id")
+    void clearDuplicateOf(@Param("id") UUID id);
 }
\ No newline at end of file
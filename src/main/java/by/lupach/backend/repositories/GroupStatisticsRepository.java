@@ -0,0 +1,15 @@
+package by.lupach.backend.repositories;
+
+import by.lupach.backend.entities.GroupStatistics;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface GroupStatisticsRepository extends JpaRepository<GroupStatistics, UUID> {
+
+    Page<GroupStatistics> findByAnalysisResult_File_Id(UUID fileId, Pageable pageable);
+}
@@ -1,17 +1,40 @@
 package by.lupach.backend.services;
 
+import by.lupach.backend.converters.AnalysisResultToDtoConverter;
 import by.lupach.backend.dtos.AnalysisResultDTO;
+import by.lupach.backend.dtos.GroupStatisticsDTO;
+import by.lupach.backend.dtos.PageResponseDTO;
+import by.lupach.backend.dtos.QuantileDTO;
 import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.GroupStatistics;
 import by.lupach.backend.exceptions.AnalysisNotFoundException;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
 import by.lupach.backend.repositories.AnalysisResultRepository;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.repositories.GroupStatisticsRepository;
+import by.lupach.backend.services.fileprocessing.stats.GroupAggregator;
+import by.lupach.backend.services.fileprocessing.stats.KllSketch;
 import by.lupach.backend.services.files.FileStorageService;
 import by.lupach.backend.services.redis.AnalysisStatusFacade;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.convert.ConversionService;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.UUID;
 
 @Service
@@ -20,23 +43,170 @@ public class FileAnalysisService {
 
     private final AnalysisStatusFacade analysisStatusFacade;
     private final AnalysisResultRepository analysisResultRepository;
+    private final FileEntityRepository fileEntityRepository;
     private final ConversionService conversionService;
+    private final GroupStatisticsRepository groupStatisticsRepository;
+    private final EntityManager entityManager;
+
+    private static final int GROUP_BATCH_SIZE = 1000;
+    private static final int MAX_GROUP_KEY_LENGTH = 1024;
+
+    @Value("${app.processing.group-by.top-n:10}")
+    private int topGroupsCount;
 
     @Transactional
     public void saveResult(AnalysisResult result) {
-        result.setProcessEndTime(LocalDateTime.now());
-        result = analysisResultRepository.save(result);
-        analysisStatusFacade.analysis().set(result.getFile().getId(), conversionService.convert(result, AnalysisResultDTO.class));
+        GroupAggregator groups = result.getGroups();
+        try {
+            result.setProcessEndTime(LocalDateTime.now());
+            replaceExisting(result);
+            result = analysisResultRepository.save(result);
+            if (groups != null) {
+                saveGroups(result, groups);
+            }
+            cacheAfterCommit(result.getFile().getId(), conversionService.convert(result, AnalysisResultDTO.class));
+        } finally {
+            if (groups != null) {
+                groups.close();
+            }
+        }
+    }
+
+    /**
+     * DTO в Redis заменяется целиком одной записью и только после фиксации транзакции:
+     * читатель видит либо прежний результат, либо новый, но не результат откатившейся транзакции
+     */
+    private void cacheAfterCommit(UUID fileId, AnalysisResultDTO dto) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            analysisStatusFacade.analysis().set(fileId, dto);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                analysisStatusFacade.analysis().set(fileId, dto);
+            }
+        });
+    }
+
+    /**
+     * У файла один результат: точный проход заменяет приближённую оценку, дописывание куска — прежний результат
+     */
+    private void replaceExisting(AnalysisResult result) {
+        analysisResultRepository.findAnalysisResultByFile_Id(result.getFile().getId())
+                .filter(existing -> !existing.getId().equals(result.getId()))
+                .ifPresent(existing -> {
+                    analysisResultRepository.delete(existing);
+                    analysisResultRepository.flush();
+                });
+    }
+
+    /**
+     * Сохраняет таблицу групп пачками; в контексте персистентности остаются только текущие первые N групп
+     */
+    private void saveGroups(AnalysisResult result, GroupAggregator groups) {
+        PriorityQueue<GroupStatistics> top = new PriorityQueue<>(
+                Comparator.comparingLong(GroupStatistics::getRecordCount));
+        List<GroupStatistics> batch = new ArrayList<>(GROUP_BATCH_SIZE);
+        long[] groupCount = {0};
+
+        AnalysisResult owner = result;
+        groups.forEachGroup((key, offset, length, count, min, max, mean, m2) -> {
+            String groupKey = new String(key, offset, length, StandardCharsets.UTF_8);
+            batch.add(GroupStatistics.builder()
+                    .analysisResult(owner)
+                    .groupKey(groupKey.length() > MAX_GROUP_KEY_LENGTH ? groupKey.substring(0, MAX_GROUP_KEY_LENGTH) : groupKey)
+                    .recordCount(count)
+                    .minValue(min)
+                    .maxValue(max)
+                    .meanValue(mean)
+                    .stdDeviation(Math.sqrt(m2 / count))
+                    .build());
+            groupCount[0]++;
+            if (batch.size() == GROUP_BATCH_SIZE) {
+                flushGroups(batch, top);
+            }
+        });
+        flushGroups(batch, top);
+
+        List<GroupStatistics> topGroups = new ArrayList<>(top);
+        topGroups.sort(Comparator.comparingLong(GroupStatistics::getRecordCount).reversed());
+        result.setGroupCount(groupCount[0]);
+        result.setTopGroups(topGroups);
+    }
+
+    private void flushGroups(List<GroupStatistics> batch, PriorityQueue<GroupStatistics> top) {
+        groupStatisticsRepository.saveAll(batch);
+        entityManager.flush();
+        for (GroupStatistics group : batch) {
+            top.add(group);
+            if (top.size() > topGroupsCount) {
+                entityManager.detach(top.poll());
+            }
+        }
+        batch.clear();
+    }
+
+    public PageResponseDTO<GroupStatisticsDTO> getGroups(UUID fileId, int page, int size) {
+        Page<GroupStatisticsDTO> groups = groupStatisticsRepository
+                .findByAnalysisResult_File_Id(analysisFileId(fileId), PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "recordCount")))
+                .map(AnalysisResultToDtoConverter::convertGroup);
+
+        return new PageResponseDTO<>(
+                groups.getContent(),
+                groups.getNumber(),
+                groups.getSize(),
+                groups.getTotalElements(),
+                groups.getTotalPages(),
+                groups.isLast()
+        );
+    }
+
+    /**
+     * Произвольные квантили из сохранённого KLL-скетча, без перечитывания файла
+     */
+    public List<QuantileDTO> getQuantiles(UUID fileId, List<Double> quantiles) {
+        quantiles.stream()
+                .filter(q -> q == null || q < 0 || q > 1)
+                .findAny()
+                .ifPresent(q -> {
+                    throw new InvalidAnalysisRequestException("Quantile must be in [0, 1]: " + q);
+                });
+
+        AnalysisResult result = analysisResultRepository.findAnalysisResultByFile_Id(analysisFileId(fileId))
+                .orElseThrow(() -> new AnalysisNotFoundException("Analysis result not found: " + fileId));
+        AnalysisStatistics stats = result.getStatistics();
+        if (stats == null || stats.getQuantileSketch() == null) {
+            throw new AnalysisNotFoundException("Quantile sketch not found: " + fileId);
+        }
+
+        KllSketch sketch = KllSketch.fromBytes(stats.getQuantileSketch());
+        Double[] values = sketch.quantiles(quantiles.stream().mapToDouble(Double::doubleValue).toArray());
+
+        List<QuantileDTO> response = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            response.add(new QuantileDTO(quantiles.get(i), values[i]));
+        }
+        return response;
     }
 
     public AnalysisResultDTO getAnalysisDetailsByFileId(UUID fileId) {
         return analysisStatusFacade.analysis().get(fileId)
                 .orElseGet(
                         () -> conversionService.convert(
-                            analysisResultRepository.findAnalysisResultByFile_Id(fileId)
+                            analysisResultRepository.findAnalysisResultByFile_Id(analysisFileId(fileId))
                                     .orElseThrow(() -> new AnalysisNotFoundException("Analysis result not found: " + fileId)),
                             AnalysisResultDTO.class
                         )
                 );
     }
+
+    /**
+     * Файл, которому принадлежит результат: для копии уже проанализированного файла — исходный
+     */
+    private UUID analysisFileId(UUID fileId) {
+        return fileEntityRepository.findById(fileId)
+                .map(file -> file.getDuplicateOf() != null ? file.getDuplicateOf().getId() : fileId)
+                .orElse(fileId);
+    }
 }
@@ -0,0 +1,15 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.services.fileprocessing.stats.GroupAggregator;
+
+import java.util.List;
+
+/**
+ * Итог прохода по файлу: статистика по колонкам и, в режиме группировки, агрегатор групп
+ * (закрывает тот, кто сохраняет группы)
+ */
+public record AnalysisOutput(
+        List<AnalysisStatistics> statistics,
+        GroupAggregator groups
+) {}
@@ -0,0 +1,127 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Итоговое состояние аккумулятора проанализированного файла на локальном диске — в том же формате,
+ * что и контрольные точки. По нему статистика дописанного куска сливается с прежней точно:
+ * вместе с моментами хранятся счётчик различных значений, KLL-скетч, гистограммы и группы.
+ */
+@Slf4j
+@Component
+public class AnalysisStateStore {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int IO_BUFFER = 1 << 16;
+
+    @Value("${app.processing.state.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.processing.state.dir:${app.upload.dir:uploads}/state}")
+    private String stateDir;
+
+    public void save(UUID fileId, ColumnSetAccumulator acc) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path file = file(fileId);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        write(fileId, acc, tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Пишет состояние рядом с действующим, не заменяя его: заменит {@link #publish}, отбросит {@link #discard}.
+     * Так состояние можно записать до финализации аккумулятора, а применить только после сохранения результата.
+     */
+    public void stage(UUID fileId, ColumnSetAccumulator acc) throws IOException {
+        if (enabled) {
+            write(fileId, acc, staged(fileId));
+        }
+    }
+
+    public void publish(UUID fileId) throws IOException {
+        if (enabled) {
+            Files.move(staged(fileId), file(fileId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public void discard(UUID fileId) {
+        try {
+            Files.deleteIfExists(staged(fileId));
+        } catch (IOException e) {
+            log.warn("Failed to delete staged analysis state of file {}: {}", fileId, e.getMessage());
+        }
+    }
+
+    private void write(UUID fileId, ColumnSetAccumulator acc, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        long started = System.nanoTime();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), IO_BUFFER))) {
+            out.writeInt(FORMAT_VERSION);
+            acc.writeTo(out);
+        }
+        log.debug("Analysis state of file {} written in {} ms", fileId, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Загружает состояние в только что созданный аккумулятор; false — состояния нет
+     */
+    public boolean restore(UUID fileId, ColumnSetAccumulator acc) throws IOException {
+        Path file = file(fileId);
+        if (!enabled || !Files.exists(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported analysis state version " + version + " in " + file);
+            }
+            acc.readFrom(in);
+            return true;
+        }
+    }
+
+    /**
+     * Состояние переходит к другому файлу вместе с результатом
+     */
+    public void move(UUID fromId, UUID toId) {
+        try {
+            if (Files.exists(file(fromId))) {
+                Files.move(file(fromId), file(toId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to move analysis state of file {} to {}: {}", fromId, toId, e.getMessage());
+        }
+    }
+
+    public void delete(UUID fileId) {
+        try {
+            Files.deleteIfExists(file(fileId));
+        } catch (IOException e) {
+            log.warn("Failed to delete analysis state of file {}: {}", fileId, e.getMessage());
+        }
+    }
+
+    private Path file(UUID fileId) {
+        return Paths.get(stateDir, fileId + ".state");
+    }
+
+    private Path staged(UUID fileId) {
+        return Paths.get(stateDir, fileId + ".state.staged");
+    }
+}
@@ -0,0 +1,186 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.ConfidenceIntervals;
+import by.lupach.backend.entities.ConfidenceIntervals.Interval;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.services.fileprocessing.csv.CsvByteScanner;
+import by.lupach.backend.services.fileprocessing.csv.FastDoubleParser;
+import by.lupach.backend.services.fileprocessing.csv.FileChannelRangeInputStream;
+import by.lupach.backend.services.fileprocessing.csv.FileChunker;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import by.lupach.backend.services.fileprocessing.csv.StructuralScanner;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.fileprocessing.stats.KllSketch;
+import by.lupach.backend.services.fileprocessing.stats.RunningStatistics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Быстрая оценка статистики по случайным блокам файла, выровненным по строкам.
+ * Файл делится на sampleBlocks равных страт, в каждой читается один блок со случайной позиции.
+ * Блок — кластер записей, поэтому интервалы для среднего и дисперсии считаются по разбросу между блоками
+ * (отношение сумм), а для квантилей — по биномиальному интервалу рангов с эффективным размером выборки.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ApproximateAnalyzer {
+
+    private static final double CONFIDENCE_LEVEL = 0.95;
+    private static final double Z = 1.959964;
+    private static final int PROBE_SIZE = 8192;
+
+    private final StatisticsCalculator calculator;
+    private final StructuralScanner structuralScanner;
+
+    @Value("${app.processing.approximate.sample-blocks:64}")
+    private int sampleBlocks;
+
+    @Value("${app.processing.approximate.block-bytes:65536}")
+    private int blockBytes;
+
+    /**
+     * Оценка имеет смысл только для несжатого файла (нужен произвольный доступ), заметно большего выборки
+     */
+    public boolean supports(Path path) throws IOException {
+        return !PipelinedGzipInputStream.isCompressed(path.toString())
+                && Files.size(path) > 2L * sampleBlocks * blockBytes;
+    }
+
+    public ApproximateOutput estimate(Path path, AnalysisOptions options, CsvSchema schema) throws IOException {
+        // Группы по выборке не оцениваются — они придут с точным проходом
+        AnalysisOptions sampleOptions = new AnalysisOptions(options.columns(), options.allColumns(), null, false);
+        Map<Integer, List<RunningStatistics>> blockStats = new HashMap<>();
+        long sampledBytes = 0;
+        int blocks = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             ColumnSetAccumulator total = calculator.newAccumulator(sampleOptions, schema)) {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+            FastDoubleParser parser = new FastDoubleParser();
+            long previousEnd = 0;
+
+            for (int b = 0; b < sampleBlocks; b++) {
+                long stratumStart = size * b / sampleBlocks;
+                long stratumEnd = size * (b + 1) / sampleBlocks;
+                long from = stratumStart + ThreadLocalRandom.current().nextLong(Math.max(1, stratumEnd - stratumStart));
+                long start = Math.max(previousEnd, FileChunker.nextRecordStart(channel, size, from, probe));
+                long end = FileChunker.nextRecordStart(channel, size, Math.min(size, start + blockBytes), probe);
+                if (start >= end) {
+                    continue;
+                }
+                previousEnd = end;
+
+                try (ColumnSetAccumulator block = calculator.newAccumulator(sampleOptions, schema)) {
+                    CsvByteScanner scanner = new CsvByteScanner(
+                            new FileChannelRangeInputStream(channel, start, end), PROBE_SIZE, structuralScanner);
+                    if (start == 0 && schema.header()) {
+                        scanner.next();
+                    }
+                    while (scanner.next()) {
+                        calculator.processRecord(scanner.buffer(), scanner.start(), scanner.end(), parser, block);
+                    }
+                    // Снимок блока — до слияния: слияние может забрать аккумуляторы колонок
+                    for (RunningStatistics column : block.snapshot()) {
+                        blockStats.computeIfAbsent(column.columnIndex(), k -> new ArrayList<>()).add(column);
+                    }
+                    calculator.merge(total, block);
+                }
+                sampledBytes += end - start;
+                blocks++;
+            }
+
+            double sampledFraction = size == 0 ? 1 : (double) sampledBytes / size;
+            List<RunningStatistics> columns = total.snapshot();
+            List<AnalysisStatistics> statistics = calculator.finalizeStats(total);
+            for (int i = 0; i < statistics.size(); i++) {
+                List<RunningStatistics> perBlock = blockStats.getOrDefault(columns.get(i).columnIndex(), List.of());
+                AnalysisStatistics stats = statistics.get(i);
+                stats.setConfidenceIntervals(confidenceIntervals(perBlock, blocks, sampledFraction, stats));
+            }
+            log.debug("Approximate analysis of {}: {} blocks, {} bytes ({}%)",
+                    path, blocks, sampledBytes, Math.round(sampledFraction * 100));
+            return new ApproximateOutput(statistics, sampledFraction);
+        }
+    }
+
+    /**
+     * Оценки отношения сумм по кластерам: среднее = Σ s_b / Σ n_b, дисперсия = Σ q_b / Σ n_b,
+     * где q_b — сумма квадратов отклонений блока от общего среднего. Блоки без значений колонки
+     * тоже входят в выборку (n_b = 0). Поправка на конечную совокупность — множитель (1 - f).
+     */
+    private static ConfidenceIntervals confidenceIntervals(List<RunningStatistics> perBlock, int blocks,
+                                                           double sampledFraction, AnalysisStatistics stats) {
+        long n = perBlock.stream().mapToLong(RunningStatistics::processedRecords).sum();
+        if (blocks < 2 || n == 0) {
+            return null;
+        }
+        double mean = 0;
+        for (RunningStatistics block : perBlock) {
+            mean += block.mean() * block.processedRecords();
+        }
+        mean /= n;
+        double variance = 0;
+        for (RunningStatistics block : perBlock) {
+            double d = block.mean() - mean;
+            variance += block.m2() + block.processedRecords() * d * d;
+        }
+        variance /= n;
+
+        double meanSpread = 0;
+        double varianceSpread = 0;
+        for (RunningStatistics block : perBlock) {
+            double d = block.mean() - mean;
+            double q = block.m2() + block.processedRecords() * d * d;
+            meanSpread += Math.pow(block.processedRecords() * d, 2);
+            varianceSpread += Math.pow(q - variance * block.processedRecords(), 2);
+        }
+        double blockSize = (double) n / blocks;
+        double correction = Math.max(0, 1 - sampledFraction) / blocks / (blocks - 1);
+        double meanError = Math.sqrt(meanSpread * correction) / blockSize;
+        double varianceError = Math.sqrt(varianceSpread * correction) / blockSize;
+
+        // Эффект кластеризации: во сколько раз дисперсия среднего больше, чем у простой случайной выборки
+        double designEffect = variance > 0 ? Math.max(1, meanError * meanError * n / variance) : 1;
+        double effectiveSize = n / designEffect;
+        KllSketch sketch = stats.getQuantileSketch() != null ? KllSketch.fromBytes(stats.getQuantileSketch()) : null;
+
+        return new ConfidenceIntervals(
+                CONFIDENCE_LEVEL,
+                new Interval(mean - Z * meanError, mean + Z * meanError),
+                new Interval(Math.sqrt(Math.max(0, variance - Z * varianceError)), Math.sqrt(variance + Z * varianceError)),
+                quantileInterval(sketch, 0.5, effectiveSize),
+                quantileInterval(sketch, 0.9, effectiveSize),
+                quantileInterval(sketch, 0.95, effectiveSize),
+                quantileInterval(sketch, 0.99, effectiveSize)
+        );
+    }
+
+    /**
+     * Интервал квантиля: значения выборки на рангах q ± z·sqrt(q(1-q)/n_eff)
+     */
+    private static Interval quantileInterval(KllSketch sketch, double q, double effectiveSize) {
+        if (sketch == null || sketch.isEmpty()) {
+            return null;
+        }
+        double halfWidth = Z * Math.sqrt(q * (1 - q) / effectiveSize);
+        return new Interval(sketch.quantile(Math.max(0, q - halfWidth)), sketch.quantile(Math.min(1, q + halfWidth)));
+    }
+}
@@ -0,0 +1,13 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.entities.AnalysisStatistics;
+
+import java.util.List;
+
+/**
+ * Оценка по выборке блоков: статистика с доверительными интервалами и доля прочитанных байт файла
+ */
+public record ApproximateOutput(
+        List<AnalysisStatistics> statistics,
+        double sampledFraction
+) {}
@@ -0,0 +1,109 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Контрольные точки обработки на локальном диске: каталог на файл с сообщением задачи (job.json),
+ * границами кусков и состоянием аккумулятора каждого куска с позицией в файле.
+ * Каталог удаляется, когда задача завершена, упала или отменена; после падения процесса
+ * оставшиеся каталоги — незавершённые задачи, которые возобновляются с последней точки.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CheckpointStore {
+
+    private static final String JOB_FILE = "job.json";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.processing.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.processing.checkpoint.dir:${app.upload.dir:uploads}/checkpoints}")
+    private String checkpointDir;
+
+    @Value("${app.processing.checkpoint.interval-ms:30000}")
+    private long intervalMs;
+
+    /**
+     * Регистрирует задачу; точки, оставшиеся от задачи с другими параметрами анализа, отбрасываются
+     */
+    public void begin(FileQueueMessageDTO msg) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path dir = dir(msg.fileId());
+        Path job = dir.resolve(JOB_FILE);
+        if (Files.exists(job)) {
+            FileQueueMessageDTO previous = objectMapper.readValue(job.toFile(), FileQueueMessageDTO.class);
+            if (Objects.equals(previous.options(), msg.options())) {
+                log.info("Resuming file {} from checkpoints in {}", msg.fileId(), dir);
+                return;
+            }
+            FileSystemUtils.deleteRecursively(dir);
+        }
+        Files.createDirectories(dir);
+        objectMapper.writeValue(job.toFile(), msg);
+    }
+
+    public void finish(UUID fileId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            FileSystemUtils.deleteRecursively(dir(fileId));
+        } catch (IOException e) {
+            log.warn("Failed to delete checkpoints of file {}: {}", fileId, e.getMessage());
+        }
+    }
+
+    /**
+     * Задачи, не дошедшие до {@link #finish} — процесс остановился посреди обработки
+     */
+    public List<FileQueueMessageDTO> unfinishedJobs() {
+        List<FileQueueMessageDTO> jobs = new ArrayList<>();
+        Path root = Paths.get(checkpointDir);
+        if (!enabled || !Files.isDirectory(root)) {
+            return jobs;
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            for (Path dir : dirs.toList()) {
+                Path job = dir.resolve(JOB_FILE);
+                try {
+                    jobs.add(objectMapper.readValue(job.toFile(), FileQueueMessageDTO.class));
+                } catch (IOException e) {
+                    log.warn("Dropping unreadable checkpoint {}: {}", dir, e.getMessage());
+                    FileSystemUtils.deleteRecursively(dir);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to list checkpoints in {}: {}", root, e.getMessage());
+        }
+        return jobs;
+    }
+
+    FileCheckpoints open(UUID fileId) {
+        return enabled ? new FileCheckpoints(dir(fileId), intervalMs) : FileCheckpoints.DISABLED;
+    }
+
+    private Path dir(UUID fileId) {
+        return Paths.get(checkpointDir, fileId.toString());
+    }
+}
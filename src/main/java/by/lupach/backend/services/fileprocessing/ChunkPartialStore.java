@@ -0,0 +1,83 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Частичные аккумуляторы кусков распределённого режима — в общем каталоге загрузок, а не в Redis:
+ * состояние куска с уникальными значениями и группами может занимать десятки мегабайт.
+ * Формат тот же, что у контрольных точек; файл куска появляется только целиком, переименованием.
+ */
+@Slf4j
+@Component
+public class ChunkPartialStore {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int IO_BUFFER = 1 << 16;
+
+    @Value("${app.processing.distributed.dir:${app.upload.dir:uploads}/partials}")
+    private String partialsDir;
+
+    public void write(UUID fileId, int index, ColumnSetAccumulator acc) throws IOException {
+        Path file = file(fileId, index);
+        Files.createDirectories(file.getParent());
+        // Имя временного файла уникально: кусок с истёкшей арендой мог взять и другой обработчик
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), IO_BUFFER))) {
+                out.writeInt(FORMAT_VERSION);
+                acc.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Загружает состояние куска в только что созданный аккумулятор
+     */
+    public void read(UUID fileId, int index, ColumnSetAccumulator acc) throws IOException {
+        Path file = file(fileId, index);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported chunk partial version " + version + " in " + file);
+            }
+            acc.readFrom(in);
+        }
+    }
+
+    public void delete(UUID fileId) {
+        Path dir = Paths.get(partialsDir, fileId.toString());
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete chunk partials of file {}: {}", fileId, e.getMessage());
+        }
+    }
+
+    private Path file(UUID fileId, int index) {
+        return Paths.get(partialsDir, fileId.toString(), "chunk-" + index + ".part");
+    }
+}
@@ -0,0 +1,199 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.ChunkTaskDTO;
+import by.lupach.backend.services.fileprocessing.csv.FileChunk;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.redis.ChunkQueueRedisService;
+import jakarta.annotation.Resource;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обработчики кусков распределённого режима: берут куски любых файлов из общей очереди Redis, разбирают
+ * свой диапазон байт и пишут частичный аккумулятор в {@link ChunkPartialStore}. Пока кусок разбирается,
+ * аренда продлевается; если узел умер, аренда истекает и кусок достаётся другому обработчику.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DistributedChunkWorker implements SmartLifecycle {
+
+    private final ChunkQueueRedisService chunkQueue;
+    private final StreamingFileProcessor processor;
+    private final StatisticsCalculator calculator;
+    private final ChunkPartialStore partialStore;
+
+    @Resource(name = "taskScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${app.processing.distributed.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.processing.distributed.workers:2}")
+    private int workerCount;
+
+    @Value("${app.processing.distributed.lease-ms:30000}")
+    private long leaseMs;
+
+    @Value("${app.processing.distributed.poll-interval-ms:500}")
+    private long pollIntervalMs;
+
+    @Value("${app.upload.dir:uploads}")
+    private String uploadDir;
+
+    private final List<Thread> workers = new ArrayList<>();
+    // Файл, кусок которого сейчас разбирает поток, — для прерывания по отмене
+    private final Map<Thread, UUID> scanning = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+        if (!enabled) {
+            return;
+        }
+        ThreadFactory threads = new CustomizableThreadFactory("dist-chunk-worker-");
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threads.newThread(this::work);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("Distributed chunk worker started with {} threads", workerCount);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // Прерванный кусок не отмечается готовым: его аренда истечёт, и он достанется другому узлу
+        workers.forEach(Thread::interrupt);
+        try {
+            for (Thread worker : workers) {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Прерывает разбор кусков отменённого файла на этом узле
+     */
+    public void cancel(UUID fileId) {
+        scanning.keySet().forEach(worker -> interruptIfScanning(worker, fileId));
+    }
+
+    /**
+     * Прерывание под ключом потока: поток, уже перешедший к куску другого файла, его не получит
+     */
+    private void interruptIfScanning(Thread worker, UUID fileId) {
+        scanning.computeIfPresent(worker, (thread, current) -> {
+            if (current.equals(fileId)) {
+                thread.interrupt();
+            }
+            return current;
+        });
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                ChunkTaskDTO task = chunkQueue.claim(System.currentTimeMillis() + leaseMs);
+                if (task != null) {
+                    process(task);
+                    continue;
+                }
+                // Свободный обработчик заодно возвращает в очередь куски умерших узлов
+                if (chunkQueue.requeueExpired(System.currentTimeMillis()) == 0) {
+                    Thread.sleep(pollIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("Failed to read chunk queue: {}", e.getMessage());
+                sleep(pollIntervalMs);
+            }
+        }
+    }
+
+    private void process(ChunkTaskDTO task) {
+        if (!chunkQueue.isActive(task.fileId())) {
+            // Файл отменён или уже собран
+            chunkQueue.release(task);
+            return;
+        }
+        Thread worker = Thread.currentThread();
+        scanning.put(worker, task.fileId());
+        ScheduledFuture<?> heartbeat = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                if (!chunkQueue.isActive(task.fileId())) {
+                    interruptIfScanning(worker, task.fileId());
+                } else if (!chunkQueue.extend(task, System.currentTimeMillis() + leaseMs)) {
+                    log.warn("Lease of chunk {} of file {} expired while scanning", task.index(), task.fileId());
+                }
+            } catch (Exception e) {
+                log.warn("Failed to extend lease of chunk {} of file {}: {}", task.index(), task.fileId(), e.getMessage());
+            }
+        }, Duration.ofMillis(Math.max(1, leaseMs / 3)));
+
+        long started = System.nanoTime();
+        try (ColumnSetAccumulator acc = calculator.newAccumulator(task.options(), task.schema())) {
+            processor.scanRange(Paths.get(uploadDir, task.filePath()), new FileChunk(task.start(), task.end()), acc);
+            heartbeat.cancel(false);
+            partialStore.write(task.fileId(), task.index(), acc);
+            chunkQueue.complete(task);
+            log.debug("Chunk {} of file {} scanned in {} ms", task.index(), task.fileId(),
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            // Прерывание во время чтения канала приходит как ClosedByInterruptException, поэтому смотрим на флаг
+            if (e instanceof InterruptedException || worker.isInterrupted()) {
+                if (running) {
+                    // Прерван отменой файла
+                    chunkQueue.release(task);
+                }
+                return;
+            }
+            log.error("Chunk {} of file {} failed: {}", task.index(), task.fileId(), e.getMessage(), e);
+            chunkQueue.fail(task, e.getMessage());
+        } finally {
+            heartbeat.cancel(false);
+            scanning.remove(worker);
+            // Прерывание от отмены не должно достаться следующему куску
+            if (running) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.ChunkTaskDTO;
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.services.fileprocessing.csv.FileChunk;
+import by.lupach.backend.services.fileprocessing.csv.FileChunker;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.redis.ChunkQueueRedisService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Распределённый режим для самых больших файлов: файл режется на куски по записям, куски публикуются
+ * в общую очередь Redis и разбираются {@link DistributedChunkWorker} всех узлов, разделяющих каталог загрузок.
+ * Координатор — обработчик, взявший файл из обычной очереди, — ждёт готовности всех кусков и сливает
+ * частичные аккумуляторы по порядку. Координатор не хранит состояния кусков: после его перезапуска
+ * файл снова берётся из очереди и куски считаются заново.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DistributedFileProcessor {
+
+    private final ChunkQueueRedisService chunkQueue;
+    private final ChunkPartialStore partialStore;
+    private final StatisticsCalculator calculator;
+    private final AnalysisStateStore stateStore;
+    private final ProgressNotifier notifier;
+
+    @Value("${app.processing.distributed.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.processing.distributed.min-file-size:1073741824}")
+    private long minFileSize;
+
+    @Value("${app.processing.distributed.chunk-size:67108864}")
+    private long chunkSize;
+
+    @Value("${app.processing.distributed.poll-interval-ms:500}")
+    private long pollIntervalMs;
+
+    /**
+     * Сжатый файл нельзя разобрать с середины — он всегда обрабатывается на одном узле
+     */
+    public boolean supports(Path path) throws IOException {
+        return enabled && !PipelinedGzipInputStream.isCompressed(path.toString()) && Files.size(path) >= minFileSize;
+    }
+
+    public AnalysisOutput process(Path path, String filePath, UUID fileId, AnalysisOptions options,
+                                  CsvSchema schema) throws Exception {
+        long totalSize = Files.size(path);
+        List<ChunkTaskDTO> tasks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int parts = (int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize);
+            for (FileChunk chunk : FileChunker.split(channel, totalSize, parts)) {
+                tasks.add(new ChunkTaskDTO(fileId, filePath, tasks.size(), chunk.start(), chunk.end(), options, schema));
+            }
+        }
+
+        partialStore.delete(fileId);
+        try {
+            chunkQueue.publish(fileId, tasks);
+            log.info("File {} split into {} distributed chunks", fileId, tasks.size());
+            notifier.notify(fileId, ProcessingStatus.PROCESSING, 0, "Started distributed processing");
+            awaitChunks(fileId, totalSize, tasks);
+
+            try (ColumnSetAccumulator acc = calculator.newAccumulator(options, schema)) {
+                // Слияние в порядке кусков — как при параллельном разборе на одном узле
+                for (ChunkTaskDTO task : tasks) {
+                    try (ColumnSetAccumulator part = calculator.newAccumulator(options, schema)) {
+                        partialStore.read(fileId, task.index(), part);
+                        calculator.merge(acc, part);
+                    }
+                }
+                stateStore.save(fileId, acc);
+                List<AnalysisStatistics> statistics = calculator.finalizeStats(acc);
+                notifier.notify(fileId, ProcessingStatus.COMPLETED, 100, "Completed successfully");
+                return new AnalysisOutput(statistics, acc.detachGroups());
+            }
+        } finally {
+            // Отмена или ошибка: оставшиеся куски снимаются с очереди, обработчики бросают взятые
+            chunkQueue.cleanup(fileId, tasks);
+            partialStore.delete(fileId);
+        }
+    }
+
+    /**
+     * Ждёт готовности всех кусков; прерывание потока — отмена файла
+     */
+    private void awaitChunks(UUID fileId, long totalSize, List<ChunkTaskDTO> tasks) throws Exception {
+        int reported = -1;
+        while (true) {
+            String error = chunkQueue.error(fileId);
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+            Set<Integer> done = chunkQueue.done(fileId);
+            if (done.size() >= tasks.size()) {
+                return;
+            }
+            long bytes = 0;
+            for (ChunkTaskDTO task : tasks) {
+                if (done.contains(task.index())) {
+                    bytes += task.end() - task.start();
+                }
+            }
+            int progress = totalSize == 0 ? 100 : (int) (bytes * 100 / totalSize);
+            if (progress != reported) {
+                notifier.notify(fileId, ProcessingStatus.PROCESSING, progress,
+                        "Processed " + done.size() + " of " + tasks.size() + " chunks");
+                reported = progress;
+            }
+            // Куски умершего узла возвращаются в очередь, даже если свободных обработчиков сейчас нет
+            chunkQueue.requeueExpired(System.currentTimeMillis());
+            Thread.sleep(pollIntervalMs);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.services.fileprocessing.csv.CsvByteScanner;
+import by.lupach.backend.services.fileprocessing.csv.FileChunk;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.fileprocessing.stats.SpillRunStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Контрольные точки одного файла. Точку куска пишет сам поток разбора после очередной записи:
+ * позиция начала следующей записи и полное состояние аккумулятора, через временный файл и атомарное переименование.
+ * Прогоны сброса на диск не копируются в каждую точку: они неизменяемы и сохраняются жёсткими ссылками
+ * в runs/ один раз, так что точка стоит столько, сколько состояние в памяти.
+ */
+@Slf4j
+class FileCheckpoints {
+
+    static final FileCheckpoints DISABLED = new FileCheckpoints(null, 0) {
+        @Override
+        List<FileChunk> chunks(List<FileChunk> fresh) {
+            return fresh;
+        }
+
+        @Override
+        ResumePoint restore(int slot, ColumnSetAccumulator acc) {
+            return null;
+        }
+
+        @Override
+        void maybeSave(int slot, long base, CsvByteScanner scanner, ColumnSetAccumulator acc) {
+        }
+
+        @Override
+        void save(int slot, long offset, boolean pendingLf, ColumnSetAccumulator acc) {
+        }
+    };
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String CHUNKS_FILE = "chunks.bin";
+    private static final String RUNS_DIR = "runs";
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final Path dir;
+    private final SpillRunStore runs;
+    private final long intervalNanos;
+    // Время следующей точки по кускам; каждый элемент читает и пишет только поток своего куска
+    private long[] nextSave = new long[0];
+
+    FileCheckpoints(Path dir, long intervalMs) {
+        this.dir = dir;
+        this.runs = dir != null ? SpillRunStore.linked(dir.resolve(RUNS_DIR)) : SpillRunStore.INLINE;
+        this.intervalNanos = intervalMs * 1_000_000;
+    }
+
+    /**
+     * Позиция, с которой продолжается разбор куска; pendingLf — запись оборвалась на \r в конце буфера
+     */
+    record ResumePoint(long offset, boolean pendingLf) {
+    }
+
+    /**
+     * Точки кусков привязаны к их границам: если нарезка изменилась (другое число потоков), прежние точки отбрасываются
+     */
+    List<FileChunk> chunks(List<FileChunk> fresh) throws IOException {
+        Path file = dir.resolve(CHUNKS_FILE);
+        List<FileChunk> stored = new ArrayList<>();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                for (int i = in.readInt(); i > 0; i--) {
+                    stored.add(new FileChunk(in.readLong(), in.readLong()));
+                }
+            }
+        }
+        if (!stored.equals(fresh)) {
+            for (int slot = 0; slot < stored.size(); slot++) {
+                Files.deleteIfExists(chunkFile(slot));
+            }
+            writeAtomically(file, out -> {
+                out.writeInt(fresh.size());
+                for (FileChunk chunk : fresh) {
+                    out.writeLong(chunk.start());
+                    out.writeLong(chunk.end());
+                }
+            });
+        }
+        nextSave = new long[fresh.size()];
+        Arrays.fill(nextSave, System.nanoTime() + intervalNanos);
+        return fresh;
+    }
+
+    /**
+     * Загружает состояние куска в только что созданный аккумулятор; {@code null} — точки нет
+     */
+    ResumePoint restore(int slot, ColumnSetAccumulator acc) throws IOException {
+        Path file = chunkFile(slot);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                // Точка прежнего формата: кусок разбирается заново
+                log.warn("Ignoring checkpoint of chunk {} with unsupported version {}", slot, version);
+                return null;
+            }
+            ResumePoint point = new ResumePoint(in.readLong(), in.readBoolean());
+            acc.readFrom(in, runs);
+            log.info("Restored chunk {} from checkpoint at offset {}", slot, point.offset());
+            return point;
+        }
+    }
+
+    /**
+     * Вызывается потоком разбора на периодической проверке; base — смещение в файле начала потока сканера
+     */
+    void maybeSave(int slot, long base, CsvByteScanner scanner, ColumnSetAccumulator acc) throws IOException {
+        long now = System.nanoTime();
+        if (now - nextSave[slot] >= 0) {
+            save(slot, base + scanner.position(), scanner.pendingLf(), acc);
+            nextSave[slot] = System.nanoTime() + intervalNanos;
+        }
+    }
+
+    void save(int slot, long offset, boolean pendingLf, ColumnSetAccumulator acc) throws IOException {
+        long started = System.nanoTime();
+        writeAtomically(chunkFile(slot), out -> {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(offset);
+            out.writeBoolean(pendingLf);
+            acc.writeTo(out, runs);
+        });
+        log.debug("Checkpoint of chunk {} at offset {} written in {} ms",
+                slot, offset, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private Path chunkFile(int slot) {
+        return dir.resolve("chunk-" + slot + ".ckpt");
+    }
+
+    private static void writeAtomically(Path file, StateWriter writer) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), IO_BUFFER))) {
+            writer.write(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @FunctionalInterface
+    private interface StateWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
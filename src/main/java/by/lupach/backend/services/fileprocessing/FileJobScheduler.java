@@ -0,0 +1,333 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.services.redis.CancellationRedisService;
+import by.lupach.backend.services.redis.ProcessingQueueRedisService;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Выполнение задач из очереди Redis ограниченным пулом обработчиков. Следующее сообщение снимается
+ * с очереди только когда есть свободный обработчик — остальные ждут в Redis, доступные другим узлам.
+ * Результат каждой задачи асинхронно передаётся в analysisSaveChannel из потока обработчика,
+ * поэтому файлы на узле действительно обрабатываются параллельно.
+ * Помимо общих обработчиков есть полоса быстрых, которые берут только малые файлы: время до результата
+ * для малых файлов не зависит от того, сколько больших сейчас обрабатывается.
+ * Задача берётся в аренду, которую продлевает сердцебиение, пока задача выполняется; подтверждается она
+ * только по завершении. Задачи упавшего узла возвращает в очередь сборщик истёкших аренд любого узла —
+ * восстановление занимает не больше срока аренды и интервала сборщика. Задача, завершившаяся ошибкой,
+ * повторяется после паузы, растущей с каждой попыткой, пока попытки не исчерпаны.
+ */
+@Slf4j
+@Component
+public class FileJobScheduler implements SmartLifecycle {
+
+    private final ProcessingQueueRedisService queue;
+    private final CancellationRedisService cancellation;
+    private final StreamingFileProcessingOrchestrator orchestrator;
+    private final MessageChannel analysisSaveChannel;
+
+    @Value("${app.processing.workers:4}")
+    private int workerCount;
+
+    @Value("${app.processing.fast-lane.workers:1}")
+    private int fastLaneWorkerCount;
+
+    @Value("${app.processing.queue.poll-interval-ms:200}")
+    private long pollIntervalMs;
+
+    @Value("${app.processing.queue.recovery-interval-ms:5000}")
+    private long recoveryIntervalMs;
+
+    @Value("${app.processing.queue.lease-ms:30000}")
+    private long leaseMs;
+
+    @Value("${app.processing.queue.reaper-interval-ms:5000}")
+    private long reaperIntervalMs;
+
+    @Resource(name = "taskScheduler")
+    private TaskScheduler scheduler;
+
+    // Будит опрос, когда освобождается обработчик
+    private final Object idle = new Object();
+
+    private List<Lane> lanes;
+    private Thread poller;
+    private ScheduledFuture<?> reaper;
+    private volatile boolean running;
+
+    public FileJobScheduler(ProcessingQueueRedisService queue,
+                            CancellationRedisService cancellation,
+                            StreamingFileProcessingOrchestrator orchestrator,
+                            @Qualifier("analysisSaveChannel") MessageChannel analysisSaveChannel) {
+        this.queue = queue;
+        this.cancellation = cancellation;
+        this.orchestrator = orchestrator;
+        this.analysisSaveChannel = analysisSaveChannel;
+    }
+
+    @Override
+    public void start() {
+        lanes = new ArrayList<>();
+        if (fastLaneWorkerCount > 0) {
+            lanes.add(new Lane("fast-worker-", fastLaneWorkerCount, queue::popSmall));
+        }
+        lanes.add(new Lane("analysis-worker-", workerCount, queue::pop));
+        running = true;
+        poller = new Thread(this::poll, "file-queue-poller");
+        poller.setDaemon(true);
+        poller.start();
+        reaper = scheduler.scheduleAtFixedRate(this::reapExpired, Duration.ofMillis(reaperIntervalMs));
+        log.info("File job scheduler started with {} workers and {} fast lane workers",
+                workerCount, fastLaneWorkerCount);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        reaper.cancel(false);
+        poller.interrupt();
+        // Прерванные остановкой задачи продолжатся с контрольных точек при следующем запуске
+        orchestrator.shutdown();
+        lanes.forEach(lane -> lane.workers.shutdownNow());
+        try {
+            for (Lane lane : lanes) {
+                lane.workers.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            poller.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Задачи, выполняемые сейчас на этом узле
+     */
+    public int activeJobs() {
+        return lanes.stream().mapToInt(lane -> lane.size - lane.slots.availablePermits()).sum();
+    }
+
+    private void poll() {
+        while (running) {
+            boolean taken = false;
+            try {
+                // Быстрая полоса первой: малый файл уходит к ней, не занимая общего обработчика
+                for (Lane lane : lanes) {
+                    taken |= take(lane);
+                }
+            } catch (Exception e) {
+                if (running) {
+                    log.error("Failed to read file processing queue: {}", e.getMessage());
+                    sleep(recoveryIntervalMs);
+                }
+                continue;
+            }
+            if (!taken) {
+                synchronized (idle) {
+                    try {
+                        idle.wait(pollIntervalMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Снимает одну задачу для полосы, если в ней есть свободный обработчик
+     */
+    private boolean take(Lane lane) {
+        if (!lane.slots.tryAcquire()) {
+            return false;
+        }
+        FileQueueMessageDTO msg = null;
+        boolean submitted = false;
+        try {
+            msg = lane.pop.apply(System.currentTimeMillis() + leaseMs);
+            if (msg != null) {
+                FileQueueMessageDTO job = msg;
+                lane.workers.execute(() -> run(lane, job));
+                submitted = true;
+            }
+        } catch (RejectedExecutionException e) {
+            // Узел останавливается: задача возвращается в начало очереди для других узлов
+            queue.pushBack(msg);
+        } finally {
+            if (!submitted) {
+                lane.slots.release();
+            }
+        }
+        return submitted;
+    }
+
+    private void run(Lane lane, FileQueueMessageDTO msg) {
+        try {
+            if (!dropIfCancelled(msg)) {
+                execute(msg);
+            }
+        } finally {
+            lane.slots.release();
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    private void execute(FileQueueMessageDTO msg) {
+        ScheduledFuture<?> heartbeat = scheduler.scheduleAtFixedRate(() -> extendLease(msg),
+                Duration.ofMillis(Math.max(1, leaseMs / 3)));
+        AnalysisResult result = null;
+        Exception failure = null;
+        try {
+            log.info("Start processing file: {}", msg.filePath());
+            result = orchestrator.startProcessing(msg);
+            log.info("Completed processing: {}", msg.filePath());
+            if (result != null) {
+                analysisSaveChannel.send(MessageBuilder.withPayload(result).build());
+            }
+        } catch (Exception e) {
+            log.error("Processing of file {} failed: {}", msg.fileId(), e.getMessage(), e);
+            failure = e;
+        } finally {
+            heartbeat.cancel(false);
+            if (failure != null) {
+                fail(msg, failure);
+            } else {
+                settle(msg, result);
+            }
+        }
+    }
+
+    /**
+     * Упавшая задача откладывается на повтор с растущей паузой, а исчерпавшая попытки — в список мёртвых
+     */
+    private void fail(FileQueueMessageDTO msg, Exception e) {
+        try {
+            ProcessingQueueRedisService.FailedAttempt attempt = queue.fail(msg, System.currentTimeMillis());
+            if (attempt == null) {
+                // Аренда истекла раньше, задачу уже вернул в очередь сборщик
+                return;
+            }
+            if (attempt.deadLettered()) {
+                log.error("File {} moved to dead letter list after {} attempts", msg.fileId(), attempt.attempt());
+                orchestrator.abandon(msg.fileId(), e.getMessage());
+            } else {
+                log.warn("Attempt {} of file {} failed, retry scheduled", attempt.attempt(), msg.fileId());
+                orchestrator.retryLater(msg.fileId(), attempt.attempt(), e);
+            }
+        } catch (Exception ex) {
+            // Аренда истечёт сама, и задача вернётся в очередь
+            log.warn("Failed to schedule retry of file {}: {}", msg.fileId(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Файл отменён, пока задача ждала в очереди: она подтверждается без обработки
+     */
+    private boolean dropIfCancelled(FileQueueMessageDTO msg) {
+        try {
+            if (!cancellation.isCancelled(msg.fileId())) {
+                return false;
+            }
+            queue.ack(msg);
+            orchestrator.dropCancelled(msg.fileId());
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to check cancellation of file {}: {}", msg.fileId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void extendLease(FileQueueMessageDTO msg) {
+        try {
+            // Запасной путь отмены, если рассылка до этого узла не дошла
+            if (cancellation.isCancelled(msg.fileId())) {
+                orchestrator.cancelProcessing(msg.fileId());
+            }
+            if (!queue.extend(msg, System.currentTimeMillis() + leaseMs)) {
+                log.warn("Lease of file {} expired while processing, the job may be redelivered", msg.fileId());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to extend lease of file {}: {}", msg.fileId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Задача, прерванная остановкой узла, сразу возвращается в очередь; завершённая или отменённая подтверждается
+     */
+    private void settle(FileQueueMessageDTO msg, AnalysisResult result) {
+        try {
+            if (!running && result == null) {
+                queue.pushBack(msg);
+            } else {
+                queue.ack(msg);
+            }
+        } catch (Exception e) {
+            // Аренда истечёт сама, и задача вернётся в очередь
+            log.warn("Failed to settle job of file {}: {}", msg.fileId(), e.getMessage());
+        }
+    }
+
+    private void reapExpired() {
+        try {
+            for (FileQueueMessageDTO dead : queue.reapExpired(System.currentTimeMillis())) {
+                log.error("File {} moved to dead letter list after repeated abandoned attempts", dead.fileId());
+                orchestrator.abandon(dead.fileId(), "Processing abandoned after repeated worker failures");
+            }
+        } catch (Exception e) {
+            log.warn("Failed to reap expired job leases: {}", e.getMessage());
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Группа обработчиков со своим источником задач
+     */
+    private static final class Lane {
+        private final int size;
+        private final Semaphore slots;
+        private final ExecutorService workers;
+        // Снимает задачу с арендой до переданного момента
+        private final LongFunction<FileQueueMessageDTO> pop;
+
+        Lane(String threadPrefix, int size, LongFunction<FileQueueMessageDTO> pop) {
+            this.size = size;
+            this.slots = new Semaphore(size);
+            this.workers = Executors.newFixedThreadPool(size, new CustomizableThreadFactory(threadPrefix));
+            this.pop = pop;
+        }
+    }
+}
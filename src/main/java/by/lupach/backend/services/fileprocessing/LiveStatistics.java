@@ -0,0 +1,83 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.PartialStatisticsDTO;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.fileprocessing.stats.RunningStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Промежуточная статистика для сообщений о прогрессе без блокировок потоков разбора.
+ * Тик прогресса увеличивает номер запроса; каждый поток разбора на очередной проверке видит новый номер
+ * и сам публикует неизменяемый снимок своего куска. Тик читает последние снимки и сливает их.
+ */
+final class LiveStatistics {
+
+    private final AtomicReferenceArray<List<RunningStatistics>> snapshots;
+    // Номер последнего запроса, обслуженного куском; каждый элемент пишет только свой поток разбора
+    private final long[] served;
+    private volatile long requested;
+
+    LiveStatistics(int slots) {
+        this.snapshots = new AtomicReferenceArray<>(slots);
+        this.served = new long[slots];
+    }
+
+    /**
+     * Вызывается потоком разбора куска: снимок делается только если тик просил новый
+     */
+    void offer(int slot, ColumnSetAccumulator acc) {
+        long request = requested;
+        if (served[slot] != request) {
+            served[slot] = request;
+            snapshots.set(slot, acc.snapshot());
+        }
+    }
+
+    /**
+     * Вызывается тиком прогресса: сливает последние снимки кусков и запрашивает следующие
+     */
+    List<PartialStatisticsDTO> collect(ColumnSetAccumulator acc) {
+        Map<Integer, RunningStatistics> merged = new TreeMap<>();
+        boolean any = false;
+        for (int i = 0; i < snapshots.length(); i++) {
+            List<RunningStatistics> slot = snapshots.get(i);
+            if (slot == null) {
+                continue;
+            }
+            any = true;
+            for (RunningStatistics column : slot) {
+                merged.merge(column.columnIndex(), column, RunningStatistics::merge);
+            }
+        }
+        requested++;
+        if (!any) {
+            return null;
+        }
+
+        List<PartialStatisticsDTO> result = new ArrayList<>(merged.size());
+        for (RunningStatistics column : merged.values()) {
+            result.add(toDto(column, acc));
+        }
+        return result;
+    }
+
+    private static PartialStatisticsDTO toDto(RunningStatistics column, ColumnSetAccumulator acc) {
+        boolean empty = column.processedRecords() == 0;
+        return new PartialStatisticsDTO(
+                acc.tokenized() ? column.columnIndex() : null,
+                acc.tokenized() ? acc.schema().columnName(column.columnIndex()) : null,
+                column.totalRecords(),
+                column.processedRecords(),
+                empty ? null : column.min(),
+                empty ? null : column.max(),
+                empty ? null : column.mean(),
+                empty ? null : Math.sqrt(column.m2() / column.processedRecords()),
+                column.distinct() < 0 ? null : column.distinct()
+        );
+    }
+}
@@ -0,0 +1,6 @@
+package by.lupach.backend.services.fileprocessing;
+
+public enum ParserEngine {
+    BYTE,   // Сканер по байтовому буферу без аллокаций на строку
+    LINE    // BufferedReader.readLine + split + parseDouble
+}
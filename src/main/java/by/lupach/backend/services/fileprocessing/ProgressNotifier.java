@@ -1,5 +1,6 @@
 package by.lupach.backend.services.fileprocessing;
 
+import by.lupach.backend.dtos.PartialStatisticsDTO;
 import by.lupach.backend.dtos.ProgressMessageDTO;
 import by.lupach.backend.entities.ProcessingStatus;
 import lombok.RequiredArgsConstructor;
@@ -8,6 +9,7 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -17,7 +19,16 @@ public class ProgressNotifier {
     private final MessageChannel progressChannel;
 
     public void notify(UUID fileId, ProcessingStatus status, int progress, String message) {
-        ProgressMessageDTO dto = new ProgressMessageDTO(fileId, status, progress, message, LocalDateTime.now());
+        notify(fileId, status, progress, message, null);
+    }
+
+    /**
+     * Прогресс вместе с промежуточной статистикой по уже разобранной части файла
+     */
+    public void notify(UUID fileId, ProcessingStatus status, int progress, String message,
+                       List<PartialStatisticsDTO> partialStatistics) {
+        ProgressMessageDTO dto = new ProgressMessageDTO(fileId, status, progress, message, LocalDateTime.now(),
+                partialStatistics);
         progressChannel.send(MessageBuilder.withPayload(dto).build());
     }
 }
@@ -0,0 +1,7 @@
+package by.lupach.backend.services.fileprocessing;
+
+public enum ScannerType {
+    AUTO,   // VECTOR, если модуль jdk.incubator.vector подключён, иначе SCALAR
+    SCALAR, // Побайтовый цикл
+    VECTOR  // jdk.incubator.vector: сравнение 32/64 байт за операцию
+}
@@ -0,0 +1,234 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.services.fileprocessing.csv.CsvByteScanner;
+import by.lupach.backend.services.fileprocessing.csv.FastDoubleParser;
+import by.lupach.backend.services.fileprocessing.csv.FileChannelRangeInputStream;
+import by.lupach.backend.services.fileprocessing.csv.FileChunker;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Выводит схему CSV по выборке: начало файла и несколько случайных блоков, выровненных по строкам.
+ * Определяет разделитель, заголовок, кавычки и числовые колонки, не читая файл целиком.
+ */
+@Slf4j
+@Component
+public class SchemaInferrer {
+
+    private static final char[] DELIMITERS = {',', ';', '\t', '|'};
+    private static final double NUMERIC_RATIO = 0.9;
+    private static final int PROBE_SIZE = 8192;
+
+    @Value("${app.processing.schema.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.processing.schema.head-bytes:65536}")
+    private int headBytes;
+
+    @Value("${app.processing.schema.sample-blocks:8}")
+    private int sampleBlocks;
+
+    @Value("${app.processing.schema.block-bytes:16384}")
+    private int blockBytes;
+
+    public CsvSchema infer(Path path) throws IOException {
+        if (!enabled) {
+            return CsvSchema.defaults();
+        }
+        return infer(sample(path), path);
+    }
+
+    /**
+     * Схема по началу потока, который ещё только поступает: случайных блоков нет, читается только headBytes.
+     * Поток должен поддерживать mark/reset — прочитанное начало возвращается для полного разбора.
+     */
+    public CsvSchema infer(InputStream in) throws IOException {
+        if (!enabled) {
+            return CsvSchema.defaults();
+        }
+        in.mark(headBytes + 1);
+        byte[] head = in.readNBytes(headBytes);
+        boolean truncated = head.length == headBytes && in.read() >= 0;
+        in.reset();
+        List<String> lines = new ArrayList<>();
+        readLines(new ByteArrayInputStream(head), truncated, lines);
+        return infer(lines, "stream");
+    }
+
+    private CsvSchema infer(List<String> lines, Object source) {
+        if (lines.isEmpty()) {
+            return CsvSchema.defaults();
+        }
+
+        char delimiter = detectDelimiter(lines);
+        boolean quoted = lines.stream().anyMatch(line -> line.indexOf('"') >= 0);
+        List<List<String>> rows = lines.stream().map(line -> split(line, delimiter, quoted)).toList();
+
+        // Заголовок: в первой строке есть нечисловое значение в колонке, числовой по остальной выборке
+        List<Integer> dataNumeric = numericColumns(rows.subList(1, rows.size()));
+        List<String> first = rows.get(0);
+        boolean header = dataNumeric.stream()
+                .anyMatch(i -> i < first.size() && !first.get(i).isBlank() && !isNumber(first.get(i)));
+        if (!header && dataNumeric.isEmpty()) {
+            header = rows.size() > 1 && first.stream().noneMatch(SchemaInferrer::isNumber)
+                    && rows.get(1).stream().anyMatch(SchemaInferrer::isNumber);
+        }
+        List<Integer> numeric = header ? dataNumeric : numericColumns(rows);
+
+        List<String> names = new ArrayList<>();
+        int columnCount = rows.stream().mapToInt(List::size).max().orElse(0);
+        for (int i = 0; i < columnCount; i++) {
+            names.add(header && i < first.size() && !first.get(i).isBlank() ? first.get(i).trim() : "column_" + i);
+        }
+
+        CsvSchema schema = new CsvSchema(delimiter, header, quoted, names, numeric);
+        log.debug("Inferred schema for {} from {} sampled lines: {}", source, lines.size(), schema);
+        return schema;
+    }
+
+    /**
+     * Первые headBytes файла и sampleBlocks случайных блоков; обрезанные на границе блока строки отбрасываются
+     */
+    private List<String> sample(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (PipelinedGzipInputStream.isCompressed(path.toString())) {
+            // В сжатом файле нет произвольного доступа — берём только распакованное начало
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+                byte[] head = in.readNBytes(headBytes);
+                boolean truncated = head.length == headBytes && in.read() >= 0;
+                readLines(new ByteArrayInputStream(head), truncated, lines);
+            }
+            return lines;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long headEnd = Math.min(size, headBytes);
+            readLines(new FileChannelRangeInputStream(channel, 0, headEnd), headEnd < size, lines);
+
+            if (headEnd < size) {
+                Random random = new Random(size);
+                ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+                for (int i = 0; i < sampleBlocks; i++) {
+                    long from = headEnd + (long) (random.nextDouble() * (size - headEnd));
+                    long start = FileChunker.nextRecordStart(channel, size, from, probe);
+                    long end = Math.min(size, start + blockBytes);
+                    if (start < end) {
+                        readLines(new FileChannelRangeInputStream(channel, start, end), end < size, lines);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void readLines(InputStream in, boolean dropLast, List<String> lines) throws IOException {
+        CsvByteScanner scanner = new CsvByteScanner(in, PROBE_SIZE);
+        List<String> block = new ArrayList<>();
+        while (scanner.next()) {
+            if (scanner.end() > scanner.start()) {
+                block.add(new String(scanner.buffer(), scanner.start(), scanner.end() - scanner.start(),
+                        StandardCharsets.ISO_8859_1));
+            }
+        }
+        if (dropLast && !block.isEmpty()) {
+            block.remove(block.size() - 1);
+        }
+        lines.addAll(block);
+    }
+
+    /**
+     * Разделитель, дающий больше одного поля и самое устойчивое число полей по строкам
+     */
+    private static char detectDelimiter(List<String> lines) {
+        char best = DELIMITERS[0];
+        double bestScore = 0;
+        for (char delimiter : DELIMITERS) {
+            Map<Integer, Integer> widths = new HashMap<>();
+            for (String line : lines) {
+                widths.merge(split(line, delimiter, true).size(), 1, Integer::sum);
+            }
+            Map.Entry<Integer, Integer> mode = widths.entrySet().stream()
+                    .max(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                    .orElseThrow();
+            if (mode.getKey() < 2) {
+                continue;
+            }
+            double score = (double) mode.getValue() / lines.size() + mode.getKey() * 1e-6;
+            if (score > bestScore) {
+                best = delimiter;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static List<Integer> numericColumns(List<List<String>> rows) {
+        Map<Integer, int[]> counts = new HashMap<>();
+        for (List<String> row : rows) {
+            for (int i = 0; i < row.size(); i++) {
+                String value = row.get(i);
+                if (value.isBlank()) {
+                    continue;
+                }
+                int[] c = counts.computeIfAbsent(i, k -> new int[2]);
+                c[0]++;
+                if (isNumber(value)) {
+                    c[1]++;
+                }
+            }
+        }
+        return counts.entrySet().stream()
+                .filter(e -> e.getValue()[1] > 0 && e.getValue()[1] >= NUMERIC_RATIO * e.getValue()[0])
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+    }
+
+    private static List<String> split(String line, char delimiter, boolean quoted) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted && c == '"') {
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (c == delimiter && !inQuotes) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isNumber(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        return new FastDoubleParser().parse(bytes, 0, bytes.length);
+    }
+}
@@ -1,49 +1,235 @@
 package by.lupach.backend.services.fileprocessing;
 
+import by.lupach.backend.dtos.AnalysisOptions;
 import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.services.fileprocessing.csv.FastDoubleParser;
+import by.lupach.backend.services.fileprocessing.csv.StructuralScanner;
+import by.lupach.backend.entities.UniqueCountMode;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import by.lupach.backend.services.fileprocessing.stats.DoubleHashSet;
+import by.lupach.backend.services.fileprocessing.stats.EquiWidthHistogram;
+import by.lupach.backend.services.fileprocessing.stats.GroupAggregator;
+import by.lupach.backend.services.fileprocessing.stats.HyperLogLog;
+import by.lupach.backend.services.fileprocessing.stats.KllSketch;
+import by.lupach.backend.services.fileprocessing.stats.LogHistogram;
+import by.lupach.backend.services.fileprocessing.stats.OffHeapBudget;
+import by.lupach.backend.services.fileprocessing.stats.SpillingDoubleCounter;
+import by.lupach.backend.services.fileprocessing.stats.StatisticsAccumulator;
+import by.lupach.backend.services.fileprocessing.stats.UniqueCounter;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.Paths;
+import java.util.List;
 
 @Component
+@RequiredArgsConstructor
 public class StatisticsCalculator {
 
-    public void processLine(String line, AnalysisStatistics stats, Set<Double> unique) {
-        stats.setTotalRecords(stats.getTotalRecords() + 1);
-        try {
-            String[] parts = line.split(",", 2);
-            if (parts.length != 2) {
-                stats.setSkippedRecords(stats.getSkippedRecords() + 1);
-                return;
+    private final StructuralScanner structuralScanner;
+
+    @Value("${app.processing.unique.mode:EXACT}")
+    private UniqueCountMode uniqueCountMode;
+
+    @Value("${app.processing.unique.hll-precision:14}")
+    private int hllPrecision;
+
+    @Value("${app.processing.unique.memory-budget:67108864}")
+    private long uniqueMemoryBudget;
+
+    @Value("${app.processing.unique.spill-dir:${app.upload.dir:uploads}/spill}")
+    private String spillDir;
+
+    @Value("${app.processing.quantiles.k:200}")
+    private int quantileSketchK;
+
+    @Value("${app.processing.group-by.memory-budget:67108864}")
+    private long groupMemoryBudget;
+
+    @Value("${app.processing.group-by.spill-partitions:16}")
+    private int groupSpillPartitions;
+
+    @Value("${app.processing.histogram.bins:64}")
+    private int histogramBins;
+
+    @Value("${app.processing.histogram.log-precision-bits:2}")
+    private int logHistogramPrecisionBits;
+
+    private OffHeapBudget uniqueBudget;
+
+    /**
+     * Бюджет счётчиков EXACT_BOUNDED один на узел; неверное значение свойства обнаруживается при запуске
+     */
+    @PostConstruct
+    void init() {
+        uniqueBudget = new OffHeapBudget(uniqueMemoryBudget);
+    }
+
+    public StatisticsAccumulator newAccumulator() {
+        return new StatisticsAccumulator(
+                newUniqueCounter(),
+                new KllSketch(quantileSketchK),
+                new EquiWidthHistogram(histogramBins),
+                new LogHistogram(logHistogramPrecisionBits)
+        );
+    }
+
+    public ColumnSetAccumulator newAccumulator(AnalysisOptions options, CsvSchema schema) {
+        if (options.groupByColumn() == null) {
+            return newColumnSet(options, schema);
+        }
+        int keyColumn = options.groupByColumn();
+        int valueColumn = groupValueColumn(options, schema, keyColumn);
+        // Группировке нужны поля строки по отдельности, поэтому прежний режим заменяется одной колонкой значения
+        ColumnSetAccumulator acc = options.multiColumn()
+                ? newColumnSet(options, schema)
+                : ColumnSetAccumulator.columns(this::newAccumulator, schema, new int[]{valueColumn});
+        acc.groupBy(keyColumn, valueColumn, new GroupAggregator(groupMemoryBudget, groupSpillPartitions, Paths.get(spillDir)));
+        return acc;
+    }
+
+    /**
+     * Значение для группировки: первая выбранная колонка, иначе первая числовая колонка схемы помимо ключа
+     */
+    private static int groupValueColumn(AnalysisOptions options, CsvSchema schema, int keyColumn) {
+        if (!options.columns().isEmpty()) {
+            return options.columns().get(0);
+        }
+        return schema.numericColumns().stream()
+                .filter(column -> column != keyColumn)
+                .findFirst()
+                .orElse(keyColumn == 1 ? 0 : 1);
+    }
+
+    private ColumnSetAccumulator newColumnSet(AnalysisOptions options, CsvSchema schema) {
+        if (!options.multiColumn()) {
+            return ColumnSetAccumulator.singleValue(this::newAccumulator, schema);
+        }
+        if (options.allColumns()) {
+            // Числовые колонки известны из схемы — нечисловые поля даже не пытаемся разбирать
+            return schema.numericColumns().isEmpty()
+                    ? ColumnSetAccumulator.allColumns(this::newAccumulator, schema)
+                    : ColumnSetAccumulator.columns(this::newAccumulator, schema,
+                            schema.numericColumns().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return ColumnSetAccumulator.columns(this::newAccumulator, schema,
+                options.columns().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Разбор записи [start, end) для обоих движков: в прежнем режиме значение — всё после первой запятой,
+     * в многоколоночном запись разбивается на поля один раз с учётом кавычек, и каждое выбранное поле
+     * разбирается тем же парсером. Движок LINE передаёт сюда байты прочитанной строки.
+     */
+    public void processRecord(byte[] buf, int start, int end, FastDoubleParser parser, ColumnSetAccumulator acc) {
+        if (acc.tokenized()) {
+            processRecordFields(buf, start, end, parser, acc);
+            return;
+        }
+        StatisticsAccumulator column = acc.column(1);
+        byte delimiter = (byte) acc.schema().delimiter();
+        int comma = structuralScanner.indexOfEither(buf, start, end, delimiter, delimiter);
+        if (comma == end || !parseField(buf, comma + 1, end, parser, acc.schema().quoted())) {
+            column.skip();
+            return;
+        }
+        column.add(parser.value());
+    }
+
+    private void processRecordFields(byte[] buf, int start, int end, FastDoubleParser parser, ColumnSetAccumulator acc) {
+        byte delimiter = (byte) acc.schema().delimiter();
+        boolean quoted = acc.schema().quoted();
+        byte quote = quoted ? (byte) '"' : delimiter;
+        boolean inQuotes = false;
+        int limit = acc.columnLimit();
+        int keyColumn = acc.groupKeyColumn();
+        int valueColumn = acc.groupValueColumn();
+        int keyFrom = -1;
+        int keyTo = -1;
+        boolean hasGroupValue = false;
+        double groupValue = 0;
+
+        int field = 0;
+        int fieldStart = start;
+        int i = start;
+        while (true) {
+            // Переход сразу к следующему разделителю или кавычке
+            i = structuralScanner.indexOfEither(buf, i, end, delimiter, quote);
+            if (i < end) {
+                if (quoted && buf[i] == '"') {
+                    inQuotes = !inQuotes;
+                    i++;
+                    continue;
+                }
+                if (inQuotes) {
+                    i++;
+                    continue;
+                }
             }
+            if (field == keyColumn) {
+                keyFrom = fieldStart;
+                keyTo = i;
+            }
+            StatisticsAccumulator column = acc.column(field);
+            if (column != null) {
+                if (parseField(buf, fieldStart, i, parser, quoted)) {
+                    column.add(parser.value());
+                    if (field == valueColumn) {
+                        hasGroupValue = true;
+                        groupValue = parser.value();
+                    }
+                } else {
+                    column.skip();
+                }
+            }
+            // Поля правее последней выбранной колонки и ключа не разбираем
+            if (++field >= limit || i == end) {
+                break;
+            }
+            fieldStart = ++i;
+        }
+        acc.endRecord(field);
 
-            double value = Double.parseDouble(parts[1].trim());
-            stats.setProcessedRecords(stats.getProcessedRecords() + 1);
-            stats.setMinValue(Math.min(stats.getMinValue(), value));
-            stats.setMaxValue(Math.max(stats.getMaxValue(), value));
-            stats.setSumValue(stats.getSumValue() + value);
-            stats.setSumOfSquares(stats.getSumOfSquares() + (value * value));
-            unique.add(value);
-        } catch (Exception e) {
-            stats.setSkippedRecords(stats.getSkippedRecords() + 1);
+        if (hasGroupValue && keyFrom >= 0) {
+            if (quoted && keyTo - keyFrom >= 2 && buf[keyFrom] == '"' && buf[keyTo - 1] == '"') {
+                keyFrom++;
+                keyTo--;
+            }
+            acc.groups().add(buf, keyFrom, keyTo, groupValue);
         }
     }
 
-    public void finalizeStats(AnalysisStatistics stats, Set<Double> unique) {
-        long processed = stats.getProcessedRecords();
-        if (processed > 0) {
-            double mean = stats.getSumValue() / processed;
-            stats.setMeanValue(mean);
-            double variance = (stats.getSumOfSquares() / processed) - mean * mean;
-            stats.setStdDeviation(Math.sqrt(Math.max(variance, 0)));
+    private static boolean parseField(byte[] buf, int from, int to, FastDoubleParser parser, boolean quoted) {
+        if (quoted) {
+            while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+            while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+            if (to - from >= 2 && buf[from] == '"' && buf[to - 1] == '"') {
+                from++;
+                to--;
+            }
         }
-        if (stats.getMinValue() == Double.MAX_VALUE) stats.setMinValue(0d);
-        if (stats.getMaxValue() == Double.MIN_VALUE) stats.setMaxValue(0d);
-        stats.setUniqueValuesCount((long) unique.size());
+        return parser.parse(buf, from, to);
+    }
+
+    public List<AnalysisStatistics> finalizeStats(ColumnSetAccumulator acc) {
+        return acc.toStatistics();
+    }
+
+    /**
+     * Сливает частичную статистику куска файла в общую (до finalizeStats)
+     */
+    public void merge(ColumnSetAccumulator target, ColumnSetAccumulator part) {
+        target.merge(part);
     }
 
-    public Set<Double> newUniqueSet() {
-        return new HashSet<>();
+    public UniqueCounter newUniqueCounter() {
+        return switch (uniqueCountMode) {
+            case EXACT -> new DoubleHashSet();
+            case EXACT_BOUNDED -> new SpillingDoubleCounter(uniqueBudget, Paths.get(spillDir));
+            case APPROXIMATE -> new HyperLogLog(hllPrecision);
+        };
     }
 }
@@ -1,23 +1,37 @@
 package by.lupach.backend.services.fileprocessing;
 
+import by.lupach.backend.dtos.AnalysisOptions;
 import by.lupach.backend.dtos.FileQueueMessageDTO;
 import by.lupach.backend.entities.AnalysisResult;
 import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
 import by.lupach.backend.entities.FileEntity;
 import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
 import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.FileAnalysisService;
 import by.lupach.backend.services.HistoryService;
+import by.lupach.backend.services.files.FileQueuePublisher;
 import by.lupach.backend.services.files.FileStorageService;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import by.lupach.backend.services.redis.CancellationRedisService;
+import by.lupach.backend.services.redis.ProcessingQueueRedisService;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.function.LongSupplier;
 
 @Slf4j
 @Service
@@ -26,6 +40,14 @@ public class StreamingFileProcessingOrchestrator {
 
     private final FileEntityRepository fileRepo;
     private final StreamingFileProcessor processor;
+    private final DistributedFileProcessor distributedProcessor;
+    private final SchemaInferrer schemaInferrer;
+    private final ApproximateAnalyzer approximateAnalyzer;
+    private final FileAnalysisService fileAnalysisService;
+    private final FileQueuePublisher queuePublisher;
+    private final ProcessingQueueRedisService queueService;
+    private final CancellationRedisService cancellation;
+    private final CheckpointStore checkpointStore;
     private final ProgressNotifier notifier;
     private final HistoryService historyService;
     private final FileStorageService fileStorageService;
@@ -33,63 +55,234 @@ public class StreamingFileProcessingOrchestrator {
     @Value("${app.upload.dir:uploads}")
     private String uploadDir;
 
-    private final ExecutorService exec = Executors.newCachedThreadPool();
+    // Выполняемые задачи по файлам — для отмены; каждая выполняется в потоке, который её запустил
     private final ConcurrentHashMap<UUID, Future<AnalysisResult>> tasks = new ConcurrentHashMap<>();
 
-    public AnalysisResult startProcessing(FileQueueMessageDTO msg) {
+    // При остановке приложения прерванные задачи не отменяются: их контрольные точки нужны для возобновления
+    private volatile boolean shuttingDown;
+
+    /**
+     * Задачи, прерванные падением или остановкой процесса, снова ставятся в очередь и продолжаются с контрольных точек
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        for (FileQueueMessageDTO msg : checkpointStore.unfinishedJobs()) {
+            if (queueService.isLeased(msg)) {
+                // Каталог загрузок общий: задачу сейчас выполняет другой живой узел
+                continue;
+            }
+            if (fileRepo.existsById(msg.fileId())) {
+                log.info("Возобновление незавершённой обработки файла {}", msg.fileId());
+                queuePublisher.enqueue(msg);
+            } else {
+                checkpointStore.finish(msg.fileId());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+    }
+
+    /**
+     * Обработка в текущем потоке — потоке обработчика {@link FileJobScheduler}; null — отменена или прервана
+     * остановкой. Ошибка обработки пробрасывается: повторить задачу или признать файл ошибочным решает очередь.
+     */
+    public AnalysisResult startProcessing(FileQueueMessageDTO msg) throws Exception {
         UUID id = msg.fileId();
-        if (tasks.containsKey(id)) {
+        FutureTask<AnalysisResult> task = new FutureTask<>(() -> handleProcessing(msg));
+        if (tasks.putIfAbsent(id, task) != null) {
             log.warn("Задача для файла {} уже запущена", id);
             return null;
         }
 
-        Future<AnalysisResult> f = exec.submit(() -> handleProcessing(msg));
-        tasks.put(id, f);
+        try {
+            task.run();
+            return task.get();
+        } catch (CancellationException e) {
+            // Отмена уже обработана внутри задачи
+            return null;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            tasks.remove(id, task);
+            // Прерывание от отмены не должно достаться следующей задаче этого обработчика
+            Thread.interrupted();
+        }
+    }
 
+    /**
+     * Анализ загрузки по мере поступления тела запроса. Выполняется в потоке запроса — поток тела нельзя
+     * оставлять читающим после ответа; отмена прерывает этот поток так же, как задачу из очереди.
+     * null — анализ отменён.
+     */
+    public AnalysisResult processUpload(FileEntity file, InputStream body, LongSupplier received,
+                                        long expectedSize) throws Exception {
+        UUID id = file.getId();
+        FutureTask<AnalysisResult> task = new FutureTask<>(() -> handleUpload(file, body, received, expectedSize));
+        if (tasks.putIfAbsent(id, task) != null) {
+            throw new InvalidAnalysisRequestException("File is already being processed: " + id);
+        }
         try {
-            return f.get(); // дождаться результата
-        } catch (Exception e) {
-            log.error("Ошибка ожидания результата обработки: {}", e.getMessage());
+            task.run();
+            return task.get();
+        } catch (CancellationException e) {
+            handleCancel(id);
             return null;
+        } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception c ? c : e;
+            log.error("Ошибка обработки загрузки {}: {}", id, cause.getMessage());
+            handleFailure(id, cause);
+            throw cause;
+        } finally {
+            tasks.remove(id, task);
+            // Прерывание от отмены не должно достаться следующему запросу в этом потоке
+            Thread.interrupted();
+        }
+    }
+
+    private AnalysisResult handleUpload(FileEntity file, InputStream body, LongSupplier received,
+                                        long expectedSize) throws Exception {
+        AnalysisResult res = new AnalysisResult();
+        res.setProcessStartTime(LocalDateTime.now());
+
+        AnalysisOptions options = file.getAnalysisOptions() != null ? file.getAnalysisOptions() : AnalysisOptions.singleColumn();
+        try (InputStream data = processor.decode(body, PipelinedGzipInputStream.isCompressed(file.getFileName()))) {
+            CsvSchema schema = schemaInferrer.infer(data);
+            file.setSchema(schema);
+            fileRepo.save(file);
+
+            AnalysisOutput output = processor.processStream(data, received, expectedSize, file.getId(), options, schema);
+            List<AnalysisStatistics> stats = output.statistics();
+            res.setGroups(output.groups());
+            res.setStatistics(stats.isEmpty() ? null : stats.get(0));
+            if (options.multiColumn()) {
+                res.setColumnStatistics(stats);
+            }
+            res.setProcessEndTime(LocalDateTime.now());
+            return res;
         }
     }
 
-    private AnalysisResult handleProcessing(FileQueueMessageDTO msg) {
+    private AnalysisResult handleProcessing(FileQueueMessageDTO msg) throws Exception {
         UUID id = msg.fileId();
         Path path = Paths.get(uploadDir, msg.filePath());
 
         try {
+            checkpointStore.begin(msg);
             AnalysisResult res = new AnalysisResult();
             res.setProcessStartTime(LocalDateTime.now());
 
-            AnalysisStatistics stats = processor.processFile(path, id);
+            AnalysisOptions options = msg.options() != null ? msg.options() : AnalysisOptions.singleColumn();
+            CsvSchema schema = schemaInferrer.infer(path);
+            fileRepo.findById(id).ifPresent(inferred -> {
+                inferred.setSchema(schema);
+                fileRepo.save(inferred);
+            });
+
+            if (options.approximate()) {
+                if (approximateAnalyzer.supports(path)) {
+                    publishApproximate(msg, path, options, schema, res);
+                    return null;
+                }
+                log.debug("Файл {} мал или сжат — приближённая оценка пропущена, сразу точный проход", id);
+            }
+
+            // Самые большие файлы разбираются кусками на всех узлах
+            AnalysisOutput output = distributedProcessor.supports(path)
+                    ? distributedProcessor.process(path, msg.filePath(), id, options, schema)
+                    : processor.processFile(path, id, options, schema);
+            List<AnalysisStatistics> stats = output.statistics();
+            res.setGroups(output.groups());
             FileEntity file = fileRepo.findById(id).orElseThrow();
             res.setFile(file);
 
-            res.setStatistics(stats);
+            res.setStatistics(stats.isEmpty() ? null : stats.get(0));
+            if (options.multiColumn()) {
+                res.setColumnStatistics(stats);
+            }
             res.setProcessEndTime(LocalDateTime.now());
 
             return res;
-        } catch (InterruptedException e) {
-            handleCancel(id);
-            Thread.currentThread().interrupt();
         } catch (Exception e) {
+            // Прерывание во время чтения канала приходит как ClosedByInterruptException — это та же отмена
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                if (shuttingDown) {
+                    log.info("Обработка файла {} прервана остановкой приложения, продолжится с контрольной точки", id);
+                } else {
+                    handleCancel(id);
+                }
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (shuttingDown) {
+                log.info("Обработка файла {} прервана остановкой приложения: {}", id, e.getMessage());
+                return null;
+            }
             log.error("Ошибка обработки файла {}: {}", id, e.getMessage());
-            handleFailure(id, e);
+            throw e;
         } finally {
-            tasks.remove(id);
 //            historyService.cleanupOldRecords();
 //            fileStorageService.deletePhysicalFile(path);
         }
-        return null;
+    }
+
+    /**
+     * Сохраняет оценку по выборке как результат сразу, а точный проход ставит в очередь —
+     * его результат затем заменит приближённый в {@link FileAnalysisService#saveResult}
+     */
+    private void publishApproximate(FileQueueMessageDTO msg, Path path, AnalysisOptions options,
+                                    CsvSchema schema, AnalysisResult res) throws Exception {
+        UUID id = msg.fileId();
+        ApproximateOutput estimate = approximateAnalyzer.estimate(path, options, schema);
+        List<AnalysisStatistics> stats = estimate.statistics();
+
+        res.setFile(fileRepo.findById(id).orElseThrow());
+        res.setApproximate(true);
+        res.setSampledFraction(estimate.sampledFraction());
+        res.setStatistics(stats.isEmpty() ? null : stats.get(0));
+        if (options.multiColumn()) {
+            res.setColumnStatistics(stats);
+        }
+        fileAnalysisService.saveResult(res);
+
+        queuePublisher.enqueue(new FileQueueMessageDTO(
+                id, msg.filePath(), msg.fileName(), msg.fileSize(), options.exact()));
+        notifier.notify(id, ProcessingStatus.PENDING, 0, "Approximate result ready, exact analysis queued");
+        checkpointStore.finish(id);
+    }
+
+    /**
+     * Результат сохранён — контрольные точки файла больше не нужны
+     */
+    public void completeProcessing(UUID id) {
+        checkpointStore.finish(id);
+    }
+
+    /**
+     * Задача исчерпала попытки — файл помечается ошибочным, а не возобновляется при следующем запуске
+     */
+    public void abandon(UUID id, String reason) {
+        handleFailure(id, new IllegalStateException(reason));
+    }
+
+    /**
+     * Попытка завершилась ошибкой, задача повторится после паузы; контрольные точки сохраняются для повтора
+     */
+    public void retryLater(UUID id, long attempt, Exception e) {
+        notifier.notify(id, ProcessingStatus.PENDING, 0, "Attempt " + attempt + " failed, retry scheduled: " + e.getMessage());
     }
 
     private void handleCancel(UUID id) {
+        checkpointStore.finish(id);
         notifier.notify(id, ProcessingStatus.CANCELLED, 0, "Cancelled by user");
+        recordCancelLatency(id);
 //        fileRepo.deleteById(id);
     }
 
     private void handleFailure(UUID id, Exception e) {
+        checkpointStore.finish(id);
         notifier.notify(id, ProcessingStatus.FAILED, 0, e.getMessage());
     }
 
@@ -97,4 +290,29 @@ public class StreamingFileProcessingOrchestrator {
         Future<?> f = tasks.get(id);
         if (f != null) f.cancel(true);
     }
+
+    /**
+     * Задача отменённого файла снята с очереди до начала обработки — отбрасывается вместе с контрольными точками
+     */
+    public void dropCancelled(UUID id) {
+        checkpointStore.finish(id);
+        cancellation.recordDropped();
+        log.info("Задача отменённого файла {} снята с очереди без обработки", id);
+    }
+
+    /**
+     * Узлы работают на одной машине или с синхронизированными часами — задержка считается по времени запроса из флага
+     */
+    private void recordCancelLatency(UUID id) {
+        try {
+            Long requestedAt = cancellation.requestedAt(id);
+            if (requestedAt != null) {
+                long latency = System.currentTimeMillis() - requestedAt;
+                cancellation.recordStopped(latency);
+                log.info("Обработка файла {} остановлена через {} мс после запроса отмены", id, latency);
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось записать задержку отмены файла {}: {}", id, e.getMessage());
+        }
+    }
 }
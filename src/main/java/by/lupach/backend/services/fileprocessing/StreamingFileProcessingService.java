@@ -1,8 +1,5 @@
 package by.lupach.backend.services.fileprocessing;
 
-import by.lupach.backend.dtos.FileQueueMessageDTO;
-import by.lupach.backend.entities.AnalysisResult;
-import by.lupach.backend.services.files.FileService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -13,14 +10,17 @@ import java.util.UUID;
 public class StreamingFileProcessingService {
 
     private final StreamingFileProcessingOrchestrator orchestrator;
-    private final FileService fileService;
+    private final DistributedChunkWorker chunkWorker;
 
-    public AnalysisResult processFile(FileQueueMessageDTO msg) {
-        return orchestrator.startProcessing(msg);
+    public void completeProcessing(UUID fileId) {
+        orchestrator.completeProcessing(fileId);
     }
 
+    /**
+     * Вызывается на каждом узле по рассылке отмены: останавливает только задачи этого узла
+     */
     public void cancelProcessing(UUID fileId) {
         orchestrator.cancelProcessing(fileId);
-        fileService.deleteAnalysisByFileId(fileId);
+        chunkWorker.cancel(fileId);
     }
 }
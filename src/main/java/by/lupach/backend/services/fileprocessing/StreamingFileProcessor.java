@@ -1,8 +1,18 @@
 package by.lupach.backend.services.fileprocessing;
 
+import by.lupach.backend.dtos.AnalysisOptions;
 import by.lupach.backend.entities.AnalysisResult;
 import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
 import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.services.fileprocessing.csv.CsvByteScanner;
+import by.lupach.backend.services.fileprocessing.csv.FastDoubleParser;
+import by.lupach.backend.services.fileprocessing.csv.FileChannelRangeInputStream;
+import by.lupach.backend.services.fileprocessing.csv.FileChunk;
+import by.lupach.backend.services.fileprocessing.csv.FileChunker;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import by.lupach.backend.services.fileprocessing.csv.StructuralScanner;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
 import by.lupach.backend.services.files.FileStorageService;
 import jakarta.annotation.Resource;
 import lombok.RequiredArgsConstructor;
@@ -10,17 +20,29 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 @Component
 @RequiredArgsConstructor
@@ -28,30 +50,143 @@ public class StreamingFileProcessor {
 
     private final StatisticsCalculator calculator;
     private final ProgressNotifier notifier;
+    private final ExecutorService chunkProcessingExecutor;
+    private final ExecutorService decompressionExecutor;
+    private final StructuralScanner structuralScanner;
+    private final CheckpointStore checkpointStore;
+    private final AnalysisStateStore stateStore;
+
+    private static final int CHECK_INTERVAL_MASK = (1 << 12) - 1;
 
     @Resource(name = "taskScheduler")
     private TaskScheduler scheduler;
 
-    public AnalysisStatistics processFile(Path path, UUID fileId) throws Exception {
-        AnalysisStatistics stats = AnalysisStatistics.builder()
-                .minValue(Double.MAX_VALUE)
-                .maxValue(Double.MIN_VALUE)
-                .totalRecords(0L)
-                .processedRecords(0L)
-                .skippedRecords(0L)
-                .sumValue(0.0)
-                .sumOfSquares(0.0)
-                .build();
+    @Value("${app.processing.parser-engine:BYTE}")
+    private ParserEngine parserEngine;
+
+    @Value("${app.processing.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${app.processing.parallel.enabled:true}")
+    private boolean parallelEnabled;
+
+    @Value("${app.processing.parallel.threads:0}")
+    private int parallelThreads;
+
+    @Value("${app.processing.parallel.min-file-size:8388608}")
+    private long parallelMinFileSize;
+
+    @Value("${app.processing.gzip.queue-depth:4}")
+    private int gzipQueueDepth;
 
+    public AnalysisOutput processFile(Path path, UUID fileId, AnalysisOptions options,
+                                      CsvSchema schema) throws Exception {
+        try (ColumnSetAccumulator acc = calculator.newAccumulator(options, schema)) {
+            analyze(path, fileId, options, acc);
+            // Состояние до финализации: по нему затем сливается статистика дописанных кусков
+            stateStore.save(fileId, acc);
+            List<AnalysisStatistics> statistics = calculator.finalizeStats(acc);
+            return new AnalysisOutput(statistics, acc.detachGroups());
+        }
+    }
+
+    /**
+     * Разбор только дописанной части файла [from, size) без уведомлений о прогрессе и контрольных точек;
+     * from — начало записи сразу после прежнего содержимого
+     */
+    public void scanAppended(Path path, long from, AnalysisOptions options, ColumnSetAccumulator acc) throws Exception {
         long totalSize = Files.size(path);
-        long bytesRead = 0;
+        int chunkCount = chunkCount(totalSize - from);
+        ScanContext ctx = new ScanContext(
+                new AtomicLongArray(chunkCount),
+                new AtomicReference<>(),
+                new LiveStatistics(chunkCount),
+                FileCheckpoints.DISABLED
+        );
+        scanBytes(path, from, totalSize, chunkCount, options, acc, ctx);
+    }
+
+    /**
+     * Разбор одного выровненного по записям куска файла в текущем потоке — кусок распределённого режима.
+     * Без уведомлений и контрольных точек: прогресс файла ведёт координатор по готовым кускам.
+     */
+    public void scanRange(Path path, FileChunk chunk, ColumnSetAccumulator acc) throws Exception {
+        ScanContext ctx = new ScanContext(
+                new AtomicLongArray(1),
+                new AtomicReference<>(),
+                new LiveStatistics(1),
+                FileCheckpoints.DISABLED
+        );
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            scanChunk(channel, chunk, 0, acc, ctx, false);
+        }
+    }
+
+    private void analyze(Path path, UUID fileId, AnalysisOptions options, ColumnSetAccumulator acc) throws Exception {
+        long totalSize = Files.size(path);
+        boolean compressed = PipelinedGzipInputStream.isCompressed(path.toString());
+        int chunkCount = compressed ? 1 : chunkCount(totalSize);
+
+        // Прогресс — сумма смещений по всем кускам, ошибка — через AtomicReference
+        ScanContext ctx = new ScanContext(
+                new AtomicLongArray(chunkCount),
+                new AtomicReference<>(),
+                new LiveStatistics(chunkCount),
+                parserEngine == ParserEngine.BYTE ? checkpointStore.open(fileId) : FileCheckpoints.DISABLED
+        );
+        scanWithProgress(fileId, totalSize, acc, ctx, () -> {
+            // Сжатый файл нельзя резать на куски: один поток распаковки и один поток разбора
+            if (compressed) {
+                scanCompressed(path, acc, ctx);
+            } else {
+                switch (parserEngine) {
+                    case LINE -> scanLines(path, acc, ctx);
+                    case BYTE -> scanBytes(path, 0, totalSize, chunkCount, options, acc, ctx);
+                }
+            }
+        });
+    }
+
+    /**
+     * Разбор данных по мере их поступления, без повторного чтения с диска: in — уже распакованный поток,
+     * received — сколько байт получено (по нему считается прогресс), totalSize — ожидаемый размер или -1.
+     * Одним куском и без контрольных точек: поток нельзя перечитать с середины.
+     */
+    public AnalysisOutput processStream(InputStream in, LongSupplier received, long totalSize, UUID fileId,
+                                        AnalysisOptions options, CsvSchema schema) throws Exception {
+        try (ColumnSetAccumulator acc = calculator.newAccumulator(options, schema)) {
+            ScanContext ctx = new ScanContext(
+                    new AtomicLongArray(1),
+                    new AtomicReference<>(),
+                    new LiveStatistics(1),
+                    FileCheckpoints.DISABLED
+            );
+            scanWithProgress(fileId, totalSize, acc, ctx, () -> {
+                CsvByteScanner scanner = new CsvByteScanner(in, bufferSize, structuralScanner);
+                scanRecords(scanner, true, 0, received, 0, acc, ctx);
+            });
+            stateStore.save(fileId, acc);
+            List<AnalysisStatistics> statistics = calculator.finalizeStats(acc);
+            return new AnalysisOutput(statistics, acc.detachGroups());
+        }
+    }
+
+    /**
+     * Распакованный поток для {@link #processStream}; поддерживает mark/reset, чтобы схема выводилась по его началу
+     */
+    public InputStream decode(InputStream raw, boolean compressed) {
+        InputStream data = compressed
+                ? new PipelinedGzipInputStream(raw, decompressionExecutor, bufferSize, gzipQueueDepth)
+                : raw;
+        return new BufferedInputStream(data, bufferSize);
+    }
 
-        Set<Double> unique = calculator.newUniqueSet();
+    private void scanWithProgress(UUID fileId, long totalSize, ColumnSetAccumulator acc, ScanContext ctx,
+                                  Scan scan) throws Exception {
         notifier.notify(fileId, ProcessingStatus.PROCESSING, 0, "Started processing");
 
-        // Используем AtomicReference для ошибки и AtomicLong для байтов
-        AtomicLong currentBytesRead = new AtomicLong(0);
-        AtomicReference<Exception> processingError = new AtomicReference<>();
+        AtomicLongArray chunkBytesRead = ctx.chunkBytesRead();
+        AtomicReference<Exception> processingError = ctx.processingError();
 
         ScheduledFuture<?> progressTask = scheduler.scheduleAtFixedRate(() -> {
             try {
@@ -61,33 +196,22 @@ public class StreamingFileProcessor {
                     return; // Прекращаем выполнение если есть ошибка
                 }
 
-                long bytes = currentBytesRead.get();
-                int progress = Math.min(100, (int) ((bytes * 100) / totalSize));
-                notifier.notify(fileId, ProcessingStatus.PROCESSING, progress, "Processed " + progress + "%");
+                long bytes = 0;
+                for (int i = 0; i < chunkBytesRead.length(); i++) {
+                    bytes += chunkBytesRead.get(i);
+                }
+                // Размер потока может быть неизвестен заранее — тогда сообщается только объём
+                int progress = totalSize == 0 ? 100 : totalSize < 0 ? 0 : Math.min(100, (int) ((bytes * 100) / totalSize));
+                String message = totalSize < 0 ? "Processed " + bytes + " bytes" : "Processed " + progress + "%";
+                notifier.notify(fileId, ProcessingStatus.PROCESSING, progress, message, ctx.live().collect(acc));
 
             } catch (Exception e) {
                 processingError.set(e);
             }
         }, Instant.now(), Duration.ofMillis(100));
 
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Проверяем прерывание основного потока
-                if (Thread.currentThread().isInterrupted()) {
-                    throw new InterruptedException();
-                }
-
-                // Проверяем ошибки из задачи уведомлений
-                Exception error = processingError.get();
-                if (error != null) {
-                    throw error;
-                }
-
-                bytesRead += line.getBytes().length + 1;
-                calculator.processLine(line, stats, unique);
-                currentBytesRead.set(bytesRead);
-            }
+        try {
+            scan.run();
 
             // Завершаем задачу уведомлений
             progressTask.cancel(false);
@@ -104,8 +228,207 @@ public class StreamingFileProcessor {
                 progressTask.cancel(false);
             }
         }
+    }
 
-        calculator.finalizeStats(stats, unique);
-        return stats;
+    private int chunkCount(long totalSize) {
+        if (parserEngine != ParserEngine.BYTE || !parallelEnabled || totalSize < parallelMinFileSize) {
+            return 1;
+        }
+        return parallelThreads > 0 ? parallelThreads : Runtime.getRuntime().availableProcessors();
     }
-}
\ No newline at end of file
+
+    private void scanLines(Path path, ColumnSetAccumulator acc, ScanContext ctx) throws Exception {
+        FastDoubleParser parser = new FastDoubleParser();
+        long bytesRead = 0;
+        long records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            // Строка заголовка из схемы не считается пропущенной записью
+            if (acc.schema().header() && (line = reader.readLine()) != null) {
+                bytesRead += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            while ((line = reader.readLine()) != null) {
+                // Поля разбираются тем же разбором с кавычками, что и в движке BYTE
+                byte[] record = line.getBytes(StandardCharsets.UTF_8);
+                bytesRead += record.length + 1;
+                calculator.processRecord(record, 0, record.length, parser, acc);
+
+                // Проверки, прогресс и снимок статистики — раз в 4096 записей, как в scanRecords
+                if ((++records & CHECK_INTERVAL_MASK) == 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    Exception error = ctx.processingError().get();
+                    if (error != null) {
+                        throw error;
+                    }
+                    ctx.chunkBytesRead().lazySet(0, bytesRead);
+                    ctx.live().offer(0, acc);
+                }
+            }
+        }
+        ctx.chunkBytesRead().set(0, bytesRead);
+    }
+
+    private void scanBytes(Path path, long from, long totalSize, int chunkCount, AnalysisOptions options,
+                           ColumnSetAccumulator acc, ScanContext ctx) throws Exception {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Нарезка детерминирована, поэтому после перезапуска куски совпадают с сохранёнными в контрольной точке
+            List<FileChunk> chunks = ctx.checkpoints().chunks(FileChunker.split(channel, from, totalSize, chunkCount));
+            if (chunks.size() <= 1) {
+                FileChunk whole = chunks.isEmpty() ? new FileChunk(from, from) : chunks.get(0);
+                scanChunk(channel, whole, 0, acc, ctx, false);
+                return;
+            }
+
+            FinishedParts finished = new FinishedParts();
+            List<Future<ColumnSetAccumulator>> futures = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                FileChunk chunk = chunks.get(i);
+                int slot = i;
+                futures.add(chunkProcessingExecutor.submit(() -> {
+                    ColumnSetAccumulator part = calculator.newAccumulator(options, acc.schema());
+                    try {
+                        scanChunk(channel, chunk, slot, part, ctx, true);
+                    } catch (Exception e) {
+                        part.close();
+                        throw e;
+                    }
+                    finished.add(part);
+                    return part;
+                }));
+            }
+
+            try {
+                for (Future<ColumnSetAccumulator> future : futures) {
+                    ColumnSetAccumulator part = future.get();
+                    calculator.merge(acc, part);
+                    finished.merged(part);
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            } finally {
+                // При отмене или ошибке останавливаем оставшиеся куски и освобождаем аккумуляторы неслитых
+                futures.forEach(f -> f.cancel(true));
+                finished.abandon();
+            }
+        }
+    }
+
+    private void scanCompressed(Path path, ColumnSetAccumulator acc, ScanContext ctx) throws Exception {
+        // Сжатый поток не позволяет перейти к смещению: распакованное начало пропускается без разбора
+        ctx.checkpoints().chunks(List.of(new FileChunk(0, Files.size(path))));
+        FileCheckpoints.ResumePoint resume = ctx.checkpoints().restore(0, acc);
+        long base = resume != null ? resume.offset() : 0;
+        try (PipelinedGzipInputStream in = new PipelinedGzipInputStream(
+                Files.newInputStream(path), decompressionExecutor, bufferSize, gzipQueueDepth)) {
+            in.skipNBytes(base);
+            CsvByteScanner scanner = new CsvByteScanner(in, bufferSize, structuralScanner);
+            if (resume != null && resume.pendingLf()) {
+                scanner.skipLeadingLf();
+            }
+            // Прогресс — по прочитанным сжатым байтам, totalSize тоже размер сжатого файла
+            scanRecords(scanner, resume == null, base, in::compressedPosition, 0, acc, ctx);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+    }
+
+    /**
+     * finalCheckpoint — сохранить состояние законченного куска, чтобы после сбоя он не пересчитывался
+     */
+    private void scanChunk(FileChannel channel, FileChunk chunk, int slot, ColumnSetAccumulator acc,
+                           ScanContext ctx, boolean finalCheckpoint) throws Exception {
+        FileCheckpoints.ResumePoint resume = ctx.checkpoints().restore(slot, acc);
+        long start = resume != null ? resume.offset() : chunk.start();
+        CsvByteScanner scanner = new CsvByteScanner(
+                new FileChannelRangeInputStream(channel, start, chunk.end()), bufferSize, structuralScanner);
+        if (resume != null && resume.pendingLf()) {
+            scanner.skipLeadingLf();
+        }
+        long skipped = start - chunk.start();
+        scanRecords(scanner, start == 0, start, () -> skipped + scanner.position(), slot, acc, ctx);
+        if (finalCheckpoint && (resume == null || resume.offset() < chunk.end())) {
+            ctx.checkpoints().save(slot, start + scanner.position(), scanner.pendingLf(), acc);
+        }
+    }
+
+    /**
+     * base — смещение в файле (для сжатого — в распакованных данных), с которого читает сканер
+     */
+    private void scanRecords(CsvByteScanner scanner, boolean fileStart, long base, LongSupplier position, int slot,
+                             ColumnSetAccumulator acc, ScanContext ctx) throws Exception {
+        FastDoubleParser parser = new FastDoubleParser();
+        long records = 0;
+
+        if (fileStart && acc.schema().header()) {
+            scanner.next();
+        }
+        while (scanner.next()) {
+            calculator.processRecord(scanner.buffer(), scanner.start(), scanner.end(), parser, acc);
+
+            // Проверки прерывания и ошибок — раз в 4096 записей, а не на каждой строке
+            if ((++records & CHECK_INTERVAL_MASK) == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                Exception error = ctx.processingError().get();
+                if (error != null) {
+                    throw error;
+                }
+                ctx.chunkBytesRead().lazySet(slot, position.getAsLong());
+                // Снимок статистики для прогресса публикует сам поток разбора — без блокировок
+                ctx.live().offer(slot, acc);
+                // Запись уже учтена, поэтому точка указывает на начало следующей
+                ctx.checkpoints().maybeSave(slot, base, scanner, acc);
+            }
+        }
+        ctx.chunkBytesRead().set(slot, position.getAsLong());
+    }
+
+    /**
+     * Аккумуляторы кусков, закончивших разбор, но ещё не слитых. Прерывание проверяется раз в 4096 записей,
+     * поэтому отменённый кусок может закончиться нормально уже после отмены: его результат из отменённой
+     * задачи никто не заберёт, и такой кусок закрывает свой аккумулятор сам
+     */
+    private static final class FinishedParts {
+        private final List<ColumnSetAccumulator> parts = new ArrayList<>();
+        private boolean abandoned;
+
+        synchronized void add(ColumnSetAccumulator part) {
+            if (abandoned) {
+                part.close();
+                throw new CancellationException("Scan abandoned");
+            }
+            parts.add(part);
+        }
+
+        synchronized void merged(ColumnSetAccumulator part) {
+            parts.removeIf(p -> p == part);
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            parts.forEach(ColumnSetAccumulator::close);
+            parts.clear();
+        }
+    }
+
+    /**
+     * Разбор, который {@link #scanWithProgress} выполняет под задачей прогресса
+     */
+    @FunctionalInterface
+    private interface Scan {
+        void run() throws Exception;
+    }
+
+    /**
+     * Общее состояние одного анализа для потоков разбора и задачи прогресса
+     */
+    private record ScanContext(
+            AtomicLongArray chunkBytesRead,
+            AtomicReference<Exception> processingError,
+            LiveStatistics live,
+            FileCheckpoints checkpoints
+    ) {}
+}
@@ -0,0 +1,140 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Построчный сканер CSV поверх переиспользуемого байтового буфера.
+ * Границы строк совпадают с {@link java.io.BufferedReader#readLine()}: \n, \r и \r\n.
+ * Текущая запись доступна как диапазон [{@link #start()}, {@link #end()}) в {@link #buffer()}
+ * и валидна только до следующего вызова {@link #next()}.
+ */
+public final class CsvByteScanner {
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream in;
+    private final StructuralScanner structural;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private long base;
+    private boolean skipLf;
+
+    private int recordStart;
+    private int recordEnd;
+
+    public CsvByteScanner(InputStream in, int bufferSize) {
+        this(in, bufferSize, ScalarStructuralScanner.INSTANCE);
+    }
+
+    public CsvByteScanner(InputStream in, int bufferSize, StructuralScanner structural) {
+        this.in = in;
+        this.structural = structural;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    public boolean next() throws IOException {
+        if (pos >= limit && !fill()) {
+            return false;
+        }
+        if (skipLf) {
+            skipLf = false;
+            if (buf[pos] == LF && ++pos >= limit && !fill()) {
+                return false;
+            }
+        }
+
+        int scanned = 0;
+        while (true) {
+            int i = indexOfLineEnd(pos + scanned, limit);
+            if (i >= 0) {
+                recordStart = pos;
+                recordEnd = i;
+                if (buf[i] == CR) {
+                    if (i + 1 < limit) {
+                        if (buf[i + 1] == LF) i++;
+                    } else {
+                        skipLf = true;
+                    }
+                }
+                pos = i + 1;
+                return true;
+            }
+
+            scanned = limit - pos;
+            if (!fill()) {
+                // Последняя строка без перевода строки
+                recordStart = pos;
+                recordEnd = limit;
+                pos = limit;
+                return true;
+            }
+        }
+    }
+
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int start() {
+        return recordStart;
+    }
+
+    public int end() {
+        return recordEnd;
+    }
+
+    /**
+     * Количество байт, прочитанных до конца текущей записи включительно.
+     */
+    public long position() {
+        return base + pos;
+    }
+
+    /**
+     * Текущая запись кончилась на \r в конце буфера: следующий \n ещё относится к ней
+     */
+    public boolean pendingLf() {
+        return skipLf;
+    }
+
+    /**
+     * Продолжение с позиции сразу после \r: ведущий \n будет пропущен, а не прочитан как пустая строка
+     */
+    public void skipLeadingLf() {
+        skipLf = true;
+    }
+
+    private int indexOfLineEnd(int from, int to) {
+        int i = structural.indexOfEither(buf, from, to, LF, CR);
+        return i == to ? -1 : i;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            int remaining = limit - pos;
+            System.arraycopy(buf, pos, buf, 0, remaining);
+            base += pos;
+            limit = remaining;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] grown = new byte[buf.length << 1];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+
+        int n;
+        do {
+            n = in.read(buf, limit, buf.length - limit);
+        } while (n == 0);
+
+        if (n < 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор double прямо из байтов без создания строк.
+ * Результат совпадает с {@code Double.parseDouble(new String(...).trim())}:
+ * точные случаи считаются по быстрому пути Клингера (мантисса до 2^53, порядок до 10^22),
+ * остальные допустимые записи (NaN, Infinity, hex, длинные мантиссы) уходят в {@link Double#parseDouble}.
+ * Экземпляр не потокобезопасен — один парсер на поток.
+ */
+public final class FastDoubleParser {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    private static final int MAX_EXPONENT = 100_000;
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFINITY = "Infinity".getBytes(StandardCharsets.US_ASCII);
+
+    private double value;
+
+    /**
+     * @return {@code true}, если диапазон [from, to) содержит корректное число; значение доступно через {@link #value()}
+     */
+    public boolean parse(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+        if (from == to) {
+            return false;
+        }
+
+        int i = from;
+        boolean negative = false;
+        byte c = buf[i];
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++i == to) return false;
+            c = buf[i];
+        }
+        if (c == 'N' || c == 'I') {
+            // Текст на N/I не уходит в parseDouble: исключение на каждой нечисловой строке слишком дорого
+            return (matches(buf, i, to, NAN) || matches(buf, i, to, INFINITY)) && parseSlow(buf, from, to);
+        }
+        if (c == '0' && i + 1 < to && (buf[i + 1] | 0x20) == 'x') {
+            return parseSlow(buf, from, to);
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean sawDigit = false;
+        boolean truncated = false;
+
+        for (; i < to && (c = buf[i]) >= '0' && c <= '9'; i++) {
+            sawDigit = true;
+            if (mantissa == 0 && c == '0') continue;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            } else {
+                truncated = true;
+            }
+        }
+        if (i < to && buf[i] == '.') {
+            for (i++; i < to && (c = buf[i]) >= '0' && c <= '9'; i++) {
+                sawDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    exp10--;
+                    continue;
+                }
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    exp10--;
+                } else {
+                    truncated = true;
+                }
+            }
+        }
+        if (!sawDigit) {
+            return false;
+        }
+
+        if (i < to && (buf[i] | 0x20) == 'e') {
+            i++;
+            boolean negativeExp = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                negativeExp = buf[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean sawExpDigit = false;
+            for (; i < to && (c = buf[i]) >= '0' && c <= '9'; i++) {
+                sawExpDigit = true;
+                if (exp < MAX_EXPONENT) exp = exp * 10 + (c - '0');
+            }
+            if (!sawExpDigit) {
+                return false;
+            }
+            exp10 += negativeExp ? -exp : exp;
+        }
+        if (i < to) {
+            c = (byte) (buf[i] | 0x20);
+            if ((c == 'd' || c == 'f') && i + 1 == to) {
+                i++;
+            } else {
+                return false;
+            }
+        }
+
+        if (mantissa == 0) {
+            value = negative ? -0.0 : 0.0;
+            return true;
+        }
+        if (truncated || mantissa > MAX_EXACT_MANTISSA || exp10 < -22 || exp10 > 22) {
+            return parseSlow(buf, from, to);
+        }
+
+        double v = exp10 >= 0 ? mantissa * POWERS_OF_TEN[exp10] : mantissa / POWERS_OF_TEN[-exp10];
+        value = negative ? -v : v;
+        return true;
+    }
+
+    public double value() {
+        return value;
+    }
+
+    private static boolean matches(byte[] buf, int from, int to, byte[] literal) {
+        if (to - from != literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (buf[from + i] != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseSlow(byte[] buf, int from, int to) {
+        try {
+            value = Double.parseDouble(new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Поток, читающий диапазон [start, end) файла позиционными чтениями.
+ * Позиция канала не меняется, поэтому один канал можно делить между потоками.
+ */
+public final class FileChannelRangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    public FileChannelRangeInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        int toRead = (int) Math.min(len, end - position);
+        int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+        if (n < 0) {
+            return -1;
+        }
+        position += n;
+        return n;
+    }
+}
@@ -0,0 +1,11 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+/**
+ * Диапазон байт [start, end) файла, начинающийся с начала записи.
+ */
+public record FileChunk(long start, long end) {
+
+    public long length() {
+        return end - start;
+    }
+}
@@ -0,0 +1,78 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Нарезает файл на куски по границам строк, чтобы каждый кусок можно было сканировать независимо.
+ * Граница ставится сразу после \n или одиночного \r, поэтому пара \r\n никогда не разрывается.
+ */
+public final class FileChunker {
+
+    private static final int PROBE_SIZE = 8192;
+
+    private FileChunker() {
+    }
+
+    public static List<FileChunk> split(FileChannel channel, long size, int parts) throws IOException {
+        return split(channel, 0, size, parts);
+    }
+
+    /**
+     * Нарезка диапазона [from, size); from должен быть началом записи (например, конец прежнего содержимого файла)
+     */
+    public static List<FileChunk> split(FileChannel channel, long from, long size, int parts) throws IOException {
+        List<FileChunk> chunks = new ArrayList<>(parts);
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+
+        long start = from;
+        for (int k = 1; k < parts && start < size; k++) {
+            long target = from + (size - from) * k / parts;
+            long boundary = nextRecordStart(channel, size, Math.max(target, start + 1), probe);
+            if (boundary > start) {
+                chunks.add(new FileChunk(start, boundary));
+                start = boundary;
+            }
+        }
+        if (start < size) {
+            chunks.add(new FileChunk(start, size));
+        }
+        return chunks;
+    }
+
+    /**
+     * Наименьшая позиция {@code >= from}, с которой начинается запись при последовательном чтении.
+     */
+    public static long nextRecordStart(FileChannel channel, long size, long from, ByteBuffer probe) throws IOException {
+        if (from <= 0) {
+            return 0;
+        }
+        long pos = from - 1;
+        boolean afterCr = false;
+
+        while (pos < size) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte c = probe.get(i);
+                if (afterCr) {
+                    return c == '\n' ? pos + i + 1 : pos + i;
+                }
+                if (c == '\n') {
+                    return pos + i + 1;
+                }
+                if (c == '\r') {
+                    afterCr = true;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+}
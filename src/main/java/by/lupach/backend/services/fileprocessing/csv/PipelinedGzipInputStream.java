@@ -0,0 +1,166 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Распаковка gzip в отдельном потоке: распаковщик заполняет блоки и передаёт их через ограниченную очередь,
+ * а читатель разбирает уже распакованные данные — inflate и разбор идут параллельно на двух ядрах.
+ * Блоки переиспользуются через очередь свободных буферов. {@link #compressedPosition()} — сколько
+ * сжатых байт уже прочитано, по нему считается прогресс.
+ */
+public final class PipelinedGzipInputStream extends InputStream {
+
+    private static final Block END = new Block(new byte[0], 0, null);
+
+    private final BlockingQueue<Block> filled;
+    private final BlockingQueue<byte[]> free;
+    private final CountingInputStream source;
+    private final Future<?> inflater;
+
+    private Block current;
+    private int pos;
+    private boolean finished;
+
+    public PipelinedGzipInputStream(InputStream compressed, ExecutorService executor, int blockSize, int depth) {
+        this.source = new CountingInputStream(compressed);
+        // Место под все буферы плюс END или ошибку — финальный блок всегда помещается без ожидания
+        this.filled = new ArrayBlockingQueue<>(depth + 2);
+        this.free = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth + 1; i++) {
+            free.add(new byte[blockSize]);
+        }
+        this.inflater = executor.submit(this::inflate);
+    }
+
+    public static boolean isCompressed(String fileName) {
+        return fileName.toLowerCase().endsWith(".gz");
+    }
+
+    public long compressedPosition() {
+        return source.count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (current == null || pos == current.length()) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length() - pos);
+        System.arraycopy(current.data(), pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.cancel(true);
+        source.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (current != null) {
+            free.offer(current.data());
+            current = null;
+        }
+        Block block;
+        try {
+            block = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+        }
+        if (block.error() != null) {
+            finished = true;
+            // Исключение источника (например, превышение размера загрузки) пробрасывается со своим типом
+            if (block.error() instanceof InflaterFailure && block.error().getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw block.error();
+        }
+        if (block == END) {
+            finished = true;
+            return false;
+        }
+        current = block;
+        pos = 0;
+        return true;
+    }
+
+    private void inflate() {
+        try {
+            // GZIPInputStream читает и склеенные gzip-члены (cat a.gz b.gz)
+            try (GZIPInputStream gzip = new GZIPInputStream(source, 1 << 16)) {
+                while (true) {
+                    byte[] data = free.take();
+                    int n = gzip.readNBytes(data, 0, data.length);
+                    if (n == 0) {
+                        break;
+                    }
+                    filled.put(new Block(data, n, null));
+                }
+            }
+            filled.put(END);
+        } catch (InterruptedException e) {
+            // читатель закрыл поток
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Любая ошибка завершает поток блоком с ошибкой — иначе читатель ждал бы следующего блока вечно
+            IOException error = e instanceof IOException io ? io : new InflaterFailure(e);
+            filled.offer(new Block(null, 0, error));
+        }
+    }
+
+    private record Block(byte[] data, int length, IOException error) {
+    }
+
+    /**
+     * Не-IO ошибка потока распаковки, переданная читателю
+     */
+    private static final class InflaterFailure extends IOException {
+        InflaterFailure(Throwable cause) {
+            super("Decompression failed: " + cause, cause);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) count++;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
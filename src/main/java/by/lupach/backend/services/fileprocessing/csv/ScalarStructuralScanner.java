@@ -0,0 +1,25 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+public final class ScalarStructuralScanner implements StructuralScanner {
+
+    public static final ScalarStructuralScanner INSTANCE = new ScalarStructuralScanner();
+
+    private ScalarStructuralScanner() {
+    }
+
+    @Override
+    public int indexOfEither(byte[] buf, int from, int to, byte a, byte b) {
+        for (int i = from; i < to; i++) {
+            byte c = buf[i];
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,15 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+/**
+ * Поиск структурных символов CSV (перевод строки, разделитель, кавычка) в байтовом буфере.
+ * Реализации не имеют состояния и разделяются между потоками.
+ */
+public interface StructuralScanner {
+
+    /**
+     * Индекс первого байта из [from, to), равного {@code a} или {@code b}; {@code to}, если таких нет
+     */
+    int indexOfEither(byte[] buf, int from, int to, byte a, byte b);
+
+    String name();
+}
@@ -0,0 +1,52 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import by.lupach.backend.services.fileprocessing.ScannerType;
+
+/**
+ * Выбор реализации {@link StructuralScanner}. Векторная реализация создаётся через reflection,
+ * чтобы без модуля jdk.incubator.vector её класс вообще не загружался.
+ */
+public final class StructuralScanners {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_SCANNER = "by.lupach.backend.services.fileprocessing.csv.VectorStructuralScanner";
+
+    private StructuralScanners() {
+    }
+
+    public static StructuralScanner create(ScannerType type) {
+        return switch (type) {
+            case SCALAR -> ScalarStructuralScanner.INSTANCE;
+            case VECTOR -> {
+                if (!vectorAvailable()) {
+                    throw new IllegalStateException("Scanner VECTOR requires --add-modules " + VECTOR_MODULE);
+                }
+                yield vector();
+            }
+            case AUTO -> auto();
+        };
+    }
+
+    private static StructuralScanner auto() {
+        if (!vectorAvailable()) {
+            return ScalarStructuralScanner.INSTANCE;
+        }
+        try {
+            return vector();
+        } catch (IllegalStateException e) {
+            return ScalarStructuralScanner.INSTANCE;
+        }
+    }
+
+    public static boolean vectorAvailable() {
+        return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+
+    private static StructuralScanner vector() {
+        try {
+            return (StructuralScanner) Class.forName(VECTOR_SCANNER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Failed to create vector scanner", e);
+        }
+    }
+}
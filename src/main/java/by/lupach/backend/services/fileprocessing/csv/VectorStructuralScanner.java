@@ -0,0 +1,40 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Поиск на Vector API: блок из 32/64 байт (по ширине SIMD-регистров) сравнивается с обоими символами
+ * за одну операцию, хвост короче блока дочитывается побайтно.
+ * Загружается только через {@link StructuralScanners}, когда модуль jdk.incubator.vector подключён.
+ */
+final class VectorStructuralScanner implements StructuralScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public int indexOfEither(byte[] buf, int from, int to, byte a, byte b) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> hits = v.eq(a).or(v.eq(b));
+            if (hits.anyTrue()) {
+                return i + hits.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            byte c = buf[i];
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+}
@@ -0,0 +1,268 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Аккумуляторы статистики по колонкам для одного прохода по файлу.
+ * Колонка адресуется индексом поля в строке: {@code column(i)} возвращает её аккумулятор
+ * или {@code null}, если колонка не анализируется. В режиме «все колонки» аккумуляторы
+ * создаются по мере появления полей, а колонки без единого числа в итог не попадают.
+ */
+public final class ColumnSetAccumulator implements AutoCloseable {
+
+    private static final int INITIAL_COLUMNS = 16;
+
+    private final Supplier<StatisticsAccumulator> factory;
+    private final CsvSchema schema;
+    private final boolean tokenized;
+    private final boolean growable;
+    private StatisticsAccumulator[] columns;
+    private long records;
+
+    private GroupAggregator groups;
+    private int groupKeyColumn = -1;
+    private int groupValueColumn = -1;
+
+    private ColumnSetAccumulator(Supplier<StatisticsAccumulator> factory, CsvSchema schema,
+                                 StatisticsAccumulator[] columns, boolean tokenized, boolean growable) {
+        this.factory = factory;
+        this.schema = schema;
+        this.columns = columns;
+        this.tokenized = tokenized;
+        this.growable = growable;
+    }
+
+    /**
+     * Прежний режим: одно значение — всё после первой запятой
+     */
+    public static ColumnSetAccumulator singleValue(Supplier<StatisticsAccumulator> factory, CsvSchema schema) {
+        return selected(factory, schema, new int[]{1}, false);
+    }
+
+    public static ColumnSetAccumulator columns(Supplier<StatisticsAccumulator> factory, CsvSchema schema, int[] indexes) {
+        return selected(factory, schema, indexes, true);
+    }
+
+    public static ColumnSetAccumulator allColumns(Supplier<StatisticsAccumulator> factory, CsvSchema schema) {
+        return new ColumnSetAccumulator(factory, schema, new StatisticsAccumulator[INITIAL_COLUMNS], true, true);
+    }
+
+    private static ColumnSetAccumulator selected(Supplier<StatisticsAccumulator> factory, CsvSchema schema,
+                                                 int[] indexes, boolean tokenized) {
+        int size = Arrays.stream(indexes).max().orElse(-1) + 1;
+        StatisticsAccumulator[] columns = new StatisticsAccumulator[size];
+        for (int index : indexes) {
+            if (columns[index] == null) {
+                columns[index] = factory.get();
+            }
+        }
+        return new ColumnSetAccumulator(factory, schema, columns, tokenized, false);
+    }
+
+    public CsvSchema schema() {
+        return schema;
+    }
+
+    /**
+     * Включает группировку: значение колонки valueColumn агрегируется по байтам поля keyColumn
+     */
+    public void groupBy(int keyColumn, int valueColumn, GroupAggregator aggregator) {
+        this.groupKeyColumn = keyColumn;
+        this.groupValueColumn = valueColumn;
+        this.groups = aggregator;
+    }
+
+    public int groupKeyColumn() {
+        return groupKeyColumn;
+    }
+
+    public int groupValueColumn() {
+        return groupValueColumn;
+    }
+
+    public GroupAggregator groups() {
+        return groups;
+    }
+
+    /**
+     * Передаёт агрегатор групп вызывающему вместе с ответственностью за его закрытие
+     */
+    public GroupAggregator detachGroups() {
+        GroupAggregator detached = groups;
+        groups = null;
+        return detached;
+    }
+
+    /**
+     * {@code true} — строка разбивается на все поля, {@code false} — прежний разбор по первой запятой
+     */
+    public boolean tokenized() {
+        return tokenized;
+    }
+
+    /**
+     * Поля с индексом не меньше этого значения можно не разбирать
+     */
+    public int columnLimit() {
+        return growable ? Integer.MAX_VALUE : Math.max(columns.length, groupKeyColumn + 1);
+    }
+
+    public StatisticsAccumulator column(int index) {
+        if (index < columns.length) {
+            StatisticsAccumulator column = columns[index];
+            if (column != null || !growable) {
+                return column;
+            }
+        } else if (!growable) {
+            return null;
+        } else {
+            columns = Arrays.copyOf(columns, Math.max(columns.length << 1, index + 1));
+        }
+        // Новая колонка: строки до её появления считаются пропущенными
+        StatisticsAccumulator column = factory.get();
+        column.skip(records);
+        columns[index] = column;
+        return column;
+    }
+
+    /**
+     * Завершает строку из {@code fieldCount} полей: колонкам, которых в ней не было, засчитывается пропуск
+     */
+    public void endRecord(int fieldCount) {
+        for (int i = fieldCount; i < columns.length; i++) {
+            if (columns[i] != null) {
+                columns[i].skip();
+            }
+        }
+        records++;
+    }
+
+    public void merge(ColumnSetAccumulator other) {
+        if (other.columns.length > columns.length) {
+            columns = Arrays.copyOf(columns, other.columns.length);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            StatisticsAccumulator part = i < other.columns.length ? other.columns[i] : null;
+            if (columns[i] == null && part != null) {
+                // Колонка есть только в другом куске: забираем её аккумулятор вместе с владением
+                part.skip(records);
+                columns[i] = part;
+                other.columns[i] = null;
+            } else if (columns[i] != null && part != null) {
+                columns[i].merge(part);
+            } else if (columns[i] != null) {
+                columns[i].skip(other.records);
+            }
+        }
+        records += other.records;
+        if (groups != null && other.groups != null) {
+            groups.merge(other.groups);
+        }
+    }
+
+    public List<AnalysisStatistics> toStatistics() {
+        List<AnalysisStatistics> result = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            StatisticsAccumulator column = columns[i];
+            if (column == null || (growable && column.processedRecords() == 0)) {
+                continue;
+            }
+            AnalysisStatistics stats = column.toStatistics();
+            if (tokenized) {
+                stats.setColumnIndex(i);
+                stats.setColumnName(schema.columnName(i));
+            }
+            result.add(stats);
+        }
+        return result;
+    }
+
+    /**
+     * Снимок текущей статистики всех колонок; вызывается потоком, который ведёт разбор
+     */
+    public List<RunningStatistics> snapshot() {
+        List<RunningStatistics> result = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            StatisticsAccumulator column = columns[i];
+            if (column != null && (!growable || column.processedRecords() > 0)) {
+                result.add(column.snapshot(i));
+            }
+        }
+        return result;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        writeTo(out, SpillRunStore.INLINE);
+    }
+
+    /**
+     * runs — как сохраняются прогоны сброса на диск счётчиков и группировки
+     */
+    public void writeTo(DataOutputStream out, SpillRunStore runs) throws IOException {
+        out.writeLong(records);
+        out.writeInt(columns.length);
+        for (StatisticsAccumulator column : columns) {
+            out.writeBoolean(column != null);
+            if (column != null) {
+                column.writeTo(out, runs);
+            }
+        }
+        out.writeBoolean(groups != null);
+        if (groups != null) {
+            groups.writeTo(out, runs);
+        }
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        readFrom(in, SpillRunStore.INLINE);
+    }
+
+    /**
+     * Восстанавливает состояние из контрольной точки в аккумулятор, только что созданный с теми же параметрами
+     */
+    public void readFrom(DataInputStream in, SpillRunStore runs) throws IOException {
+        records = in.readLong();
+        int length = in.readInt();
+        if (length > columns.length) {
+            if (!growable) {
+                throw new IOException("Checkpoint has " + length + " columns, expected at most " + columns.length);
+            }
+            columns = Arrays.copyOf(columns, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.readBoolean()) {
+                if (columns[i] == null) {
+                    columns[i] = factory.get();
+                }
+                columns[i].readFrom(in, runs);
+            }
+        }
+        if (in.readBoolean()) {
+            if (groups == null) {
+                throw new IOException("Checkpoint has group-by state, but grouping is not enabled");
+            }
+            groups.readFrom(in, runs);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (StatisticsAccumulator column : columns) {
+            if (column != null) {
+                column.close();
+            }
+        }
+        if (groups != null) {
+            groups.close();
+        }
+    }
+}
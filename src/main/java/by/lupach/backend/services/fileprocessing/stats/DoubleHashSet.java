@@ -0,0 +1,132 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.UniqueCountMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Множество double с открытой адресацией по битам {@link Double#doubleToLongBits}.
+ * Без упаковки в Double: около 13 байт на значение против 50+ у HashSet.
+ * Битовый образ 0L (+0.0) служит маркером пустой ячейки и хранится отдельным флагом.
+ */
+public final class DoubleHashSet implements UniqueCounter {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final double MAX_LOAD_FACTOR = 0.6;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsZero;
+
+    public DoubleHashSet() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void add(double value) {
+        addBits(Double.doubleToLongBits(value));
+    }
+
+    public void addBits(long bits) {
+        if (bits == 0L) {
+            containsZero = true;
+            return;
+        }
+        long[] k = keys;
+        int i = (int) Hashing.mix64(bits) & mask;
+        while (true) {
+            long current = k[i];
+            if (current == 0L) {
+                k[i] = bits;
+                if (++size > resizeThreshold) {
+                    rehash(keys.length << 1);
+                }
+                return;
+            }
+            if (current == bits) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    public long count() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    @Override
+    public long runningCount() {
+        return count();
+    }
+
+    @Override
+    public void merge(UniqueCounter other) {
+        if (!(other instanceof DoubleHashSet set)) {
+            throw new IllegalArgumentException("Cannot merge " + other.mode() + " counter into " + mode());
+        }
+        set.forEachBits(this::addBits);
+    }
+
+    @Override
+    public UniqueCountMode mode() {
+        return UniqueCountMode.EXACT;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(count());
+        if (containsZero) {
+            out.writeLong(0L);
+        }
+        for (long key : keys) {
+            if (key != 0L) {
+                out.writeLong(key);
+            }
+        }
+    }
+
+    @Override
+    public void readFrom(DataInputStream in) throws IOException {
+        long count = in.readLong();
+        for (long i = 0; i < count; i++) {
+            addBits(in.readLong());
+        }
+    }
+
+    public void forEachBits(LongConsumer consumer) {
+        if (containsZero) {
+            consumer.accept(0L);
+        }
+        for (long key : keys) {
+            if (key != 0L) {
+                consumer.accept(key);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        allocate(capacity);
+        for (long key : old) {
+            if (key != 0L) {
+                int i = (int) Hashing.mix64(key) & mask;
+                while (keys[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+}
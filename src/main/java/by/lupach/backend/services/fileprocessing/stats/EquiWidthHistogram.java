@@ -0,0 +1,256 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Равноширокая гистограмма с адаптивным диапазоном.
+ * Ширина корзины — степень двойки, границы выровнены по ней; когда значение выходит
+ * за текущий диапазон, ширина удваивается и соседние корзины сливаются попарно.
+ * Благодаря выравниванию слияние точное, а второй проход для уточнения границ не нужен.
+ */
+public final class EquiWidthHistogram implements ValueHistogram {
+
+    private static final byte SERIAL_VERSION = 1;
+
+    private final int binCount;
+    private final long[] counts;
+    private double origin;
+    private double width;
+    private long nonFinite;
+
+    // Пока встречено только одно значение, ширина не определена
+    private boolean empty = true;
+    private boolean singleValue;
+    private double firstValue;
+    private long firstValueCount;
+
+    public EquiWidthHistogram(int binCount) {
+        if (binCount < 2) {
+            throw new IllegalArgumentException("Histogram needs at least 2 bins: " + binCount);
+        }
+        this.binCount = binCount;
+        this.counts = new long[binCount];
+    }
+
+    @Override
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double value, long weight) {
+        if (!Double.isFinite(value)) {
+            nonFinite += weight;
+            return;
+        }
+        if (empty) {
+            empty = false;
+            singleValue = true;
+            firstValue = value;
+            firstValueCount = weight;
+            return;
+        }
+        if (singleValue) {
+            if (value == firstValue) {
+                firstValueCount += weight;
+                return;
+            }
+            initGrid(Math.min(firstValue, value), Math.max(firstValue, value));
+            singleValue = false;
+            counts[index(firstValue)] += firstValueCount;
+        }
+
+        int i = index(value);
+        while (i < 0 || i >= binCount) {
+            if (!slide(value) && !widen(value)) {
+                i = i < 0 ? 0 : binCount - 1;
+                break;
+            }
+            i = index(value);
+        }
+        counts[i] += weight;
+    }
+
+    @Override
+    public void merge(ValueHistogram other) {
+        if (!(other instanceof EquiWidthHistogram h)) {
+            throw new IllegalArgumentException("Cannot merge " + other.getClass().getSimpleName() + " into equi-width histogram");
+        }
+        nonFinite += h.nonFinite;
+        if (h.empty) {
+            return;
+        }
+        if (h.singleValue) {
+            add(h.firstValue, h.firstValueCount);
+            return;
+        }
+        if (empty || singleValue) {
+            // Переносим сетку другой гистограммы и досыпаем своё единственное значение
+            boolean hadValue = !empty;
+            double value = firstValue;
+            long valueCount = firstValueCount;
+            origin = h.origin;
+            width = h.width;
+            System.arraycopy(h.counts, 0, counts, 0, binCount);
+            empty = false;
+            singleValue = false;
+            if (hadValue) {
+                add(value, valueCount);
+            }
+            return;
+        }
+
+        // Приводим сетку к ширине не меньше, чем у другой гистограммы: её корзины целиком попадут в наши
+        while (width < h.width && widen(h.origin)) {
+            // ширина удваивается до совпадения
+        }
+        for (int i = 0; i < h.binCount; i++) {
+            if (h.counts[i] != 0) {
+                add(h.origin + i * h.width, h.counts[i]);
+            }
+        }
+    }
+
+    @Override
+    public List<Bin> bins() {
+        List<Bin> bins = new ArrayList<>();
+        if (empty) {
+            return bins;
+        }
+        if (singleValue) {
+            bins.add(new Bin(firstValue, firstValue, firstValueCount));
+            return bins;
+        }
+        int from = 0;
+        int to = binCount - 1;
+        while (from < to && counts[from] == 0) from++;
+        while (to > from && counts[to] == 0) to--;
+        for (int i = from; i <= to; i++) {
+            bins.add(new Bin(origin + i * width, origin + (i + 1) * width, counts[i]));
+        }
+        return bins;
+    }
+
+    @Override
+    public long nonFiniteCount() {
+        return nonFinite;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 2 + 8 * 5 + 8 * binCount);
+        buf.put(SERIAL_VERSION)
+                .putInt(binCount)
+                .put((byte) (empty ? 1 : 0))
+                .put((byte) (singleValue ? 1 : 0))
+                .putDouble(origin)
+                .putDouble(width)
+                .putLong(nonFinite)
+                .putDouble(firstValue)
+                .putLong(firstValueCount);
+        for (long count : counts) {
+            buf.putLong(count);
+        }
+        return buf.array();
+    }
+
+    public static EquiWidthHistogram fromBytes(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        byte version = buf.get();
+        if (version != SERIAL_VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram version: " + version);
+        }
+        EquiWidthHistogram h = new EquiWidthHistogram(buf.getInt());
+        h.empty = buf.get() != 0;
+        h.singleValue = buf.get() != 0;
+        h.origin = buf.getDouble();
+        h.width = buf.getDouble();
+        h.nonFinite = buf.getLong();
+        h.firstValue = buf.getDouble();
+        h.firstValueCount = buf.getLong();
+        for (int i = 0; i < h.binCount; i++) {
+            h.counts[i] = buf.getLong();
+        }
+        return h;
+    }
+
+    private int index(double value) {
+        double position = Math.floor((value - origin) / width);
+        return position >= binCount ? binCount : position < 0 ? -1 : (int) position;
+    }
+
+    private void initGrid(double min, double max) {
+        double range = max - min;
+        width = Double.isFinite(range) ? Math.max(powerOfTwoAtLeast(range / (binCount - 1)), Double.MIN_NORMAL) : Double.MAX_VALUE;
+        origin = Math.floor(min / width) * width;
+    }
+
+    /**
+     * Сдвигает сетку без изменения ширины, если занятые корзины и value в неё помещаются
+     */
+    private boolean slide(double value) {
+        int first = firstOccupied();
+        int last = lastOccupied();
+        double newOrigin = value < origin ? Math.floor(value / width) * width : origin + first * width;
+        double newEnd = newOrigin + binCount * width;
+        if (!Double.isFinite(newEnd) || value >= newEnd || origin + (last + 1) * width > newEnd) {
+            return false;
+        }
+        int shift = (int) ((origin - newOrigin) / width);
+        long[] moved = new long[binCount];
+        for (int i = first; i <= last; i++) {
+            moved[i + shift] = counts[i];
+        }
+        System.arraycopy(moved, 0, counts, 0, binCount);
+        origin = newOrigin;
+        return true;
+    }
+
+    /**
+     * Удваивает ширину корзины с сохранением выравнивания; новый диапазон строится от занятых корзин
+     * в сторону value. {@code false}, если расширять дальше некуда
+     */
+    private boolean widen(double value) {
+        double newWidth = width * 2;
+        double low = origin + firstOccupied() * width;
+        double high = origin + (lastOccupied() + 1) * width;
+
+        double newOrigin = Math.floor(Math.min(low, value) / newWidth) * newWidth;
+        if (high > newOrigin + binCount * newWidth) {
+            // value слишком далеко внизу: занятые корзины должны остаться в новом диапазоне
+            newOrigin = Math.floor(low / newWidth) * newWidth;
+        }
+        if (!Double.isFinite(newWidth) || !Double.isFinite(newOrigin) || !Double.isFinite(newOrigin + binCount * newWidth)) {
+            return false;
+        }
+        long[] merged = new long[binCount];
+        for (int i = 0; i < binCount; i++) {
+            if (counts[i] != 0) {
+                int j = (int) Math.floor((origin + i * width - newOrigin) / newWidth);
+                merged[j] += counts[i];
+            }
+        }
+        System.arraycopy(merged, 0, counts, 0, binCount);
+        origin = newOrigin;
+        width = newWidth;
+        return true;
+    }
+
+    private int firstOccupied() {
+        int i = 0;
+        while (i < binCount - 1 && counts[i] == 0) i++;
+        return i;
+    }
+
+    private int lastOccupied() {
+        int i = binCount - 1;
+        while (i > 0 && counts[i] == 0) i--;
+        return i;
+    }
+
+    private static double powerOfTwoAtLeast(double x) {
+        double p = Math.scalb(1.0, Math.getExponent(x));
+        return p < x ? p * 2 : p;
+    }
+}
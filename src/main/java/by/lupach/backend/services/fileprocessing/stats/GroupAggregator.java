@@ -0,0 +1,396 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Статистика по группам (count, min, max, среднее и M2 по Уэлфорду) за один проход.
+ * Хеш-таблица с открытой адресацией ключится сырыми байтами ключа: байты копируются в общую арену
+ * только для новой группы, поэтому для уже встреченных ключей строки не создаются.
+ * При превышении бюджета памяти таблица сбрасывается на диск частичными агрегатами,
+ * разложенными по разделам хеша; в конце каждый раздел сливается в памяти отдельно.
+ */
+@Slf4j
+public final class GroupAggregator implements AutoCloseable {
+
+    private static final int INITIAL_SLOTS = 1 << 10;
+    private static final int INITIAL_GROUPS = 1 << 9;
+    private static final int INITIAL_ARENA = 1 << 14;
+    private static final int BYTES_PER_GROUP = 3 * Integer.BYTES + Long.BYTES + 4 * Double.BYTES;
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final long memoryBudget;
+    private final int partitions;
+    private final Path spillDir;
+    private final List<List<Path>> runs;
+
+    private int[] slots;
+    private int mask;
+
+    private int[] hashes;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private long[] counts;
+    private double[] mins;
+    private double[] maxs;
+    private double[] means;
+    private double[] m2s;
+    private int size;
+
+    private byte[] arena;
+    private int arenaSize;
+    private boolean draining;
+
+    public GroupAggregator(long memoryBudget, int partitions, Path spillDir) {
+        this.memoryBudget = memoryBudget;
+        this.partitions = Integer.highestOneBit(Math.max(partitions, 1));
+        this.spillDir = spillDir;
+        this.runs = new ArrayList<>(this.partitions);
+        for (int p = 0; p < this.partitions; p++) {
+            runs.add(new ArrayList<>());
+        }
+        reset();
+    }
+
+    /**
+     * Получатель итоговых групп; байты ключа валидны только во время вызова
+     */
+    @FunctionalInterface
+    public interface GroupVisitor {
+        void visit(byte[] key, int offset, int length, long count, double min, double max, double mean, double m2);
+    }
+
+    public void add(byte[] buf, int from, int to, double value) {
+        int g = findOrInsert(buf, from, to, hash(buf, from, to));
+        long n = ++counts[g];
+        if (n == 1) {
+            mins[g] = value;
+            maxs[g] = value;
+            means[g] = value;
+            m2s[g] = 0;
+        } else {
+            if (value < mins[g]) mins[g] = value;
+            if (value > maxs[g]) maxs[g] = value;
+            double delta = value - means[g];
+            means[g] += delta / n;
+            m2s[g] += delta * (value - means[g]);
+        }
+        spillIfOverBudget();
+    }
+
+    /**
+     * Сливает группы другого агрегатора; его прогоны на диске переходят к этому вместе с удалением
+     */
+    public void merge(GroupAggregator other) {
+        if (other.partitions != partitions) {
+            throw new IllegalArgumentException("Cannot merge group aggregators with different partition counts");
+        }
+        for (int p = 0; p < partitions; p++) {
+            runs.get(p).addAll(other.runs.get(p));
+            other.runs.get(p).clear();
+        }
+        for (int g = 0; g < other.size; g++) {
+            addPartial(other.arena, other.keyOffsets[g], other.keyLengths[g], other.hashes[g],
+                    other.counts[g], other.mins[g], other.maxs[g], other.means[g], other.m2s[g]);
+        }
+    }
+
+    /**
+     * Обходит все группы; после сброса на диск разделы сливаются по одному, чтобы не держать всю таблицу в памяти
+     */
+    public void forEachGroup(GroupVisitor visitor) {
+        if (!hasRuns()) {
+            visitTable(visitor);
+            return;
+        }
+        if (size > 0) {
+            spill();
+        }
+        // Раздел сливается целиком в памяти: повторный сброс при этом отключён
+        draining = true;
+        try {
+            for (int p = 0; p < partitions; p++) {
+                reset();
+                for (Path run : runs.get(p)) {
+                    readRun(run);
+                }
+                visitTable(visitor);
+            }
+        } finally {
+            draining = false;
+            reset();
+        }
+    }
+
+    /**
+     * Состояние для контрольной точки: прогоны по разделам как есть, затем группы в памяти в формате прогона
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        writeTo(out, SpillRunStore.INLINE);
+    }
+
+    public void writeTo(DataOutputStream out, SpillRunStore runStore) throws IOException {
+        out.writeInt(partitions);
+        for (List<Path> partition : runs) {
+            out.writeInt(partition.size());
+            for (Path run : partition) {
+                runStore.write(run, out);
+            }
+        }
+        out.writeInt(size);
+        for (int g = 0; g < size; g++) {
+            writeGroup(out, g);
+        }
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        readFrom(in, SpillRunStore.INLINE);
+    }
+
+    public void readFrom(DataInputStream in, SpillRunStore runStore) throws IOException {
+        int stored = in.readInt();
+        if (stored != partitions) {
+            throw new IOException("Group partition count mismatch in checkpoint: " + stored + " != " + partitions);
+        }
+        for (int p = 0; p < partitions; p++) {
+            int runCount = in.readInt();
+            for (int i = 0; i < runCount; i++) {
+                runs.get(p).add(runStore.read(in, spillDir, "groups-" + p + "-"));
+            }
+        }
+        int groups = in.readInt();
+        byte[] key = new byte[64];
+        for (int i = 0; i < groups; i++) {
+            key = readGroup(in, in.readInt(), key);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (List<Path> partition : runs) {
+            for (Path run : partition) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    log.warn("Failed to delete group spill run {}: {}", run, e.getMessage());
+                }
+            }
+            partition.clear();
+        }
+    }
+
+    private boolean hasRuns() {
+        return runs.stream().anyMatch(partition -> !partition.isEmpty());
+    }
+
+    private void visitTable(GroupVisitor visitor) {
+        for (int g = 0; g < size; g++) {
+            visitor.visit(arena, keyOffsets[g], keyLengths[g], counts[g], mins[g], maxs[g], means[g], m2s[g]);
+        }
+    }
+
+    private void addPartial(byte[] key, int from, int length, int h,
+                            long count, double min, double max, double mean, double m2) {
+        int g = findOrInsert(key, from, from + length, h);
+        long n = counts[g] + count;
+        if (counts[g] == 0) {
+            mins[g] = min;
+            maxs[g] = max;
+            means[g] = mean;
+            m2s[g] = m2;
+        } else {
+            // Формулы Чана для объединения среднего и M2
+            double delta = mean - means[g];
+            means[g] += delta * count / n;
+            m2s[g] += m2 + delta * delta * ((double) counts[g] * count / n);
+            mins[g] = Math.min(mins[g], min);
+            maxs[g] = Math.max(maxs[g], max);
+        }
+        counts[g] = n;
+        spillIfOverBudget();
+    }
+
+    private int findOrInsert(byte[] buf, int from, int to, int h) {
+        int length = to - from;
+        int i = h & mask;
+        while (true) {
+            int g = slots[i] - 1;
+            if (g < 0) {
+                g = insert(buf, from, length, h);
+                slots[i] = g + 1;
+                if (size > (slots.length >>> 1)) {
+                    rehash(slots.length << 1);
+                }
+                return g;
+            }
+            if (hashes[g] == h && keyLengths[g] == length
+                    && Arrays.equals(arena, keyOffsets[g], keyOffsets[g] + length, buf, from, to)) {
+                return g;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int insert(byte[] buf, int from, int length, int h) {
+        if (size == counts.length) {
+            int capacity = size << 1;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            means = Arrays.copyOf(means, capacity);
+            m2s = Arrays.copyOf(m2s, capacity);
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length << 1, arenaSize + length));
+        }
+        System.arraycopy(buf, from, arena, arenaSize, length);
+
+        int g = size++;
+        hashes[g] = h;
+        keyOffsets[g] = arenaSize;
+        keyLengths[g] = length;
+        counts[g] = 0;
+        arenaSize += length;
+        return g;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int g = 0; g < size; g++) {
+            int i = hashes[g] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = g + 1;
+        }
+    }
+
+    private void reset() {
+        slots = new int[INITIAL_SLOTS];
+        mask = INITIAL_SLOTS - 1;
+        hashes = new int[INITIAL_GROUPS];
+        keyOffsets = new int[INITIAL_GROUPS];
+        keyLengths = new int[INITIAL_GROUPS];
+        counts = new long[INITIAL_GROUPS];
+        mins = new double[INITIAL_GROUPS];
+        maxs = new double[INITIAL_GROUPS];
+        means = new double[INITIAL_GROUPS];
+        m2s = new double[INITIAL_GROUPS];
+        arena = new byte[INITIAL_ARENA];
+        size = 0;
+        arenaSize = 0;
+    }
+
+    private long memoryUsed() {
+        return (long) slots.length * Integer.BYTES + (long) counts.length * BYTES_PER_GROUP + arena.length;
+    }
+
+    private void spillIfOverBudget() {
+        if (!draining && memoryUsed() > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Пишет частичные агрегаты всех групп в файлы разделов (раздел — старшие биты хеша) и очищает таблицу
+     */
+    private void spill() {
+        int shift = Integer.SIZE - Integer.numberOfTrailingZeros(partitions);
+        DataOutputStream[] outs = new DataOutputStream[partitions];
+        try {
+            Files.createDirectories(spillDir);
+            for (int g = 0; g < size; g++) {
+                int p = partitions == 1 ? 0 : hashes[g] >>> shift;
+                if (outs[p] == null) {
+                    Path run = Files.createTempFile(spillDir, "groups-" + p + "-", ".run");
+                    runs.get(p).add(run);
+                    outs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER));
+                }
+                writeGroup(outs[p], g);
+            }
+            log.debug("Spilled {} groups to {}", size, spillDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill groups to " + spillDir, e);
+        } finally {
+            for (DataOutputStream out : outs) {
+                closeQuietly(out);
+            }
+        }
+        reset();
+    }
+
+    private void writeGroup(DataOutputStream out, int g) throws IOException {
+        out.writeInt(keyLengths[g]);
+        out.write(arena, keyOffsets[g], keyLengths[g]);
+        out.writeLong(counts[g]);
+        out.writeDouble(mins[g]);
+        out.writeDouble(maxs[g]);
+        out.writeDouble(means[g]);
+        out.writeDouble(m2s[g]);
+    }
+
+    private void readRun(Path run) {
+        byte[] key = new byte[64];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                key = readGroup(in, length, key);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read group spill run " + run, e);
+        }
+    }
+
+    /**
+     * Дочитывает запись формата прогона после длины ключа и добавляет её; возвращает буфер ключа (мог вырасти)
+     */
+    private byte[] readGroup(DataInputStream in, int length, byte[] key) throws IOException {
+        if (length > key.length) {
+            key = new byte[Math.max(length, key.length << 1)];
+        }
+        in.readFully(key, 0, length);
+        addPartial(key, 0, length, hash(key, 0, length),
+                in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        return key;
+    }
+
+    private static int hash(byte[] buf, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h = (h ^ buf[i]) * 0x100000001b3L;
+        }
+        return (int) Hashing.mix64(h);
+    }
+
+    private static void closeQuietly(DataOutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Failed to close group spill run: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Финализатор MurmurHash3: перемешивает все 64 бита ключа
+     */
+    static long mix64(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,114 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.UniqueCountMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Приближённый подсчёт различных значений (HyperLogLog, Flajolet et al. 2007).
+ * Память — 2^precision байт, стандартная ошибка ≈ 1.04 / sqrt(2^precision):
+ * при precision = 14 это 16 КБ и около 0.8%.
+ */
+public final class HyperLogLog implements UniqueCounter {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be in ["
+                    + MIN_PRECISION + ", " + MAX_PRECISION + "]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public void add(double value) {
+        long hash = Hashing.mix64(Double.doubleToLongBits(value));
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    @Override
+    public long count() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) zeros++;
+        }
+
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Линейный подсчёт для малых мощностей
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public long runningCount() {
+        return count();
+    }
+
+    @Override
+    public void merge(UniqueCounter other) {
+        if (!(other instanceof HyperLogLog hll) || hll.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge " + other.mode() + " counter into " + mode());
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (hll.registers[i] > registers[i]) {
+                registers[i] = hll.registers[i];
+            }
+        }
+    }
+
+    @Override
+    public UniqueCountMode mode() {
+        return UniqueCountMode.APPROXIMATE;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(precision);
+        out.write(registers);
+    }
+
+    @Override
+    public void readFrom(DataInputStream in) throws IOException {
+        int stored = in.readInt();
+        if (stored != precision) {
+            throw new IOException("HyperLogLog precision mismatch in checkpoint: " + stored + " != " + precision);
+        }
+        byte[] saved = new byte[registers.length];
+        in.readFully(saved);
+        for (int i = 0; i < registers.length; i++) {
+            if (saved[i] > registers[i]) {
+                registers[i] = saved[i];
+            }
+        }
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+}
@@ -0,0 +1,255 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Скетч квантилей KLL (Karnin, Lang, Liberty 2016) с ограниченной памятью.
+ * Уровень h хранит элементы с весом 2^h; заполненный уровень сортируется,
+ * и каждый второй элемент (со случайным сдвигом) поднимается на уровень выше.
+ * Ошибка ранга ≈ 1.7 / k (при k = 200 — около 1%), память — O(k) значений.
+ * Скетчи сливаются и сериализуются, поэтому любые квантили считаются без перечитывания файла.
+ */
+public final class KllSketch {
+
+    private static final byte SERIAL_VERSION = 1;
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+    private static final int MIN_LEVEL_CAPACITY = 2;
+
+    private final int k;
+    private double[][] levels = new double[0][];
+    private int[] sizes = new int[0];
+    private int retained;
+    private int maxRetained;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private long randomState = 0x9E3779B97F4A7C15L;
+
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("KLL k must be at least 8: " + k);
+        }
+        this.k = k;
+        grow();
+    }
+
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count++ == 0) {
+            min = value;
+            max = value;
+        } else {
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        append(0, value);
+        if (++retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    public void merge(KllSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        while (levels.length < other.levels.length) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        retained = Arrays.stream(sizes).sum();
+        while (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Значение с нормализованным рангом {@code q} из [0, 1]; {@code null} для пустого скетча
+     */
+    public Double quantile(double q) {
+        return quantiles(q)[0];
+    }
+
+    public Double[] quantiles(double... qs) {
+        Double[] result = new Double[qs.length];
+        if (count == 0) {
+            return result;
+        }
+
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n++] = 1L << h;
+            }
+        }
+        sortByValue(values, weights, n);
+
+        long totalWeight = 0;
+        for (int i = 0; i < n; i++) totalWeight += weights[i];
+
+        for (int j = 0; j < qs.length; j++) {
+            double q = qs[j];
+            if (q <= 0) {
+                result[j] = min;
+            } else if (q >= 1) {
+                result[j] = max;
+            } else {
+                double target = q * totalWeight;
+                long cumulative = 0;
+                double value = max;
+                for (int i = 0; i < n; i++) {
+                    cumulative += weights[i];
+                    if (cumulative >= target) {
+                        value = values[i];
+                        break;
+                    }
+                }
+                result[j] = value;
+            }
+        }
+        return result;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 8 * 4 + 4 + levels.length * 4 + retained * 8);
+        buf.put(SERIAL_VERSION)
+                .putInt(k)
+                .putLong(count)
+                .putDouble(min)
+                .putDouble(max)
+                .putLong(randomState)
+                .putInt(levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            buf.putInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                buf.putDouble(levels[h][i]);
+            }
+        }
+        return buf.array();
+    }
+
+    public static KllSketch fromBytes(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        byte version = buf.get();
+        if (version != SERIAL_VERSION) {
+            throw new IllegalArgumentException("Unsupported KLL sketch version: " + version);
+        }
+        KllSketch sketch = new KllSketch(buf.getInt());
+        sketch.count = buf.getLong();
+        sketch.min = buf.getDouble();
+        sketch.max = buf.getDouble();
+        sketch.randomState = buf.getLong();
+        int height = buf.getInt();
+        while (sketch.levels.length < height) {
+            sketch.grow();
+        }
+        for (int h = 0; h < height; h++) {
+            int size = buf.getInt();
+            for (int i = 0; i < size; i++) {
+                sketch.append(h, buf.getDouble());
+            }
+        }
+        sketch.retained = Arrays.stream(sketch.sizes).sum();
+        return sketch;
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - level - 1;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private void grow() {
+        int height = levels.length + 1;
+        levels = Arrays.copyOf(levels, height);
+        sizes = Arrays.copyOf(sizes, height);
+        levels[height - 1] = new double[MIN_LEVEL_CAPACITY];
+        maxRetained = 0;
+        for (int h = 0; h < height; h++) {
+            maxRetained += capacity(h);
+        }
+    }
+
+    private void append(int level, double value) {
+        double[] items = levels[level];
+        if (sizes[level] == items.length) {
+            items = Arrays.copyOf(items, items.length << 1);
+            levels[level] = items;
+        }
+        items[sizes[level]++] = value;
+    }
+
+    /**
+     * Сжимает самый нижний переполненный уровень: половина элементов уходит на уровень выше
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h)) {
+                if (h + 1 == levels.length) {
+                    grow();
+                }
+                double[] items = levels[h];
+                int size = sizes[h];
+                Arrays.sort(items, 0, size);
+
+                // Нечётный элемент остаётся на текущем уровне
+                int keep = size & 1;
+                int offset = keep + (nextRandomBit() ? 1 : 0);
+                for (int i = offset; i < size; i += 2) {
+                    append(h + 1, items[i]);
+                }
+                sizes[h] = keep;
+                retained = Arrays.stream(sizes).sum();
+                return;
+            }
+        }
+    }
+
+    private boolean nextRandomBit() {
+        long x = randomState;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        randomState = x;
+        return (x & 1) != 0;
+    }
+
+    private static void sortByValue(double[] values, long[] weights, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        double[] sortedValues = new double[n];
+        long[] sortedWeights = new long[n];
+        for (int i = 0; i < n; i++) {
+            sortedValues[i] = values[order[i]];
+            sortedWeights[i] = weights[order[i]];
+        }
+        System.arraycopy(sortedValues, 0, values, 0, n);
+        System.arraycopy(sortedWeights, 0, weights, 0, n);
+    }
+}
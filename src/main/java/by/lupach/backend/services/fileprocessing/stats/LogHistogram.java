@@ -0,0 +1,171 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Логарифмическая гистограмма в стиле HDR: корзина определяется двоичным порядком |x|
+ * и старшими {@code precisionBits} битами мантиссы, поэтому диапазон значений заранее не нужен,
+ * а относительная ширина корзины не больше 2^-precisionBits.
+ * Отрицательные и положительные значения хранятся в отдельных окнах, ноль — отдельно.
+ */
+public final class LogHistogram implements ValueHistogram {
+
+    private static final byte SERIAL_VERSION = 1;
+    private static final int EXPONENT_BIAS = 1023;
+
+    private final int precisionBits;
+    private final Window negative = new Window();
+    private final Window positive = new Window();
+    private long zeros;
+    private long nonFinite;
+
+    public LogHistogram(int precisionBits) {
+        if (precisionBits < 0 || precisionBits > 10) {
+            throw new IllegalArgumentException("Log histogram precision must be in [0, 10] bits: " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+    }
+
+    @Override
+    public void add(double value) {
+        if (!Double.isFinite(value)) {
+            nonFinite++;
+        } else if (value == 0) {
+            zeros++;
+        } else if (value > 0) {
+            positive.add(index(value), 1);
+        } else {
+            negative.add(index(-value), 1);
+        }
+    }
+
+    @Override
+    public void merge(ValueHistogram other) {
+        if (!(other instanceof LogHistogram h) || h.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("Cannot merge " + other.getClass().getSimpleName() + " into log histogram");
+        }
+        negative.merge(h.negative);
+        positive.merge(h.positive);
+        zeros += h.zeros;
+        nonFinite += h.nonFinite;
+    }
+
+    @Override
+    public List<Bin> bins() {
+        List<Bin> bins = new ArrayList<>();
+        for (int i = negative.counts.length - 1; i >= 0; i--) {
+            if (negative.counts[i] != 0) {
+                int index = negative.offset + i;
+                bins.add(new Bin(-upperBound(index), -lowerBound(index), negative.counts[i]));
+            }
+        }
+        if (zeros != 0) {
+            bins.add(new Bin(0, 0, zeros));
+        }
+        for (int i = 0; i < positive.counts.length; i++) {
+            if (positive.counts[i] != 0) {
+                int index = positive.offset + i;
+                bins.add(new Bin(lowerBound(index), upperBound(index), positive.counts[i]));
+            }
+        }
+        return bins;
+    }
+
+    @Override
+    public long nonFiniteCount() {
+        return nonFinite;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 8 + 8
+                + 8 + negative.counts.length * 8 + 8 + positive.counts.length * 8);
+        buf.put(SERIAL_VERSION).putInt(precisionBits).putLong(zeros).putLong(nonFinite);
+        negative.write(buf);
+        positive.write(buf);
+        return buf.array();
+    }
+
+    public static LogHistogram fromBytes(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        byte version = buf.get();
+        if (version != SERIAL_VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram version: " + version);
+        }
+        LogHistogram h = new LogHistogram(buf.getInt());
+        h.zeros = buf.getLong();
+        h.nonFinite = buf.getLong();
+        h.negative.read(buf);
+        h.positive.read(buf);
+        return h;
+    }
+
+    /**
+     * Индекс корзины положительного конечного значения: (смещённый порядок, старшие биты мантиссы)
+     */
+    private int index(double magnitude) {
+        long bits = Double.doubleToRawLongBits(magnitude);
+        int biasedExponent = (int) (bits >>> 52);
+        int subBucket = (int) ((bits >>> (52 - precisionBits)) & ((1 << precisionBits) - 1));
+        return (biasedExponent << precisionBits) | subBucket;
+    }
+
+    private double lowerBound(int index) {
+        return Double.longBitsToDouble((long) index << (52 - precisionBits));
+    }
+
+    private double upperBound(int index) {
+        return Double.longBitsToDouble((long) (index + 1) << (52 - precisionBits));
+    }
+
+    /**
+     * Окно счётчиков [offset, offset + counts.length), расширяемое по мере появления новых порядков
+     */
+    private static final class Window {
+
+        private long[] counts = new long[0];
+        private int offset;
+
+        void add(int index, long count) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                offset = index;
+            } else if (index < offset) {
+                int shift = index - offset;
+                long[] grown = new long[counts.length - shift];
+                System.arraycopy(counts, 0, grown, -shift, counts.length);
+                counts = grown;
+                offset = index;
+            } else if (index >= offset + counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length * 2));
+            }
+            counts[index - offset] += count;
+        }
+
+        void merge(Window other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        void write(ByteBuffer buf) {
+            buf.putInt(offset).putInt(counts.length);
+            for (long count : counts) {
+                buf.putLong(count);
+            }
+        }
+
+        void read(ByteBuffer buf) {
+            offset = buf.getInt();
+            counts = new long[buf.getInt()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buf.getLong();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий на узел бюджет off-heap памяти счётчиков различных значений. Счётчиков столько, сколько колонок
+ * во всех одновременно разбираемых кусках всех файлов, поэтому бюджет на счётчик умножался бы на их число;
+ * общий бюджет делится между ними по мере роста таблиц, а не поровну заранее.
+ */
+public final class OffHeapBudget {
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    public OffHeapBudget(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Off-heap budget must be positive: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Резервирует память, если она укладывается в бюджет
+     */
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Резервирует память сверх бюджета — для минимальной таблицы, без которой счётчик не может работать
+     */
+    public void reserve(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    public long used() {
+        return used.get();
+    }
+}
@@ -0,0 +1,36 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+/**
+ * Неизменяемый снимок текущей статистики колонки, снятый потоком разбора.
+ * Публикуется целиком, поэтому читатель видит согласованные значения без блокировок.
+ * {@code distinct} равен -1, если число различных значений нельзя получить дёшево.
+ */
+public record RunningStatistics(
+        int columnIndex,
+        long totalRecords,
+        long processedRecords,
+        double min,
+        double max,
+        double mean,
+        double m2,
+        long distinct
+) {
+
+    /**
+     * Слияние снимков разных кусков по формулам Чана. Различные значения кусков пересекаются,
+     * поэтому берётся наибольшее из них — нижняя оценка.
+     */
+    public RunningStatistics merge(RunningStatistics other) {
+        long n = processedRecords + other.processedRecords;
+        double mergedMean = mean;
+        double mergedM2 = m2;
+        if (other.processedRecords > 0) {
+            double delta = other.mean - mean;
+            mergedMean += delta * other.processedRecords / n;
+            mergedM2 += other.m2 + delta * delta * ((double) processedRecords * other.processedRecords / n);
+        }
+        long mergedDistinct = distinct < 0 || other.distinct < 0 ? -1 : Math.max(distinct, other.distinct);
+        return new RunningStatistics(columnIndex, totalRecords + other.totalRecords, n,
+                Math.min(min, other.min), Math.max(max, other.max), mergedMean, mergedM2, mergedDistinct);
+    }
+}
@@ -0,0 +1,28 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Как неизменяемые прогоны сброса на диск попадают в сохраняемое состояние аккумулятора.
+ * {@link #INLINE} копирует байты прогона в сам поток — для состояния, которое переживает аккумулятор
+ * или читается другим узлом; {@link #linked} сохраняет прогон жёсткой ссылкой рядом с контрольной точкой
+ * один раз, а в поток пишет только имя — повторные точки того же куска не копируют прогоны заново.
+ */
+public interface SpillRunStore {
+
+    SpillRunStore INLINE = new SpillRuns.Inline();
+
+    static SpillRunStore linked(Path dir) {
+        return new SpillRuns.Linked(dir);
+    }
+
+    void write(Path run, DataOutputStream out) throws IOException;
+
+    /**
+     * Новый прогон в spillDir, которым владеет читающий аккумулятор
+     */
+    Path read(DataInputStream in, Path spillDir, String prefix) throws IOException;
+}
@@ -0,0 +1,107 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Реализации {@link SpillRunStore}
+ */
+final class SpillRuns {
+
+    private static final int COPY_BUFFER = 1 << 16;
+
+    private SpillRuns() {
+    }
+
+    /**
+     * Длина и сырые байты файла
+     */
+    static final class Inline implements SpillRunStore {
+
+        @Override
+        public void write(Path run, DataOutputStream out) throws IOException {
+            out.writeLong(Files.size(run));
+            Files.copy(run, out);
+        }
+
+        @Override
+        public Path read(DataInputStream in, Path spillDir, String prefix) throws IOException {
+            long remaining = in.readLong();
+            Files.createDirectories(spillDir);
+            Path run = Files.createTempFile(spillDir, prefix, ".run");
+            try (OutputStream out = Files.newOutputStream(run)) {
+                byte[] buf = new byte[COPY_BUFFER];
+                while (remaining > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) {
+                        throw new EOFException("Truncated spill run in checkpoint");
+                    }
+                    out.write(buf, 0, n);
+                    remaining -= n;
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(run);
+                throw e;
+            }
+            return run;
+        }
+    }
+
+    /**
+     * Имя жёсткой ссылки на прогон в каталоге контрольных точек. Имена прогонов уникальны в каталоге сброса,
+     * поэтому уже сохранённый прогон узнаётся по имени. Если каталоги на разных файловых системах,
+     * прогон копируется — тоже один раз.
+     */
+    static final class Linked implements SpillRunStore {
+
+        private final Path dir;
+
+        Linked(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void write(Path run, DataOutputStream out) throws IOException {
+            Path saved = dir.resolve(run.getFileName());
+            if (Files.notExists(saved)) {
+                Files.createDirectories(dir);
+                link(saved, run);
+            }
+            out.writeUTF(saved.getFileName().toString());
+        }
+
+        @Override
+        public Path read(DataInputStream in, Path spillDir, String prefix) throws IOException {
+            Path saved = dir.resolve(in.readUTF());
+            if (Files.notExists(saved)) {
+                throw new IOException("Spill run " + saved + " of checkpoint is missing");
+            }
+            Files.createDirectories(spillDir);
+            // Своя ссылка: аккумулятор удалит прогон при закрытии, а точка должна остаться
+            Path run = spillDir.resolve(prefix + UUID.randomUUID() + ".run");
+            link(run, saved);
+            return run;
+        }
+
+        private static void link(Path link, Path target) throws IOException {
+            try {
+                Files.createLink(link, target);
+            } catch (FileAlreadyExistsException e) {
+                // Прогон уже сохранён
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Path tmp = link.resolveSibling(link.getFileName() + ".tmp");
+                Files.copy(target, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, link, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+}
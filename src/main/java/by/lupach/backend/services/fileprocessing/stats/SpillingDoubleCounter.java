@@ -0,0 +1,374 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.UniqueCountMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Точный подсчёт различных значений с ограниченной памятью.
+ * Значения живут в off-heap хеш-таблице (direct buffer), которая растёт, пока это позволяет общий
+ * {@link OffHeapBudget} узла; затем таблица сортируется на месте и сбрасывается на диск отсортированным прогоном.
+ * Минимальная таблица ({@value #INITIAL_CAPACITY} значений) выделяется сверх бюджета.
+ * Итоговое число различных значений считается k-путевым слиянием прогонов.
+ */
+@Slf4j
+public final class SpillingDoubleCounter implements UniqueCounter {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // Смещение значения в буфере — int: i << 3 не должно переполниться
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / Long.BYTES);
+    private static final double MAX_LOAD_FACTOR = 0.6;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int RUN_READ_BUFFER = 1 << 16;
+
+    private final OffHeapBudget budget;
+    private final Path spillDir;
+    private final List<Path> runs = new ArrayList<>();
+
+    private ByteBuffer table;
+    private int capacity;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsZero;
+
+    public SpillingDoubleCounter(OffHeapBudget budget, Path spillDir) {
+        this.budget = budget;
+        this.spillDir = spillDir;
+        budget.reserve(bytes(INITIAL_CAPACITY));
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void add(double value) {
+        addBits(Double.doubleToLongBits(value));
+    }
+
+    public void addBits(long bits) {
+        if (bits == 0L) {
+            containsZero = true;
+            return;
+        }
+        int i = (int) Hashing.mix64(bits) & mask;
+        while (true) {
+            long current = table.getLong(i << 3);
+            if (current == 0L) {
+                table.putLong(i << 3, bits);
+                if (++size > resizeThreshold) {
+                    if (capacity < MAX_CAPACITY && budget.tryReserve(bytes(capacity << 1))) {
+                        rehash(capacity << 1);
+                    } else {
+                        spill();
+                    }
+                }
+                return;
+            }
+            if (current == bits) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    public long count() {
+        if (runs.isEmpty()) {
+            return size + (containsZero ? 1 : 0);
+        }
+        if (size > 0) {
+            spill();
+        }
+        return mergeCount() + (containsZero ? 1 : 0);
+    }
+
+    @Override
+    public void merge(UniqueCounter other) {
+        if (!(other instanceof SpillingDoubleCounter counter)) {
+            throw new IllegalArgumentException("Cannot merge " + other.mode() + " counter into " + mode());
+        }
+        // Прогоны другого счётчика переходят к этому вместе с ответственностью за удаление
+        runs.addAll(counter.runs);
+        counter.runs.clear();
+        containsZero |= counter.containsZero;
+        for (int i = 0; i < counter.capacity; i++) {
+            long key = counter.table.getLong(i << 3);
+            if (key != 0L) {
+                addBits(key);
+            }
+        }
+        // Слитый счётчик больше не используется — его таблица возвращается в бюджет сразу, не дожидаясь close()
+        counter.free();
+    }
+
+    @Override
+    public UniqueCountMode mode() {
+        return UniqueCountMode.EXACT_BOUNDED;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        writeTo(out, SpillRunStore.INLINE);
+    }
+
+    /**
+     * Значения в памяти, затем прогоны: они неизменяемы, поэтому сохраняются как есть
+     */
+    @Override
+    public void writeTo(DataOutputStream out, SpillRunStore runStore) throws IOException {
+        out.writeBoolean(containsZero);
+        out.writeInt(size);
+        for (int i = 0; i < capacity; i++) {
+            long key = table.getLong(i << 3);
+            if (key != 0L) {
+                out.writeLong(key);
+            }
+        }
+        out.writeInt(runs.size());
+        for (Path run : runs) {
+            runStore.write(run, out);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInputStream in) throws IOException {
+        readFrom(in, SpillRunStore.INLINE);
+    }
+
+    @Override
+    public void readFrom(DataInputStream in, SpillRunStore runStore) throws IOException {
+        containsZero |= in.readBoolean();
+        int keys = in.readInt();
+        for (int i = 0; i < keys; i++) {
+            addBits(in.readLong());
+        }
+        int runCount = in.readInt();
+        for (int i = 0; i < runCount; i++) {
+            runs.add(runStore.read(in, spillDir, "unique-"));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                log.warn("Failed to delete spill run {}: {}", run, e.getMessage());
+            }
+        }
+        runs.clear();
+        free();
+    }
+
+    private void free() {
+        if (table != null) {
+            budget.release(bytes(capacity));
+            table = null;
+            capacity = 0;
+            size = 0;
+        }
+    }
+
+    private static long bytes(int capacity) {
+        return (long) capacity * Long.BYTES;
+    }
+
+    private void allocate(int newCapacity) {
+        table = ByteBuffer.allocateDirect(newCapacity << 3);
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        resizeThreshold = (int) (newCapacity * MAX_LOAD_FACTOR);
+    }
+
+    /**
+     * Новая таблица уже зарезервирована вызывающим; прежняя возвращается в бюджет
+     */
+    private void rehash(int newCapacity) {
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        allocate(newCapacity);
+        budget.release(bytes(oldCapacity));
+        for (int j = 0; j < oldCapacity; j++) {
+            long key = old.getLong(j << 3);
+            if (key != 0L) {
+                int i = (int) Hashing.mix64(key) & mask;
+                while (table.getLong(i << 3) != 0L) {
+                    i = (i + 1) & mask;
+                }
+                table.putLong(i << 3, key);
+            }
+        }
+    }
+
+    /**
+     * Уплотняет ключи в начало таблицы, сортирует их на месте и пишет прогон без копии в heap
+     */
+    private void spill() {
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            long key = table.getLong(i << 3);
+            if (key != 0L) {
+                if (i != n) {
+                    table.putLong(n << 3, key);
+                    table.putLong(i << 3, 0L);
+                }
+                n++;
+            }
+        }
+        sort(table, 0, n);
+
+        try {
+            Files.createDirectories(spillDir);
+            Path run = Files.createTempFile(spillDir, "unique-", ".run");
+            runs.add(run);
+            try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+                ByteBuffer slice = table.duplicate().position(0).limit(n << 3);
+                while (slice.hasRemaining()) {
+                    channel.write(slice);
+                }
+            }
+            log.debug("Spilled {} distinct values to {}", n, run);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill distinct values to " + spillDir, e);
+        }
+
+        for (int i = 0; i < n; i++) {
+            table.putLong(i << 3, 0L);
+        }
+        size = 0;
+    }
+
+    private long mergeCount() {
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(Comparator.comparingLong(RunReader::head));
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    heads.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            long distinct = 0;
+            boolean first = true;
+            long last = 0;
+            while (!heads.isEmpty()) {
+                RunReader reader = heads.poll();
+                long value = reader.head();
+                if (first || value != last) {
+                    distinct++;
+                    last = value;
+                    first = false;
+                }
+                if (reader.advance()) {
+                    heads.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            return distinct;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to merge spill runs", e);
+        } finally {
+            heads.forEach(RunReader::close);
+        }
+    }
+
+    private static void sort(ByteBuffer b, int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            long pivot = medianOfThree(get(b, from), get(b, mid), get(b, to - 1));
+            int lt = from, i = from, gt = to - 1;
+            // Трёхпутевое разбиение: [from, lt) < pivot, [lt, i) == pivot, (gt, to) > pivot
+            while (i <= gt) {
+                long v = get(b, i);
+                if (v < pivot) {
+                    swap(b, lt++, i++);
+                } else if (v > pivot) {
+                    swap(b, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            // Рекурсия в меньшую часть, цикл по большей — глубина стека O(log n)
+            if (lt - from < to - gt - 1) {
+                sort(b, from, lt);
+                from = gt + 1;
+            } else {
+                sort(b, gt + 1, to);
+                to = lt;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            long v = get(b, i);
+            int j = i - 1;
+            while (j >= from && get(b, j) > v) {
+                b.putLong((j + 1) << 3, get(b, j));
+                j--;
+            }
+            b.putLong((j + 1) << 3, v);
+        }
+    }
+
+    private static long medianOfThree(long a, long b, long c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static long get(ByteBuffer b, int index) {
+        return b.getLong(index << 3);
+    }
+
+    private static void swap(ByteBuffer b, int i, int j) {
+        long tmp = get(b, i);
+        b.putLong(i << 3, get(b, j));
+        b.putLong(j << 3, tmp);
+    }
+
+    private static final class RunReader implements AutoCloseable {
+
+        private final DataInputStream in;
+        private long head;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_READ_BUFFER));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                head = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        long head() {
+            return head;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // прогон удаляется в SpillingDoubleCounter.close()
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.AnalysisStatistics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Изменяемый аккумулятор статистики на примитивах для горячего цикла.
+ * Среднее и M2 ведутся по Уэлфорду, слияние — по формулам Чана,
+ * поэтому дисперсия устойчива и для больших значений, и при параллельной агрегации.
+ * В {@link AnalysisStatistics} превращается один раз — в {@link #toStatistics()}.
+ */
+public final class StatisticsAccumulator implements AutoCloseable {
+
+    private final UniqueCounter unique;
+    private final KllSketch quantiles;
+    private final EquiWidthHistogram histogram;
+    private final LogHistogram logHistogram;
+
+    private long totalRecords;
+    private long processedRecords;
+    private long skippedRecords;
+
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double mean;
+    private double m2;
+    private double sum;
+    private double sumOfSquares;
+
+    public StatisticsAccumulator(UniqueCounter unique, KllSketch quantiles,
+                                 EquiWidthHistogram histogram, LogHistogram logHistogram) {
+        this.unique = unique;
+        this.quantiles = quantiles;
+        this.histogram = histogram;
+        this.logHistogram = logHistogram;
+    }
+
+    public void add(double value) {
+        totalRecords++;
+        long n = ++processedRecords;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+
+        double delta = value - mean;
+        mean += delta / n;
+        m2 += delta * (value - mean);
+
+        sum += value;
+        sumOfSquares += value * value;
+        unique.add(value);
+        quantiles.update(value);
+        histogram.add(value);
+        logHistogram.add(value);
+    }
+
+    public void skip() {
+        totalRecords++;
+        skippedRecords++;
+    }
+
+    public void skip(long count) {
+        totalRecords += count;
+        skippedRecords += count;
+    }
+
+    public void merge(StatisticsAccumulator other) {
+        long n = processedRecords + other.processedRecords;
+        if (other.processedRecords > 0) {
+            double delta = other.mean - mean;
+            mean += delta * other.processedRecords / n;
+            m2 += other.m2 + delta * delta * ((double) processedRecords * other.processedRecords / n);
+        }
+
+        totalRecords += other.totalRecords;
+        processedRecords = n;
+        skippedRecords += other.skippedRecords;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+        unique.merge(other.unique);
+        quantiles.merge(other.quantiles);
+        histogram.merge(other.histogram);
+        logHistogram.merge(other.logHistogram);
+    }
+
+    public AnalysisStatistics toStatistics() {
+        boolean empty = processedRecords == 0;
+        Double[] q = quantiles.quantiles(0.5, 0.9, 0.95, 0.99);
+        return AnalysisStatistics.builder()
+                .totalRecords(totalRecords)
+                .processedRecords(processedRecords)
+                .skippedRecords(skippedRecords)
+                .minValue(empty ? 0d : min)
+                .maxValue(empty ? 0d : max)
+                .meanValue(empty ? null : mean)
+                .stdDeviation(empty ? null : Math.sqrt(m2 / processedRecords))
+                .sumValue(sum)
+                .sumOfSquares(sumOfSquares)
+                .uniqueValuesCount(unique.count())
+                .uniqueCountMode(unique.mode())
+                .median(q[0])
+                .p90(q[1])
+                .p95(q[2])
+                .p99(q[3])
+                .quantileSketch(quantiles.toBytes())
+                .histogram(histogram.toBytes())
+                .logHistogram(logHistogram.toBytes())
+                .build();
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        writeTo(out, SpillRunStore.INLINE);
+    }
+
+    /**
+     * Полное состояние для контрольной точки; скетчи и гистограммы — в их собственном формате
+     */
+    public void writeTo(DataOutputStream out, SpillRunStore runs) throws IOException {
+        out.writeLong(totalRecords);
+        out.writeLong(processedRecords);
+        out.writeLong(skippedRecords);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeDouble(sum);
+        out.writeDouble(sumOfSquares);
+        writeBytes(out, quantiles.toBytes());
+        writeBytes(out, histogram.toBytes());
+        writeBytes(out, logHistogram.toBytes());
+        out.writeUTF(unique.mode().name());
+        unique.writeTo(out, runs);
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        readFrom(in, SpillRunStore.INLINE);
+    }
+
+    /**
+     * Восстанавливает состояние из контрольной точки в новый, ещё пустой аккумулятор
+     */
+    public void readFrom(DataInputStream in, SpillRunStore runs) throws IOException {
+        totalRecords = in.readLong();
+        processedRecords = in.readLong();
+        skippedRecords = in.readLong();
+        min = in.readDouble();
+        max = in.readDouble();
+        mean = in.readDouble();
+        m2 = in.readDouble();
+        sum = in.readDouble();
+        sumOfSquares = in.readDouble();
+        quantiles.merge(KllSketch.fromBytes(readBytes(in)));
+        histogram.merge(EquiWidthHistogram.fromBytes(readBytes(in)));
+        logHistogram.merge(LogHistogram.fromBytes(readBytes(in)));
+        String mode = in.readUTF();
+        if (!mode.equals(unique.mode().name())) {
+            throw new IOException("Checkpoint was written with unique count mode " + mode + ", current is " + unique.mode());
+        }
+        unique.readFrom(in, runs);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public RunningStatistics snapshot(int columnIndex) {
+        return new RunningStatistics(columnIndex, totalRecords, processedRecords,
+                min, max, mean, m2, unique.runningCount());
+    }
+
+    public long totalRecords() {
+        return totalRecords;
+    }
+
+    public long processedRecords() {
+        return processedRecords;
+    }
+
+    @Override
+    public void close() {
+        unique.close();
+    }
+}
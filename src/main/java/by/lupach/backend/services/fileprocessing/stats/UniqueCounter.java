@@ -0,0 +1,60 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import by.lupach.backend.entities.UniqueCountMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Счётчик различных значений столбца. Значения сравниваются как {@link Double#equals}:
+ * все NaN равны между собой, 0.0 и -0.0 различаются.
+ */
+public interface UniqueCounter extends AutoCloseable {
+
+    void add(double value);
+
+    long count();
+
+    /**
+     * Число различных значений, если его можно получить дёшево и без побочных эффектов (для живого прогресса), иначе -1
+     */
+    default long runningCount() {
+        return -1;
+    }
+
+    /**
+     * Добавляет значения другого счётчика того же режима (для слияния кусков файла)
+     */
+    void merge(UniqueCounter other);
+
+    UniqueCountMode mode();
+
+    /**
+     * Пишет полное состояние счётчика в контрольную точку
+     */
+    void writeTo(DataOutputStream out) throws IOException;
+
+    /**
+     * То же; прогоны сброса на диск, если они есть, сохраняются через runs
+     */
+    default void writeTo(DataOutputStream out, SpillRunStore runs) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * Добавляет значения из контрольной точки, записанной {@link #writeTo} счётчиком того же режима
+     */
+    void readFrom(DataInputStream in) throws IOException;
+
+    default void readFrom(DataInputStream in, SpillRunStore runs) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * Освобождает внешние ресурсы счётчика (временные файлы)
+     */
+    @Override
+    default void close() {
+    }
+}
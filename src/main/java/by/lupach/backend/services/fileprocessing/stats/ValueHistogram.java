@@ -0,0 +1,28 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import java.util.List;
+
+/**
+ * Гистограмма значений столбца, строящаяся за один проход в фиксированной памяти.
+ * NaN и бесконечности в корзины не попадают и считаются отдельно.
+ */
+public interface ValueHistogram {
+
+    void add(double value);
+
+    /**
+     * Добавляет корзины другой гистограммы того же типа (для слияния кусков файла)
+     */
+    void merge(ValueHistogram other);
+
+    /**
+     * Непустой диапазон корзин по возрастанию значений
+     */
+    List<Bin> bins();
+
+    long nonFiniteCount();
+
+    byte[] toBytes();
+
+    record Bin(double lowerBound, double upperBound, long count) {}
+}
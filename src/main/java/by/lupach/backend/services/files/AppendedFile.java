@@ -0,0 +1,12 @@
+package by.lupach.backend.services.files;
+
+/**
+ * Файл после дописывания куска на месте: путь, прежний размер (до него файл откатывается при ошибке),
+ * смещение, с которого начинаются дописанные записи, и итоговый размер
+ */
+public record AppendedFile(
+        String filePath,
+        long previousSize,
+        long appendOffset,
+        long size
+) {}
@@ -0,0 +1,318 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.CreateUploadRequestDTO;
+import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.dtos.UploadStatusDTO;
+import by.lupach.backend.exceptions.FileSizeAboveLimitException;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
+import by.lupach.backend.exceptions.UploadNotFoundException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Загрузка больших файлов по частям. Каждая часть пишется прямо в собираемый файл по своему смещению
+ * через FileChannel — без промежуточной копии, части могут приходить параллельно и в любом порядке.
+ * Полученные части отмечаются в файле-битовой карте только после сброса данных на диск, поэтому после обрыва
+ * (или перезапуска сервера) клиент узнаёт, что досылать, и продолжает, а не начинает заново.
+ * Завершение переносит собранный файл в хранилище переименованием и ставит его в очередь как обычную загрузку.
+ * SHA-256 файла — тот же, что у обычной загрузки, — считается по мере того, как полученные части складываются
+ * в непрерывное начало файла: часть дочитывается сразу после записи, пока она ещё в кеше страниц, и завершению
+ * остаётся дочитать только то, что в начало не вошло. Состояние хеша хранится в памяти узла: после перезапуска
+ * или на другом узле начало пересчитывается с первой части.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChunkedUploadService {
+
+    private static final String SESSION_SUFFIX = ".upload.json";
+    private static final String COMPLETING_SUFFIX = ".upload.completing";
+    private static final String DATA_SUFFIX = ".upload.data";
+    private static final String PARTS_SUFFIX = ".upload.parts";
+    private static final int IO_BUFFER = 1 << 16;
+    private static final int MAX_LISTED_MISSING_PARTS = 1000;
+
+    private final FileService fileService;
+    private final FileStorageService storageService;
+    private final ObjectMapper objectMapper;
+
+    // Хеш уже непрерывного начала собираемого файла по загрузкам
+    private final ConcurrentHashMap<UUID, PrefixHash> prefixes = new ConcurrentHashMap<>();
+
+    @Value("${app.upload.chunked.max-file-size:10737418240}")
+    private long maxSize;
+
+    @Value("${app.upload.chunked.part-size:8388608}")
+    private long partSize;
+
+    @Value("${app.upload.chunked.expire-hours:24}")
+    private long expireHours;
+
+    public UploadStatusDTO create(CreateUploadRequestDTO request) throws IOException {
+        fileService.validateName(request.fileName());
+        if (request.fileSize() == null || request.fileSize() <= 0 || request.fileSize() > maxSize) {
+            throw new FileSizeAboveLimitException("File size exceeds limit");
+        }
+        AnalysisOptions options = fileService.parseOptions(request.columns(), request.groupBy(), request.approximate());
+        removeExpired();
+
+        UploadSession session = new UploadSession(UUID.randomUUID(), request.fileName(), request.fileSize(),
+                partSize, options);
+        Files.createFile(file(session.uploadId(), DATA_SUFFIX));
+        Files.write(file(session.uploadId(), PARTS_SUFFIX), new byte[session.partCount()]);
+        // Файл сессии пишется последним: его наличие означает, что загрузка создана полностью
+        objectMapper.writeValue(file(session.uploadId(), SESSION_SUFFIX).toFile(), session);
+        log.info("Chunked upload {} created for {} ({} bytes, {} parts)",
+                session.uploadId(), session.fileName(), session.fileSize(), session.partCount());
+        return status(session);
+    }
+
+    public void writePart(UUID uploadId, int partNumber, InputStream body) throws IOException {
+        UploadSession session = session(uploadId);
+        if (partNumber < 0 || partNumber >= session.partCount()) {
+            throw new InvalidAnalysisRequestException("Part number out of range: " + partNumber);
+        }
+        long offset = partNumber * session.partSize();
+        long length = Math.min(session.partSize(), session.fileSize() - offset);
+        boolean resent = isReceived(uploadId, partNumber);
+
+        try (FileChannel channel = FileChannel.open(file(uploadId, DATA_SUFFIX), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+            long written = 0;
+            int n;
+            while (written < length
+                    && (n = body.read(buffer.array(), 0, (int) Math.min(IO_BUFFER, length - written))) >= 0) {
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, offset + written);
+                }
+            }
+            if (written < length) {
+                throw new InvalidAnalysisRequestException(
+                        "Part " + partNumber + " is incomplete: " + written + " of " + length + " bytes");
+            }
+            if (body.read() >= 0) {
+                throw new InvalidAnalysisRequestException("Part " + partNumber + " is longer than " + length + " bytes");
+            }
+            // Отметка о части не должна попасть на диск раньше самих данных
+            channel.force(false);
+        }
+        try (FileChannel parts = FileChannel.open(file(uploadId, PARTS_SUFFIX), StandardOpenOption.WRITE)) {
+            parts.write(ByteBuffer.wrap(new byte[]{1}), partNumber);
+        }
+        if (resent) {
+            // Часть прислана повторно: посчитанное начало могло включать её прежние байты
+            prefixes.remove(uploadId);
+        }
+
+        // Начало продлевает один поток; занятое другим — этот поток не ждёт, остаток дочитает завершение
+        PrefixHash prefix = prefixes.computeIfAbsent(uploadId, id -> new PrefixHash());
+        if (prefix.lock.tryLock()) {
+            try {
+                advance(session, prefix);
+            } catch (IOException e) {
+                prefixes.remove(uploadId, prefix);
+                log.warn("Failed to hash received parts of upload {}, will rehash on completion: {}",
+                        uploadId, e.getMessage());
+            } finally {
+                prefix.lock.unlock();
+            }
+        }
+    }
+
+    public UploadStatusDTO status(UUID uploadId) throws IOException {
+        return status(session(uploadId));
+    }
+
+    public FileUploadResponseDTO complete(UUID uploadId) throws IOException {
+        UploadSession session = session(uploadId);
+        UploadStatusDTO status = status(session);
+        if (!status.missingParts().isEmpty()) {
+            throw new InvalidAnalysisRequestException("Upload " + uploadId + " is incomplete, missing parts: "
+                    + status.missingParts().subList(0, Math.min(10, status.missingParts().size())));
+        }
+
+        // Переименование файла сессии — захват: повторное завершение той же загрузки получит «не найдена»
+        Path sessionFile = file(uploadId, SESSION_SUFFIX);
+        Path completing = file(uploadId, COMPLETING_SUFFIX);
+        try {
+            Files.move(sessionFile, completing, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            throw new UploadNotFoundException("Upload not found: " + uploadId);
+        }
+        FileUploadResponseDTO response;
+        StoredFile stored;
+        try {
+            stored = adopt(uploadId, session);
+            response = fileService.registerAndQueue(stored, session.fileName(), session.fileSize(), session.options());
+        } catch (IOException | RuntimeException e) {
+            // Собранный файл не перенесён в хранилище — завершение можно повторить
+            if (Files.exists(file(uploadId, DATA_SUFFIX))) {
+                Files.move(completing, sessionFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        Files.deleteIfExists(file(uploadId, PARTS_SUFFIX));
+        Files.deleteIfExists(completing);
+        log.info("Chunked upload {} completed as {}", uploadId, stored.filePath());
+        return response;
+    }
+
+    /**
+     * SHA-256 собранного файла: к уже посчитанному началу дочитываются остальные части
+     */
+    private StoredFile adopt(UUID uploadId, UploadSession session) throws IOException {
+        PrefixHash prefix = prefixes.computeIfAbsent(uploadId, id -> new PrefixHash());
+        prefix.lock.lock();
+        try {
+            advance(session, prefix);
+            if (prefix.nextPart < session.partCount()) {
+                throw new IOException("Upload " + uploadId + " has unhashed part " + prefix.nextPart);
+            }
+            String hash = HexFormat.of().formatHex(prefix.digest.digest());
+            return storageService.adopt(file(uploadId, DATA_SUFFIX), hash, session.fileName());
+        } finally {
+            prefix.lock.unlock();
+            // Хеш выдан и сброшен: повторное завершение посчитает его заново
+            prefixes.remove(uploadId, prefix);
+        }
+    }
+
+    /**
+     * Дочитывает в хеш отмеченные части, смежные с уже посчитанным началом; вызывается под блокировкой начала
+     */
+    private void advance(UploadSession session, PrefixHash prefix) throws IOException {
+        byte[] parts = Files.readAllBytes(file(session.uploadId(), PARTS_SUFFIX));
+        if (prefix.nextPart >= parts.length || parts[prefix.nextPart] == 0) {
+            return;
+        }
+        try (FileChannel data = FileChannel.open(file(session.uploadId(), DATA_SUFFIX), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+            while (prefix.nextPart < parts.length && parts[prefix.nextPart] != 0) {
+                long offset = prefix.nextPart * session.partSize();
+                long end = Math.min(offset + session.partSize(), session.fileSize());
+                while (offset < end) {
+                    buffer.clear().limit((int) Math.min(IO_BUFFER, end - offset));
+                    int n = data.read(buffer, offset);
+                    if (n < 0) {
+                        throw new IOException("Upload " + session.uploadId() + " is shorter than its received parts");
+                    }
+                    prefix.digest.update(buffer.array(), 0, n);
+                    offset += n;
+                }
+                prefix.nextPart++;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Часть могла войти в хеш не целиком
+            prefix.digest.reset();
+            prefix.nextPart = 0;
+            throw e;
+        }
+    }
+
+    private boolean isReceived(UUID uploadId, int partNumber) throws IOException {
+        try (FileChannel parts = FileChannel.open(file(uploadId, PARTS_SUFFIX), StandardOpenOption.READ)) {
+            ByteBuffer mark = ByteBuffer.allocate(1);
+            return parts.read(mark, partNumber) == 1 && mark.get(0) != 0;
+        }
+    }
+
+    public void abort(UUID uploadId) throws IOException {
+        session(uploadId);
+        delete(uploadId);
+    }
+
+    private UploadStatusDTO status(UploadSession session) throws IOException {
+        byte[] parts = Files.readAllBytes(file(session.uploadId(), PARTS_SUFFIX));
+        List<Integer> missing = new ArrayList<>();
+        long receivedBytes = 0;
+        int firstMissing = -1;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] != 0) {
+                receivedBytes += Math.min(session.partSize(), session.fileSize() - i * session.partSize());
+            } else {
+                if (firstMissing < 0) {
+                    firstMissing = i;
+                }
+                if (missing.size() < MAX_LISTED_MISSING_PARTS) {
+                    missing.add(i);
+                }
+            }
+        }
+        long receivedOffset = firstMissing < 0 ? session.fileSize() : firstMissing * session.partSize();
+        return new UploadStatusDTO(session.uploadId(), session.fileName(), session.fileSize(), session.partSize(),
+                session.partCount(), receivedBytes, receivedOffset, missing);
+    }
+
+    private UploadSession session(UUID uploadId) throws IOException {
+        Path file = file(uploadId, SESSION_SUFFIX);
+        if (!Files.exists(file)) {
+            throw new UploadNotFoundException("Upload not found: " + uploadId);
+        }
+        return objectMapper.readValue(file.toFile(), UploadSession.class);
+    }
+
+    /**
+     * Загрузки, к которым давно не приходили части, удаляются вместе с полученными данными
+     */
+    private void removeExpired() throws IOException {
+        Instant threshold = Instant.now().minus(Duration.ofHours(expireHours));
+        try (Stream<Path> files = Files.list(storageService.incomingDir())) {
+            for (Path parts : files.filter(f -> f.getFileName().toString().endsWith(PARTS_SUFFIX)).toList()) {
+                if (Files.getLastModifiedTime(parts).toInstant().isBefore(threshold)) {
+                    String name = parts.getFileName().toString();
+                    UUID uploadId = UUID.fromString(name.substring(0, name.length() - PARTS_SUFFIX.length()));
+                    log.info("Removing expired chunked upload {}", uploadId);
+                    delete(uploadId);
+                }
+            }
+        }
+        // Начала загрузок, удалённых другим узлом
+        Path incoming = storageService.incomingDir();
+        prefixes.keySet().removeIf(uploadId -> !Files.exists(incoming.resolve(uploadId + PARTS_SUFFIX)));
+    }
+
+    private void delete(UUID uploadId) throws IOException {
+        prefixes.remove(uploadId);
+        Files.deleteIfExists(file(uploadId, SESSION_SUFFIX));
+        Files.deleteIfExists(file(uploadId, DATA_SUFFIX));
+        Files.deleteIfExists(file(uploadId, PARTS_SUFFIX));
+    }
+
+    private Path file(UUID uploadId, String suffix) throws IOException {
+        return storageService.incomingDir().resolve(uploadId + suffix);
+    }
+
+    /**
+     * SHA-256 непрерывного начала собираемого файла: части до nextPart уже учтены
+     */
+    private static final class PrefixHash {
+        final ReentrantLock lock = new ReentrantLock();
+        final MessageDigest digest = FileStorageService.sha256();
+        int nextPart;
+    }
+}
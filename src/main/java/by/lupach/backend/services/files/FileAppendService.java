@@ -0,0 +1,215 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.AnalysisResultDTO;
+import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.exceptions.AnalysisNotFoundException;
+import by.lupach.backend.exceptions.FileSizeAboveLimitException;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
+import by.lupach.backend.exceptions.InvalidFileExtensionException;
+import by.lupach.backend.repositories.AnalysisResultRepository;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.FileAnalysisService;
+import by.lupach.backend.services.fileprocessing.AnalysisStateStore;
+import by.lupach.backend.services.fileprocessing.ProgressNotifier;
+import by.lupach.backend.services.fileprocessing.StatisticsCalculator;
+import by.lupach.backend.services.fileprocessing.StreamingFileProcessor;
+import by.lupach.backend.services.fileprocessing.csv.PipelinedGzipInputStream;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Дописывание куска к уже проанализированному файлу: разбираются только новые записи, их статистика
+ * сливается с сохранённым состоянием аккумулятора прежнего результата, и результат заменяется целиком.
+ * Кусок дописывается в конец собственной копии файла на месте, поэтому ни дописывание, ни разбор
+ * не зависят от размера прежнего содержимого.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FileAppendService {
+
+    private final FileEntityRepository fileRepo;
+    private final AnalysisResultRepository analysisResultRepository;
+    private final FileStorageService storageService;
+    private final FileService fileService;
+    private final StatisticsCalculator calculator;
+    private final StreamingFileProcessor processor;
+    private final AnalysisStateStore stateStore;
+    private final FileAnalysisService fileAnalysisService;
+    private final ProgressNotifier notifier;
+    private final FileLocks locks;
+
+    @Value("${app.upload.dir:uploads}")
+    private String uploadDir;
+
+    @Value("${app.max.file.size:52428800}")
+    private long maxSize;
+
+    public AnalysisResultDTO append(UUID fileId, MultipartFile chunk) throws Exception {
+        validate(chunk);
+        // Дописывания к одному файлу с любых узлов идут по очереди: каждое продолжает состояние предыдущего
+        return locks.withFile(fileId, () -> appendLocked(fileId, chunk));
+    }
+
+    private AnalysisResultDTO appendLocked(UUID fileId, MultipartFile chunk) throws Exception {
+        FileEntity file = fileRepo.findById(fileId)
+                .orElseThrow(() -> new AnalysisNotFoundException("File not found: " + fileId));
+        if (PipelinedGzipInputStream.isCompressed(file.getFilePath())) {
+            throw new InvalidAnalysisRequestException("Append is supported for uncompressed CSV files only");
+        }
+        // Копия уже проанализированного файла продолжает состояние исходного и дальше живёт отдельно
+        UUID owner = file.getDuplicateOf() != null ? file.getDuplicateOf().getId() : fileId;
+        analysisResultRepository.findAnalysisResultByFile_Id(owner)
+                .filter(result -> !result.isApproximate())
+                .orElseThrow(() -> new InvalidAnalysisRequestException("File has no completed exact analysis: " + fileId));
+        AnalysisOptions options = file.getAnalysisOptions();
+        CsvSchema schema = file.getSchema();
+        if (options == null || schema == null) {
+            throw new InvalidAnalysisRequestException("File was analyzed without recorded options: " + fileId);
+        }
+
+        LocalDateTime started = LocalDateTime.now();
+        ColumnSetAccumulator acc = calculator.newAccumulator(options, schema);
+        try {
+            if (!stateStore.restore(owner, acc)) {
+                throw new InvalidAnalysisRequestException("Analysis state of file is not stored: " + fileId);
+            }
+            file = detach(file);
+            FileEntity source = file.getDuplicateOf();
+            Long previousSize = file.getFileSize();
+            AppendedFile appended = storageService.append(file.getFilePath(), chunk, schema.header());
+            Optional<FileEntity> heir = Optional.empty();
+            // Всё после дописывания — одно целое: при любой ошибке кусок отрезается, а файл остаётся
+            // с прежними размером, результатом и состоянием
+            try {
+                scanAppended(appended, options, schema, acc);
+                // Состояние пишется до финализации — группы после неё отдаются на сохранение результата, —
+                // но заменяет прежнее только после сохранения результата
+                stateStore.stage(fileId, acc);
+                List<AnalysisStatistics> stats = calculator.finalizeStats(acc);
+
+                // Копии файла остаются с прежним содержимым и прежним результатом
+                if (owner.equals(fileId)) {
+                    heir = fileService.handOverToDuplicates(fileId);
+                }
+                file = fileRepo.findById(fileId).orElseThrow();
+                file.setFileSize(appended.size());
+                file.setDuplicateOf(null);
+                file = fileRepo.save(file);
+
+                AnalysisResult res = new AnalysisResult();
+                res.setFile(file);
+                res.setProcessStartTime(started);
+                res.setStatistics(stats.isEmpty() ? null : stats.get(0));
+                if (options.multiColumn()) {
+                    res.setColumnStatistics(stats);
+                }
+                res.setGroups(acc.detachGroups());
+                fileAnalysisService.saveResult(res);
+            } catch (Exception e) {
+                rollBack(fileId, appended, previousSize, heir.orElse(source), e);
+                throw e;
+            }
+            try {
+                stateStore.publish(fileId);
+            } catch (Exception e) {
+                // Без актуального состояния следующее дописывание должно быть отклонено, а не слито со старым
+                stateStore.delete(fileId);
+                log.warn("Failed to store analysis state of file {}: {}", fileId, e.getMessage());
+            }
+
+            log.info("Appended {} bytes to file {}, new size {}", chunk.getSize(), fileId, appended.size());
+            notifier.notify(fileId, ProcessingStatus.COMPLETED, 100, "Appended " + chunk.getSize() + " bytes");
+            return fileAnalysisService.getAnalysisDetailsByFileId(fileId);
+        } finally {
+            acc.close();
+        }
+    }
+
+    /**
+     * Собственная копия файла для дописывания на месте. Хеш у неё не ведётся — файл больше не участвует
+     * в поиске одинакового содержимого; ссылка на новый путь сохраняется раньше переноса, как при загрузке.
+     */
+    private FileEntity detach(FileEntity file) throws IOException {
+        String contentPath = file.getFilePath();
+        String appendablePath = storageService.appendablePath(file.getId(), contentPath);
+        if (appendablePath.equals(contentPath)) {
+            return file;
+        }
+        String contentHash = file.getContentHash();
+        file.setFilePath(appendablePath);
+        file.setContentHash(null);
+        file = fileRepo.save(file);
+        try {
+            storageService.detach(contentPath, appendablePath);
+        } catch (IOException | RuntimeException e) {
+            file.setFilePath(contentPath);
+            file.setContentHash(contentHash);
+            fileRepo.save(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Отрезает дописанный кусок и возвращает записи о файле прежний размер. Если прежний результат уже передан
+     * копии или файл сам был копией, файл снова ссылается на неё — содержимое у них опять одинаковое.
+     * Ошибки отката добавляются к исходной.
+     */
+    private void rollBack(UUID fileId, AppendedFile appended, Long previousSize, FileEntity source, Exception cause) {
+        stateStore.discard(fileId);
+        try {
+            storageService.truncate(appended.filePath(), appended.previousSize());
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+        try {
+            fileRepo.findById(fileId).ifPresent(file -> {
+                file.setFileSize(previousSize);
+                file.setDuplicateOf(source);
+                fileRepo.save(file);
+            });
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void scanAppended(AppendedFile appended, AnalysisOptions options, CsvSchema schema,
+                              ColumnSetAccumulator acc) throws Exception {
+        ColumnSetAccumulator part = calculator.newAccumulator(options, schema);
+        try {
+            processor.scanAppended(Paths.get(uploadDir, appended.filePath()), appended.appendOffset(), options, part);
+        } catch (Exception e) {
+            part.close();
+            throw e;
+        }
+        calculator.merge(acc, part);
+    }
+
+    private void validate(MultipartFile chunk) {
+        if (chunk.isEmpty() || chunk.getSize() > maxSize) {
+            throw new FileSizeAboveLimitException("File size exceeds limit");
+        }
+        String fileName = Objects.requireNonNull(chunk.getOriginalFilename()).toLowerCase();
+        if (!fileName.endsWith(".csv")) {
+            throw new InvalidFileExtensionException("Only CSV chunks can be appended");
+        }
+    }
+}
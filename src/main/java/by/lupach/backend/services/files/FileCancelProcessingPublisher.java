@@ -1,19 +1,27 @@
 package by.lupach.backend.services.files;
 
-import by.lupach.backend.configs.RedisConfig;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.redis.CancellationRedisService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.UUID;
 
+/**
+ * Запрос отмены: рассылка всем узлам, а удаление анализа — один раз, на узле, принявшем запрос
+ */
 @Service
 @RequiredArgsConstructor
 public class FileCancelProcessingPublisher {
 
-    private final RedisTemplate<String, UUID> redis;
+    private final CancellationRedisService cancellation;
+    private final FileService fileService;
+    private final FileEntityRepository fileRepo;
 
     public void enqueue(UUID fileId) {
-        redis.opsForList().rightPush(RedisConfig.FILE_CANCEL_QUEUE, fileId);
+        cancellation.request(fileId);
+        if (fileRepo.existsById(fileId)) {
+            fileService.deleteAnalysisByFileId(fileId);
+        }
     }
-}
\ No newline at end of file
+}
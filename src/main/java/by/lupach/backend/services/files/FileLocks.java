@@ -0,0 +1,47 @@
+package by.lupach.backend.services.files;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.integration.util.CheckedCallable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Блокировки хранилища в Redis: каталог загрузок общий для всех узлов, поэтому блокировки JVM недостаточно.
+ * Блокировка содержимого сериализует появление файла в хранилище и его удаление с последней ссылкой,
+ * блокировка файла — дописывания к нему с любых узлов.
+ */
+@Component
+@RequiredArgsConstructor
+public class FileLocks {
+
+    private final LockRegistry fileLockRegistry;
+
+    @Value("${app.storage.lock-wait-ms:30000}")
+    private long waitMs;
+
+    public <T, E extends Exception> T withContent(String filePath, CheckedCallable<T, E> action) throws E, IOException {
+        return locked("content:" + filePath, action);
+    }
+
+    public <T, E extends Exception> T withFile(UUID fileId, CheckedCallable<T, E> action) throws E, IOException {
+        return locked("file:" + fileId, action);
+    }
+
+    private <T, E extends Exception> T locked(String key, CheckedCallable<T, E> action) throws E, IOException {
+        try {
+            return fileLockRegistry.executeLocked(key, Duration.ofMillis(waitMs), action);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lock " + key);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for lock " + key, e);
+        }
+    }
+}
@@ -1,83 +1,409 @@
 package by.lupach.backend.services.files;
 
+import by.lupach.backend.dtos.AnalysisOptions;
 import by.lupach.backend.dtos.FileQueueMessageDTO;
 import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.dtos.ProgressMessageDTO;
 import by.lupach.backend.entities.AnalysisResult;
 import by.lupach.backend.entities.FileEntity;
 import by.lupach.backend.entities.ProcessingStatus;
 import by.lupach.backend.exceptions.AnalysisNotFoundException;
 import by.lupach.backend.exceptions.FileSizeAboveLimitException;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
 import by.lupach.backend.exceptions.InvalidFileExtensionException;
+import by.lupach.backend.repositories.AnalysisResultRepository;
 import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.fileprocessing.AnalysisStateStore;
 import by.lupach.backend.services.fileprocessing.ProgressNotifier;
 import by.lupach.backend.services.redis.AnalysisStatusFacade;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class FileService {
 
     private final FileEntityRepository fileRepo;
+    private final AnalysisResultRepository analysisResultRepository;
     private final FileStorageService storageService;
     private final FileQueuePublisher queuePublisher;
-    private final FileStorageService fileStorageService;
     private final AnalysisStatusFacade analysisStatusFacade;
     private final ProgressNotifier notifier;
+    private final AnalysisStateStore stateStore;
+    private final ExecutorService uploadExecutor;
+
+    private static final int MAX_COLUMN_INDEX = 4096;
 
     @Value("${app.max.file.size:52428800}")
     private long maxSize;
 
-    public FileUploadResponseDTO uploadAndQueue(MultipartFile file) throws IOException {
+    @Value("${app.upload.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${app.upload.bulk.max-files:1000}")
+    private int maxBulkFiles;
+
+    public FileUploadResponseDTO uploadAndQueue(MultipartFile file, List<String> columns, Integer groupBy,
+                                                boolean approximate) throws IOException {
         validate(file);
+        AnalysisOptions options = parseOptions(columns, groupBy, approximate);
 
-        FileEntity entity = FileEntity.builder()
-                .fileName(file.getOriginalFilename())
-                .fileSize(file.getSize())
-                .uploadTime(LocalDateTime.now())
-                .status(ProcessingStatus.PENDING)
-                .build();
+        StoredFile stored = storageService.saveFile(file);
+        try {
+            return registerAndQueue(stored, file.getOriginalFilename(), file.getSize(), options);
+        } finally {
+            storageService.discard(stored);
+        }
+    }
 
-        entity = fileRepo.save(entity);
-        storageService.saveFile(file, entity.getFilePath());
+    /**
+     * Запись о файле, перенос его в хранилище и постановка в очередь либо ссылка на готовый результат
+     */
+    public FileUploadResponseDTO registerAndQueue(StoredFile stored, String fileName, long fileSize,
+                                                  AnalysisOptions options) throws IOException {
+        FileEntity entity = newEntity(stored, fileName, fileSize, options);
+
+        Optional<AnalysisResult> existing = dedupEnabled ? findExactResult(entity) : Optional.empty();
+        if (existing.isPresent()) {
+            return linkToExisting(entity, stored, existing.get());
+        }
+
+        entity = commit(fileRepo.save(entity), stored);
 
         notifier.notify(entity.getId(), ProcessingStatus.PENDING, 0, "Added to queue");
 //        statusFacade.progress().setProgress(entity.getId(), 0);
 
-        queuePublisher.enqueue(new FileQueueMessageDTO(
+        queuePublisher.enqueue(queueMessage(entity, options));
+
+        return new FileUploadResponseDTO(entity.getId(), entity.getFileName(), entity.getStatus());
+    }
+
+    /**
+     * Пакетная загрузка: файлы пишутся в хранилище параллельно, записи о них вставляются одной пачкой,
+     * готовые результаты ищутся одним запросом на все различные хеши пачки, а очередь и начальные статусы
+     * пишутся в Redis одним конвейером вместо нескольких обменов на каждый файл.
+     * Одинаковые файлы пачки, для которых готового результата нет, анализируются каждый своей задачей:
+     * копией ещё не проанализированного файла запись сделать нельзя
+     */
+    public List<FileUploadResponseDTO> uploadAllAndQueue(List<MultipartFile> files, List<String> columns,
+                                                         Integer groupBy, boolean approximate) throws IOException {
+        if (files == null || files.isEmpty() || files.size() > maxBulkFiles) {
+            throw new InvalidAnalysisRequestException("Expected from 1 to " + maxBulkFiles + " files");
+        }
+        files.forEach(this::validate);
+        AnalysisOptions options = parseOptions(columns, groupBy, approximate);
+        long started = System.nanoTime();
+
+        List<StoredFile> stored = saveAll(files);
+        List<FileEntity> entities = new ArrayList<>(files.size());
+        // Одинаковое содержимое внутри пачки ищется и переносится в хранилище один раз, лишние копии не нужны
+        Map<String, StoredFile> contents = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            entities.add(newEntity(stored.get(i), file.getOriginalFilename(), file.getSize(), options));
+            if (contents.putIfAbsent(stored.get(i).contentHash(), stored.get(i)) != null) {
+                storageService.discard(stored.get(i));
+            }
+        }
+        if (dedupEnabled) {
+            Map<String, AnalysisResult> existing = findExactResults(contents.keySet(), options.exact());
+            for (FileEntity entity : entities) {
+                AnalysisResult result = existing.get(entity.getContentHash());
+                if (result != null) {
+                    markDuplicate(entity, result);
+                }
+            }
+        }
+        // Одна транзакция: при jdbc.batch_size вставки уходят одной пачкой
+        try {
+            entities = fileRepo.saveAll(entities);
+            commitAll(contents.values(), entities);
+        } finally {
+            stored.forEach(storageService::discard);
+        }
+
+        List<FileQueueMessageDTO> queue = new ArrayList<>(entities.size());
+        List<ProgressMessageDTO> progress = new ArrayList<>(entities.size());
+        List<FileUploadResponseDTO> response = new ArrayList<>(entities.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (FileEntity entity : entities) {
+            if (entity.getDuplicateOf() != null) {
+                progress.add(new ProgressMessageDTO(entity.getId(), ProcessingStatus.COMPLETED, 100,
+                        "Identical file already analyzed: " + entity.getDuplicateOf().getId(), now, null));
+            } else {
+                queue.add(queueMessage(entity, options));
+                progress.add(new ProgressMessageDTO(entity.getId(), ProcessingStatus.PENDING, 0,
+                        "Added to queue", now, null));
+            }
+            response.add(new FileUploadResponseDTO(entity.getId(), entity.getFileName(), entity.getStatus()));
+        }
+        analysisStatusFacade.initAll(progress, queue);
+
+        log.info("Bulk upload of {} files ({} queued) registered in {} ms",
+                entities.size(), queue.size(), (System.nanoTime() - started) / 1_000_000);
+        return response;
+    }
+
+    /**
+     * Параллельная запись во временные файлы; при ошибке уже записанные удаляются
+     */
+    private List<StoredFile> saveAll(List<MultipartFile> files) throws IOException {
+        List<Future<StoredFile>> futures = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            futures.add(uploadExecutor.submit(() -> storageService.saveFile(file)));
+        }
+        List<StoredFile> stored = new ArrayList<>(files.size());
+        Exception failure = null;
+        for (Future<StoredFile> future : futures) {
+            try {
+                stored.add(future.get());
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : (e.getCause() instanceof Exception c ? c : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : e;
+            }
+        }
+        if (failure != null) {
+            stored.forEach(storageService::discard);
+            rethrow(failure);
+        }
+        return stored;
+    }
+
+    /**
+     * Перенос пачки в хранилище после сохранения записей — параллельно, как и запись; файлы,
+     * которые не удалось перенести, вместе с записями о них не сохраняются
+     */
+    private void commitAll(Collection<StoredFile> stored, List<FileEntity> entities) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(stored.size());
+        for (StoredFile file : stored) {
+            futures.add(uploadExecutor.submit(() -> {
+                storageService.commit(file);
+                return null;
+            }));
+        }
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : (e.getCause() instanceof Exception c ? c : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : e;
+            }
+        }
+        if (failure != null) {
+            fileRepo.deleteAll(entities);
+            entities.forEach(entity -> storageService.release(entity.getFilePath()));
+            rethrow(failure);
+        }
+    }
+
+    private static void rethrow(Exception failure) throws IOException {
+        if (failure instanceof IOException e) {
+            throw e;
+        }
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+        throw new IOException("Failed to store uploaded files", failure);
+    }
+
+    /**
+     * Файл переносится в хранилище только после сохранения ссылки на него; без файла ссылка удаляется
+     */
+    private FileEntity commit(FileEntity entity, StoredFile stored) throws IOException {
+        try {
+            storageService.commit(stored);
+            return entity;
+        } catch (IOException | RuntimeException e) {
+            fileRepo.delete(entity);
+            storageService.release(entity.getFilePath());
+            throw e;
+        }
+    }
+
+    private FileEntity newEntity(StoredFile stored, String fileName, long fileSize, AnalysisOptions options) {
+        return FileEntity.builder()
+                .fileName(fileName)
+                .fileSize(fileSize)
+                .filePath(stored.filePath())
+                .contentHash(stored.contentHash())
+                // Точный результат подходит и для запроса приближённой оценки
+                .analysisOptions(options.exact())
+                .uploadTime(LocalDateTime.now())
+                .status(ProcessingStatus.PENDING)
+                .build();
+    }
+
+    private static FileQueueMessageDTO queueMessage(FileEntity entity, AnalysisOptions options) {
+        return new FileQueueMessageDTO(
                 entity.getId(),
                 entity.getFilePath(),
                 entity.getFileName(),
-                entity.getFileSize()
-        ));
+                entity.getFileSize(),
+                options
+        );
+    }
 
-        return new FileUploadResponseDTO(entity.getId(), entity.getFileName());
+    private Optional<AnalysisResult> findExactResult(FileEntity entity) {
+        return analysisResultRepository
+                .findExactByContent(entity.getContentHash(), entity.getAnalysisOptions(), PageRequest.of(0, 1))
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Самый свежий точный результат с теми же параметрами для каждого хеша пачки — одним запросом
+     */
+    private Map<String, AnalysisResult> findExactResults(Collection<String> hashes, AnalysisOptions options) {
+        Map<String, AnalysisResult> results = new HashMap<>();
+        for (AnalysisResult result : analysisResultRepository.findExactByContentIn(hashes)) {
+            if (options.equals(result.getFile().getAnalysisOptions())) {
+                results.putIfAbsent(result.getFile().getContentHash(), result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Такое же содержимое с теми же параметрами уже проанализировано: файл ссылается на готовый результат,
+     * в очередь ничего не ставится
+     */
+    private FileUploadResponseDTO linkToExisting(FileEntity entity, StoredFile stored, AnalysisResult existing)
+            throws IOException {
+        markDuplicate(entity, existing);
+        entity = commit(fileRepo.save(entity), stored);
+
+        notifier.notify(entity.getId(), ProcessingStatus.COMPLETED, 100,
+                "Identical file already analyzed: " + existing.getFile().getId());
+        return new FileUploadResponseDTO(entity.getId(), entity.getFileName(), entity.getStatus());
+    }
+
+    private static void markDuplicate(FileEntity entity, AnalysisResult existing) {
+        FileEntity source = existing.getFile();
+        entity.setDuplicateOf(source);
+        entity.setSchema(source.getSchema());
+        entity.setStatus(ProcessingStatus.COMPLETED);
+    }
+
+    /**
+     * Колонки задаются индексами полей (с нуля) или одним значением "all" — все числовые колонки
+     */
+    public AnalysisOptions parseOptions(List<String> columns, Integer groupBy, boolean approximate) {
+        if (groupBy != null && (groupBy < 0 || groupBy >= MAX_COLUMN_INDEX)) {
+            throw new InvalidAnalysisRequestException("Group-by column index out of range: " + groupBy);
+        }
+        if (columns == null || columns.isEmpty()) {
+            return new AnalysisOptions(List.of(), false, groupBy, approximate);
+        }
+        if (columns.size() == 1 && "all".equalsIgnoreCase(columns.get(0).trim())) {
+            return new AnalysisOptions(List.of(), true, groupBy, approximate);
+        }
+
+        List<Integer> indexes = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            try {
+                int index = Integer.parseInt(column.trim());
+                if (index < 0 || index >= MAX_COLUMN_INDEX) {
+                    throw new InvalidAnalysisRequestException("Column index out of range: " + column);
+                }
+                indexes.add(index);
+            } catch (NumberFormatException e) {
+                throw new InvalidAnalysisRequestException("Column must be an index or \"all\": " + column);
+            }
+        }
+        // Порядок сохраняется: первая колонка — значение для группировки
+        return new AnalysisOptions(indexes.stream().distinct().toList(), false, groupBy, approximate);
     }
 
     private void validate(MultipartFile file) {
         if (file.isEmpty() || file.getSize() > maxSize) {
             throw new FileSizeAboveLimitException("File size exceeds limit");
         }
-        if (!Objects.requireNonNull(file.getOriginalFilename()).toLowerCase().endsWith(".csv")) {
-            throw new InvalidFileExtensionException("Only CSV files are allowed");
+        validateName(file.getOriginalFilename());
+    }
+
+    public void validateName(String originalFileName) {
+        String fileName = Objects.requireNonNull(originalFileName).toLowerCase();
+        // .csv.gz хранится как есть и распаковывается потоково при анализе
+        if (!fileName.endsWith(".csv") && !fileName.endsWith(".csv.gz")) {
+            throw new InvalidFileExtensionException("Only CSV or gzip-compressed CSV files are allowed");
         }
     }
 
 
     @Transactional
     public void deleteAnalysisByFileId(UUID fileId) {
-        FileEntity result = fileRepo.getReferenceById(fileId);
+        if (handOverToDuplicates(fileId).isEmpty()) {
+            stateStore.delete(fileId);
+        }
 
-        fileStorageService.deletePhysicalFileViaInternalPath(result.getFilePath());
+        FileEntity result = fileRepo.getReferenceById(fileId);
+        String filePath = result.getFilePath();
         fileRepo.delete(result);
         analysisStatusFacade.cleanup(fileId);
+        // Хранилище общее для одинакового содержимого: физический файл удаляется вместе с последней ссылкой,
+        // а ссылки считаются только после фиксации удаления
+        if (filePath != null) {
+            releaseAfterCommit(filePath);
+        }
+    }
+
+    private void releaseAfterCommit(String filePath) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            storageService.release(filePath);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                storageService.release(filePath);
+            }
+        });
+    }
+
+    /**
+     * Результат и состояние анализа файла переходят к самой ранней копии, остальные копии ссылаются на неё;
+     * пусто — копий нет
+     */
+    @Transactional
+    public Optional<FileEntity> handOverToDuplicates(UUID fileId) {
+        List<FileEntity> duplicates = fileRepo.findByDuplicateOf_IdOrderByUploadTimeAsc(fileId);
+        if (duplicates.isEmpty()) {
+            return Optional.empty();
+        }
+        FileEntity heir = duplicates.get(0);
+        analysisResultRepository.reassignFile(fileId, heir);
+        fileRepo.redirectDuplicates(fileId, heir);
+        fileRepo.clearDuplicateOf(heir.getId());
+        stateStore.move(fileId, heir.getId());
+        analysisStatusFacade.analysis().delete(heir.getId());
+        return Optional.of(heir);
     }
 }
@@ -1,29 +1,280 @@
 package by.lupach.backend.services.files;
 
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.repositories.FileEntityRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.UUID;
 
+/**
+ * Хранилище по содержимому: одинаковые файлы хранятся один раз под именем по SHA-256, ссылки на них — записи
+ * {@link FileEntity} с тем же путём. Файл переносится в хранилище только после сохранения ссылки на него,
+ * а удаляется, когда ссылок не осталось; обе проверки идут под блокировкой пути, поэтому удаление последней
+ * ссылки не может забрать файл у параллельной загрузки того же содержимого.
+ * Файл, к которому дописывают куски, получает собственную копию в appended/ и дальше изменяется на месте.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class FileStorageService {
 
+    private final FileEntityRepository fileRepo;
+    private final FileLocks locks;
+
+    private static final String CONTENT_DIR = "content";
+    private static final String TEMP_DIR = "incoming";
+    private static final String APPENDABLE_DIR = "appended";
+    private static final int IO_BUFFER = 1 << 16;
+    private static final int MAX_HEADER_LENGTH = 1 << 16;
+
     @Value("${app.upload.dir:uploads}")
     private String uploadDir;
 
-    public Path saveFile(MultipartFile file, String filePath) throws IOException {
-        Path path = Paths.get(uploadDir, filePath);
+    /**
+     * Пишет загрузку во временный файл, считая SHA-256 в том же проходе; в хранилище её переносит
+     * {@link #commit(StoredFile)}, а неиспользованную копию удаляет {@link #discard(StoredFile)}
+     */
+    public StoredFile saveFile(MultipartFile file) throws IOException {
+        Path tempDir = Paths.get(uploadDir, TEMP_DIR);
+        Files.createDirectories(tempDir);
+        Path temp = Files.createTempFile(tempDir, "upload-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            return new StoredFile(contentPath(hash, file.getOriginalFilename()), hash, temp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Каталог незавершённых загрузок — в той же файловой системе, что и хранилище, чтобы перенос был переименованием
+     */
+    public Path incomingDir() throws IOException {
+        return Files.createDirectories(Paths.get(uploadDir, TEMP_DIR));
+    }
+
+    /**
+     * Готовит собранный в {@link #incomingDir()} файл к переносу в хранилище под имя по хешу — без копирования;
+     * хеш считается одним последовательным чтением
+     */
+    public StoredFile adopt(Path file, String originalFileName) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return adopt(file, HexFormat.of().formatHex(digest.digest()), originalFileName);
+    }
+
+    /**
+     * То же для файла, хеш которого уже посчитан при записи
+     */
+    public StoredFile adopt(Path file, String contentHash, String originalFileName) {
+        return new StoredFile(contentPath(contentHash, originalFileName), contentHash, file);
+    }
+
+    /**
+     * Переносит файл в хранилище; вызывается после сохранения ссылки на него, иначе параллельное удаление
+     * последней прежней ссылки могло бы удалить файл между проверкой и сохранением
+     */
+    public void commit(StoredFile file) throws IOException {
+        Path path = Paths.get(uploadDir, file.filePath());
         Files.createDirectories(path.getParent());
-        file.transferTo(path);
-        return path;
+        try {
+            locks.withContent(file.filePath(), () -> {
+                if (Files.exists(path)) {
+                    log.debug("Content {} already stored, upload deduplicated", file.contentHash());
+                } else {
+                    Files.move(file.source(), path, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return null;
+            });
+        } finally {
+            // Такое содержимое уже было в хранилище — записанная копия не нужна
+            Files.deleteIfExists(file.source());
+        }
+    }
+
+    /**
+     * Удаляет записанную копию, которая не попала в хранилище
+     */
+    public void discard(StoredFile file) {
+        try {
+            Files.deleteIfExists(file.source());
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary file {}: {}", file.source(), e.getMessage());
+        }
+    }
+
+    /**
+     * Удаляет файл из хранилища, если на него больше нет ссылок; вызывается после фиксации их удаления
+     */
+    public void release(String filePath) {
+        try {
+            locks.withContent(filePath, () -> {
+                if (fileRepo.countByFilePath(filePath) == 0) {
+                    deletePhysicalFileViaInternalPath(filePath);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            log.error("Failed to release stored file {}: {}", filePath, e.getMessage());
+        }
+    }
+
+    /**
+     * Путь, под которым файл дописывается на месте: содержимое в content/ общее для одинаковых загрузок
+     * и не изменяется, поэтому к первому дописыванию файл получает собственную копию
+     */
+    public String appendablePath(UUID fileId, String filePath) {
+        return filePath.startsWith(APPENDABLE_DIR + "/") ? filePath : APPENDABLE_DIR + "/" + fileId + extension(filePath);
+    }
+
+    /**
+     * Даёт файлу собственную копию хранимого содержимого; вызывается после сохранения ссылки на новый путь.
+     * Если на содержимое больше никто не ссылается, оно переносится без копирования.
+     */
+    public void detach(String contentPath, String appendablePath) throws IOException {
+        Path source = Paths.get(uploadDir, contentPath);
+        Path target = Paths.get(uploadDir, appendablePath);
+        Files.createDirectories(target.getParent());
+        // Под блокировкой: иначе параллельная загрузка того же содержимого могла бы сослаться на перенесённый файл
+        locks.withContent(contentPath, () -> {
+            if (fileRepo.countByFilePath(contentPath) == 0) {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            }
+            Path temp = Files.createTempFile(incomingDir(), "append-", ".part");
+            try {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Дописывает кусок в конец собственной копии файла (см. {@link #detach}) — прежнее содержимое
+     * не читается и не копируется, поэтому дописывание стоит столько, сколько сам кусок.
+     * Хеш нового содержимого не считается: для этого пришлось бы перечитать весь файл.
+     * Если у файла есть заголовок и кусок начинается с той же строки, она не дописывается.
+     */
+    public AppendedFile append(String filePath, MultipartFile chunk, boolean header) throws IOException {
+        Path path = Paths.get(uploadDir, filePath);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             InputStream in = new BufferedInputStream(chunk.getInputStream())) {
+            long previousSize = channel.size();
+            long appendOffset = previousSize;
+            try {
+                // Последняя запись без перевода строки иначе склеилась бы с первой дописанной
+                if (previousSize > 0 && !endsWithLineBreak(channel, previousSize)) {
+                    channel.write(ByteBuffer.wrap(new byte[]{'\n'}), appendOffset++);
+                }
+                if (header) {
+                    skipRepeatedHeader(path, in);
+                }
+                long size = appendOffset;
+                byte[] buffer = new byte[IO_BUFFER];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                    while (data.hasRemaining()) {
+                        size += channel.write(data, size);
+                    }
+                }
+                channel.force(false);
+                return new AppendedFile(filePath, previousSize, appendOffset, size);
+            } catch (IOException | RuntimeException e) {
+                channel.truncate(previousSize);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Откатывает дописывание, записи которого не удалось разобрать
+     */
+    public void truncate(String filePath, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(uploadDir, filePath), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static String contentPath(String hash, String fileName) {
+        // Расширение остаётся в имени: по нему обработчик отличает .csv.gz
+        return CONTENT_DIR + "/" + hash + extension(fileName);
+    }
+
+    private static boolean endsWithLineBreak(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        byte c = last.get(0);
+        return c == '\n' || c == '\r';
+    }
+
+    private static void skipRepeatedHeader(Path source, InputStream chunk) throws IOException {
+        byte[] header;
+        try (InputStream in = Files.newInputStream(source)) {
+            header = readLine(in);
+        }
+        chunk.mark(MAX_HEADER_LENGTH + 2);
+        if (!Arrays.equals(readLine(chunk), header)) {
+            chunk.reset();
+        }
+    }
+
+    /**
+     * Строка без перевода строки; \r\n поглощается целиком, чтобы кусок продолжился со следующей записи
+     */
+    private static byte[] readLine(InputStream in) throws IOException {
+        byte[] line = new byte[MAX_HEADER_LENGTH];
+        int length = 0;
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n' && length < line.length) {
+            line[length++] = (byte) c;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return Arrays.copyOf(line, length);
+    }
+
+    private static String extension(String fileName) {
+        return fileName != null && fileName.toLowerCase().endsWith(".gz") ? ".csv.gz" : ".csv";
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 
 //    public void deletePhysicalFile(Path path) {
@@ -0,0 +1,13 @@
+package by.lupach.backend.services.files;
+
+import java.nio.file.Path;
+
+/**
+ * Файл для хранилища: путь относительно каталога загрузок, SHA-256 содержимого в hex и записанная копия,
+ * которая переносится под этот путь {@link FileStorageService#commit(StoredFile)} после сохранения ссылки на него
+ */
+public record StoredFile(
+        String filePath,
+        String contentHash,
+        Path source
+) {}
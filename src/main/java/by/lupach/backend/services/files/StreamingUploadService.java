@@ -0,0 +1,176 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.exceptions.AnalysisNotFoundException;
+import by.lupach.backend.exceptions.FileSizeAboveLimitException;
+import by.lupach.backend.exceptions.InvalidAnalysisRequestException;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.FileAnalysisService;
+import by.lupach.backend.services.HistoryService;
+import by.lupach.backend.services.fileprocessing.ProgressNotifier;
+import by.lupach.backend.services.fileprocessing.StreamingFileProcessingOrchestrator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Анализ во время загрузки: тело запроса читается один раз и одновременно пишется в хранилище и разбирается,
+ * поэтому к приходу последнего байта статистика уже посчитана — без очереди и повторного чтения файла с диска.
+ * Файл сначала регистрируется, чтобы клиент мог подписаться на прогресс и отменить анализ по его id,
+ * затем тело отправляется отдельным запросом.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamingUploadService {
+
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final FileEntityRepository fileRepo;
+    private final FileService fileService;
+    private final FileStorageService storageService;
+    private final StreamingFileProcessingOrchestrator orchestrator;
+    private final FileAnalysisService fileAnalysisService;
+    private final HistoryService historyService;
+    private final ProgressNotifier notifier;
+
+    @Value("${app.upload.streaming.max-file-size:10737418240}")
+    private long maxSize;
+
+    public FileUploadResponseDTO create(String fileName, Long fileSize, List<String> columns, Integer groupBy) {
+        fileService.validateName(fileName);
+        if (fileSize != null && (fileSize <= 0 || fileSize > maxSize)) {
+            throw new FileSizeAboveLimitException("File size exceeds limit");
+        }
+        // Поток не перечитать, поэтому приближённой оценки по выборке нет — сразу точный проход
+        AnalysisOptions options = fileService.parseOptions(columns, groupBy, false);
+
+        FileEntity entity = fileRepo.save(FileEntity.builder()
+                .fileName(fileName)
+                .fileSize(fileSize)
+                .analysisOptions(options)
+                .uploadTime(LocalDateTime.now())
+                .status(ProcessingStatus.PENDING)
+                .build());
+        notifier.notify(entity.getId(), ProcessingStatus.PENDING, 0, "Waiting for upload");
+        return new FileUploadResponseDTO(entity.getId(), entity.getFileName(), entity.getStatus());
+    }
+
+    /**
+     * contentLength — размер тела из заголовка запроса или -1, если он не известен
+     */
+    public FileUploadResponseDTO upload(UUID fileId, InputStream body, long contentLength) throws Exception {
+        FileEntity file = fileRepo.findById(fileId)
+                .orElseThrow(() -> new AnalysisNotFoundException("File not found: " + fileId));
+        if (file.getContentHash() != null || file.getStatus() != ProcessingStatus.PENDING) {
+            throw new InvalidAnalysisRequestException("File is not waiting for a streamed upload: " + fileId);
+        }
+        long expectedSize = file.getFileSize() != null ? file.getFileSize() : contentLength;
+        if (expectedSize > maxSize) {
+            throw new FileSizeAboveLimitException("File size exceeds limit");
+        }
+
+        Path temp = Files.createTempFile(storageService.incomingDir(), "stream-", ".part");
+        try {
+            MessageDigest digest = FileStorageService.sha256();
+            TeeInputStream tee;
+            AnalysisResult res;
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), IO_BUFFER), digest)) {
+                tee = new TeeInputStream(body, out, maxSize);
+                res = orchestrator.processUpload(file, tee, tee::position, expectedSize);
+                if (res == null) {
+                    return new FileUploadResponseDTO(fileId, file.getFileName(), ProcessingStatus.CANCELLED);
+                }
+                try {
+                    tee.drain();
+                } catch (Exception e) {
+                    closeGroups(res);
+                    waitForUpload(fileId, file.getFilePath(), file.getFileSize(), e);
+                    throw e;
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            return store(fileId, file.getFileName(), temp, hash, tee.position(), res);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Разобранный файл переносится в хранилище под имя по хешу, как обычная загрузка, и сохраняется результат
+     */
+    private FileUploadResponseDTO store(UUID fileId, String fileName, Path temp, String hash, long size,
+                                        AnalysisResult res) throws Exception {
+        StoredFile stored = storageService.adopt(temp, hash, fileName);
+        FileEntity file;
+        try {
+            // Файл могли отменить и удалить, пока дочитывался хвост
+            file = fileRepo.findById(fileId)
+                    .orElseThrow(() -> new AnalysisNotFoundException("File not found: " + fileId));
+            String previousPath = file.getFilePath();
+            Long previousSize = file.getFileSize();
+            file.setFilePath(stored.filePath());
+            file.setContentHash(stored.contentHash());
+            file.setFileSize(size);
+            // Ссылка сохраняется раньше переноса в хранилище — см. FileStorageService
+            file = fileRepo.save(file);
+            try {
+                storageService.commit(stored);
+                res.setFile(file);
+                fileAnalysisService.saveResult(res);
+            } catch (Exception e) {
+                waitForUpload(fileId, previousPath, previousSize, e);
+                storageService.release(stored.filePath());
+                throw e;
+            }
+        } catch (Exception e) {
+            closeGroups(res);
+            throw e;
+        }
+
+        historyService.cleanupOldRecords();
+        log.info("Streamed upload {} analyzed and stored as {} ({} bytes)", fileId, stored.filePath(), size);
+        return new FileUploadResponseDTO(fileId, file.getFileName(), ProcessingStatus.COMPLETED);
+    }
+
+    /**
+     * Тело разобрано, но сохранить его или результат не удалось. Разбор уже отметил файл завершённым,
+     * а {@link #upload} принимает только ожидающие файлы, поэтому файл возвращается в ожидание тела
+     * без содержимого и схемы — клиент может отправить его заново тем же id
+     */
+    private void waitForUpload(UUID fileId, String previousPath, Long previousSize, Exception cause) {
+        fileRepo.findById(fileId).ifPresent(file -> {
+            file.setFilePath(previousPath);
+            file.setContentHash(null);
+            file.setFileSize(previousSize);
+            file.setSchema(null);
+            file.setStatus(ProcessingStatus.PENDING);
+            fileRepo.save(file);
+            notifier.notify(fileId, ProcessingStatus.PENDING, 0, "Upload failed, send the file again: " + cause.getMessage());
+        });
+    }
+
+    private static void closeGroups(AnalysisResult res) {
+        if (res.getGroups() != null) {
+            res.getGroups().close();
+        }
+    }
+}
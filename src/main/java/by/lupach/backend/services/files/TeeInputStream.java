@@ -0,0 +1,66 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.exceptions.FileSizeAboveLimitException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Всё прочитанное из потока одновременно пишется в копию: тело запроса сохраняется в хранилище
+ * тем же чтением, которым его разбирает анализ. Закрытие ничего не закрывает — поток тела и копией
+ * распоряжается тот, кто их открыл, и после разбора он дочитывает остаток через {@link #drain()}.
+ */
+final class TeeInputStream extends InputStream {
+
+    private final InputStream in;
+    private final OutputStream copy;
+    private final long limit;
+
+    // Читается потоком уведомлений о прогрессе
+    private volatile long position;
+
+    TeeInputStream(InputStream in, OutputStream copy, long limit) {
+        this.in = in;
+        this.copy = copy;
+        this.limit = limit;
+    }
+
+    long position() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            if (position + n > limit) {
+                throw new FileSizeAboveLimitException("File size exceeds limit");
+            }
+            copy.write(b, off, n);
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * Дочитывает то, что разбор не потребовал (например, хвост gzip), чтобы копия была полной
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (read(buffer, 0, buffer.length) >= 0) {
+            // всё прочитанное уже записано в копию
+        }
+    }
+
+    @Override
+    public void close() {
+        // поток тела и копия закрываются владельцем
+    }
+}
@@ -0,0 +1,20 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+
+import java.util.UUID;
+
+/**
+ * Параметры загрузки по частям, сохраняемые рядом с собираемым файлом: по ним загрузка продолжается после обрыва
+ */
+public record UploadSession(
+        UUID uploadId,
+        String fileName,
+        long fileSize,
+        long partSize,
+        AnalysisOptions options
+) {
+    public int partCount() {
+        return (int) ((fileSize + partSize - 1) / partSize);
+    }
+}
@@ -1,8 +1,17 @@
 package by.lupach.backend.services.redis;
 
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.dtos.ProgressMessageDTO;
+import by.lupach.backend.entities.ProcessingStatus;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -12,6 +21,8 @@ public class AnalysisStatusFacade {
     private final StatusRedisService statusService;
     private final ProgressRedisService progressService;
     private final FileAnalysisRedisService fileAnalysisRedisService;
+    private final ProcessingQueueRedisService queueService;
+    private final RedisTemplate<String, String> redis;
 
     public void cleanup(UUID fileId) {
         statusService.delete(fileId);
@@ -19,6 +30,22 @@ public class AnalysisStatusFacade {
         fileAnalysisRedisService.delete(fileId);
     }
 
+    /**
+     * Начальные статус и прогресс пачки новых файлов прямо в кеш, минуя канал прогресса, и постановка в очередь —
+     * одним конвейером, за один обмен с Redis: запись в БД уже с этим статусом, а подписчиков у только что
+     * созданных файлов ещё нет
+     */
+    public void initAll(Collection<ProgressMessageDTO> messages, List<FileQueueMessageDTO> queue) {
+        Map<UUID, ProcessingStatus> statuses = new LinkedHashMap<>();
+        messages.forEach(message -> statuses.put(message.fileId(), message.status()));
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            statusService.setAll(connection, statuses);
+            progressService.setAll(connection, messages);
+            queueService.addAll(connection, queue);
+            return null;
+        });
+    }
+
     public StatusRedisService status() {
         return statusService;
     }
@@ -0,0 +1,99 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.dtos.CancelMetricsDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static by.lupach.backend.configs.RedisConfig.CANCEL_FLAG_PREFIX;
+import static by.lupach.backend.configs.RedisConfig.CANCEL_LATENCIES;
+import static by.lupach.backend.configs.RedisConfig.CANCEL_METRICS;
+import static by.lupach.backend.configs.RedisConfig.FILE_CANCEL_CHANNEL;
+
+/**
+ * Отмена на всех узлах сразу: запрос рассылается через pub/sub, а флаг с временем запроса остаётся в Redis.
+ * По флагу узел, пропустивший рассылку, останавливает задачу при следующем продлении аренды, а обработчики
+ * отбрасывают ещё не начатые задачи отменённого файла прямо при снятии с очереди.
+ */
+@Service
+public class CancellationRedisService {
+
+    private static final int LATENCY_SAMPLES = 1000;
+
+    private final RedisTemplate<String, String> redis;
+    private final RedisTemplate<String, UUID> channel;
+
+    @Value("${app.processing.cancel.flag-ttl-hours:24}")
+    private long flagTtlHours;
+
+    public CancellationRedisService(RedisTemplate<String, String> redis, RedisTemplate<String, UUID> channel) {
+        this.redis = redis;
+        this.channel = channel;
+    }
+
+    /**
+     * Флаг ставится до рассылки: узел, получивший её, уже видит время запроса
+     */
+    public void request(UUID fileId) {
+        redis.opsForValue().set(CANCEL_FLAG_PREFIX + fileId, String.valueOf(System.currentTimeMillis()),
+                Duration.ofHours(flagTtlHours));
+        channel.convertAndSend(FILE_CANCEL_CHANNEL, fileId);
+    }
+
+    public boolean isCancelled(UUID fileId) {
+        return Boolean.TRUE.equals(redis.hasKey(CANCEL_FLAG_PREFIX + fileId));
+    }
+
+    /**
+     * Время запроса отмены (мс); null — файл не отменялся
+     */
+    public Long requestedAt(UUID fileId) {
+        String requested = redis.opsForValue().get(CANCEL_FLAG_PREFIX + fileId);
+        return requested != null ? Long.parseLong(requested) : null;
+    }
+
+    /**
+     * Задержка от запроса отмены до остановки выполнявшейся задачи; хранятся последние 1000 замеров
+     */
+    public void recordStopped(long latencyMs) {
+        redis.opsForList().leftPush(CANCEL_LATENCIES, String.valueOf(latencyMs));
+        redis.opsForList().trim(CANCEL_LATENCIES, 0, LATENCY_SAMPLES - 1);
+        redis.opsForHash().increment(CANCEL_METRICS, "stopped", 1);
+    }
+
+    /**
+     * Задача отменённого файла снята с очереди и отброшена, не начавшись
+     */
+    public void recordDropped() {
+        redis.opsForHash().increment(CANCEL_METRICS, "dropped", 1);
+    }
+
+    public CancelMetricsDTO metrics() {
+        Map<Object, Object> counters = redis.opsForHash().entries(CANCEL_METRICS);
+        List<String> samples = redis.opsForList().range(CANCEL_LATENCIES, 0, -1);
+        long[] latencies = samples == null ? new long[0]
+                : samples.stream().mapToLong(Long::parseLong).sorted().toArray();
+        return new CancelMetricsDTO(
+                counter(counters, "stopped"),
+                counter(counters, "dropped"),
+                latencies.length,
+                latencies.length == 0 ? 0 : percentile(latencies, 0.5),
+                latencies.length == 0 ? 0 : percentile(latencies, 0.99),
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1]
+        );
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static long counter(Map<Object, Object> counters, String name) {
+        Object value = counters.get(name);
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+}
@@ -0,0 +1,153 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.dtos.ChunkTaskDTO;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static by.lupach.backend.configs.RedisConfig.CHUNK_DONE_PREFIX;
+import static by.lupach.backend.configs.RedisConfig.CHUNK_JOB_PREFIX;
+import static by.lupach.backend.configs.RedisConfig.CHUNK_LEASES;
+import static by.lupach.backend.configs.RedisConfig.CHUNK_QUEUE;
+
+/**
+ * Очередь кусков распределённого режима. Взятый кусок не исчезает: он переносится в множество аренд
+ * со сроком, который обработчик продлевает, пока разбирает кусок. Если обработчик умер, срок истекает,
+ * и кусок возвращается в начало очереди. Задача файла — хеш со счётчиком кусков и ошибкой;
+ * её удаление означает, что файл отменён или уже собран, и оставшиеся куски отбрасываются.
+ */
+@Service
+public class ChunkQueueRedisService {
+
+    private static final String FIELD_CHUNKS = "chunks";
+    private static final String FIELD_ERROR = "error";
+
+    // Взятие куска и его аренда — одно атомарное действие: кусок не теряется между ними
+    private static final RedisScript<ChunkTaskDTO> CLAIM = new DefaultRedisScript<>("""
+            local task = redis.call('LPOP', KEYS[1])
+            if task then
+              redis.call('ZADD', KEYS[2], ARGV[1], task)
+            end
+            return task
+            """, ChunkTaskDTO.class);
+
+    private static final RedisScript<Long> REQUEUE_EXPIRED = new DefaultRedisScript<>("""
+            local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, 100)
+            for _, task in ipairs(expired) do
+              redis.call('ZREM', KEYS[1], task)
+              redis.call('LPUSH', KEYS[2], task)
+            end
+            return #expired
+            """, Long.class);
+
+    // Продление только существующей аренды: ZADD XX не вернёт аренду куску, который уже снова в очереди
+    private static final RedisScript<Long> EXTEND = new DefaultRedisScript<>("""
+            return redis.call('ZADD', KEYS[1], 'XX', 'CH', ARGV[2], ARGV[1])
+            """, Long.class);
+
+    private final RedisTemplate<String, ChunkTaskDTO> tasks;
+    private final RedisTemplate<String, String> redis;
+
+    public ChunkQueueRedisService(RedisTemplate<String, ChunkTaskDTO> chunkTaskRedisTemplate,
+                                  RedisTemplate<String, String> redis) {
+        this.tasks = chunkTaskRedisTemplate;
+        this.redis = redis;
+    }
+
+    /**
+     * Регистрирует задачу файла и ставит все её куски в очередь; прежнее состояние задачи сбрасывается
+     */
+    public void publish(UUID fileId, List<ChunkTaskDTO> chunks) {
+        redis.delete(List.of(CHUNK_JOB_PREFIX + fileId, CHUNK_DONE_PREFIX + fileId));
+        redis.opsForHash().putAll(CHUNK_JOB_PREFIX + fileId, Map.of(FIELD_CHUNKS, String.valueOf(chunks.size())));
+        tasks.opsForList().rightPushAll(CHUNK_QUEUE, chunks);
+    }
+
+    /**
+     * Следующий кусок с арендой до leaseUntil (мс); null — очередь пуста
+     */
+    public ChunkTaskDTO claim(long leaseUntil) {
+        // Аргумент — число, а не JSON: сериализатор значений шаблона для него не подходит
+        return tasks.execute(CLAIM, StringRedisSerializer.UTF_8, taskSerializer(),
+                List.of(CHUNK_QUEUE, CHUNK_LEASES), String.valueOf(leaseUntil));
+    }
+
+    /**
+     * Продлевает аренду; false — аренды уже нет (истекла и кусок возвращён в очередь)
+     */
+    public boolean extend(ChunkTaskDTO task, long leaseUntil) {
+        String member = new String(taskSerializer().serialize(task), StandardCharsets.UTF_8);
+        Long changed = redis.execute(EXTEND, List.of(CHUNK_LEASES), member, String.valueOf(leaseUntil));
+        return changed != null && changed > 0;
+    }
+
+    public void complete(ChunkTaskDTO task) {
+        redis.opsForSet().add(CHUNK_DONE_PREFIX + task.fileId(), String.valueOf(task.index()));
+        release(task);
+    }
+
+    public void fail(ChunkTaskDTO task, String error) {
+        redis.opsForHash().putIfAbsent(CHUNK_JOB_PREFIX + task.fileId(), FIELD_ERROR,
+                "Chunk " + task.index() + ": " + error);
+        release(task);
+    }
+
+    /**
+     * Снимает аренду без отметки о готовности — кусок отменённого файла
+     */
+    public void release(ChunkTaskDTO task) {
+        tasks.opsForZSet().remove(CHUNK_LEASES, task);
+    }
+
+    /**
+     * Возвращает в очередь куски с истёкшей арендой; число возвращённых
+     */
+    public long requeueExpired(long now) {
+        Long requeued = redis.execute(REQUEUE_EXPIRED, List.of(CHUNK_LEASES, CHUNK_QUEUE), String.valueOf(now));
+        return requeued != null ? requeued : 0;
+    }
+
+    public boolean isActive(UUID fileId) {
+        return Boolean.TRUE.equals(redis.hasKey(CHUNK_JOB_PREFIX + fileId));
+    }
+
+    public String error(UUID fileId) {
+        Object error = redis.opsForHash().get(CHUNK_JOB_PREFIX + fileId, FIELD_ERROR);
+        return error != null ? error.toString() : null;
+    }
+
+    public Set<Integer> done(UUID fileId) {
+        Set<String> members = redis.opsForSet().members(CHUNK_DONE_PREFIX + fileId);
+        Set<Integer> done = new HashSet<>();
+        if (members != null) {
+            members.forEach(member -> done.add(Integer.parseInt(member)));
+        }
+        return done;
+    }
+
+    /**
+     * Удаляет задачу файла и его куски, ещё ждущие в очереди или в аренде
+     */
+    public void cleanup(UUID fileId, List<ChunkTaskDTO> chunks) {
+        redis.delete(List.of(CHUNK_JOB_PREFIX + fileId, CHUNK_DONE_PREFIX + fileId));
+        for (ChunkTaskDTO chunk : chunks) {
+            tasks.opsForList().remove(CHUNK_QUEUE, 0, chunk);
+            tasks.opsForZSet().remove(CHUNK_LEASES, chunk);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<ChunkTaskDTO> taskSerializer() {
+        return (RedisSerializer<ChunkTaskDTO>) tasks.getValueSerializer();
+    }
+}
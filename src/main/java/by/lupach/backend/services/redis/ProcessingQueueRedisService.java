@@ -0,0 +1,313 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.dtos.QueueMetricsDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_ATTEMPTS;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_DEAD_LETTER;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_DELAYED;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_LARGE_QUEUE;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_LEASES;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_METRICS;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_SMALL_QUEUE;
+
+/**
+ * Очередь обработки с приоритетом по размеру: два отсортированных множества — малые и большие файлы —
+ * с общей оценкой «время постановки + штраф за размер». Штраф ограничен сверху, поэтому большой файл
+ * со временем обгоняет новые малые и не голодает. Малые файлы отдельно доступны полосе быстрых обработчиков.
+ * Снятая задача не исчезает: она переносится в множество аренд со сроком, который обработчик продлевает,
+ * пока задача выполняется. Задачи умершего узла возвращаются в очередь по истечении аренды, а задачи,
+ * завершившиеся ошибкой, — в множество отложенных повторов с растущей паузой. Истечения аренды и ошибки
+ * считаются вместе: исчерпавшая попытки задача уходит в список мёртвых, чтобы файл, роняющий узлы
+ * или стабильно падающий, не повторялся бесконечно.
+ * Все переходы задачи между множествами — скрипты: аренда не может одновременно истечь у сборщика
+ * и продлиться у обработчика.
+ */
+@Service
+public class ProcessingQueueRedisService {
+
+    // Голова с наименьшей оценкой среди очередей KEYS[2..] снимается и берётся в аренду атомарно —
+    // узлы не получат одну задачу дважды, а задача не потеряется между снятием и арендой
+    private static final RedisScript<FileQueueMessageDTO> POP_MIN = new DefaultRedisScript<>("""
+            local best, bestScore, bestKey
+            for i = 2, #KEYS do
+              local head = redis.call('ZRANGE', KEYS[i], 0, 0, 'WITHSCORES')
+              if head[1] and (bestScore == nil or tonumber(head[2]) < bestScore) then
+                best, bestScore, bestKey = head[1], tonumber(head[2]), KEYS[i]
+              end
+            end
+            if best then
+              redis.call('ZREM', bestKey, best)
+              redis.call('ZADD', KEYS[1], ARGV[1], best)
+            end
+            return best
+            """, FileQueueMessageDTO.class);
+
+    // Задачи с истёкшей арендой возвращаются в начало своей очереди; исчерпавшие попытки — в список мёртвых,
+    // они и возвращаются скрипту для уведомления. Отложенные повторы, чей срок настал, переходят в очередь.
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> REAP = new DefaultRedisScript<>("""
+            local function queueOf(msg)
+              local size = tonumber(msg.fileSize)
+              return (size and size < tonumber(ARGV[2])) and KEYS[2] or KEYS[3]
+            end
+            local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, 100)
+            local dead = {}
+            for _, job in ipairs(expired) do
+              redis.call('ZREM', KEYS[1], job)
+              local msg = cjson.decode(job)
+              local attempts = redis.call('HINCRBY', KEYS[5], msg.fileId, 1)
+              if attempts >= tonumber(ARGV[3]) then
+                redis.call('HDEL', KEYS[5], msg.fileId)
+                redis.call('LPUSH', KEYS[4], job)
+                redis.call('HINCRBY', KEYS[6], 'deadLettered', 1)
+                table.insert(dead, job)
+              else
+                redis.call('ZADD', queueOf(msg), 0, job)
+                redis.call('HINCRBY', KEYS[6], 'redelivered', 1)
+              end
+            end
+            local due = redis.call('ZRANGEBYSCORE', KEYS[7], '-inf', ARGV[1], 'LIMIT', 0, 100)
+            for _, job in ipairs(due) do
+              redis.call('ZREM', KEYS[7], job)
+              redis.call('ZADD', queueOf(cjson.decode(job)), ARGV[1], job)
+            end
+            return dead
+            """, List.class);
+
+    // Продление только существующей аренды: ZADD XX не создаст аренду задачи, уже возвращённой сборщиком
+    private static final RedisScript<Long> EXTEND = new DefaultRedisScript<>("""
+            return redis.call('ZADD', KEYS[1], 'XX', 'CH', ARGV[2], ARGV[1])
+            """, Long.class);
+
+    // Возврат в начало очереди только вместе со своей арендой — иначе задача уже возвращена сборщиком
+    private static final RedisScript<Long> PUSH_BACK = new DefaultRedisScript<>("""
+            if redis.call('ZREM', KEYS[1], ARGV[1]) == 0 then
+              return 0
+            end
+            redis.call('ZADD', KEYS[2], 0, ARGV[1])
+            return 1
+            """, Long.class);
+
+    // Неудачная попытка: аренда снимается, задача откладывается на base * 2^(n-1) мс (не больше max)
+    // или уходит в список мёртвых. Результат: 0 — аренды уже нет, n — номер попытки, -n — задача мертва.
+    private static final RedisScript<Long> FAIL = new DefaultRedisScript<>("""
+            if redis.call('ZREM', KEYS[1], ARGV[1]) == 0 then
+              return 0
+            end
+            local msg = cjson.decode(ARGV[1])
+            local attempts = redis.call('HINCRBY', KEYS[3], msg.fileId, 1)
+            redis.call('HINCRBY', KEYS[5], 'failed', 1)
+            if attempts >= tonumber(ARGV[5]) then
+              redis.call('HDEL', KEYS[3], msg.fileId)
+              redis.call('LPUSH', KEYS[4], ARGV[1])
+              redis.call('HINCRBY', KEYS[5], 'deadLettered', 1)
+              return -attempts
+            end
+            local delay = math.min(tonumber(ARGV[4]), tonumber(ARGV[3]) * 2 ^ (attempts - 1))
+            redis.call('ZADD', KEYS[2], tonumber(ARGV[2]) + delay, ARGV[1])
+            redis.call('HINCRBY', KEYS[5], 'retried', 1)
+            return attempts
+            """, Long.class);
+
+    private final RedisTemplate<String, FileQueueMessageDTO> redis;
+    private final RedisTemplate<String, String> strings;
+
+    @Value("${app.processing.fast-lane.max-file-size:10485760}")
+    private long smallFileSize;
+
+    @Value("${app.processing.queue.size-penalty-ms-per-mb:100}")
+    private long penaltyMsPerMb;
+
+    @Value("${app.processing.queue.max-penalty-ms:1800000}")
+    private long maxPenaltyMs;
+
+    @Value("${app.processing.queue.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.processing.queue.retry-backoff-ms:5000}")
+    private long retryBackoffMs;
+
+    @Value("${app.processing.queue.max-retry-backoff-ms:300000}")
+    private long maxRetryBackoffMs;
+
+    public ProcessingQueueRedisService(RedisTemplate<String, FileQueueMessageDTO> fileQueueRedisTemplate,
+                                       RedisTemplate<String, String> redis) {
+        this.redis = fileQueueRedisTemplate;
+        this.strings = redis;
+    }
+
+    public void add(FileQueueMessageDTO message) {
+        redis.opsForZSet().add(queueOf(message), message, score(message, System.currentTimeMillis()));
+    }
+
+    /**
+     * Вся пачка — в конвейер вызывающего, не больше одной команды ZADD на множество;
+     * см. {@link AnalysisStatusFacade#initAll}
+     */
+    void addAll(RedisConnection connection, List<FileQueueMessageDTO> messages) {
+        long now = System.currentTimeMillis();
+        Set<Tuple> small = new HashSet<>();
+        Set<Tuple> large = new HashSet<>();
+        for (FileQueueMessageDTO message : messages) {
+            (isSmall(message) ? small : large).add(Tuple.of(messageSerializer().serialize(message), score(message, now)));
+        }
+        if (!small.isEmpty()) {
+            connection.zSetCommands().zAdd(StringRedisSerializer.UTF_8.serialize(FILE_PROCESSING_SMALL_QUEUE), small);
+        }
+        if (!large.isEmpty()) {
+            connection.zSetCommands().zAdd(StringRedisSerializer.UTF_8.serialize(FILE_PROCESSING_LARGE_QUEUE), large);
+        }
+    }
+
+    /**
+     * Задача с наименьшей оценкой среди всех файлов, взятая в аренду до leaseUntil (мс); null — очередь пуста
+     */
+    public FileQueueMessageDTO pop(long leaseUntil) {
+        return pop(leaseUntil, List.of(FILE_PROCESSING_LEASES, FILE_PROCESSING_SMALL_QUEUE, FILE_PROCESSING_LARGE_QUEUE));
+    }
+
+    /**
+     * Задача с наименьшей оценкой среди малых файлов — для полосы быстрых обработчиков
+     */
+    public FileQueueMessageDTO popSmall(long leaseUntil) {
+        return pop(leaseUntil, List.of(FILE_PROCESSING_LEASES, FILE_PROCESSING_SMALL_QUEUE));
+    }
+
+    /**
+     * Продлевает аренду выполняемой задачи; false — аренды уже нет (истекла, и задача возвращена в очередь)
+     */
+    public boolean extend(FileQueueMessageDTO message, long leaseUntil) {
+        // CH: изменённым считается и элемент с новой оценкой, так что 0 — аренды нет
+        Long changed = strings.execute(EXTEND, List.of(FILE_PROCESSING_LEASES), member(message), String.valueOf(leaseUntil));
+        return changed != null && changed > 0;
+    }
+
+    /**
+     * Задача выполнена (успешно, с ошибкой или отменена) — аренда и счётчик попыток снимаются
+     */
+    public void ack(FileQueueMessageDTO message) {
+        redis.opsForZSet().remove(FILE_PROCESSING_LEASES, message);
+        strings.opsForHash().delete(FILE_PROCESSING_ATTEMPTS, message.fileId().toString());
+    }
+
+    /**
+     * Возвращает взятую задачу в начало очереди без учёта попытки — узел останавливается
+     */
+    public void pushBack(FileQueueMessageDTO message) {
+        strings.execute(PUSH_BACK, List.of(FILE_PROCESSING_LEASES, queueOf(message)), member(message));
+    }
+
+    /**
+     * Попытка завершилась ошибкой; null — аренды уже нет, и задачу вернул в очередь сборщик
+     */
+    public FailedAttempt fail(FileQueueMessageDTO message, long now) {
+        Long result = strings.execute(FAIL,
+                List.of(FILE_PROCESSING_LEASES, FILE_PROCESSING_DELAYED, FILE_PROCESSING_ATTEMPTS,
+                        FILE_PROCESSING_DEAD_LETTER, FILE_PROCESSING_METRICS),
+                member(message), String.valueOf(now), String.valueOf(retryBackoffMs),
+                String.valueOf(maxRetryBackoffMs), String.valueOf(maxAttempts));
+        if (result == null || result == 0) {
+            return null;
+        }
+        return new FailedAttempt(Math.abs(result), result < 0);
+    }
+
+    public boolean isLeased(FileQueueMessageDTO message) {
+        return redis.opsForZSet().score(FILE_PROCESSING_LEASES, message) != null;
+    }
+
+    /**
+     * Возвращает в очередь задачи с истёкшей арендой; результат — задачи, перенесённые в список мёртвых
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<FileQueueMessageDTO> reapExpired(long now) {
+        // Сериализатор результата применяется к каждому элементу возвращённого списка
+        List<FileQueueMessageDTO> dead = redis.execute(REAP, StringRedisSerializer.UTF_8, (RedisSerializer) messageSerializer(),
+                List.of(FILE_PROCESSING_LEASES, FILE_PROCESSING_SMALL_QUEUE, FILE_PROCESSING_LARGE_QUEUE,
+                        FILE_PROCESSING_DEAD_LETTER, FILE_PROCESSING_ATTEMPTS, FILE_PROCESSING_METRICS,
+                        FILE_PROCESSING_DELAYED),
+                String.valueOf(now), String.valueOf(smallFileSize), String.valueOf(maxAttempts));
+        return dead != null ? dead : List.of();
+    }
+
+    public QueueMetricsDTO metrics() {
+        Map<Object, Object> counters = strings.opsForHash().entries(FILE_PROCESSING_METRICS);
+        return new QueueMetricsDTO(
+                size(redis.opsForZSet().zCard(FILE_PROCESSING_SMALL_QUEUE)),
+                size(redis.opsForZSet().zCard(FILE_PROCESSING_LARGE_QUEUE)),
+                size(redis.opsForZSet().zCard(FILE_PROCESSING_DELAYED)),
+                size(redis.opsForZSet().zCard(FILE_PROCESSING_LEASES)),
+                size(redis.opsForList().size(FILE_PROCESSING_DEAD_LETTER)),
+                counter(counters, "redelivered"),
+                counter(counters, "failed"),
+                counter(counters, "retried"),
+                counter(counters, "deadLettered")
+        );
+    }
+
+    private FileQueueMessageDTO pop(long leaseUntil, List<String> keys) {
+        // Аргумент — число, а не JSON: сериализатор значений шаблона для него не подходит
+        return redis.execute(POP_MIN, StringRedisSerializer.UTF_8, messageSerializer(), keys, String.valueOf(leaseUntil));
+    }
+
+    /**
+     * Задача в том же JSON, что хранится в множествах, — для скриптов со строковыми аргументами
+     */
+    private String member(FileQueueMessageDTO message) {
+        return new String(messageSerializer().serialize(message), StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<FileQueueMessageDTO> messageSerializer() {
+        return (RedisSerializer<FileQueueMessageDTO>) redis.getValueSerializer();
+    }
+
+    private static long size(Long size) {
+        return size != null ? size : 0;
+    }
+
+    private static long counter(Map<Object, Object> counters, String name) {
+        Object value = counters.get(name);
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+
+    private boolean isSmall(FileQueueMessageDTO message) {
+        return message.fileSize() != null && message.fileSize() < smallFileSize;
+    }
+
+    private String queueOf(FileQueueMessageDTO message) {
+        return isSmall(message) ? FILE_PROCESSING_SMALL_QUEUE : FILE_PROCESSING_LARGE_QUEUE;
+    }
+
+    /**
+     * Виртуальный срок: чем больше файл, тем позже, но не более чем на maxPenaltyMs
+     */
+    private double score(FileQueueMessageDTO message, long now) {
+        long penalty = message.fileSize() == null
+                ? maxPenaltyMs
+                : Math.min(maxPenaltyMs, message.fileSize() / (1 << 20) * penaltyMsPerMb);
+        return now + penalty;
+    }
+
+    /**
+     * Итог неудачной попытки: её номер и ушла ли задача в список мёртвых
+     */
+    public record FailedAttempt(long attempt, boolean deadLettered) {
+    }
+}
@@ -2,10 +2,15 @@ package by.lupach.backend.services.redis;
 
 import by.lupach.backend.dtos.ProgressMessageDTO;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -20,6 +25,19 @@ public class ProgressRedisService {
         progressRedis.opsForValue().set(PROGRESS_PREFIX + id, message, Duration.ofMinutes(30));
     }
 
+    /**
+     * Прогресс пачки файлов — в конвейер вызывающего, см. {@link AnalysisStatusFacade#initAll}
+     */
+    @SuppressWarnings("unchecked")
+    void setAll(RedisConnection connection, Collection<ProgressMessageDTO> messages) {
+        RedisSerializer<String> keys = progressRedis.getStringSerializer();
+        RedisSerializer<ProgressMessageDTO> values = (RedisSerializer<ProgressMessageDTO>) progressRedis.getValueSerializer();
+        for (ProgressMessageDTO message : messages) {
+            connection.stringCommands().set(keys.serialize(PROGRESS_PREFIX + message.fileId()), values.serialize(message),
+                    Expiration.from(Duration.ofMinutes(30)), RedisStringCommands.SetOption.upsert());
+        }
+    }
+
     public Optional<ProgressMessageDTO> get(UUID fileId) {
         return Optional.ofNullable(progressRedis.opsForValue().get(PROGRESS_PREFIX + fileId));
     }
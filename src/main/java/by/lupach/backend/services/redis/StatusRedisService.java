@@ -3,10 +3,15 @@ package by.lupach.backend.services.redis;
 import by.lupach.backend.configs.RedisConfig;
 import by.lupach.backend.entities.ProcessingStatus;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -19,6 +24,16 @@ public class StatusRedisService{
         redis.opsForValue().set(RedisConfig.STATUS_PREFIX + fileId, status.name(), Duration.ofMinutes(30));
     }
 
+    /**
+     * Статусы пачки файлов — в конвейер вызывающего, см. {@link AnalysisStatusFacade#initAll}
+     */
+    void setAll(RedisConnection connection, Map<UUID, ProcessingStatus> statuses) {
+        RedisSerializer<String> serializer = redis.getStringSerializer();
+        statuses.forEach((fileId, status) -> connection.stringCommands().set(
+                serializer.serialize(RedisConfig.STATUS_PREFIX + fileId), serializer.serialize(status.name()),
+                Expiration.from(Duration.ofMinutes(30)), RedisStringCommands.SetOption.upsert()));
+    }
+
     public Optional<ProcessingStatus> get(UUID fileId) {
         return Optional.ofNullable(redis.opsForValue().get(RedisConfig.STATUS_PREFIX + fileId))
                 .map(ProcessingStatus::valueOf);
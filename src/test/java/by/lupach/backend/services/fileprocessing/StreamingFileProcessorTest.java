@@ -0,0 +1,376 @@
+package by.lupach.backend.services.fileprocessing;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.entities.AnalysisStatistics;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.entities.UniqueCountMode;
+import by.lupach.backend.services.fileprocessing.csv.ScalarStructuralScanner;
+import by.lupach.backend.services.fileprocessing.stats.EquiWidthHistogram;
+import by.lupach.backend.services.fileprocessing.stats.GroupAggregator;
+import by.lupach.backend.services.fileprocessing.stats.LogHistogram;
+import by.lupach.backend.services.fileprocessing.stats.OffHeapBudget;
+import by.lupach.backend.services.fileprocessing.stats.ValueHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Движки LINE и BYTE на одном файле должны давать одинаковую статистику
+ */
+class StreamingFileProcessorTest {
+
+    private static final CsvSchema SCHEMA = new CsvSchema(',', true, true,
+            List.of("id", "value", "label", "ratio"), List.of(0, 1, 3));
+
+    // Допустимые, но редкие записи чисел: экспонента, знак, суффиксы d/f, hex, длинная мантисса, субнормальные
+    private static final String[] EXOTIC = {
+            "1e5", "-2.5E-3", "+4", ".5", "5.", "0x1p3", "-0X1.8P1", "1.5d", "2F", "007", "-0", "0.000",
+            "3.14159265358979323846264338", "9007199254740993", "4.9e-324", "1.7976931348623157E308", "123456789e-30"
+    };
+    private static final String[] NON_FINITE = {"NaN", "Infinity", "-Infinity", "+NaN", "1e400", "-1e400"};
+    private static final String[] BAD = {"", "abc", "1e", "--1", "1.2.3", "1_000", "e5", ".", "+", "0x", "NaNa", "1.5dd"};
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService chunkExecutor = Executors.newFixedThreadPool(4);
+    private final ExecutorService decompressionExecutor = Executors.newCachedThreadPool();
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private StatisticsCalculator calculator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        scheduler.initialize();
+        calculator = new StatisticsCalculator(ScalarStructuralScanner.INSTANCE);
+        set(calculator, "uniqueCountMode", UniqueCountMode.EXACT);
+        set(calculator, "hllPrecision", 14);
+        set(calculator, "uniqueMemoryBudget", 64L << 20);
+        set(calculator, "spillDir", dir.resolve("spill").toString());
+        set(calculator, "quantileSketchK", 200);
+        set(calculator, "groupMemoryBudget", 64L << 20);
+        set(calculator, "groupSpillPartitions", 16);
+        set(calculator, "histogramBins", 64);
+        set(calculator, "logHistogramPrecisionBits", 2);
+        calculator.init();
+    }
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+        chunkExecutor.shutdownNow();
+        decompressionExecutor.shutdownNow();
+    }
+
+    @Test
+    void lineAndByteEnginesAgreeOnAllColumns() throws Exception {
+        Path file = write(randomCsv(20_000, 1));
+        AnalysisOptions options = new AnalysisOptions(List.of(), true, null, false);
+
+        assertSameStatistics(analyze(ParserEngine.LINE, file, options, false),
+                analyze(ParserEngine.BYTE, file, options, false));
+    }
+
+    @Test
+    void lineAndByteEnginesAgreeOnSingleValue() throws Exception {
+        Path file = write(randomCsv(20_000, 2));
+
+        assertSameStatistics(analyze(ParserEngine.LINE, file, AnalysisOptions.singleColumn(), false),
+                analyze(ParserEngine.BYTE, file, AnalysisOptions.singleColumn(), false));
+    }
+
+    @Test
+    void lineAndByteEnginesAgreeOnGroups() throws Exception {
+        Path file = write(randomCsv(20_000, 3));
+        AnalysisOptions options = new AnalysisOptions(List.of(1), false, 2, false);
+
+        AnalysisOutput line = analyze(ParserEngine.LINE, file, options, false);
+        AnalysisOutput bytes = analyze(ParserEngine.BYTE, file, options, false);
+        assertSameStatistics(line, bytes);
+        assertEquals(groups(line.groups()), groups(bytes.groups()));
+    }
+
+    @Test
+    void parallelChunksMatchSequentialScan() throws Exception {
+        Path file = write(randomCsv(50_000, 4));
+        AnalysisOptions options = new AnalysisOptions(List.of(), true, null, false);
+
+        List<AnalysisStatistics> sequential = analyze(ParserEngine.BYTE, file, options, false).statistics();
+        List<AnalysisStatistics> parallel = analyze(ParserEngine.BYTE, file, options, true).statistics();
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            AnalysisStatistics expected = sequential.get(i);
+            AnalysisStatistics actual = parallel.get(i);
+            // Слияние кусков меняет порядок сложения, сжатие скетча и сетку равноширокой гистограммы,
+            // но не счётчики и корзины логарифмической гистограммы, которые от порядка не зависят (её окно — зависит)
+            assertEquals(expected.getTotalRecords(), actual.getTotalRecords());
+            assertEquals(expected.getProcessedRecords(), actual.getProcessedRecords());
+            assertEquals(expected.getSkippedRecords(), actual.getSkippedRecords());
+            assertEquals(expected.getMinValue(), actual.getMinValue());
+            assertEquals(expected.getMaxValue(), actual.getMaxValue());
+            assertEquals(expected.getUniqueValuesCount(), actual.getUniqueValuesCount());
+            assertEquals(binTotal(EquiWidthHistogram.fromBytes(expected.getHistogram())),
+                    binTotal(EquiWidthHistogram.fromBytes(actual.getHistogram())));
+            assertEquals(LogHistogram.fromBytes(expected.getLogHistogram()).bins(),
+                    LogHistogram.fromBytes(actual.getLogHistogram()).bins());
+        }
+    }
+
+    @Test
+    void enginesKeepDelimiterInsideQuotes() throws Exception {
+        // Разделитель внутри кавычек и в метке, и в числе: ни одно поле не должно сдвинуться
+        Path file = write(("id,value,label,ratio\r\n1,\"2.5\",\"a,b\",3\r\n2,\"4\",\"c\",\"5,5\"\n"
+                + "3,\"1,5\",\"d,e\",4\n").getBytes(StandardCharsets.UTF_8));
+        AnalysisOptions options = new AnalysisOptions(List.of(1, 3), false, null, false);
+
+        AnalysisOutput line = analyze(ParserEngine.LINE, file, options, false);
+        AnalysisOutput bytes = analyze(ParserEngine.BYTE, file, options, false);
+        assertSameStatistics(line, bytes);
+        List<AnalysisStatistics> statistics = bytes.statistics();
+        assertEquals(2, statistics.size());
+        assertEquals(2L, (long) statistics.get(0).getProcessedRecords());
+        assertEquals(1L, (long) statistics.get(0).getSkippedRecords());
+        assertEquals(3.25, (double) statistics.get(0).getMeanValue());
+        assertEquals(2L, (long) statistics.get(1).getProcessedRecords());
+        assertEquals(1L, (long) statistics.get(1).getSkippedRecords());
+        assertEquals(3.0, (double) statistics.get(1).getMinValue());
+        assertEquals(4.0, (double) statistics.get(1).getMaxValue());
+    }
+
+    @Test
+    void cancelledParallelScanClosesPartsOfChunksFinishingLate() throws Exception {
+        set(calculator, "uniqueCountMode", UniqueCountMode.EXACT_BOUNDED);
+        calculator.init();
+        OffHeapBudget budget = (OffHeapBudget) get(calculator, "uniqueBudget");
+        // Меньше 4096 записей на кусок: прерывание внутри куска не проверяется, и он заканчивается нормально
+        Path file = write(randomCsv(8_000, 5));
+        CountDownLatch scanned = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        // Куски заканчивают разбор, но отдают результат только после отмены анализа
+        ExecutorService lateChunks = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Callable<T> task) {
+                return new FutureTask<>(() -> {
+                    T part = task.call();
+                    scanned.countDown();
+                    awaitUninterruptibly(release);
+                    return part;
+                });
+            }
+        };
+        try {
+            Thread analysis = new Thread(() -> {
+                try {
+                    processor(ParserEngine.BYTE, true, lateChunks)
+                            .processFile(file, UUID.randomUUID(), AnalysisOptions.singleColumn(), SCHEMA);
+                } catch (Exception ignored) {
+                    // анализ отменён
+                }
+            });
+            analysis.start();
+            assertTrue(scanned.await(30, TimeUnit.SECONDS));
+            assertTrue(budget.used() > 0);
+
+            analysis.interrupt();
+            analysis.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(analysis.isAlive());
+            release.countDown();
+            lateChunks.shutdown();
+            assertTrue(lateChunks.awaitTermination(30, TimeUnit.SECONDS));
+
+            assertEquals(0, budget.used());
+        } finally {
+            lateChunks.shutdownNow();
+        }
+    }
+
+    private AnalysisOutput analyze(ParserEngine engine, Path file, AnalysisOptions options,
+                                   boolean parallel) throws Exception {
+        return processor(engine, parallel, chunkExecutor).processFile(file, UUID.randomUUID(), options, SCHEMA);
+    }
+
+    private StreamingFileProcessor processor(ParserEngine engine, boolean parallel,
+                                             ExecutorService chunks) throws Exception {
+        CheckpointStore checkpoints = new CheckpointStore(new ObjectMapper());
+        set(checkpoints, "enabled", false);
+        AnalysisStateStore state = new AnalysisStateStore();
+        set(state, "enabled", false);
+
+        StreamingFileProcessor processor = new StreamingFileProcessor(calculator,
+                new ProgressNotifier((message, timeout) -> true), chunks, decompressionExecutor,
+                ScalarStructuralScanner.INSTANCE, checkpoints, state);
+        set(processor, "scheduler", scheduler);
+        set(processor, "parserEngine", engine);
+        // Минимальный буфер: записи и пары \r\n постоянно попадают на границу буфера
+        set(processor, "bufferSize", 16);
+        set(processor, "parallelEnabled", parallel);
+        set(processor, "parallelThreads", 4);
+        set(processor, "parallelMinFileSize", 0L);
+        set(processor, "gzipQueueDepth", 4);
+        return processor;
+    }
+
+    private static void assertSameStatistics(AnalysisOutput expected, AnalysisOutput actual) {
+        assertEquals(expected.statistics().size(), actual.statistics().size());
+        assertFalse(expected.statistics().isEmpty());
+        for (int i = 0; i < expected.statistics().size(); i++) {
+            AnalysisStatistics e = expected.statistics().get(i);
+            AnalysisStatistics a = actual.statistics().get(i);
+            assertEquals(e.getColumnIndex(), a.getColumnIndex());
+            assertEquals(e.getColumnName(), a.getColumnName());
+            assertEquals(e.getTotalRecords(), a.getTotalRecords());
+            assertEquals(e.getProcessedRecords(), a.getProcessedRecords());
+            assertEquals(e.getSkippedRecords(), a.getSkippedRecords());
+            assertTrue(e.getSkippedRecords() > 0, "data must contain bad values");
+            assertEquals(e.getMinValue(), a.getMinValue());
+            assertEquals(e.getMaxValue(), a.getMaxValue());
+            assertEquals(e.getMeanValue(), a.getMeanValue());
+            assertEquals(e.getStdDeviation(), a.getStdDeviation());
+            assertEquals(e.getSumValue(), a.getSumValue());
+            assertEquals(e.getSumOfSquares(), a.getSumOfSquares());
+            assertEquals(e.getUniqueValuesCount(), a.getUniqueValuesCount());
+            assertEquals(e.getMedian(), a.getMedian());
+            assertEquals(e.getP90(), a.getP90());
+            assertEquals(e.getP95(), a.getP95());
+            assertEquals(e.getP99(), a.getP99());
+            assertArrayEquals(e.getQuantileSketch(), a.getQuantileSketch());
+            assertArrayEquals(e.getHistogram(), a.getHistogram());
+            assertArrayEquals(e.getLogHistogram(), a.getLogHistogram());
+        }
+    }
+
+    private static long binTotal(ValueHistogram histogram) {
+        return histogram.bins().stream().mapToLong(ValueHistogram.Bin::count).sum() + histogram.nonFiniteCount();
+    }
+
+    private static Map<String, String> groups(GroupAggregator aggregator) {
+        Map<String, String> groups = new TreeMap<>();
+        try (aggregator) {
+            aggregator.forEachGroup((key, offset, length, count, min, max, mean, m2) ->
+                    groups.put(new String(key, offset, length, StandardCharsets.UTF_8),
+                            count + "/" + min + "/" + max + "/" + mean + "/" + m2));
+        }
+        assertFalse(groups.isEmpty());
+        return groups;
+    }
+
+    /**
+     * Заголовок, \n и \r\n вперемешку, пустые строки, кавычки, короткие и длинные записи, плохие и редкие числа
+     */
+    private static byte[] randomCsv(int records, long seed) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("id,value,label,ratio\r\n");
+        for (int i = 0; i < records; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 3) {
+                csv.append(eol(random));
+                continue;
+            }
+            csv.append(i).append(',').append(quoteSometimes(value(random, false), random));
+            if (kind < 6) {
+                // Короткая запись без остальных колонок
+                csv.append(eol(random));
+                continue;
+            }
+            // Метка в кавычках бывает с разделителем внутри — разбор не должен сдвигать следующие поля
+            String label = "g" + random.nextInt(50);
+            int quoting = random.nextInt(8);
+            csv.append(',').append(quoting == 0 ? "\"" + label + ",x\"" : quoting < 3 ? "\"" + label + "\"" : label);
+            csv.append(',').append(quoteSometimes(value(random, true), random));
+            if (kind > 95) {
+                csv.append(",extra,").append(random.nextInt());
+            }
+            // Последняя запись файла — без перевода строки
+            if (i < records - 1) {
+                csv.append(eol(random));
+            }
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String value(Random random, boolean nonFinite) {
+        int kind = random.nextInt(100);
+        if (kind < 8) {
+            return BAD[random.nextInt(BAD.length)];
+        }
+        if (kind < 16) {
+            return EXOTIC[random.nextInt(EXOTIC.length)];
+        }
+        if (nonFinite && kind < 18) {
+            return NON_FINITE[random.nextInt(NON_FINITE.length)];
+        }
+        if (kind < 40) {
+            return String.valueOf(random.nextInt(1000) - 500);
+        }
+        String value = String.valueOf(random.nextGaussian() * 1000);
+        return kind < 45 ? " " + value + "\t" : value;
+    }
+
+    private static String quoteSometimes(String value, Random random) {
+        return random.nextInt(5) == 0 ? "\"" + value + "\"" : value;
+    }
+
+    private static String eol(Random random) {
+        return random.nextBoolean() ? "\r\n" : "\n";
+    }
+
+    private Path write(byte[] content) throws IOException {
+        Path file = dir.resolve("data.csv");
+        Files.write(file, content);
+        return file;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static Object get(Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+}
@@ -0,0 +1,136 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvByteScannerTest {
+
+    @Test
+    void splitsLinesLikeBufferedReader() throws IOException {
+        String[] inputs = {
+                "", "a", "a\n", "a\r", "a\r\n", "\n", "\r\n", "\r\r\n\n", "a\n\nb", "a\r\rb\r\n\r\nc",
+                "1,2\r\n3,4\r\n", "x\n\r", "\r", "\n\r\n\r"
+        };
+        for (String input : inputs) {
+            for (int bufferSize = 16; bufferSize <= 20; bufferSize++) {
+                assertEquals(readerLines(input), scannerLines(stream(input, false), bufferSize), escape(input));
+                assertEquals(readerLines(input), scannerLines(stream(input, true), bufferSize), escape(input));
+            }
+        }
+    }
+
+    @Test
+    void crLfPairSurvivesEveryBufferBoundary() throws IOException {
+        // \r\n сдвигается через границу буфера на каждой позиции, включая случай, когда \r — последний байт буфера
+        for (int prefix = 0; prefix < 40; prefix++) {
+            String input = "x".repeat(prefix) + "\r\n" + "y".repeat(prefix % 7) + "\r\n\r\nz";
+            for (int bufferSize = 16; bufferSize <= 24; bufferSize++) {
+                assertEquals(readerLines(input), scannerLines(stream(input, false), bufferSize), escape(input));
+                assertEquals(readerLines(input), scannerLines(stream(input, true), bufferSize), escape(input));
+            }
+        }
+    }
+
+    @Test
+    void splitsRandomLinesLikeBufferedReader() throws IOException {
+        Random random = new Random(11);
+        String[] endings = {"\n", "\r", "\r\n"};
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) {
+            // Длинные строки заставляют буфер расти
+            int length = random.nextInt(10) == 0 ? random.nextInt(200) : random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                input.append((char) ('a' + random.nextInt(26)));
+            }
+            input.append(endings[random.nextInt(endings.length)]);
+        }
+        String text = input.toString();
+
+        assertEquals(readerLines(text), scannerLines(stream(text, false), 16));
+        assertEquals(readerLines(text), scannerLines(stream(text, true), 16));
+        assertEquals(readerLines(text), scannerLines(stream(text, false), 65536));
+    }
+
+    @Test
+    void reportsPositionAfterEachRecord() throws IOException {
+        byte[] data = "ab\r\ncd\ne\r".getBytes(StandardCharsets.US_ASCII);
+        CsvByteScanner scanner = new CsvByteScanner(new ByteArrayInputStream(data), 16);
+
+        assertTrue(scanner.next());
+        assertEquals(4, scanner.position());
+        assertTrue(scanner.next());
+        assertEquals(7, scanner.position());
+        assertTrue(scanner.next());
+        assertEquals(9, scanner.position());
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    void pendingLfIsSkippedAfterResume() throws IOException {
+        // Запись кончилась на \r в конце прочитанного — продолжение с \n не даёт пустой строки
+        CsvByteScanner first = new CsvByteScanner(new ByteArrayInputStream("ab\r".getBytes(StandardCharsets.US_ASCII)), 16);
+        assertTrue(first.next());
+        assertTrue(first.pendingLf());
+
+        CsvByteScanner resumed = new CsvByteScanner(new ByteArrayInputStream("\ncd\n".getBytes(StandardCharsets.US_ASCII)), 16);
+        resumed.skipLeadingLf();
+        assertEquals(List.of("cd"), scannerLines(resumed));
+    }
+
+    private static List<String> readerLines(String input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> scannerLines(InputStream in, int bufferSize) throws IOException {
+        return scannerLines(new CsvByteScanner(in, bufferSize));
+    }
+
+    private static List<String> scannerLines(CsvByteScanner scanner) throws IOException {
+        List<String> lines = new ArrayList<>();
+        while (scanner.next()) {
+            lines.add(new String(scanner.buffer(), scanner.start(), scanner.end() - scanner.start(), StandardCharsets.US_ASCII));
+        }
+        return lines;
+    }
+
+    /**
+     * trickle — поток отдаёт по одному байту за чтение, как медленный сокет
+     */
+    private static InputStream stream(String input, boolean trickle) {
+        InputStream in = new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII));
+        if (!trickle) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static String escape(String input) {
+        return input.replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
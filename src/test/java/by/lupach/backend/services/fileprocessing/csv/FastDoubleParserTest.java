@@ -0,0 +1,84 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FastDoubleParserTest {
+
+    private final FastDoubleParser parser = new FastDoubleParser();
+
+    @Test
+    void matchesParseDoubleOnEdgeCases() {
+        String[] inputs = {
+                "0", "-0", "+0", "0.0", "-0.0", "007", "1", "-1", "+1", "1.", ".5", "-.5", "1.5e3", "1.5E+3",
+                "1.5e-3", "1e22", "1e23", "1e-22", "1e-23", "9007199254740992", "9007199254740993",
+                "123456789012345678901234567890", "0.1", "0.30000000000000004", "3.14159265358979323846264338",
+                "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157E308", "1e400", "-1e400", "1e-400",
+                "NaN", "-NaN", "+NaN", "Infinity", "-Infinity", "0x1p3", "-0X1.8P1", "0x10", "1.5d", "2F", "3D",
+                "  42  ", "\t-7.25\t", "00000000000000000000000000001.5", "0.00000000000000000000000000001"
+        };
+        for (String input : inputs) {
+            assertParsedLikeJdk(input);
+        }
+    }
+
+    @Test
+    void rejectsWhatParseDoubleRejects() {
+        String[] inputs = {
+                "", " ", "-", "+", ".", "e5", "1e", "1e+", "--1", "+-1", "1.2.3", "1_000", "1,5", "abc", "NaNa",
+                "nan", "infinity", "Inf", "1.5dd", "1d5", "0x", "1 2", "\"1\"", "٣"
+        };
+        for (String input : inputs) {
+            assertParsedLikeJdk(input);
+        }
+    }
+
+    @Test
+    void matchesParseDoubleOnRandomValues() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            double value = switch (i % 4) {
+                case 0 -> random.nextGaussian() * 1e6;
+                case 1 -> Double.longBitsToDouble(random.nextLong());
+                case 2 -> random.nextInt(1_000_000) / 1000.0;
+                default -> random.nextDouble() * Math.pow(10, random.nextInt(60) - 30);
+            };
+            assertParsedLikeJdk(Double.toString(value));
+            assertParsedLikeJdk(String.format("%." + random.nextInt(20) + "f", value));
+        }
+    }
+
+    @Test
+    void parsesOnlyTheGivenRange() {
+        byte[] buf = "12,-3.5e2,x".getBytes(StandardCharsets.US_ASCII);
+
+        assertTrue(parser.parse(buf, 0, 2));
+        assertEquals(12.0, parser.value());
+        assertTrue(parser.parse(buf, 3, 9));
+        assertEquals(-350.0, parser.value());
+        assertFalse(parser.parse(buf, 10, 11));
+        assertFalse(parser.parse(buf, 2, 2));
+    }
+
+    private void assertParsedLikeJdk(String input) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        Double expected;
+        try {
+            expected = Double.parseDouble(input.trim());
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        boolean parsed = parser.parse(bytes, 0, bytes.length);
+        assertEquals(expected != null, parsed, "parse result of '" + input + "'");
+        if (parsed) {
+            // Сравнение битов: различает 0.0 и -0.0
+            assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(parser.value()), input);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileChunkerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void chunksCoverFileAndKeepRecords() throws IOException {
+        byte[] data = randomLines(20_000, 3);
+        Path file = write(data);
+        List<String> expected = lines(data, 0, data.length);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int parts : new int[]{1, 2, 3, 7, 16, 64}) {
+                List<FileChunk> chunks = FileChunker.split(channel, data.length, parts);
+                assertContiguous(chunks, 0, data.length);
+                assertTrue(chunks.size() <= parts);
+
+                // Куски, разобранные по отдельности, дают те же записи, что и весь файл
+                List<String> actual = new ArrayList<>();
+                for (FileChunk chunk : chunks) {
+                    actual.addAll(lines(data, (int) chunk.start(), (int) chunk.end()));
+                }
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void neverSplitsCrLfPair() throws IOException {
+        byte[] data = "a\r\nb\r\nc\rd\n".getBytes(StandardCharsets.US_ASCII);
+        Path file = write(data);
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Граница после \r\n, после одиночного \r и после \n
+            long[] expected = {0, 3, 3, 3, 6, 6, 6, 8, 8, 10, 10};
+            for (int from = 0; from <= data.length; from++) {
+                assertEquals(expected[from], FileChunker.nextRecordStart(channel, data.length, from, probe), "from " + from);
+            }
+        }
+    }
+
+    @Test
+    void splitsAppendedRangeFromRecordStart() throws IOException {
+        byte[] data = randomLines(5_000, 4);
+        Path file = write(data);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long from = FileChunker.nextRecordStart(channel, data.length, data.length / 3, ByteBuffer.allocate(64));
+            List<FileChunk> chunks = FileChunker.split(channel, from, data.length, 5);
+            assertContiguous(chunks, from, data.length);
+
+            List<String> actual = new ArrayList<>();
+            for (FileChunk chunk : chunks) {
+                actual.addAll(lines(data, (int) chunk.start(), (int) chunk.end()));
+            }
+            assertEquals(lines(data, (int) from, data.length), actual);
+        }
+    }
+
+    @Test
+    void longRecordYieldsFewerChunks() throws IOException {
+        // Одна запись длиннее пробы: все границы сходятся в её конец
+        byte[] data = ("x".repeat(50_000) + "\r\nlast").getBytes(StandardCharsets.US_ASCII);
+        Path file = write(data);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<FileChunk> chunks = FileChunker.split(channel, data.length, 8);
+            assertEquals(List.of(new FileChunk(0, 50_002), new FileChunk(50_002, data.length)), chunks);
+        }
+    }
+
+    private static void assertContiguous(List<FileChunk> chunks, long from, long size) {
+        long position = from;
+        for (FileChunk chunk : chunks) {
+            assertEquals(position, chunk.start());
+            assertTrue(chunk.length() > 0);
+            position = chunk.end();
+        }
+        assertEquals(size, position);
+    }
+
+    private static List<String> lines(byte[] data, int from, int to) throws IOException {
+        CsvByteScanner scanner = new CsvByteScanner(new ByteArrayInputStream(data, from, to - from), 64);
+        List<String> lines = new ArrayList<>();
+        while (scanner.next()) {
+            lines.add(new String(scanner.buffer(), scanner.start(), scanner.end() - scanner.start(), StandardCharsets.US_ASCII));
+        }
+        return lines;
+    }
+
+    private static byte[] randomLines(int count, long seed) {
+        Random random = new Random(seed);
+        String[] endings = {"\n", "\r", "\r\n"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i).append(',').append(random.nextInt()).append(endings[random.nextInt(endings.length)]);
+            if (random.nextInt(50) == 0) {
+                text.append(endings[random.nextInt(endings.length)]);
+            }
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path file = dir.resolve("data.csv");
+        Files.write(file, data);
+        return file;
+    }
+}
@@ -0,0 +1,145 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class PipelinedGzipInputStreamTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void decompressesConcatenatedMembers() throws IOException {
+        byte[] first = randomCsv(200_000, 1);
+        byte[] second = randomCsv(50_000, 2);
+        // Как cat a.gz b.gz
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip(first));
+        members.write(gzip(second));
+        InputStream compressed = new ByteArrayInputStream(members.toByteArray());
+
+        try (PipelinedGzipInputStream in = new PipelinedGzipInputStream(compressed, executor, 4096, 2)) {
+            byte[] expected = new byte[first.length + second.length];
+            System.arraycopy(first, 0, expected, 0, first.length);
+            System.arraycopy(second, 0, expected, first.length, second.length);
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void rethrowsRuntimeExceptionOfSourceInReader() throws IOException {
+        byte[] compressed = gzip(randomCsv(500_000, 3));
+        InputStream failing = new FailingInputStream(compressed, compressed.length / 2,
+                new IllegalStateException("limit exceeded"));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (PipelinedGzipInputStream in = new PipelinedGzipInputStream(failing, executor, 4096, 2)) {
+                IllegalStateException e = assertThrows(IllegalStateException.class, in::readAllBytes);
+                assertEquals("limit exceeded", e.getMessage());
+            }
+        });
+    }
+
+    @Test
+    void wrapsErrorOfSourceInIOException() throws IOException {
+        byte[] compressed = gzip(randomCsv(500_000, 4));
+        InputStream failing = new FailingInputStream(compressed, compressed.length / 3, new AssertionError("boom"));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (PipelinedGzipInputStream in = new PipelinedGzipInputStream(failing, executor, 4096, 2)) {
+                IOException e = assertThrows(IOException.class, in::readAllBytes);
+                assertEquals(AssertionError.class, e.getCause().getClass());
+            }
+        });
+    }
+
+    @Test
+    void reportsCorruptInputAsIOException() throws IOException {
+        byte[] compressed = gzip(randomCsv(100_000, 5));
+        for (int i = compressed.length / 2; i < compressed.length / 2 + 64; i++) {
+            compressed[i] ^= 0x5A;
+        }
+        byte[] corrupt = compressed;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (PipelinedGzipInputStream in = new PipelinedGzipInputStream(
+                    new ByteArrayInputStream(corrupt), executor, 4096, 2)) {
+                assertThrows(IOException.class, in::readAllBytes);
+            }
+        });
+    }
+
+    static byte[] randomCsv(int records, long seed) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            csv.append(random.nextInt(1000)).append(',').append(random.nextDouble()).append('\n');
+        }
+        return csv.toString().getBytes();
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Отдаёт первые failAt байт и затем бросает заданную ошибку
+     */
+    private static final class FailingInputStream extends FilterInputStream {
+
+        private final int failAt;
+        private final Throwable failure;
+        private int position;
+
+        FailingInputStream(byte[] data, int failAt, Throwable failure) {
+            super(new ByteArrayInputStream(data));
+            this.failAt = failAt;
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= failAt) {
+                if (failure instanceof RuntimeException e) {
+                    throw e;
+                }
+                throw (Error) failure;
+            }
+            int n = super.read(b, off, Math.min(len, failAt - position));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
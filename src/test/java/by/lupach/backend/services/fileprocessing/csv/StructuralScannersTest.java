@@ -0,0 +1,92 @@
+package by.lupach.backend.services.fileprocessing.csv;
+
+import by.lupach.backend.services.fileprocessing.ScannerType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Векторный поиск должен находить те же байты, что и побайтовый, при любом сдвиге начала
+ * и любом хвосте короче блока. Тесты запускаются с --add-modules jdk.incubator.vector (см. surefire в pom.xml).
+ */
+class StructuralScannersTest {
+
+    private static final StructuralScanner SCALAR = StructuralScanners.create(ScannerType.SCALAR);
+    private static final StructuralScanner VECTOR = StructuralScanners.create(ScannerType.VECTOR);
+
+    @Test
+    void autoPicksVectorWhenModuleIsPresent() {
+        assertTrue(StructuralScanners.vectorAvailable());
+        assertTrue(StructuralScanners.create(ScannerType.AUTO).name().startsWith("vector-"));
+    }
+
+    @Test
+    void vectorFindsSameIndexAsScalarForEveryRange() {
+        // 200 байт — больше трёх блоков даже для 64-байтного регистра; перебираются все [from, to),
+        // так что хвост после блоков принимает каждую длину от 0 до ширины блока
+        Random random = new Random(5);
+        for (int density : new int[]{0, 3, 40}) {
+            byte[] buf = new byte[200];
+            for (int i = 0; i < buf.length; i++) {
+                int roll = random.nextInt(1000);
+                buf[i] = roll < density ? (byte) ',' : roll < 2 * density ? (byte) '\n' : (byte) ('a' + roll % 26);
+            }
+            for (int from = 0; from <= buf.length; from++) {
+                for (int to = from; to <= buf.length; to++) {
+                    assertEquals(SCALAR.indexOfEither(buf, from, to, (byte) ',', (byte) '\n'),
+                            VECTOR.indexOfEither(buf, from, to, (byte) ',', (byte) '\n'),
+                            "density " + density + ", [" + from + ", " + to + ")");
+                }
+            }
+        }
+    }
+
+    @Test
+    void vectorFindsMatchInLastByteOfTail() {
+        for (int length = 1; length <= 130; length++) {
+            byte[] buf = new byte[length];
+            buf[length - 1] = '\r';
+            assertEquals(length - 1, VECTOR.indexOfEither(buf, 0, length, (byte) '\n', (byte) '\r'), "length " + length);
+        }
+    }
+
+    @Test
+    void vectorSplitsRecordsLikeScalar() throws IOException {
+        Random random = new Random(17);
+        String[] endings = {"\n", "\r", "\r\n"};
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 3_000; i++) {
+            // Короткие записи оставляют в буфере хвосты короче блока, длинные — проходят блоками
+            int length = random.nextInt(8) == 0 ? random.nextInt(300) : random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                input.append(random.nextInt(6) == 0 ? ',' : (char) ('a' + random.nextInt(26)));
+            }
+            input.append(endings[random.nextInt(endings.length)]);
+        }
+        byte[] data = input.toString().getBytes();
+
+        for (int bufferSize : new int[]{16, 31, 33, 65, 65536}) {
+            assertEquals(boundaries(data, bufferSize, SCALAR), boundaries(data, bufferSize, VECTOR), "buffer " + bufferSize);
+        }
+    }
+
+    /**
+     * Длина каждой записи и позиция после неё
+     */
+    private static List<Long> boundaries(byte[] data, int bufferSize, StructuralScanner structural) throws IOException {
+        CsvByteScanner scanner = new CsvByteScanner(new ByteArrayInputStream(data), bufferSize, structural);
+        List<Long> boundaries = new ArrayList<>();
+        while (scanner.next()) {
+            boundaries.add((long) (scanner.end() - scanner.start()));
+            boundaries.add(scanner.position());
+        }
+        return boundaries;
+    }
+}
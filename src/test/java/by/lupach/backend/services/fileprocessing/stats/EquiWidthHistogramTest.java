@@ -0,0 +1,124 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EquiWidthHistogramTest {
+
+    @Test
+    void binCountsMatchValues() {
+        EquiWidthHistogram histogram = new EquiWidthHistogram(64);
+        double[] values = values(100_000, 1);
+        for (double value : values) {
+            histogram.add(value);
+        }
+
+        List<ValueHistogram.Bin> bins = histogram.bins();
+        assertTrue(bins.size() <= 64);
+        assertExact(bins, values);
+    }
+
+    @Test
+    void mergeIsExact() {
+        double[] values = values(100_000, 2);
+        double[] scaled = new double[values.length];
+        EquiWidthHistogram merged = new EquiWidthHistogram(64);
+        for (int part = 0; part < 4; part++) {
+            EquiWidthHistogram histogram = new EquiWidthHistogram(64);
+            // Куски с разными диапазонами: сетки приводятся к общей ширине
+            for (int i = part; i < values.length; i += 4) {
+                scaled[i] = values[i] * (part + 1);
+                histogram.add(scaled[i]);
+            }
+            merged.merge(histogram);
+        }
+
+        assertExact(merged.bins(), scaled);
+    }
+
+    @Test
+    void singleValueAndNonFiniteValues() {
+        EquiWidthHistogram histogram = new EquiWidthHistogram(8);
+        histogram.add(3);
+        histogram.add(3);
+        histogram.add(Double.NaN);
+        histogram.add(Double.NEGATIVE_INFINITY);
+
+        assertEquals(List.of(new ValueHistogram.Bin(3, 3, 2)), histogram.bins());
+        assertEquals(2, histogram.nonFiniteCount());
+
+        EquiWidthHistogram other = new EquiWidthHistogram(8);
+        other.add(-10);
+        other.add(10);
+        histogram.merge(other);
+        assertEquals(4, total(histogram.bins()));
+        assertEquals(2, histogram.nonFiniteCount());
+    }
+
+    @Test
+    void extremeRangeDoesNotOverflow() {
+        EquiWidthHistogram histogram = new EquiWidthHistogram(16);
+        histogram.add(-Double.MAX_VALUE);
+        histogram.add(Double.MAX_VALUE);
+        histogram.add(0);
+        histogram.add(Double.MIN_VALUE);
+
+        assertEquals(4, total(histogram.bins()));
+    }
+
+    @Test
+    void roundTripKeepsGrid() {
+        EquiWidthHistogram histogram = new EquiWidthHistogram(32);
+        for (double value : values(10_000, 3)) {
+            histogram.add(value);
+        }
+        histogram.add(Double.POSITIVE_INFINITY);
+
+        EquiWidthHistogram restored = EquiWidthHistogram.fromBytes(histogram.toBytes());
+        assertArrayEquals(histogram.toBytes(), restored.toBytes());
+        assertEquals(histogram.bins(), restored.bins());
+        assertEquals(1, restored.nonFiniteCount());
+    }
+
+    @Test
+    void rejectsMergeWithOtherType() {
+        assertThrows(IllegalArgumentException.class, () -> new EquiWidthHistogram(8).merge(new LogHistogram(2)));
+        assertThrows(IllegalArgumentException.class, () -> new EquiWidthHistogram(1));
+    }
+
+    /**
+     * Каждое значение учтено ровно в той корзине, в чей диапазон оно попадает
+     */
+    private static void assertExact(List<ValueHistogram.Bin> bins, double[] values) {
+        assertEquals(values.length, total(bins));
+        for (ValueHistogram.Bin bin : bins) {
+            long inside = 0;
+            for (double value : values) {
+                if (bin.lowerBound() <= value && value < bin.upperBound()) {
+                    inside++;
+                }
+            }
+            assertEquals(inside, bin.count(), "bin " + bin);
+        }
+    }
+
+    private static long total(List<ValueHistogram.Bin> bins) {
+        return bins.stream().mapToLong(ValueHistogram.Bin::count).sum();
+    }
+
+    private static double[] values(int n, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian() * 100 + (i % 10 == 0 ? 1000 : 0);
+        }
+        return values;
+    }
+}
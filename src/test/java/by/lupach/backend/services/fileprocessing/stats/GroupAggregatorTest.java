@@ -0,0 +1,177 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupAggregatorTest {
+
+    private static final long SMALL_BUDGET = 1 << 16;
+    private static final long LARGE_BUDGET = 64L << 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void aggregatesInMemory() throws IOException {
+        Map<String, Expected> expected = new HashMap<>();
+        try (GroupAggregator groups = new GroupAggregator(LARGE_BUDGET, 16, dir)) {
+            addRandom(groups, expected, 100_000, 2_000, 1);
+
+            assertEquals(0, runs());
+            assertGroups(expected, groups);
+        }
+    }
+
+    @Test
+    void aggregatesAcrossSpilledPartitions() throws IOException {
+        Map<String, Expected> expected = new HashMap<>();
+        try (GroupAggregator groups = new GroupAggregator(SMALL_BUDGET, 8, dir)) {
+            addRandom(groups, expected, 200_000, 20_000, 2);
+
+            assertTrue(runs() > 0);
+            assertGroups(expected, groups);
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    void mergeTakesOverSpilledRuns() throws IOException {
+        Map<String, Expected> expected = new HashMap<>();
+        try (GroupAggregator target = new GroupAggregator(SMALL_BUDGET, 8, dir)) {
+            try (GroupAggregator part = new GroupAggregator(SMALL_BUDGET, 8, dir)) {
+                addRandom(target, expected, 100_000, 10_000, 3);
+                addRandom(part, expected, 100_000, 10_000, 4);
+                long runsBefore = runs();
+
+                target.merge(part);
+                part.close();
+                // Прогоны слитого агрегатора теперь принадлежат целевому и при его закрытии не удалены
+                assertTrue(runs() >= runsBefore);
+            }
+            assertGroups(expected, target);
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    void roundTripKeepsRunsAndTable() throws IOException {
+        Map<String, Expected> expected = new HashMap<>();
+        byte[] state;
+        try (GroupAggregator groups = new GroupAggregator(SMALL_BUDGET, 8, dir)) {
+            addRandom(groups, expected, 100_000, 10_000, 5);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                groups.writeTo(out);
+            }
+            state = bytes.toByteArray();
+        }
+        assertEquals(0, runs());
+
+        try (GroupAggregator restored = new GroupAggregator(SMALL_BUDGET, 8, dir)) {
+            restored.readFrom(new DataInputStream(new ByteArrayInputStream(state)));
+            assertGroups(expected, restored);
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    void rejectsOtherPartitionCount() throws IOException {
+        try (GroupAggregator groups = new GroupAggregator(LARGE_BUDGET, 8, dir);
+             GroupAggregator other = new GroupAggregator(LARGE_BUDGET, 16, dir)) {
+            assertThrows(IllegalArgumentException.class, () -> groups.merge(other));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                other.writeTo(out);
+            }
+            assertThrows(IOException.class,
+                    () -> groups.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        }
+    }
+
+    private static void addRandom(GroupAggregator groups, Map<String, Expected> expected,
+                                  int count, int keys, long seed) {
+        Random random = new Random(seed);
+        // Ключ передаётся диапазоном внутри большего буфера, как поле записи
+        byte[] buf = new byte[64];
+        for (int i = 0; i < count; i++) {
+            String key = "key-" + random.nextInt(keys) + (random.nextInt(100) == 0 ? "-" + "x".repeat(30) : "");
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, buf, 3, bytes.length);
+            double value = random.nextGaussian() * 100;
+            groups.add(buf, 3, 3 + bytes.length, value);
+            expected.computeIfAbsent(key, k -> new Expected()).add(value);
+        }
+    }
+
+    private static void assertGroups(Map<String, Expected> expected, GroupAggregator groups) {
+        Map<String, Expected> actual = new HashMap<>();
+        groups.forEachGroup((key, offset, length, count, min, max, mean, m2) -> {
+            Expected previous = actual.put(new String(key, offset, length, StandardCharsets.UTF_8),
+                    new Expected(count, min, max, mean, m2));
+            assertEquals(null, previous, "group visited twice");
+        });
+
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((key, e) -> {
+            Expected a = actual.get(key);
+            assertEquals(e.count, a.count, key);
+            assertEquals(e.min, a.min, 0.0, key);
+            assertEquals(e.max, a.max, 0.0, key);
+            // Слияние частичных агрегатов меняет порядок сложения
+            assertEquals(e.mean, a.mean, 1e-9 * Math.max(1, Math.abs(e.mean)), key);
+            assertEquals(e.m2, a.m2, 1e-9 * Math.max(1, e.m2), key);
+        });
+    }
+
+    private long runs() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static final class Expected {
+        long count;
+        double min;
+        double max;
+        double mean;
+        double m2;
+
+        Expected() {
+        }
+
+        Expected(long count, double min, double max, double mean, double m2) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.m2 = m2;
+        }
+
+        void add(double value) {
+            count++;
+            min = count == 1 ? value : Math.min(min, value);
+            max = count == 1 ? value : Math.max(max, value);
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimatesWithinStandardError() {
+        for (int n : new int[]{10, 1_000, 50_000, 1_000_000}) {
+            HyperLogLog hll = new HyperLogLog(14);
+            for (int i = 0; i < n; i++) {
+                hll.add(i * 0.5);
+                // Повторы не меняют оценку
+                hll.add(i * 0.5);
+            }
+            // Стандартная ошибка при precision = 14 — около 0.8%, берём четыре сигмы
+            assertEquals(n, hll.count(), Math.max(1, n * 0.035), "n = " + n);
+        }
+    }
+
+    @Test
+    void mergeEstimatesUnionOfParts() {
+        HyperLogLog left = new HyperLogLog(14);
+        HyperLogLog right = new HyperLogLog(14);
+        for (int i = 0; i < 150_000; i++) {
+            left.add(i);
+        }
+        for (int i = 100_000; i < 300_000; i++) {
+            right.add(i);
+        }
+
+        left.merge(right);
+        assertEquals(300_000, left.count(), 300_000 * 0.035);
+    }
+
+    @Test
+    void roundTripRestoresRegisters() throws IOException {
+        HyperLogLog hll = new HyperLogLog(12);
+        for (int i = 0; i < 40_000; i++) {
+            hll.add(Math.sqrt(i));
+        }
+
+        HyperLogLog restored = new HyperLogLog(12);
+        restored.readFrom(read(hll));
+        assertEquals(hll.count(), restored.count());
+
+        // Чтение в непустой счётчик — слияние
+        HyperLogLog partial = new HyperLogLog(12);
+        for (int i = 40_000; i < 80_000; i++) {
+            partial.add(Math.sqrt(i));
+        }
+        partial.readFrom(read(hll));
+        assertEquals(80_000, partial.count(), 80_000 * 0.07);
+    }
+
+    @Test
+    void rejectsOtherPrecision() throws IOException {
+        HyperLogLog hll = new HyperLogLog(12);
+        assertThrows(IllegalArgumentException.class, () -> hll.merge(new HyperLogLog(14)));
+        assertThrows(IOException.class, () -> new HyperLogLog(14).readFrom(read(hll)));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    private static DataInputStream read(HyperLogLog hll) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            hll.writeTo(out);
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,113 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KllSketchTest {
+
+    private static final int N = 1_000_000;
+    private static final double[] QUANTILES = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+    // Ошибка ранга при k = 200 — около 1%, с запасом на неудачный случай
+    private static final double RANK_ERROR = 0.02;
+
+    @Test
+    void quantilesStayWithinRankError() {
+        KllSketch sketch = new KllSketch(200);
+        for (int value : shuffled(N, 1)) {
+            sketch.update(value);
+        }
+
+        assertEquals(N, sketch.count());
+        assertEquals(0.0, sketch.quantile(0));
+        assertEquals(N - 1.0, sketch.quantile(1));
+        assertRankError(sketch);
+    }
+
+    @Test
+    void mergedPartsStayWithinRankError() {
+        int[] values = shuffled(N, 2);
+        KllSketch merged = new KllSketch(200);
+        for (int part = 0; part < 8; part++) {
+            KllSketch sketch = new KllSketch(200);
+            for (int i = part; i < values.length; i += 8) {
+                sketch.update(values[i]);
+            }
+            merged.merge(sketch);
+        }
+
+        assertEquals(N, merged.count());
+        assertRankError(merged);
+    }
+
+    @Test
+    void roundTripKeepsSketchAndItsRandomState() {
+        KllSketch sketch = new KllSketch(200);
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.update(random.nextGaussian());
+        }
+
+        KllSketch restored = KllSketch.fromBytes(sketch.toBytes());
+        assertArrayEquals(sketch.toBytes(), restored.toBytes());
+        assertArrayEquals(sketch.quantiles(QUANTILES), restored.quantiles(QUANTILES));
+
+        // Дальнейшие обновления сжимают уровни одинаково
+        for (int i = 0; i < 100_000; i++) {
+            double value = random.nextGaussian();
+            sketch.update(value);
+            restored.update(value);
+        }
+        assertArrayEquals(sketch.toBytes(), restored.toBytes());
+    }
+
+    @Test
+    void ignoresNaNAndHandlesEmptySketch() {
+        KllSketch sketch = new KllSketch(8);
+        assertTrue(sketch.isEmpty());
+        assertNull(sketch.quantile(0.5));
+
+        sketch.update(Double.NaN);
+        assertTrue(sketch.isEmpty());
+        sketch.update(5);
+        assertEquals(5.0, sketch.quantile(0.5));
+
+        sketch.merge(new KllSketch(8));
+        assertEquals(1, sketch.count());
+    }
+
+    @Test
+    void rejectsTooSmallK() {
+        assertThrows(IllegalArgumentException.class, () -> new KllSketch(7));
+    }
+
+    private static void assertRankError(KllSketch sketch) {
+        Double[] values = sketch.quantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            // Значения — ранги 0..N-1, поэтому ошибка ранга видна прямо по значению
+            double rank = values[i] / N;
+            assertEquals(QUANTILES[i], rank, RANK_ERROR, "quantile " + QUANTILES[i]);
+        }
+    }
+
+    private static int[] shuffled(int n, long seed) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = values[i];
+            values[i] = values[j];
+            values[j] = t;
+        }
+        return values;
+    }
+}
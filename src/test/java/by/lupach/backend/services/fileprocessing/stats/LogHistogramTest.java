@@ -0,0 +1,122 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogHistogramTest {
+
+    @Test
+    void binsAreNarrowAndHoldTheirValues() {
+        LogHistogram histogram = new LogHistogram(3);
+        double[] values = values(50_000, 1);
+        for (double value : values) {
+            histogram.add(value);
+        }
+
+        List<ValueHistogram.Bin> bins = histogram.bins();
+        assertEquals(values.length, total(bins));
+        double previousUpper = Double.NEGATIVE_INFINITY;
+        for (ValueHistogram.Bin bin : bins) {
+            // По возрастанию и без перекрытий; относительная ширина не больше 2^-3
+            assertTrue(bin.lowerBound() >= previousUpper);
+            previousUpper = bin.upperBound();
+            double magnitude = Math.min(Math.abs(bin.lowerBound()), Math.abs(bin.upperBound()));
+            assertTrue(bin.upperBound() - bin.lowerBound() <= magnitude / 8 + Double.MIN_VALUE, "bin " + bin);
+
+            long inside = 0;
+            for (double value : values) {
+                if (value == 0 ? bin.lowerBound() == 0 && bin.upperBound() == 0 : inBin(bin, value)) {
+                    inside++;
+                }
+            }
+            assertEquals(inside, bin.count(), "bin " + bin);
+        }
+    }
+
+    @Test
+    void mergeDoesNotDependOnOrder() {
+        double[] values = values(50_000, 2);
+        LogHistogram sequential = new LogHistogram(2);
+        for (double value : values) {
+            sequential.add(value);
+        }
+
+        LogHistogram merged = new LogHistogram(2);
+        for (int part = 3; part >= 0; part--) {
+            LogHistogram histogram = new LogHistogram(2);
+            for (int i = part; i < values.length; i += 4) {
+                histogram.add(values[i]);
+            }
+            merged.merge(histogram);
+        }
+
+        assertEquals(sequential.bins(), merged.bins());
+    }
+
+    @Test
+    void countsZerosAndNonFiniteSeparately() {
+        LogHistogram histogram = new LogHistogram(0);
+        histogram.add(0.0);
+        histogram.add(-0.0);
+        histogram.add(Double.NaN);
+        histogram.add(Double.POSITIVE_INFINITY);
+        histogram.add(Double.MIN_VALUE);
+        histogram.add(-Double.MAX_VALUE);
+
+        List<ValueHistogram.Bin> bins = histogram.bins();
+        assertEquals(3, bins.size());
+        assertEquals(new ValueHistogram.Bin(0, 0, 2), bins.get(1));
+        assertTrue(inBin(bins.get(0), -Double.MAX_VALUE));
+        assertTrue(inBin(bins.get(2), Double.MIN_VALUE));
+        assertEquals(2, histogram.nonFiniteCount());
+    }
+
+    @Test
+    void roundTripKeepsWindows() {
+        LogHistogram histogram = new LogHistogram(4);
+        for (double value : values(10_000, 3)) {
+            histogram.add(value);
+        }
+
+        LogHistogram restored = LogHistogram.fromBytes(histogram.toBytes());
+        assertArrayEquals(histogram.toBytes(), restored.toBytes());
+        assertEquals(histogram.bins(), restored.bins());
+    }
+
+    @Test
+    void rejectsOtherPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new LogHistogram(2).merge(new LogHistogram(3)));
+        assertThrows(IllegalArgumentException.class, () -> new LogHistogram(2).merge(new EquiWidthHistogram(8)));
+        assertThrows(IllegalArgumentException.class, () -> new LogHistogram(11));
+    }
+
+    /**
+     * Корзины отрицательных значений зеркальны: граница ближе к нулю входит в корзину
+     */
+    private static boolean inBin(ValueHistogram.Bin bin, double value) {
+        return value > 0
+                ? bin.lowerBound() <= value && value < bin.upperBound()
+                : bin.lowerBound() < value && value <= bin.upperBound();
+    }
+
+    private static long total(List<ValueHistogram.Bin> bins) {
+        return bins.stream().mapToLong(ValueHistogram.Bin::count).sum();
+    }
+
+    private static double[] values(int n, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Разброс на десятки порядков в обе стороны и точные нули
+            values[i] = i % 50 == 0 ? 0 : random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+        }
+        return values;
+    }
+}
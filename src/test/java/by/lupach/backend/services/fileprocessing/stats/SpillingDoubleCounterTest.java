@@ -0,0 +1,176 @@
+package by.lupach.backend.services.fileprocessing.stats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillingDoubleCounterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsExactlyInMemory() throws IOException {
+        OffHeapBudget budget = new OffHeapBudget(64L << 20);
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(budget, dir)) {
+            Set<Double> expected = addRandom(counter, 300_000, 50_000, 1);
+
+            assertEquals(expected.size(), counter.count());
+            assertEquals(0, runs());
+        }
+        assertEquals(0, budget.used());
+    }
+
+    @Test
+    void countsExactlyAcrossSpilledRuns() throws IOException {
+        // Бюджет не даёт таблице расти: каждые ~40 тысяч значений уходят в отсортированный прогон
+        OffHeapBudget budget = new OffHeapBudget(1);
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(budget, dir)) {
+            Set<Double> expected = addRandom(counter, 500_000, 200_000, 2);
+
+            assertTrue(runs() > 1);
+            assertEquals(expected.size(), counter.count());
+            // Повторный подсчёт после слияния прогонов не меняет результат
+            assertEquals(expected.size(), counter.count());
+        }
+        assertEquals(0, runs());
+        assertEquals(0, budget.used());
+    }
+
+    @Test
+    void distinguishesZerosAndCollapsesNaN() {
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(new OffHeapBudget(1), dir)) {
+            counter.add(0.0);
+            counter.add(-0.0);
+            counter.add(Double.NaN);
+            counter.add(Double.longBitsToDouble(0x7ff8000000000001L));
+            counter.add(0.0);
+
+            assertEquals(3, counter.count());
+        }
+    }
+
+    @Test
+    void mergeTakesOverRunsAndReleasesBudget() throws IOException {
+        OffHeapBudget budget = new OffHeapBudget(1);
+        Set<Double> expected = new HashSet<>();
+        try (SpillingDoubleCounter target = new SpillingDoubleCounter(budget, dir)) {
+            try (SpillingDoubleCounter part = new SpillingDoubleCounter(budget, dir)) {
+                expected.addAll(addRandom(target, 200_000, 150_000, 3));
+                expected.addAll(addRandom(part, 200_000, 150_000, 4));
+                long runsBefore = runs();
+
+                target.merge(part);
+                // Таблица слитого счётчика возвращена в бюджет сразу
+                assertEquals(initialTableBytes(), budget.used());
+                part.close();
+                assertEquals(runsBefore, runs());
+            }
+            assertEquals(expected.size(), target.count());
+        }
+        assertEquals(0, runs());
+        assertEquals(0, budget.used());
+    }
+
+    @Test
+    void roundTripCopiesRunsInline() throws IOException {
+        OffHeapBudget budget = new OffHeapBudget(1);
+        byte[] state;
+        Set<Double> expected;
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(budget, dir)) {
+            expected = addRandom(counter, 200_000, 120_000, 5);
+            state = write(counter, SpillRunStore.INLINE);
+        }
+        assertEquals(0, runs());
+
+        try (SpillingDoubleCounter restored = new SpillingDoubleCounter(budget, dir)) {
+            restored.readFrom(new DataInputStream(new ByteArrayInputStream(state)));
+            assertEquals(expected.size(), restored.count());
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    void roundTripLinksRunsOnce() throws IOException {
+        OffHeapBudget budget = new OffHeapBudget(1);
+        Path checkpoint = Files.createDirectories(dir.resolve("checkpoint"));
+        SpillRunStore links = SpillRunStore.linked(checkpoint);
+        byte[] state;
+        Set<Double> expected;
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(budget, dir)) {
+            expected = addRandom(counter, 200_000, 120_000, 6);
+            write(counter, links);
+            long linked = files(checkpoint);
+            assertTrue(linked > 0);
+            // Повторная точка того же счётчика не создаёт новых копий прогонов
+            state = write(counter, links);
+            assertEquals(linked, files(checkpoint));
+        }
+
+        // Ссылки переживают закрытие счётчика, чьи прогоны они повторяют
+        try (SpillingDoubleCounter restored = new SpillingDoubleCounter(budget, dir)) {
+            restored.readFrom(new DataInputStream(new ByteArrayInputStream(state)), links);
+            assertEquals(expected.size(), restored.count());
+        }
+    }
+
+    @Test
+    void rejectsMergeWithOtherMode() {
+        try (SpillingDoubleCounter counter = new SpillingDoubleCounter(new OffHeapBudget(1), dir)) {
+            assertThrows(IllegalArgumentException.class, () -> counter.merge(new DoubleHashSet()));
+        }
+    }
+
+    private static Set<Double> addRandom(SpillingDoubleCounter counter, int count, int distinct, long seed) {
+        Random random = new Random(seed);
+        Set<Double> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            double value = random.nextInt(distinct) / 7.0;
+            counter.add(value);
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static byte[] write(SpillingDoubleCounter counter, SpillRunStore runStore) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            counter.writeTo(out, runStore);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Минимальная таблица выделяется сверх бюджета: 2^16 значений по 8 байт
+     */
+    private static long initialTableBytes() {
+        return (1L << 16) * Long.BYTES;
+    }
+
+    private long runs() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".run")).count();
+        }
+    }
+
+    private static long files(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
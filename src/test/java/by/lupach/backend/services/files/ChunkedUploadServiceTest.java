@@ -0,0 +1,177 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.CreateUploadRequestDTO;
+import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.entities.ProcessingStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Хеш содержимого загрузки по частям должен совпадать с хешем обычной загрузки того же содержимого
+ * при любом размере и порядке частей — иначе дедупликация их не сведёт
+ */
+class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<StoredFile> registered = new ArrayList<>();
+    private FileStorageService storage;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = new FileStorageService(null, null);
+        set(storage, "uploadDir", dir.toString());
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void hashMatchesWholeFileForAnyPartSizeAndOrder() throws Exception {
+        byte[] content = content(1_000_003, 1);
+        String expected = sha256(content);
+
+        for (long partSize : new long[]{1 << 16, 100_000, 333_333, 2_000_000}) {
+            assertEquals(expected, upload(content, partSize, Order.SEQUENTIAL), "sequential, part " + partSize);
+            assertEquals(expected, upload(content, partSize, Order.REVERSED), "reversed, part " + partSize);
+            assertEquals(expected, upload(content, partSize, Order.PARALLEL), "parallel, part " + partSize);
+        }
+    }
+
+    @Test
+    void hashMatchesRegularUpload() throws Exception {
+        byte[] content = content(300_000, 2);
+        // Обычная загрузка хеширует файл целиком тем же хранилищем
+        Path whole = Files.write(dir.resolve("whole.csv"), content);
+        String regular = storage.adopt(whole, "data.csv").contentHash();
+
+        assertEquals(regular, upload(content, 1 << 16, Order.PARALLEL));
+    }
+
+    @Test
+    void resentPartReplacesHashedBytes() throws Exception {
+        byte[] content = content(400_000, 3);
+        ChunkedUploadService service = service(100_000);
+        UUID uploadId = create(service, content.length);
+
+        // Первая версия части 1 уже вошла в посчитанное начало, затем часть прислана заново
+        byte[] stale = content(100_000, 4);
+        service.writePart(uploadId, 0, new ByteArrayInputStream(content, 0, 100_000));
+        service.writePart(uploadId, 1, new ByteArrayInputStream(stale));
+        service.writePart(uploadId, 2, new ByteArrayInputStream(content, 200_000, 100_000));
+        service.writePart(uploadId, 1, new ByteArrayInputStream(content, 100_000, 100_000));
+        service.writePart(uploadId, 3, new ByteArrayInputStream(content, 300_000, 100_000));
+        service.complete(uploadId);
+
+        assertEquals(sha256(content), registered.get(registered.size() - 1).contentHash());
+    }
+
+    private enum Order { SEQUENTIAL, REVERSED, PARALLEL }
+
+    private String upload(byte[] content, long partSize, Order order) throws Exception {
+        ChunkedUploadService service = service(partSize);
+        UUID uploadId = create(service, content.length);
+        int partCount = (int) ((content.length + partSize - 1) / partSize);
+
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < partCount; i++) {
+            parts.add(i);
+        }
+        if (order == Order.REVERSED) {
+            Collections.reverse(parts);
+        } else if (order == Order.PARALLEL) {
+            Collections.shuffle(parts, new Random(partSize));
+        }
+        List<Future<?>> writes = new ArrayList<>();
+        for (int part : parts) {
+            int from = (int) (part * partSize);
+            int length = (int) Math.min(partSize, content.length - from);
+            if (order == Order.PARALLEL) {
+                writes.add(executor.submit(() -> {
+                    service.writePart(uploadId, part, new ByteArrayInputStream(content, from, length));
+                    return null;
+                }));
+            } else {
+                service.writePart(uploadId, part, new ByteArrayInputStream(content, from, length));
+            }
+        }
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        service.complete(uploadId);
+        return registered.get(registered.size() - 1).contentHash();
+    }
+
+    private ChunkedUploadService service(long partSize) throws ReflectiveOperationException {
+        ChunkedUploadService service = new ChunkedUploadService(new RecordingFileService(), storage, new ObjectMapper());
+        set(service, "maxSize", 1L << 30);
+        set(service, "partSize", partSize);
+        set(service, "expireHours", 24L);
+        return service;
+    }
+
+    private static UUID create(ChunkedUploadService service, long size) throws IOException {
+        return service.create(new CreateUploadRequestDTO("data.csv", size, List.of(), null, false)).uploadId();
+    }
+
+    private static byte[] content(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Завершение загрузки регистрирует собранный файл; здесь он только запоминается и удаляется
+     */
+    private class RecordingFileService extends FileService {
+
+        RecordingFileService() {
+            super(null, null, null, null, null, null, null, null);
+        }
+
+        @Override
+        public FileUploadResponseDTO registerAndQueue(StoredFile stored, String fileName, long fileSize,
+                                                      AnalysisOptions options) throws IOException {
+            registered.add(stored);
+            Files.delete(stored.source());
+            return new FileUploadResponseDTO(UUID.randomUUID(), fileName, ProcessingStatus.PENDING);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.AnalysisResultDTO;
+import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.entities.UniqueCountMode;
+import by.lupach.backend.repositories.AnalysisResultRepository;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.FileAnalysisService;
+import by.lupach.backend.services.fileprocessing.AnalysisStateStore;
+import by.lupach.backend.services.fileprocessing.CheckpointStore;
+import by.lupach.backend.services.fileprocessing.ParserEngine;
+import by.lupach.backend.services.fileprocessing.ProgressNotifier;
+import by.lupach.backend.services.fileprocessing.StatisticsCalculator;
+import by.lupach.backend.services.fileprocessing.StreamingFileProcessor;
+import by.lupach.backend.services.fileprocessing.csv.ScalarStructuralScanner;
+import by.lupach.backend.services.fileprocessing.stats.ColumnSetAccumulator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.integration.support.locks.DefaultLockRegistry;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Дописывание — одно целое: если не удалось сохранить результат, файл, запись о нём и состояние анализа
+ * остаются прежними, и следующее дописывание продолжает прежнее состояние
+ */
+class FileAppendServiceTest {
+
+    private static final byte[] CSV = "id,value\n1,10\n2,20\n3,30\n".getBytes(StandardCharsets.UTF_8);
+    private static final String CONTENT_PATH = "content/source.csv";
+
+    @TempDir
+    Path dir;
+
+    private final Map<UUID, FileEntity> files = new ConcurrentHashMap<>();
+    private final List<AnalysisResult> saved = new ArrayList<>();
+    private FileEntity heir;
+    private boolean failSave;
+    private UUID fileId;
+    private Path state;
+    private FileAppendService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FileEntityRepository fileRepo = repository();
+        FileStorageService storage = new FileStorageService(fileRepo, new FileLocks(new DefaultLockRegistry()));
+        set(storage, "uploadDir", dir.toString());
+
+        StatisticsCalculator calculator = new StatisticsCalculator(ScalarStructuralScanner.INSTANCE);
+        set(calculator, "uniqueCountMode", UniqueCountMode.EXACT);
+        set(calculator, "hllPrecision", 14);
+        set(calculator, "uniqueMemoryBudget", 64L << 20);
+        set(calculator, "spillDir", dir.resolve("spill").toString());
+        set(calculator, "quantileSketchK", 200);
+        set(calculator, "groupMemoryBudget", 64L << 20);
+        set(calculator, "groupSpillPartitions", 16);
+        set(calculator, "histogramBins", 64);
+        set(calculator, "logHistogramPrecisionBits", 2);
+        // Инициализация после внедрения настроек — пакетная, вызывается как контейнером
+        Method init = StatisticsCalculator.class.getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(calculator);
+
+        AnalysisStateStore stateStore = new AnalysisStateStore();
+        set(stateStore, "enabled", true);
+        set(stateStore, "stateDir", dir.resolve("state").toString());
+        CheckpointStore checkpoints = new CheckpointStore(new ObjectMapper());
+        set(checkpoints, "enabled", false);
+        StreamingFileProcessor processor = new StreamingFileProcessor(calculator,
+                new ProgressNotifier((message, timeout) -> true), null, null,
+                ScalarStructuralScanner.INSTANCE, checkpoints, stateStore);
+        set(processor, "parserEngine", ParserEngine.BYTE);
+        set(processor, "bufferSize", 1 << 16);
+        set(processor, "parallelEnabled", false);
+
+        // Проанализированный файл: содержимое в хранилище и итоговое состояние его аккумулятора
+        Files.createDirectories(dir.resolve("content"));
+        Files.write(dir.resolve(CONTENT_PATH), CSV);
+        CsvSchema schema = new CsvSchema(',', true, false, List.of("id", "value"), List.of(0, 1));
+        FileEntity file = FileEntity.builder()
+                .id(UUID.randomUUID())
+                .fileName("data.csv")
+                .fileSize((long) CSV.length)
+                .filePath(CONTENT_PATH)
+                .contentHash("source")
+                .analysisOptions(AnalysisOptions.singleColumn())
+                .schema(schema)
+                .uploadTime(LocalDateTime.now())
+                .status(ProcessingStatus.COMPLETED)
+                .build();
+        files.put(file.getId(), file);
+        fileId = file.getId();
+        try (ColumnSetAccumulator acc = calculator.newAccumulator(file.getAnalysisOptions(), schema)) {
+            processor.scanAppended(dir.resolve(CONTENT_PATH), 0, file.getAnalysisOptions(), acc);
+            stateStore.save(fileId, acc);
+        }
+        state = dir.resolve("state").resolve(fileId + ".state");
+
+        service = new FileAppendService(fileRepo, results(), storage, new HandingOverFileService(), calculator,
+                processor, stateStore, new RecordingAnalysisService(), new ProgressNotifier((message, timeout) -> true),
+                new FileLocks(new DefaultLockRegistry()));
+        set(service, "uploadDir", dir.toString());
+        set(service, "maxSize", 1L << 20);
+    }
+
+    @Test
+    void failedResultSaveRollsBackContentRecordAndState() throws Exception {
+        byte[] stateBefore = Files.readAllBytes(state);
+        failSave = true;
+
+        assertThrows(IllegalStateException.class, () -> service.append(fileId, chunk("4,40\n5,50\n")));
+
+        FileEntity file = files.get(fileId);
+        assertArrayEquals(CSV, Files.readAllBytes(dir.resolve(file.getFilePath())));
+        assertEquals(CSV.length, file.getFileSize());
+        assertNull(file.getDuplicateOf());
+        assertArrayEquals(stateBefore, Files.readAllBytes(state));
+        assertFalse(Files.exists(state.resolveSibling(state.getFileName() + ".staged")));
+        assertEquals(0, saved.size());
+
+        // Следующее дописывание продолжает прежнее состояние: записей 3 + 2, а не 3 + 2 + 2
+        failSave = false;
+        service.append(fileId, chunk("4,40\n5,50\n"));
+        assertEquals(5, saved.get(0).getStatistics().getProcessedRecords());
+        assertEquals(CSV.length + 10, Files.size(dir.resolve(files.get(fileId).getFilePath())));
+    }
+
+    @Test
+    void failedResultSaveLinksFileToHeirOfItsResult() {
+        // Прежний результат и состояние уже переданы копии — после отката файл ссылается на неё
+        heir = FileEntity.builder().id(UUID.randomUUID()).fileName("copy.csv").build();
+        failSave = true;
+
+        assertThrows(IllegalStateException.class, () -> service.append(fileId, chunk("4,40\n5,50\n")));
+
+        FileEntity file = files.get(fileId);
+        assertSame(heir, file.getDuplicateOf());
+        assertEquals(CSV.length, file.getFileSize());
+    }
+
+    private static MockMultipartFile chunk(String csv) {
+        return new MockMultipartFile("chunk", "chunk.csv", "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Репозиторий в памяти; запись хранится тем же объектом, как в контексте сохранения
+     */
+    private FileEntityRepository repository() {
+        return (FileEntityRepository) Proxy.newProxyInstance(FileEntityRepository.class.getClassLoader(),
+                new Class<?>[]{FileEntityRepository.class}, (proxy, method, args) ->
+                        switch (method.getName()) {
+                            case "findById" -> Optional.ofNullable(files.get((UUID) args[0]));
+                            case "save" -> {
+                                FileEntity file = (FileEntity) args[0];
+                                files.put(file.getId(), file);
+                                yield file;
+                            }
+                            case "countByFilePath" -> files.values().stream()
+                                    .filter(file -> Objects.equals(file.getFilePath(), args[0]))
+                                    .count();
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            case "equals" -> proxy == args[0];
+                            case "toString" -> "FileEntityRepository";
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        });
+    }
+
+    /**
+     * У файла есть точный результат
+     */
+    private static AnalysisResultRepository results() {
+        return (AnalysisResultRepository) Proxy.newProxyInstance(AnalysisResultRepository.class.getClassLoader(),
+                new Class<?>[]{AnalysisResultRepository.class}, (proxy, method, args) ->
+                        switch (method.getName()) {
+                            case "findAnalysisResultByFile_Id" -> Optional.of(new AnalysisResult());
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            case "equals" -> proxy == args[0];
+                            case "toString" -> "AnalysisResultRepository";
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        });
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private class HandingOverFileService extends FileService {
+
+        HandingOverFileService() {
+            super(null, null, null, null, null, null, null, null);
+        }
+
+        @Override
+        public Optional<FileEntity> handOverToDuplicates(UUID fileId) {
+            return Optional.ofNullable(heir);
+        }
+    }
+
+    private class RecordingAnalysisService extends FileAnalysisService {
+
+        RecordingAnalysisService() {
+            super(null, null, null, null, null, null);
+        }
+
+        @Override
+        public void saveResult(AnalysisResult result) {
+            if (result.getGroups() != null) {
+                result.getGroups().close();
+            }
+            if (failSave) {
+                throw new IllegalStateException("database is down");
+            }
+            saved.add(result);
+        }
+
+        @Override
+        public AnalysisResultDTO getAnalysisDetailsByFileId(UUID fileId) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.dtos.FileUploadResponseDTO;
+import by.lupach.backend.dtos.ProgressMessageDTO;
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.repositories.AnalysisResultRepository;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.fileprocessing.ProgressNotifier;
+import by.lupach.backend.services.redis.AnalysisStatusFacade;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.integration.support.locks.DefaultLockRegistry;
+import org.springframework.integration.util.CheckedCallable;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Пакетная загрузка против загрузки по одному файлу. Хранилище и временные файлы настоящие, а каждое обращение
+ * к БД и Redis (запрос, вставка, блокировка, запись статуса, постановка в очередь) считается — так видно,
+ * сколько обменов с ними стоит каждый путь.
+ */
+class FileServiceBulkUploadTest {
+
+    private static final int FILES = 64;
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final AtomicInteger locks = new AtomicInteger();
+    private final List<FileQueueMessageDTO> queued = new ArrayList<>();
+    private final List<Collection<String>> lookups = new ArrayList<>();
+    private ExecutorService uploadExecutor;
+    private FileService service;
+    private int uploaded;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        uploadExecutor = Executors.newFixedThreadPool(THREADS);
+        FileEntityRepository fileRepo = repository(FileEntityRepository.class);
+        FileStorageService storage = new FileStorageService(fileRepo, new CountingLocks());
+        set(storage, "uploadDir", dir.toString());
+
+        service = new FileService(fileRepo, repository(AnalysisResultRepository.class), storage,
+                new CountingPublisher(), new CountingStatusFacade(),
+                // Отправка в канал прогресса в приложении — ещё и поиск в БД, две записи в Redis и WebSocket
+                new ProgressNotifier((message, timeout) -> roundTrip(true)),
+                null, uploadExecutor);
+        set(service, "maxSize", 52_428_800L);
+        set(service, "dedupEnabled", true);
+        set(service, "maxBulkFiles", 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        uploadExecutor.shutdownNow();
+    }
+
+    @Test
+    void bulkUploadNeedsConstantRoundTrips() throws IOException {
+        List<FileUploadResponseDTO> single = uploadOneByOne(files(FILES));
+        int singleTrips = roundTrips.getAndSet(0);
+        List<FileQueueMessageDTO> singleQueued = new ArrayList<>(queued);
+        queued.clear();
+
+        List<FileUploadResponseDTO> bulk = service.uploadAllAndQueue(files(FILES), List.of("0"), null, false);
+        int bulkTrips = roundTrips.get();
+
+        // Результат тот же: все файлы ждут анализа и стоят в очереди
+        assertEquals(FILES, single.size());
+        assertEquals(FILES, bulk.size());
+        assertTrue(bulk.stream().allMatch(response -> response.status() == ProcessingStatus.PENDING));
+        assertEquals(FILES, singleQueued.size());
+        assertEquals(FILES, queued.size());
+
+        // По одному: поиск результата, вставка, блокировка содержимого, статус и очередь на каждый файл.
+        // Пакетом: один поиск, одна вставка, один конвейер статусов и очереди и параллельные блокировки содержимого
+        assertEquals(5 * FILES, singleTrips);
+        assertEquals(FILES + 3, bulkTrips);
+    }
+
+    @Test
+    void identicalFilesOfBatchAreLookedUpAndStoredOnce() throws IOException {
+        List<MultipartFile> distinct = files(4);
+        List<MultipartFile> batch = new ArrayList<>();
+        for (int copy = 0; copy < 3; copy++) {
+            for (MultipartFile file : distinct) {
+                batch.add(new CsvPart("copy-" + copy + "-" + file.getOriginalFilename(), file.getBytes()));
+            }
+        }
+
+        List<FileUploadResponseDTO> responses = service.uploadAllAndQueue(batch, List.of("0"), null, false);
+
+        assertEquals(batch.size(), responses.size());
+        assertEquals(batch.size(), queued.size());
+        // Один запрос на четыре различных хеша и одна блокировка с переносом на каждое содержимое
+        assertEquals(1, lookups.size());
+        assertEquals(distinct.size(), lookups.get(0).size());
+        assertEquals(distinct.size(), locks.get());
+        assertEquals(distinct.size() + 3, roundTrips.get());
+        try (Stream<Path> stored = Files.list(dir.resolve("content"))) {
+            assertEquals(distinct.size(), stored.count());
+        }
+        try (Stream<Path> incoming = Files.list(dir.resolve("incoming"))) {
+            assertEquals(0, incoming.count());
+        }
+    }
+
+    private List<FileUploadResponseDTO> uploadOneByOne(List<MultipartFile> files) throws IOException {
+        List<FileUploadResponseDTO> responses = new ArrayList<>();
+        for (MultipartFile file : files) {
+            responses.add(service.uploadAndQueue(file, List.of("0"), null, false));
+        }
+        return responses;
+    }
+
+    /**
+     * Файлы с разным содержимым, чтобы каждый попадал в хранилище
+     */
+    private List<MultipartFile> files(int count) {
+        List<MultipartFile> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder csv = new StringBuilder("value\n");
+            for (int row = 0; row < 4096; row++) {
+                csv.append(uploaded).append('.').append(row).append('\n');
+            }
+            files.add(new CsvPart("data-" + uploaded++ + ".csv", csv.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return files;
+    }
+
+    /**
+     * Обмен с БД или Redis
+     */
+    private <T> T roundTrip(T result) {
+        roundTrips.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Репозиторий без БД: вставки выдают идентификаторы, готовых результатов нет
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T repository(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) ->
+                switch (method.getName()) {
+                    case "save" -> {
+                        ((FileEntity) args[0]).setId(UUID.randomUUID());
+                        yield roundTrip(args[0]);
+                    }
+                    case "saveAll" -> {
+                        List<FileEntity> saved = new ArrayList<>();
+                        for (Object entity : (Iterable<?>) args[0]) {
+                            ((FileEntity) entity).setId(UUID.randomUUID());
+                            saved.add((FileEntity) entity);
+                        }
+                        yield roundTrip(saved);
+                    }
+                    case "findExactByContent" -> roundTrip(List.of());
+                    case "findExactByContentIn" -> {
+                        lookups.add(List.copyOf((Collection<String>) args[0]));
+                        yield roundTrip(List.of());
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> type.getSimpleName();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Блокировка содержимого в приложении берётся в Redis
+     */
+    private class CountingLocks extends FileLocks {
+
+        CountingLocks() {
+            super(new DefaultLockRegistry());
+        }
+
+        @Override
+        public <T, E extends Exception> T withContent(String filePath, CheckedCallable<T, E> action) throws E {
+            locks.incrementAndGet();
+            roundTrip(null);
+            return action.call();
+        }
+    }
+
+    private class CountingPublisher extends FileQueuePublisher {
+
+        CountingPublisher() {
+            super(null);
+        }
+
+        @Override
+        public void enqueue(FileQueueMessageDTO message) {
+            synchronized (queued) {
+                queued.add(message);
+            }
+            roundTrip(null);
+        }
+    }
+
+    /**
+     * Статусы, прогресс и очередь пачки — одним конвейером
+     */
+    private class CountingStatusFacade extends AnalysisStatusFacade {
+
+        CountingStatusFacade() {
+            super(null, null, null, null, null);
+        }
+
+        @Override
+        public void initAll(Collection<ProgressMessageDTO> messages, List<FileQueueMessageDTO> queue) {
+            synchronized (queued) {
+                queued.addAll(queue);
+            }
+            roundTrip(null);
+        }
+    }
+
+    private record CsvPart(String fileName, byte[] content) implements MultipartFile {
+
+        @Override
+        public String getName() {
+            return "files";
+        }
+
+        @Override
+        public String getOriginalFilename() {
+            return fileName;
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/csv";
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return content.length == 0;
+        }
+
+        @Override
+        public long getSize() {
+            return content.length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void transferTo(File dest) throws IOException {
+            Files.write(dest.toPath(), content);
+        }
+    }
+}
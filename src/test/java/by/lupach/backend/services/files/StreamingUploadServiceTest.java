@@ -0,0 +1,239 @@
+package by.lupach.backend.services.files;
+
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.ProgressMessageDTO;
+import by.lupach.backend.entities.AnalysisResult;
+import by.lupach.backend.entities.CsvSchema;
+import by.lupach.backend.entities.FileEntity;
+import by.lupach.backend.entities.ProcessingStatus;
+import by.lupach.backend.repositories.FileEntityRepository;
+import by.lupach.backend.services.FileAnalysisService;
+import by.lupach.backend.services.HistoryService;
+import by.lupach.backend.services.fileprocessing.ProgressNotifier;
+import by.lupach.backend.services.fileprocessing.StreamingFileProcessingOrchestrator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.integration.support.locks.DefaultLockRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Разбор отмечает файл завершённым раньше, чем тело сохранено; если сохранить его или результат не удалось,
+ * файл должен снова ждать тело, чтобы загрузку можно было повторить тем же id
+ */
+class StreamingUploadServiceTest {
+
+    private static final byte[] CSV = "value\n1\n2\n3\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    private final Map<UUID, FileEntity> files = new ConcurrentHashMap<>();
+    private final List<ProgressMessageDTO> notifications = new ArrayList<>();
+    private final List<AnalysisResult> saved = new ArrayList<>();
+    private boolean failCommit;
+    private boolean failSave;
+    private StreamingUploadService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FileEntityRepository fileRepo = repository();
+        FileStorageService storage = new FileStorageService(fileRepo, new FileLocks(new DefaultLockRegistry())) {
+            @Override
+            public void commit(StoredFile file) throws IOException {
+                if (failCommit) {
+                    throw new IOException("disk full");
+                }
+                super.commit(file);
+            }
+        };
+        set(storage, "uploadDir", dir.toString());
+        // Канал прогресса в приложении переносит статус в запись о файле
+        ProgressNotifier notifier = new ProgressNotifier((message, timeout) -> {
+            ProgressMessageDTO progress = (ProgressMessageDTO) message.getPayload();
+            notifications.add(progress);
+            Optional.ofNullable(files.get(progress.fileId())).ifPresent(file -> file.setStatus(progress.status()));
+            return true;
+        });
+        service = new StreamingUploadService(fileRepo, null, storage, new ParsingOrchestrator(notifier),
+                new RecordingAnalysisService(), new NoHistory(), notifier);
+        set(service, "maxSize", 1L << 20);
+    }
+
+    @Test
+    void failedCommitLeavesFileWaitingForUpload() throws Exception {
+        UUID fileId = pending();
+        failCommit = true;
+
+        assertThrows(IOException.class, () -> upload(fileId));
+
+        assertWaitingForUpload(fileId);
+        assertEquals(0, saved.size());
+
+        failCommit = false;
+        assertEquals(ProcessingStatus.COMPLETED, upload(fileId));
+        assertEquals(ProcessingStatus.COMPLETED, files.get(fileId).getStatus());
+        assertNotNull(files.get(fileId).getContentHash());
+        assertEquals(1, saved.size());
+        assertEquals(1, count("content"));
+    }
+
+    @Test
+    void failedResultSaveReleasesStoredContent() throws Exception {
+        UUID fileId = pending();
+        failSave = true;
+
+        assertThrows(IllegalStateException.class, () -> upload(fileId));
+
+        assertWaitingForUpload(fileId);
+        assertEquals(0, count("content"));
+
+        failSave = false;
+        assertEquals(ProcessingStatus.COMPLETED, upload(fileId));
+        assertEquals(1, saved.size());
+    }
+
+    private void assertWaitingForUpload(UUID fileId) throws IOException {
+        FileEntity file = files.get(fileId);
+        assertEquals(ProcessingStatus.PENDING, file.getStatus());
+        assertNull(file.getContentHash());
+        assertNull(file.getFilePath());
+        assertNull(file.getSchema());
+        assertNull(file.getFileSize());
+        assertEquals(ProcessingStatus.PENDING, notifications.get(notifications.size() - 1).status());
+        assertEquals(0, count("incoming"));
+    }
+
+    private UUID pending() {
+        FileEntity file = FileEntity.builder()
+                .id(UUID.randomUUID())
+                .fileName("data.csv")
+                .analysisOptions(AnalysisOptions.singleColumn())
+                .uploadTime(LocalDateTime.now())
+                .status(ProcessingStatus.PENDING)
+                .build();
+        files.put(file.getId(), file);
+        return file.getId();
+    }
+
+    private ProcessingStatus upload(UUID fileId) throws Exception {
+        return service.upload(fileId, new ByteArrayInputStream(CSV), CSV.length).status();
+    }
+
+    private long count(String subdirectory) throws IOException {
+        Path path = dir.resolve(subdirectory);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (Stream<Path> entries = Files.list(path)) {
+            return entries.count();
+        }
+    }
+
+    /**
+     * Репозиторий в памяти; запись хранится тем же объектом, как в контексте сохранения
+     */
+    private FileEntityRepository repository() {
+        return (FileEntityRepository) Proxy.newProxyInstance(FileEntityRepository.class.getClassLoader(),
+                new Class<?>[]{FileEntityRepository.class}, (proxy, method, args) ->
+                        switch (method.getName()) {
+                            case "findById" -> Optional.ofNullable(files.get((UUID) args[0]));
+                            case "save" -> {
+                                FileEntity file = (FileEntity) args[0];
+                                files.put(file.getId(), file);
+                                yield file;
+                            }
+                            case "countByFilePath" -> files.values().stream()
+                                    .filter(file -> Objects.equals(file.getFilePath(), args[0]))
+                                    .count();
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            case "equals" -> proxy == args[0];
+                            case "toString" -> "FileEntityRepository";
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        });
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        // Хранилище здесь — подкласс, поле объявлено в родителе
+        Class<?> type = target.getClass();
+        while (Arrays.stream(type.getDeclaredFields()).noneMatch(field -> field.getName().equals(name))) {
+            type = type.getSuperclass();
+        }
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Разбор без статистики: тело дочитывается, схема выводится, файл отмечается завершённым
+     */
+    private static class ParsingOrchestrator extends StreamingFileProcessingOrchestrator {
+
+        private final ProgressNotifier notifier;
+
+        ParsingOrchestrator(ProgressNotifier notifier) {
+            super(null, null, null, null, null, null, null, null, null, null, null, null, null);
+            this.notifier = notifier;
+        }
+
+        @Override
+        public AnalysisResult processUpload(FileEntity file, InputStream body, LongSupplier received,
+                                            long expectedSize) throws Exception {
+            body.transferTo(OutputStream.nullOutputStream());
+            file.setSchema(CsvSchema.defaults());
+            notifier.notify(file.getId(), ProcessingStatus.COMPLETED, 100, "Completed successfully");
+            return new AnalysisResult();
+        }
+    }
+
+    private class RecordingAnalysisService extends FileAnalysisService {
+
+        RecordingAnalysisService() {
+            super(null, null, null, null, null, null);
+        }
+
+        @Override
+        public void saveResult(AnalysisResult result) {
+            if (failSave) {
+                throw new IllegalStateException("database is down");
+            }
+            saved.add(result);
+        }
+    }
+
+    private static class NoHistory extends HistoryService {
+
+        NoHistory() {
+            super(null, null, null);
+        }
+
+        @Override
+        public void cleanupOldRecords() {
+        }
+    }
+}
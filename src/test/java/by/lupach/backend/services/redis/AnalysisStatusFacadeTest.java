@@ -0,0 +1,88 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.configs.RedisConfig;
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.dtos.ProgressMessageDTO;
+import by.lupach.backend.entities.ProcessingStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Записи пачки, сделанные одним конвейером, должны читаться обычными методами сервисов
+ */
+class AnalysisStatusFacadeTest {
+
+    private static final long SMALL_FILE_SIZE = 1 << 20;
+
+    private LettuceConnectionFactory factory;
+    private ProcessingQueueRedisService queue;
+    private AnalysisStatusFacade facade;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = RedisTestSupport.connect();
+        StringRedisTemplate strings = new StringRedisTemplate(factory);
+        RedisConfig config = new RedisConfig();
+        queue = new ProcessingQueueRedisService(config.fileQueueRedisTemplate(factory), strings);
+        RedisTestSupport.set(queue, "smallFileSize", SMALL_FILE_SIZE);
+        RedisTestSupport.set(queue, "penaltyMsPerMb", 100L);
+        RedisTestSupport.set(queue, "maxPenaltyMs", 1_800_000L);
+        facade = new AnalysisStatusFacade(new StatusRedisService(strings),
+                new ProgressRedisService(config.progressRedisTemplate(factory)), null, queue, strings);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void initAllWritesStatusesProgressAndQueue() {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        ProgressMessageDTO pending = new ProgressMessageDTO(UUID.randomUUID(), ProcessingStatus.PENDING, 0,
+                "Added to queue", now, null);
+        ProgressMessageDTO duplicate = new ProgressMessageDTO(UUID.randomUUID(), ProcessingStatus.COMPLETED, 100,
+                "Identical file already analyzed", now, null);
+        FileQueueMessageDTO small = message(pending.fileId(), 1000);
+        FileQueueMessageDTO large = message(UUID.randomUUID(), 5L << 30);
+
+        facade.initAll(List.of(pending, duplicate), List.of(small, large));
+
+        assertEquals(Optional.of(ProcessingStatus.PENDING), facade.status().get(pending.fileId()));
+        assertEquals(Optional.of(ProcessingStatus.COMPLETED), facade.status().get(duplicate.fileId()));
+        assertEquals(Optional.of(pending), facade.progress().get(pending.fileId()));
+        assertEquals(Optional.of(100), facade.progress().getProgressValue(duplicate.fileId()));
+        assertEquals(1, queue.metrics().queuedSmall());
+        assertEquals(1, queue.metrics().queuedLarge());
+        assertEquals(small, queue.popSmall(System.currentTimeMillis() + 60_000));
+    }
+
+    @Test
+    void initAllAcceptsEmptyQueue() {
+        ProgressMessageDTO duplicate = new ProgressMessageDTO(UUID.randomUUID(), ProcessingStatus.COMPLETED, 100,
+                "Identical file already analyzed", LocalDateTime.now(), null);
+
+        facade.initAll(List.of(duplicate), List.of());
+
+        assertTrue(facade.status().get(duplicate.fileId()).isPresent());
+        assertEquals(0, queue.metrics().queuedSmall() + queue.metrics().queuedLarge());
+    }
+
+    private static FileQueueMessageDTO message(UUID fileId, long size) {
+        return new FileQueueMessageDTO(fileId, fileId + ".csv", "data.csv", size, AnalysisOptions.singleColumn());
+    }
+}
@@ -0,0 +1,120 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.configs.RedisConfig;
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.ChunkTaskDTO;
+import by.lupach.backend.entities.CsvSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkQueueRedisServiceTest {
+
+    private static final long NOW = 1_000_000;
+
+    private LettuceConnectionFactory factory;
+    private ChunkQueueRedisService queue;
+
+    @BeforeEach
+    void setUp() {
+        factory = RedisTestSupport.connect();
+        queue = new ChunkQueueRedisService(new RedisConfig().chunkTaskRedisTemplate(factory),
+                new StringRedisTemplate(factory));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void claimLeasesChunksInOrderAndRequeuesExpired() {
+        UUID fileId = UUID.randomUUID();
+        List<ChunkTaskDTO> chunks = chunks(fileId, 3);
+        queue.publish(fileId, chunks);
+
+        assertEquals(chunks.get(0), queue.claim(NOW + 30_000));
+        assertEquals(chunks.get(1), queue.claim(NOW));
+        assertEquals(1, queue.requeueExpired(NOW));
+        // Кусок умершего обработчика возвращается в начало очереди
+        assertEquals(chunks.get(1), queue.claim(NOW + 30_000));
+        assertEquals(chunks.get(2), queue.claim(NOW + 30_000));
+        assertNull(queue.claim(NOW + 30_000));
+        assertEquals(0, queue.requeueExpired(NOW));
+    }
+
+    @Test
+    void extendRenewsOnlyLiveLease() {
+        UUID fileId = UUID.randomUUID();
+        List<ChunkTaskDTO> chunks = chunks(fileId, 1);
+        queue.publish(fileId, chunks);
+        ChunkTaskDTO task = queue.claim(NOW);
+
+        assertTrue(queue.extend(task, NOW + 30_000));
+        assertEquals(0, queue.requeueExpired(NOW + 1));
+
+        queue.complete(task);
+        assertFalse(queue.extend(task, NOW + 60_000));
+        assertEquals(Set.of(0), queue.done(fileId));
+    }
+
+    @Test
+    void extendDoesNotResurrectRequeuedChunk() {
+        UUID fileId = UUID.randomUUID();
+        queue.publish(fileId, chunks(fileId, 1));
+        ChunkTaskDTO task = queue.claim(NOW);
+        queue.requeueExpired(NOW);
+
+        assertFalse(queue.extend(task, NOW + 30_000));
+        assertEquals(task, queue.claim(NOW + 30_000));
+    }
+
+    @Test
+    void keepsFirstChunkError() {
+        UUID fileId = UUID.randomUUID();
+        List<ChunkTaskDTO> chunks = chunks(fileId, 2);
+        queue.publish(fileId, chunks);
+
+        queue.fail(queue.claim(NOW + 30_000), "first");
+        queue.fail(queue.claim(NOW + 30_000), "second");
+        assertEquals("Chunk 0: first", queue.error(fileId));
+        assertEquals(0, queue.requeueExpired(Long.MAX_VALUE));
+    }
+
+    @Test
+    void cleanupRemovesQueuedAndLeasedChunks() {
+        UUID fileId = UUID.randomUUID();
+        List<ChunkTaskDTO> chunks = chunks(fileId, 3);
+        queue.publish(fileId, chunks);
+        queue.claim(NOW);
+        assertTrue(queue.isActive(fileId));
+
+        queue.cleanup(fileId, chunks);
+        assertFalse(queue.isActive(fileId));
+        assertNull(queue.claim(NOW));
+        assertEquals(0, queue.requeueExpired(Long.MAX_VALUE));
+    }
+
+    private static List<ChunkTaskDTO> chunks(UUID fileId, int count) {
+        List<ChunkTaskDTO> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chunks.add(new ChunkTaskDTO(fileId, fileId + ".csv", i, i * 100L, (i + 1) * 100L,
+                    AnalysisOptions.singleColumn(), CsvSchema.defaults()));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,234 @@
+package by.lupach.backend.services.redis;
+
+import by.lupach.backend.configs.RedisConfig;
+import by.lupach.backend.dtos.AnalysisOptions;
+import by.lupach.backend.dtos.FileQueueMessageDTO;
+import by.lupach.backend.dtos.QueueMetricsDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_ATTEMPTS;
+import static by.lupach.backend.configs.RedisConfig.FILE_PROCESSING_DELAYED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessingQueueRedisServiceTest {
+
+    private static final long SMALL_FILE_SIZE = 1 << 20;
+    private static final long BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 3000;
+    private static final long NOW = 1_000_000;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate strings;
+    private ProcessingQueueRedisService queue;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = RedisTestSupport.connect();
+        strings = new StringRedisTemplate(factory);
+        queue = new ProcessingQueueRedisService(new RedisConfig().fileQueueRedisTemplate(factory), strings);
+        RedisTestSupport.set(queue, "smallFileSize", SMALL_FILE_SIZE);
+        RedisTestSupport.set(queue, "penaltyMsPerMb", 100L);
+        RedisTestSupport.set(queue, "maxPenaltyMs", 1_800_000L);
+        RedisTestSupport.set(queue, "maxAttempts", 3);
+        RedisTestSupport.set(queue, "retryBackoffMs", BACKOFF_MS);
+        RedisTestSupport.set(queue, "maxRetryBackoffMs", MAX_BACKOFF_MS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void popTakesLowestScoreAcrossQueuesAndLeasesIt() {
+        FileQueueMessageDTO large = message(100L << 20);
+        FileQueueMessageDTO small = message(1000);
+        queue.add(large);
+        queue.add(small);
+
+        // Штраф за размер: малый файл, поставленный позже, идёт первым
+        assertEquals(small, queue.pop(NOW));
+        assertTrue(queue.isLeased(small));
+        assertNull(queue.popSmall(NOW));
+        assertEquals(large, queue.pop(NOW));
+        assertNull(queue.pop(NOW));
+        assertEquals(2, queue.metrics().inFlight());
+    }
+
+    @Test
+    void extendRenewsOnlyLiveLease() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        queue.pop(NOW);
+
+        assertTrue(queue.extend(message, NOW + 5000));
+        queue.ack(message);
+        assertFalse(queue.extend(message, NOW + 10_000));
+        assertFalse(queue.isLeased(message));
+    }
+
+    @Test
+    void reapRedeliversExpiredLeaseThenDeadLetters() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+
+        for (int attempt = 1; attempt < 3; attempt++) {
+            assertEquals(message, queue.pop(NOW));
+            assertEquals(List.of(), queue.reapExpired(NOW));
+            assertFalse(queue.isLeased(message));
+        }
+        assertEquals(message, queue.pop(NOW));
+        assertEquals(List.of(message), queue.reapExpired(NOW));
+
+        QueueMetricsDTO metrics = queue.metrics();
+        assertEquals(0, metrics.queuedSmall());
+        assertEquals(0, metrics.inFlight());
+        assertEquals(1, metrics.deadLetter());
+        assertEquals(2, metrics.redeliveredTotal());
+        assertEquals(1, metrics.deadLetteredTotal());
+    }
+
+    @Test
+    void reapKeepsLeasesThatHaveNotExpired() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        queue.pop(NOW + 1);
+
+        assertEquals(List.of(), queue.reapExpired(NOW));
+        assertTrue(queue.isLeased(message));
+        assertEquals(0, queue.metrics().redeliveredTotal());
+    }
+
+    @Test
+    void failBacksOffExponentiallyThenDeadLetters() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        long now = NOW;
+
+        for (int attempt = 1; attempt < 3; attempt++) {
+            assertEquals(message, queue.pop(now + 30_000));
+            assertEquals(new ProcessingQueueRedisService.FailedAttempt(attempt, false), queue.fail(message, now));
+            long due = now + BACKOFF_MS * (1L << (attempt - 1));
+            assertEquals(due, delayedScore());
+
+            // До срока повтор остаётся отложенным
+            queue.reapExpired(due - 1);
+            assertNull(queue.pop(due + 30_000));
+            assertEquals(1, queue.metrics().retryWaiting());
+
+            queue.reapExpired(due);
+            assertEquals(0, queue.metrics().retryWaiting());
+            now = due;
+        }
+        assertEquals(message, queue.pop(now + 30_000));
+        assertEquals(new ProcessingQueueRedisService.FailedAttempt(3, true), queue.fail(message, now));
+
+        QueueMetricsDTO metrics = queue.metrics();
+        assertEquals(0, metrics.inFlight());
+        assertEquals(0, metrics.retryWaiting());
+        assertEquals(1, metrics.deadLetter());
+        assertEquals(3, metrics.failedTotal());
+        assertEquals(2, metrics.retriedTotal());
+        assertEquals(1, metrics.deadLetteredTotal());
+        assertFalse(strings.opsForHash().hasKey(FILE_PROCESSING_ATTEMPTS, message.fileId().toString()));
+    }
+
+    @Test
+    void retryBackoffIsCapped() throws Exception {
+        RedisTestSupport.set(queue, "maxAttempts", 10);
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        long now = NOW;
+
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            queue.pop(now);
+            queue.fail(message, now);
+            long delay = Math.min(MAX_BACKOFF_MS, BACKOFF_MS * (1L << (attempt - 1)));
+            assertEquals(now + delay, delayedScore());
+            now += delay;
+            queue.reapExpired(now);
+        }
+    }
+
+    @Test
+    void failAfterLostLeaseIsIgnored() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        queue.pop(NOW);
+        // Сборщик успел вернуть задачу в очередь раньше, чем обработчик сообщил об ошибке
+        queue.reapExpired(NOW);
+
+        assertNull(queue.fail(message, NOW));
+        assertEquals(0, queue.metrics().failedTotal());
+        assertEquals(1, queue.metrics().queuedSmall());
+    }
+
+    @Test
+    void pushBackReturnsLeasedJobWithoutCountingAttempt() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        queue.pop(NOW);
+
+        queue.pushBack(message);
+        assertFalse(queue.isLeased(message));
+        assertEquals(1, queue.metrics().queuedSmall());
+        assertFalse(strings.opsForHash().hasKey(FILE_PROCESSING_ATTEMPTS, message.fileId().toString()));
+
+        // Без аренды возврат ничего не делает
+        queue.pushBack(message);
+        assertEquals(1, queue.metrics().queuedSmall());
+    }
+
+    @Test
+    void ackClearsAttempts() {
+        FileQueueMessageDTO message = message(1000);
+        queue.add(message);
+        queue.pop(NOW);
+        queue.reapExpired(NOW);
+        assertTrue(strings.opsForHash().hasKey(FILE_PROCESSING_ATTEMPTS, message.fileId().toString()));
+
+        queue.pop(NOW + 30_000);
+        queue.ack(message);
+        assertFalse(queue.isLeased(message));
+        assertFalse(strings.opsForHash().hasKey(FILE_PROCESSING_ATTEMPTS, message.fileId().toString()));
+    }
+
+    @Test
+    void addAllSplitsBatchBySize() {
+        List<FileQueueMessageDTO> batch = List.of(message(10), message(20), message(SMALL_FILE_SIZE), message(5L << 30));
+        strings.executePipelined((RedisCallback<Object>) connection -> {
+            queue.addAll(connection, batch);
+            return null;
+        });
+
+        QueueMetricsDTO metrics = queue.metrics();
+        assertEquals(2, metrics.queuedSmall());
+        assertEquals(2, metrics.queuedLarge());
+    }
+
+    private long delayedScore() {
+        Set<ZSetOperations.TypedTuple<String>> delayed = strings.opsForZSet().rangeWithScores(FILE_PROCESSING_DELAYED, 0, -1);
+        assertEquals(1, delayed.size());
+        return delayed.iterator().next().getScore().longValue();
+    }
+
+    private static FileQueueMessageDTO message(long size) {
+        UUID fileId = UUID.randomUUID();
+        return new FileQueueMessageDTO(fileId, fileId + ".csv", "data.csv", size, AnalysisOptions.singleColumn());
+    }
+}
@@ -0,0 +1,72 @@
+package by.lupach.backend.services.redis;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Настоящий Redis для тестов скриптов очередей: настроенный для приложения, если он доступен, иначе контейнер
+ * Testcontainers на всё время прогона. База — отдельная и очищается перед каждым тестом, чтобы не задеть
+ * очереди запущенного локально приложения. Тесты пропускаются, только если нет ни Redis, ни Docker.
+ */
+final class RedisTestSupport {
+
+    private static final int DATABASE = 15;
+    private static final int REDIS_PORT = 6379;
+
+    private static GenericContainer<?> container;
+
+    private RedisTestSupport() {
+    }
+
+    static LettuceConnectionFactory connect() {
+        RedisStandaloneConfiguration configuration = configuration();
+        configuration.setDatabase(DATABASE);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        try (RedisConnection connection = factory.getConnection()) {
+            connection.serverCommands().flushDb();
+        }
+        return factory;
+    }
+
+    static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static synchronized RedisStandaloneConfiguration configuration() {
+        String host = System.getenv().getOrDefault("SPRING_REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("SPRING_REDIS_PORT", String.valueOf(REDIS_PORT)));
+        if (reachable(host, port)) {
+            return new RedisStandaloneConfiguration(host, port);
+        }
+        if (container == null) {
+            assumeTrue(DockerClientFactory.instance().isDockerAvailable(),
+                    "Neither Redis at " + host + ":" + port + " nor Docker is available");
+            // Один контейнер на прогон, по завершении JVM его удаляет Testcontainers
+            container = new GenericContainer<>("redis:7-alpine").withExposedPorts(REDIS_PORT);
+            container.start();
+        }
+        return new RedisStandaloneConfiguration(container.getHost(), container.getMappedPort(REDIS_PORT));
+    }
+
+    private static boolean reachable(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 500);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}